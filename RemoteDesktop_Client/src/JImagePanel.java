@@ -1,23 +1,71 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.List;
 
 import javax.swing.JPanel;
 
+import remotedesktop.client.metrics.Clock;
+import remotedesktop.client.metrics.FramePaintListener;
+import remotedesktop.client.metrics.FrameTimeline;
+
+/**
+ * Painel que exibe a imagem do desktop remoto, reduzida para caber no painel.
+ *
+ * A imagem recebida é a imagem persistente do decodificador, alterada por outra
+ * thread. O painel mantém uma cópia dela em uma VolatileImage (memória de vídeo),
+ * atualizada apenas nas áreas alteradas, e a redução é feita pelo Graphics2D no
+ * momento do desenho. Apenas a área da tela correspondente às áreas alteradas é
+ * redesenhada.
+ * 
+ * Opcionalmente o painel exibe algumas linhas de texto sobre a imagem e avisa um
+ * listener sempre que um quadro aparece na tela.
+ * 
+ * O ponteiro do computador remoto é desenhado por cima da imagem, no tamanho original.
+ * Ele não faz parte da imagem: mover o ponteiro redesenha apenas a área dele, na
+ * posição antiga e na nova.
+ * 
+ * @author Carlos Rodrigues
+ */
 public class JImagePanel extends JPanel implements ComponentListener {
 	private BufferedImage image;
-
 	private Rectangle imageBounds;
-	private Image resizedImage;
+	private Rectangle pendingDirty;
+	private VolatileImage volatileImage;
+	private FrameTimeline pendingTimeline;
+	private FramePaintListener paintListener;
+	private List<String> overlay;
+	private Rectangle overlayBounds;
+	private BufferedImage cursorImage;
+	private int cursorHotspotX;
+	private int cursorHotspotY;
+	private boolean cursorVisible;
+	private int cursorX;
+	private int cursorY;
 
 	public JImagePanel() {
 		this.image = null;
+		this.imageBounds = new Rectangle();
+		this.pendingDirty = new Rectangle();
+		this.overlayBounds = new Rectangle();
+		this.addComponentListener(this);
 	}
 
+	/**
+	 * Calcula a área do painel onde a imagem é desenhada, mantendo a proporção e
+	 * centralizando. A imagem nunca é ampliada.
+	 */
 	private void resizeImage() {
 		if (this.image == null)
 			return;
@@ -39,31 +87,311 @@ public class JImagePanel extends JPanel implements ComponentListener {
 		x = (this.getWidth() - width) / 2;
 		y = (this.getHeight() - height) / 2;
 
-		this.resizedImage = this.image.getScaledInstance((int) width, (int) height, Image.SCALE_AREA_AVERAGING);
-		this.imageBounds = new Rectangle((int) x, (int) y, (int) width, (int) height);
-		
-		this.updateUI();
+		this.imageBounds.setBounds((int) x, (int) y, (int) width, (int) height);
 	}
 	
-	public void setImage(BufferedImage image) {
-		this.image = image;
-		this.resizeImage();
+	/**
+	 * Informa que a imagem foi alterada na área informada (em coordenadas da imagem).
+	 * Pode ser chamado por qualquer thread.
+	 * 
+	 * @param image
+	 * @param dirty
+	 */
+	public void setImage(BufferedImage image, Rectangle dirty) {
+		this.setImage(image, dirty, null);
+	}
+
+	/**
+	 * Igual a setImage(image, dirty), informando também os horários do quadro que
+	 * alterou a imagem, repassados ao FramePaintListener após o desenho
+	 * 
+	 * @param image
+	 * @param dirty
+	 * @param timeline
+	 */
+	public void setImage(BufferedImage image, Rectangle dirty, FrameTimeline timeline) {
+		Rectangle area;
+		synchronized (this) {
+			if (this.image == image && dirty.isEmpty()) {
+				return;
+			}
+			if (timeline != null) {
+				this.pendingTimeline = timeline;
+			}
+			if (this.image != image) {
+				this.image = image;
+				this.resizeImage();
+				this.pendingDirty.setBounds(0, 0, image.getWidth(), image.getHeight());
+			} else if (this.pendingDirty.isEmpty()) {
+				this.pendingDirty.setBounds(dirty);
+			} else {
+				this.pendingDirty.add(dirty);
+			}
+			area = this.toPanel(this.pendingDirty);
+		}
+		this.repaint(area.x, area.y, area.width, area.height);
+	}
+
+	/**
+	 * Converte uma área da imagem para a área correspondente no painel, com um pixel a
+	 * mais em cada lado por causa da interpolação
+	 */
+	private Rectangle toPanel(Rectangle area) {
+		Rectangle bounds = this.imageBounds;
+		double scaleX = (double) bounds.width / this.image.getWidth();
+		double scaleY = (double) bounds.height / this.image.getHeight();
+		int x1 = bounds.x + (int) Math.floor(area.x * scaleX) - 1;
+		int y1 = bounds.y + (int) Math.floor(area.y * scaleY) - 1;
+		int x2 = bounds.x + (int) Math.ceil((area.x + area.width) * scaleX) + 1;
+		int y2 = bounds.y + (int) Math.ceil((area.y + area.height) * scaleY) + 1;
+		return new Rectangle(x1, y1, x2 - x1, y2 - y1);
 	}
+
+	/**
+	 * Converte uma posição do painel para a posição na imagem, de 0 a 65535 em cada eixo,
+	 * o formato usado pelos comandos de mouse. Posições fora da imagem são trazidas para
+	 * a borda mais próxima.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return Point ou null caso ainda não exista imagem
+	 */
+	public synchronized Point toImagePosition(int x, int y) {
+		Rectangle bounds = this.imageBounds;
+		if (this.image == null || bounds.isEmpty()) {
+			return null;
+		}
+		int imageX = (int) ((long) (x - bounds.x) * 65536 / bounds.width);
+		int imageY = (int) ((long) (y - bounds.y) * 65536 / bounds.height);
+		return new Point(Math.max(0, Math.min(65535, imageX)), Math.max(0, Math.min(65535, imageY)));
+	}
+
+	/**
+	 * Define o formato do ponteiro remoto. Pode ser chamado por qualquer thread.
+	 * 
+	 * @param image
+	 * @param hotspotX ponto da imagem que indica a posição
+	 * @param hotspotY
+	 */
+	public void setCursorShape(BufferedImage image, int hotspotX, int hotspotY) {
+		Rectangle area;
+		synchronized (this) {
+			area = this.getCursorArea();
+			this.cursorImage = image;
+			this.cursorHotspotX = hotspotX;
+			this.cursorHotspotY = hotspotY;
+			area = union(area, this.getCursorArea());
+		}
+		if (area != null) {
+			this.repaint(area.x, area.y, area.width, area.height);
+		}
+	}
+
+	/**
+	 * Move o ponteiro remoto. Pode ser chamado por qualquer thread.
+	 * 
+	 * @param visible false quando o ponteiro está fora da imagem
+	 * @param x posição na imagem, de 0 a 65535
+	 * @param y posição na imagem, de 0 a 65535
+	 */
+	public void setCursorPosition(boolean visible, int x, int y) {
+		Rectangle area;
+		synchronized (this) {
+			area = this.getCursorArea();
+			this.cursorVisible = visible;
+			this.cursorX = x;
+			this.cursorY = y;
+			area = union(area, this.getCursorArea());
+		}
+		if (area != null) {
+			this.repaint(area.x, area.y, area.width, area.height);
+		}
+	}
+
+	/**
+	 * Área do painel ocupada pelo ponteiro, ou null caso ele não esteja visível
+	 */
+	private Rectangle getCursorArea() {
+		if (!this.cursorVisible || this.cursorImage == null || this.imageBounds.isEmpty()) {
+			return null;
+		}
+		Rectangle bounds = this.imageBounds;
+		int x = bounds.x + (int) ((long) this.cursorX * bounds.width / 65536) - this.cursorHotspotX;
+		int y = bounds.y + (int) ((long) this.cursorY * bounds.height / 65536) - this.cursorHotspotY;
+		return new Rectangle(x, y, this.cursorImage.getWidth(), this.cursorImage.getHeight());
+	}
+
+	private static Rectangle union(Rectangle a, Rectangle b) {
+		if (a == null) {
+			return b;
+		}
+		return b == null ? a : a.union(b);
+	}
+
+	/**
+	 * Define o listener avisado quando um quadro aparece na tela
+	 * 
+	 * @param listener
+	 */
+	public synchronized void setFramePaintListener(FramePaintListener listener) {
+		this.paintListener = listener;
+	}
+
+	/**
+	 * Define as linhas de texto exibidas no canto superior esquerdo, ou null para não
+	 * exibir nada. Deve ser chamado pela thread do Swing.
+	 * 
+	 * @param lines
+	 */
+	public void setOverlay(List<String> lines) {
+		Rectangle previous = new Rectangle(this.overlayBounds);
+		this.overlay = lines;
+
+		if (lines == null) {
+			this.overlayBounds.setBounds(0, 0, 0, 0);
+		} else {
+			FontMetrics metrics = this.getFontMetrics(this.getOverlayFont());
+			int width = 0;
+			for (String line : lines) {
+				width = Math.max(width, metrics.stringWidth(line));
+			}
+			this.overlayBounds.setBounds(0, 0, width + 12, lines.size() * metrics.getHeight() + 8);
+		}
+
+		previous.add(this.overlayBounds);
+		this.repaint(previous);
+	}
+
+	private Font getOverlayFont() {
+		return new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	}
+
 	@Override
 	public void componentResized(ComponentEvent e) {
-		this.resizeImage();
+		synchronized (this) {
+			this.resizeImage();
+		}
+		this.repaint();
 	}
+
 	@Override
 	protected void paintComponent(Graphics g) {
 		super.paintComponent(g);
 
-		if (this.resizedImage == null)
+		BufferedImage image;
+		Rectangle bounds;
+		FrameTimeline timeline;
+		FramePaintListener listener;
+		BufferedImage cursorImage;
+		Rectangle cursorArea;
+		synchronized (this) {
+			cursorImage = this.cursorImage;
+			cursorArea = this.getCursorArea();
+			image = this.image;
+			bounds = new Rectangle(this.imageBounds);
+			timeline = this.pendingTimeline;
+			listener = this.paintListener;
+			this.pendingTimeline = null;
+		}
+		if (image == null)
 			return;
 
 		Graphics2D g2d = (Graphics2D) g.create();
-		g2d.drawImage(this.resizedImage, (int) this.imageBounds.getX(), (int) this.imageBounds.getY(),
-				(int) this.imageBounds.getWidth(), (int) this.imageBounds.getHeight(), null);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+
+		VolatileImage volatileImage = this.updateVolatileImage(image);
+		if (volatileImage != null) {
+			g2d.drawImage(volatileImage, bounds.x, bounds.y, bounds.width, bounds.height, null);
+		}
+		if (volatileImage == null || volatileImage.contentsLost()) {
+			synchronized (image) {
+				g2d.drawImage(image, bounds.x, bounds.y, bounds.width, bounds.height, null);
+			}
+		}
+		if (cursorArea != null) {
+			g2d.drawImage(cursorImage, cursorArea.x, cursorArea.y, null);
+		}
+		this.paintOverlay(g2d);
 		g2d.dispose();
+
+		if (timeline != null && listener != null) {
+			timeline.setPainted(Clock.micros());
+			listener.onFramePainted(timeline);
+		}
+	}
+
+	/**
+	 * Desenha as linhas de texto sobre um fundo escuro semitransparente
+	 */
+	private void paintOverlay(Graphics2D g2d) {
+		List<String> lines = this.overlay;
+		if (lines == null) {
+			return;
+		}
+
+		g2d.setFont(this.getOverlayFont());
+		g2d.setColor(new Color(0, 0, 0, 160));
+		g2d.fillRect(this.overlayBounds.x, this.overlayBounds.y, this.overlayBounds.width, this.overlayBounds.height);
+
+		FontMetrics metrics = g2d.getFontMetrics();
+		g2d.setColor(Color.WHITE);
+		int y = 4 + metrics.getAscent();
+		for (String line : lines) {
+			g2d.drawString(line, 6, y);
+			y += metrics.getHeight();
+		}
+	}
+
+	/**
+	 * Copia as áreas alteradas da imagem para a VolatileImage, recriando-a caso o
+	 * tamanho tenha mudado ou o conteúdo tenha sido perdido. Retorna null quando não é
+	 * possível usar uma VolatileImage.
+	 */
+	private VolatileImage updateVolatileImage(BufferedImage image) {
+		GraphicsConfiguration configuration = this.getGraphicsConfiguration();
+		if (configuration == null) {
+			return null;
+		}
+
+		Rectangle dirty;
+		synchronized (this) {
+			dirty = new Rectangle(this.pendingDirty);
+			this.pendingDirty.setBounds(0, 0, 0, 0);
+		}
+
+		/**
+		 * Quando a superfície é restaurada (IMAGE_RESTORED) o conteúdo dela é indefinido,
+		 * e contentsLost() só volta a indicar isso depois da próxima perda, então a
+		 * imagem inteira é copiada de novo
+		 */
+		VolatileImage volatileImage = this.volatileImage;
+		int status = VolatileImage.IMAGE_INCOMPATIBLE;
+		if (volatileImage != null && volatileImage.getWidth() == image.getWidth()
+				&& volatileImage.getHeight() == image.getHeight()) {
+			status = volatileImage.validate(configuration);
+		}
+		if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+			if (volatileImage != null) {
+				volatileImage.flush();
+			}
+			volatileImage = configuration.createCompatibleVolatileImage(image.getWidth(), image.getHeight(),
+					Transparency.OPAQUE);
+			this.volatileImage = volatileImage;
+			dirty.setBounds(0, 0, image.getWidth(), image.getHeight());
+		} else if (status == VolatileImage.IMAGE_RESTORED) {
+			dirty.setBounds(0, 0, image.getWidth(), image.getHeight());
+		}
+
+		if (!dirty.isEmpty()) {
+			Graphics2D g2d = volatileImage.createGraphics();
+			synchronized (image) {
+				g2d.drawImage(image, dirty.x, dirty.y, dirty.x + dirty.width, dirty.y + dirty.height, dirty.x,
+						dirty.y, dirty.x + dirty.width, dirty.y + dirty.height, null);
+			}
+			g2d.dispose();
+		}
+		return volatileImage;
 	}
 
 	/**
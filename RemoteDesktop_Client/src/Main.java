@@ -1,31 +1,109 @@
 import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.ByteArrayInputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
-import javax.imageio.ImageIO;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.KeyStroke;
+import javax.swing.Timer;
+
+import remotedesktop.client.InputSender;
+import remotedesktop.client.Protocol;
+import remotedesktop.client.ViewerStats;
+import remotedesktop.client.delta.DeltaDecoder;
+import remotedesktop.client.metrics.Clock;
+import remotedesktop.client.metrics.ClockSync;
+import remotedesktop.client.metrics.FrameTimeline;
+import remotedesktop.client.metrics.LatencyTracker;
+import remotedesktop.client.recording.SessionArchive;
+import remotedesktop.client.recording.SessionPlayer;
+import remotedesktop.client.recording.SessionPlayerListener;
 
 /**
  * Cliente Simples para acesso remoto em java para fins educacionais. Recebe os
  * dados do servidor e exibe em uma janela
  * 
+ * A tecla F2 mostra ou esconde o tempo de cada estágio dos quadros, da captura no
+ * servidor até o desenho. Ao desconectar, o resumo de cada estágio é escrito na saída
+ * padrão e, caso a propriedade remotedesktop.latencyExport tenha um caminho, também
+ * em um arquivo CSV.
+ * 
+ * Ao conectar, o cliente informa ao servidor o tamanho da tela, o nível de qualidade
+ * e, caso as propriedades remotedesktop.codec (raw, palette, png, jpeg[:qualidade] ou
+ * auto[:qualidade]), remotedesktop.maxFps e remotedesktop.bandwidth (em kbps) estejam
+ * definidas, o codec dos tiles e os limites de quadros por segundo e de banda.
+ * 
+ * Quando o servidor transmite mais de um stream (um por monitor, por exemplo), a
+ * propriedade remotedesktop.stream escolhe o stream inicial e a tecla F3 passa para o
+ * próximo. Os streams disponíveis são escritos na saída padrão ao conectar.
+ * 
+ * O mouse e o teclado sobre a janela controlam o computador remoto, exceto as teclas
+ * F2 e F3. Com a propriedade remotedesktop.control=false o cliente apenas assiste.
+ * 
+ * Com a propriedade remotedesktop.play=<pasta> o cliente não conecta ao servidor e
+ * reproduz a gravação de um stream gravada pelo servidor. A barra de espaço pausa,
+ * as setas para a esquerda e para a direita voltam e avançam 10 segundos e a tecla
+ * Home volta ao início.
+ * 
  * @author Carlos Rodrigues
  */
 public class Main {
+	/**
+	 * Quantidade máxima de quadros aplicados de uma vez quando o cliente está atrasado
+	 */
+	private static final int MAX_BATCH = 64;
+
+	/**
+	 * Intervalo entre os PINGs usados para estimar a diferença entre os relógios. Os
+	 * primeiros PINGs são enviados mais rapidamente.
+	 */
+	private static final int PING_INTERVAL = 2000;
+	private static final int INITIAL_PINGS = 5;
+
+	private static final boolean CONTROL = Boolean.parseBoolean(System.getProperty("remotedesktop.control", "true"));
+	private static final String PLAY = System.getProperty("remotedesktop.play");
+
+	/**
+	 * Quanto as setas avançam ou voltam na reprodução de uma gravação, em microssegundos
+	 */
+	private static final long SEEK_STEP = 10000000;
+
 	private static Socket socket;
-	private static ObjectInputStream inputStream;
+	private static DataInputStream inputStream;
 	private static PrintStream outputStream;
+	private static InputSender inputSender;
 	private static Thread listener;
 	private static Dimension windowSize;
+	private static ViewerStats stats = new ViewerStats();
+	private static ClockSync clockSync = new ClockSync();
+	private static LatencyTracker latency = new LatencyTracker(Main.clockSync);
+	private static volatile String[] streams = new String[0];
+	private static volatile int stream = Integer.getInteger("remotedesktop.stream", 0);
+	private static SessionPlayer player;
 
 	private static void showException(Exception e) {
 		JOptionPane.showMessageDialog(null, e.getMessage(), e.getClass().getName(), JOptionPane.ERROR_MESSAGE, null);
@@ -39,13 +117,56 @@ public class Main {
 	private static JImagePanel createFrame() {
 		int width = 700, height = width;
 		
-		JImagePanel imagePanel = new JImagePanel();
+		final JImagePanel imagePanel = new JImagePanel();
+		imagePanel.setFramePaintListener(Main.latency);
 
 		JFrame frm = new JFrame();
 		frm.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		frm.setBounds(100, 100, 700, 530);
 		frm.setContentPane(imagePanel);
 		frm.setVisible(true);
+
+		/**
+		 * As estatísticas de exibição são mostradas no título da janela, e os tempos de
+		 * cada estágio sobre a imagem enquanto estiverem visíveis, atualizados a cada
+		 * segundo
+		 */
+		final JFrame window = frm;
+		final boolean[] overlayVisible = { false };
+		new Timer(1000, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (Main.player != null) {
+					window.setTitle("Remote Desktop - gravação " + Main.player.getStatsAsString());
+					return;
+				}
+				String[] streams = Main.streams;
+				window.setTitle("Remote Desktop - " + Main.stats.getStatsAsString()
+						+ (streams.length > 1 && Main.stream < streams.length ? " - stream " + streams[Main.stream] : ""));
+				if (overlayVisible[0]) {
+					imagePanel.setOverlay(Main.latency.getOverlayLines());
+				}
+			}
+		}).start();
+
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0),
+				"toggleOverlay");
+		imagePanel.getActionMap().put("toggleOverlay", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				overlayVisible[0] = !overlayVisible[0];
+				imagePanel.setOverlay(overlayVisible[0] ? Main.latency.getOverlayLines() : null);
+			}
+		});
+
+		if (Main.player != null) {
+			Main.addPlayerKeys(imagePanel);
+		} else {
+			Main.addStreamKeys(imagePanel);
+			if (Main.CONTROL) {
+				Main.addInputListeners(imagePanel);
+			}
+		}
 		
 		Main.windowSize = frm.getSize();
 		
@@ -56,6 +177,9 @@ public class Main {
 		frm.addWindowListener(new WindowAdapter() {
 			public void windowClosed(WindowEvent e) {
 				try {
+					if (Main.player != null) {
+						System.exit(0);
+					}
 					Main.disconnect();
 				} catch (IOException e1) {
 					Main.showException(e1);
@@ -73,23 +197,222 @@ public class Main {
 	}
 
 	/**
-	 * Inicia a thread que recebe os bytes, converte em image e define como
-	 * ícone na JLabel
+	 * A tecla F3 passa para o próximo stream do servidor
+	 * 
+	 * @param imagePanel
+	 */
+	private static void addStreamKeys(JImagePanel imagePanel) {
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0),
+				"nextStream");
+		imagePanel.getActionMap().put("nextStream", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (Main.streams.length > 1) {
+					Main.stream = (Main.stream + 1) % Main.streams.length;
+					Main.outputStream.println("STREAM " + Main.stream);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Teclas da reprodução de uma gravação: barra de espaço pausa, setas voltam e
+	 * avançam e Home volta ao início
+	 * 
+	 * @param imagePanel
+	 */
+	private static void addPlayerKeys(JImagePanel imagePanel) {
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0),
+				"pause");
+		imagePanel.getActionMap().put("pause", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Main.player.setPaused(!Main.player.isPaused());
+			}
+		});
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0),
+				"back");
+		imagePanel.getActionMap().put("back", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Main.player.seekRelative(-Main.SEEK_STEP);
+			}
+		});
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0),
+				"forward");
+		imagePanel.getActionMap().put("forward", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Main.player.seekRelative(Main.SEEK_STEP);
+			}
+		});
+		imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, 0),
+				"start");
+		imagePanel.getActionMap().put("start", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Main.player.seek(Main.player.getArchive().getStartTime());
+			}
+		});
+	}
+
+	/**
+	 * Repassa ao servidor o mouse e o teclado usados sobre o painel. As posições são
+	 * convertidas para a posição na imagem, e as teclas usadas pelo próprio cliente não
+	 * são repassadas.
+	 * 
+	 * @param imagePanel
+	 */
+	private static void addInputListeners(final JImagePanel imagePanel) {
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				Point position = imagePanel.toImagePosition(e.getX(), e.getY());
+				if (position != null) {
+					Main.inputSender.pointerMove(position.x, position.y);
+				}
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				this.mouseMoved(e);
+			}
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				this.mouseMoved(e);
+				if (e.getButton() != MouseEvent.NOBUTTON) {
+					Main.inputSender.pointerButton(e.getButton(), true);
+				}
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				this.mouseMoved(e);
+				if (e.getButton() != MouseEvent.NOBUTTON) {
+					Main.inputSender.pointerButton(e.getButton(), false);
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				Main.inputSender.wheel(e.getWheelRotation());
+			}
+		};
+		imagePanel.addMouseListener(mouse);
+		imagePanel.addMouseMotionListener(mouse);
+		imagePanel.addMouseWheelListener(mouse);
+
+		imagePanel.setFocusable(true);
+		imagePanel.setFocusTraversalKeysEnabled(false);
+		imagePanel.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (Main.isRemoteKey(e)) {
+					Main.inputSender.key(e.getKeyCode(), true);
+				}
+			}
+
+			@Override
+			public void keyReleased(KeyEvent e) {
+				if (Main.isRemoteKey(e)) {
+					Main.inputSender.key(e.getKeyCode(), false);
+				}
+			}
+		});
+		imagePanel.requestFocusInWindow();
+	}
+
+	private static boolean isRemoteKey(KeyEvent e) {
+		int keyCode = e.getKeyCode();
+		return keyCode != KeyEvent.VK_UNDEFINED && keyCode != KeyEvent.VK_F2 && keyCode != KeyEvent.VK_F3;
+	}
+
+	/**
+	 * Inicia a thread que recebe as mensagens, aplica os tiles recebidos na imagem
+	 * persistente e avisa o painel quais áreas mudaram. A decodificação acontece
+	 * nesta thread e o painel apenas copia as áreas alteradas ao desenhar.
+	 * 
+	 * Cada mensagem é composta pelo tamanho, o tipo e o conteúdo. Depois de receber um
+	 * quadro, todos os quadros que já chegaram são lidos também e aplicados de uma vez:
+	 * quando o cliente não consegue acompanhar o servidor, os quadros pulados não se
+	 * acumulam no socket e o atraso não cresce. Os buffers de leitura são
+	 * reaproveitados entre as mensagens.
+	 * 
+	 * Os horários do quadro mais recente de cada grupo acompanham a imagem até o painel,
+	 * que é o que aparece na tela. As respostas ao PING são repassadas ao ClockSync, a
+	 * lista de streams é guardada para a troca pela tecla F3, e a posição e o formato do
+	 * ponteiro vão direto para o painel, sem esperar pelos quadros. Os MSG_KEEPALIVE,
+	 * enviados enquanto a tela remota está parada, são apenas contados.
 	 * 
 	 * @param label
 	 */
 	private static void startListener(final JImagePanel imgPanel) {
 		Main.listener = new Thread() {
 			public void run() {
-				Object data;
+				DeltaDecoder decoder = new DeltaDecoder();
+				BufferedImage image;
+				byte[][] frames = new byte[MAX_BATCH][];
+				int[] offsets = new int[MAX_BATCH];
+				int[] lengths = new int[MAX_BATCH];
 				while (true) {
 					try {
-						if (!((data = Main.inputStream.readObject()) instanceof byte[])) {
-							continue;
-						}
+						int count = 0;
+						long firstArrival = 0;
+						long lastArrival = 0;
+						do {
+							int length = Main.inputStream.readInt() - 1;
+							int type = Main.inputStream.readUnsignedByte();
+							if (frames[count] == null || frames[count].length < length) {
+								frames[count] = new byte[Math.max(length, 64 * 1024)];
+							}
+							Main.inputStream.readFully(frames[count], 0, length);
 
-						imgPanel.setImage(ImageIO.read(new ByteArrayInputStream((byte[]) data)));
-					} catch (ClassNotFoundException | IOException e) {
+							if (type == Protocol.MSG_PONG) {
+								ByteBuffer pong = ByteBuffer.wrap(frames[count], 0, length);
+								Main.clockSync.onPong(pong.getLong(), pong.getLong(), Clock.micros());
+								continue;
+							}
+							if (type == Protocol.MSG_CURSOR_POS) {
+								ByteBuffer cursor = ByteBuffer.wrap(frames[count], 0, length);
+								imgPanel.setCursorPosition(cursor.get() != 0, cursor.getShort() & 0xFFFF,
+										cursor.getShort() & 0xFFFF);
+								continue;
+							}
+							if (type == Protocol.MSG_KEEPALIVE) {
+								Main.stats.onKeepalive();
+								continue;
+							}
+							if (type == Protocol.MSG_CURSOR_SHAPE) {
+								Main.setCursorShape(imgPanel, ByteBuffer.wrap(frames[count], 0, length));
+								continue;
+							}
+							if (type == Protocol.MSG_STREAMS) {
+								Main.streams = new String(frames[count], 0, length, StandardCharsets.UTF_8).split("\n");
+								System.out.println("Streams disponíveis (F3 troca):");
+								for (String description : Main.streams) {
+									System.out.println("\t" + description);
+								}
+								continue;
+							}
+							if (type != Protocol.MSG_FRAME) {
+								continue;
+							}
+							lastArrival = Clock.micros();
+							if (count == 0) {
+								firstArrival = System.nanoTime();
+							}
+							offsets[count] = Protocol.TIMING_SIZE;
+							lengths[count++] = length - Protocol.TIMING_SIZE;
+						} while (count == 0 || (count < MAX_BATCH && Main.inputStream.available() > 0));
+
+						FrameTimeline timeline = FrameTimeline.read(frames[count - 1], 0, lastArrival);
+						if ((image = decoder.decode(frames, offsets, lengths, count)) != null) {
+							timeline.setDecoded(Clock.micros());
+							imgPanel.setImage(image, decoder.getDirtyRegion(), timeline);
+							Main.stats.onDisplay(count, decoder.getSkippedTiles(), System.nanoTime() - firstArrival);
+						}
+					} catch (IOException e) {
 						Main.showException(e);
 						try {
 							Main.disconnect();
@@ -103,6 +426,60 @@ public class Main {
 		Main.listener.start();
 	}
 
+	/**
+	 * Inicia a thread que envia os PINGs usados para estimar a diferença entre o
+	 * relógio do servidor e o relógio do cliente
+	 */
+	private static void startPinger() {
+		Thread pinger = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; !this.isInterrupted(); i++) {
+						Main.outputStream.println("PING " + Clock.micros());
+						Thread.sleep(i < INITIAL_PINGS ? PING_INTERVAL / 10 : PING_INTERVAL);
+					}
+				} catch (InterruptedException e) {
+					// Encerrado
+				}
+			}
+		};
+		pinger.setDaemon(true);
+		pinger.start();
+	}
+
+	/**
+	 * Escreve o resumo do tempo de cada estágio na saída padrão e, caso a propriedade
+	 * remotedesktop.latencyExport esteja definida, no arquivo CSV informado
+	 */
+	private static void exportLatency() {
+		Main.latency.export(System.out);
+
+		String path = System.getProperty("remotedesktop.latencyExport");
+		if (path != null) {
+			try {
+				Main.latency.exportCsv(new File(path));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Decodifica o formato do ponteiro recebido em MSG_CURSOR_SHAPE
+	 * 
+	 * @param imgPanel
+	 * @param shape
+	 */
+	private static void setCursorShape(JImagePanel imgPanel, ByteBuffer shape) {
+		int width = shape.getShort(), height = shape.getShort();
+		int hotspotX = shape.getShort(), hotspotY = shape.getShort();
+		int[] pixels = new int[width * height];
+		shape.asIntBuffer().get(pixels);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		imgPanel.setCursorShape(image, hotspotX, hotspotY);
+	}
+
 	/**
 	 * Inicia a conexão com o servidor
 	 * 
@@ -113,8 +490,37 @@ public class Main {
 	 */
 	private static void connect(String addr, int port) throws UnknownHostException, IOException {
 		Main.socket = new Socket(addr, port);
-		Main.inputStream = new ObjectInputStream(Main.socket.getInputStream());
-		Main.outputStream = new PrintStream(Main.socket.getOutputStream());
+		Main.socket.setTcpNoDelay(true);
+		Main.inputStream = new DataInputStream(new BufferedInputStream(Main.socket.getInputStream(), 64 * 1024));
+		Main.outputStream = new PrintStream(Main.socket.getOutputStream(), true);
+		Main.inputSender = new InputSender(Main.outputStream);
+	}
+
+	/**
+	 * Envia as preferências do cliente, usadas pelo servidor para escolher a resolução,
+	 * o codec, o nível de qualidade e o ritmo dos quadros
+	 * 
+	 * @param tier nível de qualidade ou null para o padrão do servidor
+	 */
+	private static void sendHello(String tier) {
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		StringBuilder hello = new StringBuilder("HELLO viewport=" + screen.width + "x" + screen.height);
+		if (tier != null) {
+			hello.append(" tier=").append(tier);
+		}
+		if (System.getProperty("remotedesktop.codec") != null) {
+			hello.append(" codec=").append(System.getProperty("remotedesktop.codec"));
+		}
+		if (System.getProperty("remotedesktop.maxFps") != null) {
+			hello.append(" fps=").append(System.getProperty("remotedesktop.maxFps"));
+		}
+		if (System.getProperty("remotedesktop.bandwidth") != null) {
+			hello.append(" bandwidth=").append(System.getProperty("remotedesktop.bandwidth"));
+		}
+		if (Main.stream != 0) {
+			hello.append(" stream=").append(Main.stream);
+		}
+		Main.outputStream.println(hello);
 	}
 
 	/**
@@ -123,6 +529,7 @@ public class Main {
 	 * @throws IOException
 	 */
 	private static void disconnect() throws IOException {
+		Main.exportLatency();
 		Main.listener.interrupt();
 		Main.outputStream.println("DISCONNECT");
 		Main.outputStream.close();
@@ -132,10 +539,43 @@ public class Main {
 		System.exit(0);
 	}
 
+	/**
+	 * Reproduz a gravação da pasta informada em vez de conectar ao servidor
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 */
+	private static void play(File directory) throws IOException {
+		SessionArchive archive = new SessionArchive(directory);
+		final JImagePanel[] imagePanel = new JImagePanel[1];
+		Main.player = new SessionPlayer(archive, new SessionPlayerListener() {
+			@Override
+			public void onFrame(BufferedImage image, Rectangle dirty, long timestamp) {
+				imagePanel[0].setImage(image, dirty);
+			}
+		});
+		imagePanel[0] = Main.createFrame();
+		Main.player.start();
+	}
+
+	/**
+	 * Argumentos opcionais: endereço, porta e nível de qualidade
+	 * (TRUE_COLOR, HIGH_COLOR ou LOW_COLOR)
+	 * 
+	 * @param args
+	 */
 	public static void main(String[] args) {
+		String addr = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 12345;
 		try {
-			Main.connect("localhost", 12345);
+			if (Main.PLAY != null) {
+				Main.play(new File(Main.PLAY));
+				return;
+			}
+			Main.connect(addr, port);
+			Main.sendHello(args.length > 2 ? args[2] : null);
 			Main.startListener(Main.createFrame());
+			Main.startPinger();
 		} catch (IOException e) {
 			Main.showException(e);
 		}
@@ -0,0 +1,89 @@
+package remotedesktop.client;
+
+import java.io.PrintStream;
+
+/**
+ * Envia os comandos de mouse e teclado ao servidor, no formato binário descrito em
+ * Protocol.
+ *
+ * Os comandos são escritos no mesmo PrintStream dos comandos de texto, que sincroniza
+ * as escritas, então um comando nunca é intercalado com uma linha de texto. Cada
+ * comando é enviado imediatamente; o socket deve estar com TCP_NODELAY para que o
+ * sistema não segure os comandos pequenos esperando mais dados.
+ *
+ * Movimentos do ponteiro para a posição já enviada são ignorados.
+ *
+ * @author Carlos Rodrigues
+ */
+public class InputSender {
+	private PrintStream output;
+	private byte[] buffer;
+	private int lastX;
+	private int lastY;
+
+	public InputSender(PrintStream output) {
+		this.output = output;
+		this.buffer = new byte[5];
+		this.lastX = -1;
+		this.lastY = -1;
+	}
+
+	/**
+	 * Move o ponteiro
+	 *
+	 * @param x posição na imagem, de 0 a 65535
+	 * @param y posição na imagem, de 0 a 65535
+	 */
+	public synchronized void pointerMove(int x, int y) {
+		if (x == this.lastX && y == this.lastY) {
+			return;
+		}
+		this.lastX = x;
+		this.lastY = y;
+		this.buffer[0] = Protocol.INPUT_POINTER_MOVE;
+		this.buffer[1] = (byte) (x >> 8);
+		this.buffer[2] = (byte) x;
+		this.buffer[3] = (byte) (y >> 8);
+		this.buffer[4] = (byte) y;
+		this.output.write(this.buffer, 0, 5);
+	}
+
+	/**
+	 * Pressiona ou solta um botão do mouse
+	 *
+	 * @param button 1 esquerdo, 2 do meio e 3 direito
+	 * @param pressed
+	 */
+	public synchronized void pointerButton(int button, boolean pressed) {
+		this.buffer[0] = Protocol.INPUT_POINTER_BUTTON;
+		this.buffer[1] = (byte) button;
+		this.buffer[2] = (byte) (pressed ? 1 : 0);
+		this.output.write(this.buffer, 0, 3);
+	}
+
+	/**
+	 * Gira a roda do mouse
+	 *
+	 * @param amount passos, positivos para baixo
+	 */
+	public synchronized void wheel(int amount) {
+		this.buffer[0] = Protocol.INPUT_WHEEL;
+		this.buffer[1] = (byte) (amount >> 8);
+		this.buffer[2] = (byte) amount;
+		this.output.write(this.buffer, 0, 3);
+	}
+
+	/**
+	 * Pressiona ou solta uma tecla
+	 *
+	 * @param keyCode código de java.awt.event.KeyEvent
+	 * @param pressed
+	 */
+	public synchronized void key(int keyCode, boolean pressed) {
+		this.buffer[0] = Protocol.INPUT_KEY;
+		this.buffer[1] = (byte) (keyCode >> 8);
+		this.buffer[2] = (byte) keyCode;
+		this.buffer[3] = (byte) (pressed ? 1 : 0);
+		this.output.write(this.buffer, 0, 4);
+	}
+}
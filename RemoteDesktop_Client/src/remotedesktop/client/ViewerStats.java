@@ -0,0 +1,88 @@
+package remotedesktop.client;
+
+/**
+ * Estatísticas de exibição do cliente: quadros recebidos, quadros exibidos, quadros
+ * pulados para alcançar o servidor, o atraso entre a chegada de um quadro e a sua
+ * exibição e se a tela remota está parada (apenas MSG_KEEPALIVE no intervalo).
+ *
+ * Os valores de atraso são do intervalo atual, que recomeça a cada chamada de
+ * getStatsAsString().
+ *
+ * @author Carlos Rodrigues
+ */
+public class ViewerStats {
+	private long receivedFrames;
+	private long displayedFrames;
+	private long skippedFrames;
+	private long skippedTiles;
+
+	private long intervalStart;
+	private long intervalDisplayed;
+	private long intervalLatencyTotal;
+	private long intervalLatencyMax;
+	private long intervalKeepalives;
+
+	public ViewerStats() {
+		this.intervalStart = System.nanoTime();
+	}
+
+	/**
+	 * Registra a exibição de um grupo de quadros aplicados de uma vez
+	 *
+	 * @param frames quantidade de quadros do grupo, todos menos o último são contados
+	 *            como pulados
+	 * @param skippedTiles tiles ignorados por terem sido substituídos por um quadro mais novo
+	 * @param latency nanossegundos entre a chegada do quadro mais antigo e a exibição
+	 */
+	public synchronized void onDisplay(int frames, int skippedTiles, long latency) {
+		this.receivedFrames += frames;
+		this.displayedFrames++;
+		this.skippedFrames += frames - 1;
+		this.skippedTiles += skippedTiles;
+
+		this.intervalDisplayed++;
+		this.intervalLatencyTotal += latency;
+		this.intervalLatencyMax = Math.max(this.intervalLatencyMax, latency);
+	}
+
+	/**
+	 * Registra um MSG_KEEPALIVE, recebido no lugar dos quadros enquanto a tela remota não
+	 * muda
+	 */
+	public synchronized void onKeepalive() {
+		this.intervalKeepalives++;
+	}
+
+	public synchronized long getReceivedFrames() {
+		return this.receivedFrames;
+	}
+
+	public synchronized long getSkippedFrames() {
+		return this.skippedFrames;
+	}
+
+	/**
+	 * Retorna as estatísticas do intervalo em uma string formatada e começa um novo
+	 * intervalo
+	 *
+	 * @return String
+	 */
+	public synchronized String getStatsAsString() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - this.intervalStart) / 1e9;
+		String text = String.format("%.1f fps, atraso médio %.1f ms (máx %.1f ms), %d quadros pulados, %d tiles pulados",
+				this.intervalDisplayed / seconds,
+				this.intervalDisplayed == 0 ? 0 : this.intervalLatencyTotal / 1e6 / this.intervalDisplayed,
+				this.intervalLatencyMax / 1e6, this.skippedFrames, this.skippedTiles);
+		if (this.intervalDisplayed == 0 && this.intervalKeepalives > 0) {
+			text += ", tela parada";
+		}
+
+		this.intervalStart = now;
+		this.intervalDisplayed = 0;
+		this.intervalLatencyTotal = 0;
+		this.intervalLatencyMax = 0;
+		this.intervalKeepalives = 0;
+		return text;
+	}
+}
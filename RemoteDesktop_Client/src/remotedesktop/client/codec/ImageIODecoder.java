@@ -0,0 +1,51 @@
+package remotedesktop.client.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Tiles escritos como imagens pelo ImageIO (PNG e JPEG). O ImageReader é
+ * reaproveitado entre os tiles.
+ *
+ * @author Carlos Rodrigues
+ */
+public class ImageIODecoder implements TileDecoder {
+	private ImageReader reader;
+
+	/**
+	 * @param formatName nome do formato no ImageIO
+	 */
+	public ImageIODecoder(String formatName) {
+		Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(formatName);
+		if (!readers.hasNext()) {
+			throw new IllegalStateException("Formato de imagem não suportado: " + formatName);
+		}
+		this.reader = readers.next();
+	}
+
+	@Override
+	public void decode(byte[] data, int offset, int length, int[] pixels, int pixelOffset, int scanline, int width,
+			int height) throws IOException {
+		ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data, offset, length));
+		BufferedImage tile;
+		try {
+			this.reader.setInput(stream, true, true);
+			tile = this.reader.read(0);
+		} finally {
+			this.reader.setInput(null);
+			stream.close();
+		}
+
+		if (tile.getWidth() != width || tile.getHeight() != height) {
+			throw new IOException("Tamanho do tile não confere: " + tile.getWidth() + "x" + tile.getHeight());
+		}
+		tile.getRGB(0, 0, width, height, pixels, pixelOffset, scanline);
+	}
+}
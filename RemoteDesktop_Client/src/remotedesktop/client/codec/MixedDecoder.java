@@ -0,0 +1,36 @@
+package remotedesktop.client.codec;
+
+import java.io.IOException;
+
+import remotedesktop.client.delta.DeltaProtocol;
+
+/**
+ * Tiles em que o primeiro byte é o formato do próprio tile. Os decodificadores de cada
+ * formato são criados quando aparecem pela primeira vez.
+ *
+ * @author Carlos Rodrigues
+ */
+public class MixedDecoder implements TileDecoder {
+	private TileDecoder[] decoders;
+
+	public MixedDecoder() {
+		this.decoders = new TileDecoder[8];
+	}
+
+	@Override
+	public void decode(byte[] data, int offset, int length, int[] pixels, int pixelOffset, int scanline, int width,
+			int height) throws IOException {
+		if (length < 1) {
+			throw new IOException("Tile incompleto");
+		}
+
+		int format = data[offset] & 0xFF;
+		if (format >= this.decoders.length || format == DeltaProtocol.FORMAT_MIXED) {
+			throw new IOException("Formato inválido no tile: " + format);
+		}
+		if (this.decoders[format] == null) {
+			this.decoders[format] = TileDecoders.create(format);
+		}
+		this.decoders[format].decode(data, offset + 1, length - 1, pixels, pixelOffset, scanline, width, height);
+	}
+}
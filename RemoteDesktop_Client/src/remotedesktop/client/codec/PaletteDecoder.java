@@ -0,0 +1,124 @@
+package remotedesktop.client.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Paleta de cores seguida das sequências de pixels iguais, comprimidas com deflate.
+ * Sem paleta (0 cores), cada sequência traz a própria cor.
+ *
+ * @author Carlos Rodrigues
+ */
+public class PaletteDecoder implements TileDecoder {
+	private int[] palette;
+	private Inflater inflater;
+	private byte[] runs;
+
+	public PaletteDecoder() {
+		this.palette = new int[256];
+		this.inflater = new Inflater();
+		this.runs = new byte[16 * 1024];
+	}
+
+	@Override
+	public void decode(byte[] data, int offset, int length, int[] pixels, int pixelOffset, int scanline, int width,
+			int height) throws IOException {
+		int end = offset + length;
+		if (offset >= end) {
+			throw new IOException("Tile incompleto");
+		}
+
+		int colors = data[offset++] & 0xFF;
+		if (offset + colors * 3 > end) {
+			throw new IOException("Tile incompleto");
+		}
+		for (int i = 0; i < colors; i++, offset += 3) {
+			this.palette[i] = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+		}
+
+		end = this.inflate(data, offset, end - offset);
+		data = this.runs;
+		offset = 0;
+
+		int column = 0;
+		int row = 0;
+		int position = pixelOffset;
+		while (row < height) {
+			int color;
+			if (colors > 0) {
+				if (offset >= end) {
+					throw new IOException("Tile incompleto");
+				}
+				int index = data[offset++] & 0xFF;
+				if (index >= colors) {
+					throw new IOException("Cor fora da paleta: " + index);
+				}
+				color = this.palette[index];
+			} else {
+				if (offset + 3 > end) {
+					throw new IOException("Tile incompleto");
+				}
+				color = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+				offset += 3;
+			}
+
+			int run = 0;
+			for (int shift = 0;; shift += 7) {
+				if (offset >= end || shift > 28) {
+					throw new IOException("Tile incompleto");
+				}
+				int value = data[offset++];
+				run |= (value & 0x7F) << shift;
+				if ((value & 0x80) == 0) {
+					break;
+				}
+			}
+			run++;
+
+			// A sequência pode continuar nas linhas seguintes
+			while (run > 0) {
+				if (row >= height) {
+					throw new IOException("Sequência maior que o tile");
+				}
+				int count = Math.min(run, width - column);
+				for (int p = position + column; p < position + column + count; p++) {
+					pixels[p] = color;
+				}
+				run -= count;
+				column += count;
+				if (column == width) {
+					column = 0;
+					row++;
+					position += scanline;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Descomprime as sequências em runs, retornando o tamanho descomprimido
+	 */
+	private int inflate(byte[] data, int offset, int length) throws IOException {
+		this.inflater.reset();
+		this.inflater.setInput(data, offset, length);
+		try {
+			int read = 0;
+			while (!this.inflater.finished()) {
+				if (read == this.runs.length) {
+					byte[] runs = new byte[this.runs.length * 2];
+					System.arraycopy(this.runs, 0, runs, 0, read);
+					this.runs = runs;
+				}
+				int count = this.inflater.inflate(this.runs, read, this.runs.length - read);
+				if (count == 0 && this.inflater.needsInput()) {
+					throw new IOException("Tile incompleto");
+				}
+				read += count;
+			}
+			return read;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package remotedesktop.client.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import remotedesktop.client.delta.DeltaProtocol;
+
+/**
+ * Pixels nos formatos RGB888, RGB565 ou RGB332, comprimidos com deflate
+ *
+ * @author Carlos Rodrigues
+ */
+public class RawDeflateDecoder implements TileDecoder {
+	private int format;
+	private Inflater inflater;
+	private byte[] rgb;
+
+	public RawDeflateDecoder(int format) {
+		this.format = format;
+		this.inflater = new Inflater();
+		this.rgb = new byte[64 * 64 * 3];
+	}
+
+	@Override
+	public void decode(byte[] data, int offset, int length, int[] pixels, int pixelOffset, int scanline, int width,
+			int height) throws IOException {
+		int size = width * height * bytesPerPixel(this.format);
+		if (this.rgb.length < size) {
+			this.rgb = new byte[size];
+		}
+
+		this.inflater.reset();
+		this.inflater.setInput(data, offset, length);
+		try {
+			int read = 0;
+			while (read < size) {
+				int count = this.inflater.inflate(this.rgb, read, size - read);
+				if (count == 0 && (this.inflater.finished() || this.inflater.needsInput())) {
+					throw new IOException("Tile incompleto");
+				}
+				read += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+
+		byte[] rgb = this.rgb;
+		int index = 0;
+		for (int row = 0; row < height; row++, pixelOffset += scanline) {
+			switch (this.format) {
+			case DeltaProtocol.FORMAT_RGB565:
+				for (int p = pixelOffset; p < pixelOffset + width; p++) {
+					int value = ((rgb[index] & 0xFF) << 8) | (rgb[index + 1] & 0xFF);
+					int r = (value >> 11) & 0x1F, g = (value >> 5) & 0x3F, b = value & 0x1F;
+					pixels[p] = (((r << 3) | (r >> 2)) << 16) | (((g << 2) | (g >> 4)) << 8) | ((b << 3) | (b >> 2));
+					index += 2;
+				}
+				break;
+			case DeltaProtocol.FORMAT_RGB332:
+				for (int p = pixelOffset; p < pixelOffset + width; p++) {
+					int value = rgb[index++] & 0xFF;
+					int r = (value >> 5) & 0x07, g = (value >> 2) & 0x07, b = value & 0x03;
+					pixels[p] = ((r * 255 / 7) << 16) | ((g * 255 / 7) << 8) | (b * 255 / 3);
+				}
+				break;
+			default:
+				for (int p = pixelOffset; p < pixelOffset + width; p++) {
+					pixels[p] = ((rgb[index] & 0xFF) << 16) | ((rgb[index + 1] & 0xFF) << 8) | (rgb[index + 2] & 0xFF);
+					index += 3;
+				}
+			}
+		}
+	}
+
+	private static int bytesPerPixel(int format) {
+		switch (format) {
+		case DeltaProtocol.FORMAT_RGB565:
+			return 2;
+		case DeltaProtocol.FORMAT_RGB332:
+			return 1;
+		default:
+			return 3;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package remotedesktop.client.codec;
+
+import java.io.IOException;
+
+/**
+ * Decodificador dos tiles de um formato, equivalente ao TileCodec de mesmo formato no
+ * servidor. Não é thread safe.
+ *
+ * @author Carlos Rodrigues
+ */
+public interface TileDecoder {
+	/**
+	 * Descomprime um tile e escreve os pixels RGB na imagem
+	 *
+	 * @param data
+	 * @param offset início do tile comprimido
+	 * @param length tamanho do tile comprimido
+	 * @param pixels pixels da imagem inteira
+	 * @param pixelOffset posição do primeiro pixel do tile
+	 * @param scanline largura da imagem
+	 * @param width largura do tile
+	 * @param height altura do tile
+	 * @throws IOException
+	 */
+	public void decode(byte[] data, int offset, int length, int[] pixels, int pixelOffset, int scanline, int width,
+			int height) throws IOException;
+}
@@ -0,0 +1,39 @@
+package remotedesktop.client.codec;
+
+import java.io.IOException;
+
+import remotedesktop.client.delta.DeltaProtocol;
+
+/**
+ * Cria o decodificador de cada formato de tile
+ *
+ * @author Carlos Rodrigues
+ */
+public final class TileDecoders {
+	private TileDecoders() {
+	}
+
+	/**
+	 * @param format ver DeltaProtocol
+	 * @return TileDecoder
+	 * @throws IOException caso o formato seja desconhecido
+	 */
+	public static TileDecoder create(int format) throws IOException {
+		switch (format) {
+		case DeltaProtocol.FORMAT_RGB888:
+		case DeltaProtocol.FORMAT_RGB565:
+		case DeltaProtocol.FORMAT_RGB332:
+			return new RawDeflateDecoder(format);
+		case DeltaProtocol.FORMAT_PNG:
+			return new ImageIODecoder("png");
+		case DeltaProtocol.FORMAT_JPEG:
+			return new ImageIODecoder("jpeg");
+		case DeltaProtocol.FORMAT_PALETTE:
+			return new PaletteDecoder();
+		case DeltaProtocol.FORMAT_MIXED:
+			return new MixedDecoder();
+		default:
+			throw new IOException("Formato desconhecido: " + format);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package remotedesktop.client.delta;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import remotedesktop.client.codec.TileDecoder;
+import remotedesktop.client.codec.TileDecoders;
+
+/**
+ * Aplica os quadros recebidos do servidor em uma imagem persistente.
+ *
+ * Os quadros completos recriam a imagem caso a resolução tenha mudado, e os quadros
+ * parciais substituem apenas os tiles que foram alterados, mantendo o restante da
+ * imagem como estava. Os tiles são descomprimidos pelo TileDecoder do formato
+ * informado no cabeçalho do quadro, criado na primeira vez que o formato aparece.
+ * As cópias de blocos deslocados (rolagem) são aplicadas direto na imagem, na ordem
+ * em que aparecem no quadro.
+ *
+ * A imagem é sempre a mesma enquanto a resolução não mudar, e os tiles são aplicados
+ * com o lock da própria imagem. Outras threads que leem a imagem, como a de desenho,
+ * devem sincronizar nela para não exibir um quadro aplicado pela metade.
+ *
+ * @author Carlos Rodrigues
+ */
+public class DeltaDecoder {
+	private static final int HEADER_SIZE = 14;
+	private static final int TILE_HEADER_SIZE = 13;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private TileDecoder[] decoders;
+	private TileDecoder tileDecoder;
+	private Rectangle dirty;
+	private int skippedFrames;
+	private int skippedTiles;
+
+	public DeltaDecoder() {
+		this.decoders = new TileDecoder[8];
+		this.dirty = new Rectangle();
+	}
+
+	/**
+	 * Retorna a área da imagem alterada pelo último quadro aplicado. O retângulo é
+	 * reaproveitado a cada quadro.
+	 *
+	 * @return Rectangle
+	 */
+	public Rectangle getDirtyRegion() {
+		return this.dirty;
+	}
+
+	/**
+	 * Quantidade de quadros ignorados na última chamada por serem anteriores a um
+	 * quadro completo
+	 *
+	 * @return int
+	 */
+	public int getSkippedFrames() {
+		return this.skippedFrames;
+	}
+
+	/**
+	 * Quantidade de tiles ignorados na última chamada por terem sido substituídos por
+	 * um quadro mais novo
+	 *
+	 * @return int
+	 */
+	public int getSkippedTiles() {
+		return this.skippedTiles;
+	}
+
+	/**
+	 * Aplica o quadro na imagem e a retorna. Retorna null caso seja um quadro parcial
+	 * e ainda não exista uma imagem base compatível.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return BufferedImage
+	 * @throws IOException
+	 */
+	public BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+		return this.decode(new byte[][] { data }, new int[] { offset }, new int[] { length }, 1);
+	}
+
+	/**
+	 * Aplica vários quadros consecutivos de uma vez, usado quando o cliente está
+	 * atrasado e existem vários quadros esperando.
+	 *
+	 * Os quadros anteriores ao último quadro completo são ignorados, pois ele substitui
+	 * a imagem inteira. Depois disso cada posição de tile é descomprimida uma única vez,
+	 * a partir do quadro mais novo que a contém; os tiles mais antigos na mesma posição
+	 * seriam sobrescritos de qualquer forma. O resultado é a mesma imagem que seria
+	 * obtida aplicando os quadros um a um.
+	 *
+	 * Quando algum dos quadros tem uma cópia de bloco, os tiles mais antigos podem ser
+	 * a origem da cópia, e os quadros são aplicados um a um, do mais antigo ao mais novo.
+	 *
+	 * @param data
+	 * @param offsets
+	 * @param lengths
+	 * @param count
+	 * @return BufferedImage a imagem, ou null caso nenhum quadro possa ser aplicado
+	 * @throws IOException
+	 */
+	public BufferedImage decode(byte[][] data, int[] offsets, int[] lengths, int count) throws IOException {
+		int first = 0;
+		for (int i = count - 1; i > 0; i--) {
+			if (data[i][offsets[i]] == DeltaProtocol.KEYFRAME) {
+				first = i;
+				break;
+			}
+		}
+		this.skippedFrames = first;
+
+		ByteBuffer header = ByteBuffer.wrap(data[first], offsets[first], lengths[first]);
+		int type = header.get(offsets[first]);
+		int format = header.get(offsets[first] + 1);
+		int width = header.getInt(offsets[first] + 2);
+		int height = header.getInt(offsets[first] + 6);
+
+		boolean sameSize = this.image != null && this.image.getWidth() == width && this.image.getHeight() == height;
+		if (type == DeltaProtocol.KEYFRAME) {
+			if (!sameSize) {
+				this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+			}
+		} else if (!sameSize) {
+			return null;
+		}
+		this.tileDecoder = this.getTileDecoder(format);
+
+		this.dirty.setBounds(0, 0, 0, 0);
+		this.skippedTiles = 0;
+		synchronized (this.image) {
+			if (count - first == 1 || this.hasCopy(data, offsets, lengths, first, count)) {
+				for (int i = first; i < count; i++) {
+					this.applyTiles(ByteBuffer.wrap(data[i], offsets[i], lengths[i]), null);
+				}
+			} else {
+				Set<Long> applied = new HashSet<Long>();
+				for (int i = count - 1; i >= first; i--) {
+					this.applyTiles(ByteBuffer.wrap(data[i], offsets[i], lengths[i]), applied);
+				}
+			}
+		}
+		return this.image;
+	}
+
+	/**
+	 * Aplica os tiles de um quadro. Quando applied não é null, os tiles cuja posição já
+	 * foi aplicada são pulados e as posições aplicadas são adicionadas ao conjunto.
+	 */
+	private void applyTiles(ByteBuffer frame, Set<Long> applied) throws IOException {
+		int position = frame.position();
+		int end = frame.limit();
+		int count = frame.getInt(position + 10);
+		position += HEADER_SIZE;
+
+		for (int i = 0; i < count; i++) {
+			if (position + TILE_HEADER_SIZE > end) {
+				throw new IOException("Quadro incompleto");
+			}
+			int op = frame.get(position) & 0xFF;
+			if (op != DeltaProtocol.OP_TILE && op != DeltaProtocol.OP_COPY) {
+				throw new IOException("Operação desconhecida: " + op);
+			}
+
+			int x = frame.getShort(position + 1) & 0xFFFF;
+			int y = frame.getShort(position + 3) & 0xFFFF;
+			int w = frame.getShort(position + 5) & 0xFFFF;
+			int h = frame.getShort(position + 7) & 0xFFFF;
+			int size = frame.getInt(position + 9);
+			if (position + TILE_HEADER_SIZE + size > end) {
+				throw new IOException("Quadro incompleto");
+			}
+
+			if (op == DeltaProtocol.OP_COPY) {
+				if (size != 4) {
+					throw new IOException("Cópia inválida");
+				}
+				this.copy(frame.getShort(position + TILE_HEADER_SIZE) & 0xFFFF,
+						frame.getShort(position + TILE_HEADER_SIZE + 2) & 0xFFFF, x, y, w, h);
+				this.addDirty(x, y, w, h);
+			} else if (applied == null || applied.add(frame.getLong(position + 1))) {
+				int width = this.image.getWidth();
+				if (x + w > width || y + h > this.image.getHeight()) {
+					throw new IOException("Tile fora da imagem");
+				}
+				this.tileDecoder.decode(frame.array(), position + TILE_HEADER_SIZE, size, this.pixels, y * width + x,
+						width, w, h);
+				this.addDirty(x, y, w, h);
+			} else {
+				this.skippedTiles++;
+			}
+			position += TILE_HEADER_SIZE + size;
+		}
+	}
+
+	/**
+	 * Copia um retângulo da imagem para outra posição, na ordem certa para que as
+	 * linhas de origem não sejam sobrescritas antes de copiadas
+	 */
+	private void copy(int sourceX, int sourceY, int x, int y, int w, int h) throws IOException {
+		int width = this.image.getWidth();
+		int height = this.image.getHeight();
+		if (sourceX + w > width || sourceY + h > height || x + w > width || y + h > height) {
+			throw new IOException("Cópia fora da imagem");
+		}
+
+		if (y > sourceY) {
+			for (int row = h - 1; row >= 0; row--) {
+				System.arraycopy(this.pixels, (sourceY + row) * width + sourceX, this.pixels, (y + row) * width + x, w);
+			}
+		} else {
+			for (int row = 0; row < h; row++) {
+				System.arraycopy(this.pixels, (sourceY + row) * width + sourceX, this.pixels, (y + row) * width + x, w);
+			}
+		}
+	}
+
+	private void addDirty(int x, int y, int w, int h) {
+		if (this.dirty.isEmpty()) {
+			this.dirty.setBounds(x, y, w, h);
+		} else {
+			this.dirty.add(x, y);
+			this.dirty.add(x + w, y + h);
+		}
+	}
+
+	/**
+	 * Indica se algum dos quadros tem uma cópia de bloco, percorrendo apenas os
+	 * cabeçalhos dos registros
+	 */
+	private boolean hasCopy(byte[][] data, int[] offsets, int[] lengths, int first, int count) {
+		for (int i = first; i < count; i++) {
+			ByteBuffer frame = ByteBuffer.wrap(data[i], offsets[i], lengths[i]);
+			int position = offsets[i] + HEADER_SIZE;
+			int end = offsets[i] + lengths[i];
+			int records = frame.getInt(offsets[i] + 10);
+			for (int j = 0; j < records && position + TILE_HEADER_SIZE <= end; j++) {
+				if (frame.get(position) == DeltaProtocol.OP_COPY) {
+					return true;
+				}
+				position += TILE_HEADER_SIZE + frame.getInt(position + 9);
+			}
+		}
+		return false;
+	}
+
+	private TileDecoder getTileDecoder(int format) throws IOException {
+		if (format < 0 || format >= this.decoders.length) {
+			throw new IOException("Formato desconhecido: " + format);
+		}
+		if (this.decoders[format] == null) {
+			this.decoders[format] = TileDecoders.create(format);
+		}
+		return this.decoders[format];
+	}
+}
@@ -0,0 +1,76 @@
+package remotedesktop.client.delta;
+
+/**
+ * Constantes do formato de quadro por tiles recebido do servidor.
+ *
+ * Os formatos RGB888, RGB565 e RGB332 são os pixels comprimidos com deflate; os
+ * demais são imagens completas de cada tile, lidas pelo TileDecoder do formato.
+ *
+ * Essa classe deve ser mantida igual à classe de mesmo nome no projeto do
+ * servidor.
+ *
+ * @author Carlos Rodrigues
+ */
+public final class DeltaProtocol {
+	/**
+	 * Quadro completo, contém todos os tiles da imagem
+	 */
+	public static final int KEYFRAME = 0;
+
+	/**
+	 * Quadro parcial, contém apenas os tiles alterados desde o quadro anterior
+	 */
+	public static final int DELTA = 1;
+
+	/**
+	 * Retângulo de pixels, no formato informado no cabeçalho
+	 */
+	public static final int OP_TILE = 1;
+
+	/**
+	 * Cópia de um retângulo da própria imagem, usada quando um bloco foi deslocado
+	 * (rolagem). A posição e o tamanho do registro são o destino, e os 4 bytes de dados
+	 * são a posição de origem (x e y, 2 bytes cada). A cópia é aplicada na imagem como
+	 * ela está naquele ponto do quadro, antes dos registros seguintes.
+	 */
+	public static final int OP_COPY = 2;
+
+	/**
+	 * 3 bytes por pixel: vermelho, verde e azul
+	 */
+	public static final int FORMAT_RGB888 = 0;
+
+	/**
+	 * 2 bytes por pixel: 5 bits de vermelho, 6 de verde e 5 de azul
+	 */
+	public static final int FORMAT_RGB565 = 1;
+
+	/**
+	 * 1 byte por pixel: 3 bits de vermelho, 3 de verde e 2 de azul
+	 */
+	public static final int FORMAT_RGB332 = 2;
+
+	/**
+	 * Tile codificado como uma imagem PNG
+	 */
+	public static final int FORMAT_PNG = 3;
+
+	/**
+	 * Tile codificado como uma imagem JPEG
+	 */
+	public static final int FORMAT_JPEG = 4;
+
+	/**
+	 * Paleta de até 255 cores seguida das sequências de pixels iguais
+	 */
+	public static final int FORMAT_PALETTE = 5;
+
+	/**
+	 * Cada tile começa com o byte do seu próprio formato, seguido dos dados nesse
+	 * formato. Usado quando o formato é escolhido pelo conteúdo de cada tile.
+	 */
+	public static final int FORMAT_MIXED = 6;
+
+	private DeltaProtocol() {
+	}
+}
@@ -0,0 +1,37 @@
+package remotedesktop.client.metrics;
+
+/**
+ * Relógio em microssegundos desde 1970, igual ao relógio do servidor.
+ *
+ * O horário de início é lido uma única vez do relógio do sistema e a partir daí o
+ * tempo avança pelo System.nanoTime(), assim os intervalos medidos nunca são negativos
+ * mesmo que o relógio do sistema seja ajustado.
+ *
+ * @author Carlos Rodrigues
+ */
+public final class Clock {
+	private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+	private static final long BASE_NANOS = System.nanoTime();
+
+	private Clock() {
+	}
+
+	/**
+	 * Horário atual
+	 *
+	 * @return long
+	 */
+	public static long micros() {
+		return toMicros(System.nanoTime());
+	}
+
+	/**
+	 * Converte um valor de System.nanoTime() para o horário do relógio
+	 *
+	 * @param nanoTime
+	 * @return long
+	 */
+	public static long toMicros(long nanoTime) {
+		return BASE_MICROS + (nanoTime - BASE_NANOS) / 1000;
+	}
+}
@@ -0,0 +1,79 @@
+package remotedesktop.client.metrics;
+
+/**
+ * Estima a diferença entre o relógio do servidor e o relógio do cliente a partir das
+ * respostas ao PING.
+ *
+ * Cada resposta traz o horário em que o PING foi enviado e o horário do servidor ao
+ * recebê-lo. Supondo que ida e volta demoram o mesmo tempo, o servidor recebeu o PING
+ * no meio do caminho, e a diferença é o horário do servidor menos esse ponto médio.
+ * Como a resposta pode ficar presa atrás de um quadro grande, das últimas respostas é
+ * usada a que teve o menor tempo de ida e volta, que é a de menor erro.
+ *
+ * @author Carlos Rodrigues
+ */
+public class ClockSync {
+	private static final int SAMPLES = 8;
+
+	private long[] offsets;
+	private long[] roundTrips;
+	private int count;
+	private int next;
+
+	public ClockSync() {
+		this.offsets = new long[SAMPLES];
+		this.roundTrips = new long[SAMPLES];
+	}
+
+	/**
+	 * Registra uma resposta ao PING
+	 *
+	 * @param clientSent horário do cliente no envio do PING
+	 * @param serverTime horário do servidor ao receber o PING
+	 * @param clientReceived horário do cliente ao receber a resposta
+	 */
+	public synchronized void onPong(long clientSent, long serverTime, long clientReceived) {
+		this.offsets[this.next] = serverTime - (clientSent + clientReceived) / 2;
+		this.roundTrips[this.next] = clientReceived - clientSent;
+		this.next = (this.next + 1) % SAMPLES;
+		this.count = Math.min(SAMPLES, this.count + 1);
+	}
+
+	/**
+	 * Indica se já existe alguma resposta para estimar a diferença
+	 *
+	 * @return boolean
+	 */
+	public synchronized boolean isSynchronized() {
+		return this.count > 0;
+	}
+
+	/**
+	 * Diferença em microssegundos que deve ser somada a um horário do cliente para
+	 * obter o horário do servidor
+	 *
+	 * @return long
+	 */
+	public synchronized long getOffset() {
+		return this.offsets[this.best()];
+	}
+
+	/**
+	 * Tempo de ida e volta, em microssegundos, da resposta usada na estimativa
+	 *
+	 * @return long
+	 */
+	public synchronized long getRoundTrip() {
+		return this.roundTrips[this.best()];
+	}
+
+	private int best() {
+		int best = 0;
+		for (int i = 1; i < this.count; i++) {
+			if (this.roundTrips[i] < this.roundTrips[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+}
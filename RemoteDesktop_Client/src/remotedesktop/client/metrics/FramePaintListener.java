@@ -0,0 +1,16 @@
+package remotedesktop.client.metrics;
+
+/**
+ * Listener para ser avisado quando um quadro aparece na tela
+ *
+ * @author Carlos Rodrigues
+ */
+public interface FramePaintListener {
+	/**
+	 * Chamado pela thread do Swing logo após o desenho. Quando vários quadros chegam
+	 * antes de um desenho, apenas o mais recente é informado.
+	 *
+	 * @param timeline
+	 */
+	public void onFramePainted(FrameTimeline timeline);
+}
@@ -0,0 +1,91 @@
+package remotedesktop.client.metrics;
+
+import java.nio.ByteBuffer;
+
+import remotedesktop.client.Protocol;
+
+/**
+ * Horários de um quadro, do início da captura no servidor até o desenho no cliente.
+ *
+ * Os horários do servidor chegam no início de cada quadro (ver Protocol.TIMING_SIZE) e
+ * estão no relógio do servidor. Os horários de recebimento, decodificação e desenho
+ * estão no relógio do cliente.
+ *
+ * @author Carlos Rodrigues
+ */
+public class FrameTimeline {
+	private long sequence;
+	private long capture;
+	private long scaled;
+	private long encoded;
+	private long enqueued;
+	private long sent;
+	private long received;
+	private long decoded;
+	private long painted;
+
+	/**
+	 * Lê os horários do servidor no início de um quadro
+	 *
+	 * @param data
+	 * @param offset
+	 * @param received horário de recebimento do quadro
+	 * @return FrameTimeline
+	 */
+	public static FrameTimeline read(byte[] data, int offset, long received) {
+		ByteBuffer buffer = ByteBuffer.wrap(data, offset, Protocol.TIMING_SIZE);
+		FrameTimeline timeline = new FrameTimeline();
+		timeline.sequence = buffer.getLong();
+		timeline.capture = buffer.getLong();
+		timeline.scaled = buffer.getLong();
+		timeline.encoded = buffer.getLong();
+		timeline.enqueued = buffer.getLong();
+		timeline.sent = buffer.getLong();
+		timeline.received = received;
+		return timeline;
+	}
+
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	public long getCapture() {
+		return this.capture;
+	}
+
+	public long getScaled() {
+		return this.scaled;
+	}
+
+	public long getEncoded() {
+		return this.encoded;
+	}
+
+	public long getEnqueued() {
+		return this.enqueued;
+	}
+
+	public long getSent() {
+		return this.sent;
+	}
+
+	public long getReceived() {
+		return this.received;
+	}
+
+	public long getDecoded() {
+		return this.decoded;
+	}
+
+	public void setDecoded(long decoded) {
+		this.decoded = decoded;
+	}
+
+	public long getPainted() {
+		return this.painted;
+	}
+
+	public void setPainted(long painted) {
+		this.painted = painted;
+	}
+}
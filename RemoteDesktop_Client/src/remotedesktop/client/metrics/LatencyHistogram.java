@@ -0,0 +1,122 @@
+package remotedesktop.client.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Histograma de tempos, com faixas exponenciais de microssegundos.
+ *
+ * Cada potência de dois é dividida em 8 faixas, o que dá um erro máximo de 12,5% nos
+ * percentis sem guardar as amostras. Registrar um tempo não aloca memória.
+ *
+ * @author Carlos Rodrigues
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 8;
+	private static final int MAX_SHIFT = 34;
+
+	private String name;
+	private long[] buckets;
+	private long count;
+	private long totalMicros;
+	private long maxMicros;
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+		this.buckets = new long[(MAX_SHIFT + 1) * SUB_BUCKETS];
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Registra um tempo em nanossegundos
+	 *
+	 * @param nanos
+	 */
+	public synchronized void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		this.buckets[bucketOf(micros)]++;
+		this.count++;
+		this.totalMicros += micros;
+		this.maxMicros = Math.max(this.maxMicros, micros);
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(micros);
+		if (shift > MAX_SHIFT) {
+			return (MAX_SHIFT + 1) * SUB_BUCKETS - 1;
+		}
+		int sub = (int) (micros >> (shift - 3)) & (SUB_BUCKETS - 1);
+		return (shift - 2) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Maior valor, em microssegundos, que pertence à faixa informada
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS + 2;
+		int sub = bucket % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (shift - 3)) - 1;
+	}
+
+	/**
+	 * Retorna o percentil informado, de 0 a 100, em microssegundos
+	 *
+	 * @param percentile
+	 * @return long
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(this.count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < this.buckets.length; i++) {
+			seen += this.buckets[i];
+			if (seen >= Math.max(1, target)) {
+				return Math.min(upperBound(i), this.maxMicros);
+			}
+		}
+		return this.maxMicros;
+	}
+
+	public synchronized long getCount() {
+		return this.count;
+	}
+
+	public synchronized double getMeanMicros() {
+		return this.count == 0 ? 0 : this.totalMicros / (double) this.count;
+	}
+
+	public synchronized long getMaxMicros() {
+		return this.maxMicros;
+	}
+
+	/**
+	 * Apaga todas as amostras
+	 */
+	public synchronized void reset() {
+		Arrays.fill(this.buckets, 0);
+		this.count = 0;
+		this.totalMicros = 0;
+		this.maxMicros = 0;
+	}
+
+	/**
+	 * Retorna o resumo do histograma em uma string formatada, em milissegundos
+	 *
+	 * @return String
+	 */
+	public synchronized String getStatsAsString() {
+		return String.format("%s: média %.2f ms, p50 %.2f ms, p99 %.2f ms, máx %.2f ms (%d amostras)", this.name,
+				this.getMeanMicros() / 1000, this.getPercentile(50) / 1000.0, this.getPercentile(99) / 1000.0,
+				this.maxMicros / 1000.0, this.count);
+	}
+}
@@ -0,0 +1,137 @@
+package remotedesktop.client.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Registra o tempo de cada estágio dos quadros exibidos, da captura no servidor até o
+ * desenho no cliente, em um histograma por estágio.
+ *
+ * Os estágios que atravessam a rede (a própria rede e o total) dependem da diferença
+ * entre os relógios, e só são registrados depois da primeira resposta ao PING.
+ *
+ * @author Carlos Rodrigues
+ */
+public class LatencyTracker implements FramePaintListener {
+	private ClockSync clockSync;
+	private LatencyHistogram captureTime;
+	private LatencyHistogram encodeTime;
+	private LatencyHistogram sendQueueTime;
+	private LatencyHistogram networkTime;
+	private LatencyHistogram decodeTime;
+	private LatencyHistogram paintTime;
+	private LatencyHistogram totalTime;
+	private FrameTimeline last;
+
+	public LatencyTracker(ClockSync clockSync) {
+		this.clockSync = clockSync;
+		this.captureTime = new LatencyHistogram("captura e redução");
+		this.encodeTime = new LatencyHistogram("espera e codificação");
+		this.sendQueueTime = new LatencyHistogram("fila de envio");
+		this.networkTime = new LatencyHistogram("rede");
+		this.decodeTime = new LatencyHistogram("recebimento e decodificação");
+		this.paintTime = new LatencyHistogram("desenho");
+		this.totalTime = new LatencyHistogram("total");
+	}
+
+	/**
+	 * Retorna os histogramas de cada estágio, na ordem do caminho do quadro. O último
+	 * histograma é o tempo total.
+	 *
+	 * @return List
+	 */
+	public List<LatencyHistogram> getStageHistograms() {
+		return Arrays.asList(this.captureTime, this.encodeTime, this.sendQueueTime, this.networkTime,
+				this.decodeTime, this.paintTime, this.totalTime);
+	}
+
+	@Override
+	public void onFramePainted(FrameTimeline timeline) {
+		if (timeline.getCapture() == 0) {
+			return;
+		}
+
+		this.captureTime.record((timeline.getScaled() - timeline.getCapture()) * 1000);
+		this.encodeTime.record((timeline.getEncoded() - timeline.getScaled()) * 1000);
+		this.sendQueueTime.record((timeline.getSent() - timeline.getEncoded()) * 1000);
+		this.decodeTime.record((timeline.getDecoded() - timeline.getReceived()) * 1000);
+		this.paintTime.record((timeline.getPainted() - timeline.getDecoded()) * 1000);
+
+		if (this.clockSync.isSynchronized()) {
+			long offset = this.clockSync.getOffset();
+			this.networkTime.record((timeline.getReceived() + offset - timeline.getSent()) * 1000);
+			this.totalTime.record((timeline.getPainted() + offset - timeline.getCapture()) * 1000);
+		}
+
+		synchronized (this) {
+			this.last = timeline;
+		}
+	}
+
+	/**
+	 * Retorna as linhas exibidas sobre a imagem: o último quadro exibido, a diferença
+	 * entre os relógios e os percentis de cada estágio
+	 *
+	 * @return List
+	 */
+	public List<String> getOverlayLines() {
+		List<String> lines = new ArrayList<String>();
+		FrameTimeline last;
+		synchronized (this) {
+			last = this.last;
+		}
+
+		if (last != null) {
+			lines.add(String.format("quadro #%d", last.getSequence()));
+		}
+		if (this.clockSync.isSynchronized()) {
+			lines.add(String.format("relógio do servidor: %+.2f ms (ida e volta %.2f ms)",
+					this.clockSync.getOffset() / 1000.0, this.clockSync.getRoundTrip() / 1000.0));
+		} else {
+			lines.add("relógio do servidor: aguardando PONG");
+		}
+		for (LatencyHistogram histogram : this.getStageHistograms()) {
+			lines.add(String.format("%s: p50 %.1f ms, p99 %.1f ms", histogram.getName(),
+					histogram.getPercentile(50) / 1000.0, histogram.getPercentile(99) / 1000.0));
+		}
+		return lines;
+	}
+
+	/**
+	 * Escreve o resumo de cada estágio, uma linha por estágio
+	 *
+	 * @param output
+	 */
+	public void export(PrintStream output) {
+		for (LatencyHistogram histogram : this.getStageHistograms()) {
+			output.println(histogram.getStatsAsString());
+		}
+	}
+
+	/**
+	 * Escreve os percentis de cada estágio em um arquivo CSV, em milissegundos
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void exportCsv(File file) throws IOException {
+		PrintStream output = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+		try {
+			output.println("estagio,amostras,media_ms,p50_ms,p90_ms,p99_ms,max_ms");
+			for (LatencyHistogram histogram : this.getStageHistograms()) {
+				output.println(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f",
+						histogram.getName(), histogram.getCount(), histogram.getMeanMicros() / 1000,
+						histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+						histogram.getPercentile(99) / 1000.0, histogram.getMaxMicros() / 1000.0));
+			}
+		} finally {
+			output.close();
+		}
+	}
+}
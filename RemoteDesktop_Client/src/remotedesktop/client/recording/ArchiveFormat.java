@@ -0,0 +1,48 @@
+package remotedesktop.client.recording;
+
+/**
+ * Constantes do formato das gravações de sessão.
+ *
+ * Uma gravação é uma pasta com arquivos de segmento e um índice. Cada segmento
+ * ("segment-<número>.rdr", numerados a partir de 0) começa com um cabeçalho
+ * (SEGMENT_MAGIC e VERSION, dois ints) seguido dos quadros, cada um com um cabeçalho de
+ * RECORD_HEADER_SIZE bytes: o horário da captura em microssegundos desde 1970 (long),
+ * o tamanho do quadro (int) e 1 para quadro completo ou 0 para parcial (byte). O
+ * quadro é o mesmo formato enviado aos clientes, ver DeltaProtocol.
+ *
+ * Todo segmento começa por um quadro completo, então cada segmento pode ser lido
+ * sozinho. O índice ("index.rdx") começa com INDEX_MAGIC e VERSION e tem uma entrada
+ * de INDEX_ENTRY_SIZE bytes para cada quadro completo, em ordem de horário: o horário
+ * (long), o número do segmento (int) e a posição do quadro no segmento (long). Como as
+ * entradas têm tamanho fixo, o quadro completo anterior a qualquer horário é
+ * encontrado com uma busca binária.
+ *
+ * Todos os números são big endian. Essa classe deve ser mantida igual à classe de
+ * mesmo nome no projeto do cliente.
+ *
+ * @author Carlos Rodrigues
+ */
+public final class ArchiveFormat {
+	public static final int SEGMENT_MAGIC = 0x52445253;
+	public static final int INDEX_MAGIC = 0x52445249;
+	public static final int VERSION = 1;
+
+	public static final int FILE_HEADER_SIZE = 8;
+	public static final int RECORD_HEADER_SIZE = 13;
+	public static final int INDEX_ENTRY_SIZE = 20;
+
+	public static final String INDEX_FILE = "index.rdx";
+
+	private ArchiveFormat() {
+	}
+
+	/**
+	 * Nome do arquivo do segmento informado
+	 *
+	 * @param segment
+	 * @return String
+	 */
+	public static String getSegmentFile(int segment) {
+		return String.format("segment-%05d.rdr", segment);
+	}
+}
@@ -0,0 +1,249 @@
+package remotedesktop.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gravação de uma sessão, no formato descrito em ArchiveFormat.
+ *
+ * O índice e os segmentos são mapeados em memória, apenas para leitura; os segmentos
+ * são mapeados na primeira vez que são lidos. Para chegar a um horário, o quadro
+ * completo anterior a ele é encontrado com uma busca binária no índice, sem ler os
+ * segmentos, e a leitura começa por ele.
+ *
+ * Uma gravação interrompida no meio de um quadro termina no último quadro completo
+ * gravado. A leitura nunca passa do último segmento que aparece no índice: arquivos
+ * de segmento além dele, como um segmento cujo primeiro quadro não chegou a ser
+ * gravado por inteiro, são ignorados.
+ *
+ * @author Carlos Rodrigues
+ */
+public class SessionArchive {
+	private File directory;
+	private ByteBuffer index;
+	private int keyframes;
+	private int lastSegment;
+	private Map<Integer, ByteBuffer> segments;
+	private long endTime;
+
+	/**
+	 * @param directory pasta da gravação
+	 * @throws IOException caso a pasta não contenha uma gravação
+	 */
+	public SessionArchive(File directory) throws IOException {
+		this.directory = directory;
+		this.segments = new HashMap<Integer, ByteBuffer>();
+		this.index = map(new File(directory, ArchiveFormat.INDEX_FILE), ArchiveFormat.INDEX_MAGIC);
+		this.keyframes = (this.index.limit() - ArchiveFormat.FILE_HEADER_SIZE) / ArchiveFormat.INDEX_ENTRY_SIZE;
+		if (this.keyframes == 0) {
+			throw new IOException("A gravação está vazia: " + directory);
+		}
+		this.lastSegment = this.getKeyframeSegment(this.keyframes - 1);
+
+		/**
+		 * O fim da gravação é o horário do último quadro, lido a partir do último quadro
+		 * completo
+		 */
+		Reader reader = this.openReader(this.keyframes - 1);
+		while (reader.next()) {
+			this.endTime = reader.getTimestamp();
+		}
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Horário do primeiro quadro, em microssegundos desde 1970
+	 *
+	 * @return long
+	 */
+	public long getStartTime() {
+		return this.getKeyframeTime(0);
+	}
+
+	/**
+	 * Horário do último quadro, em microssegundos desde 1970
+	 *
+	 * @return long
+	 */
+	public long getEndTime() {
+		return this.endTime;
+	}
+
+	/**
+	 * Quantidade de quadros completos na gravação
+	 *
+	 * @return int
+	 */
+	public int getKeyframeCount() {
+		return this.keyframes;
+	}
+
+	/**
+	 * Busca binária pelo último quadro completo com horário menor ou igual ao informado
+	 *
+	 * @param timestamp
+	 * @return int posição no índice, ou 0 caso o horário seja anterior ao início
+	 */
+	public int findKeyframe(long timestamp) {
+		int low = 0;
+		int high = this.keyframes - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.getKeyframeTime(middle) <= timestamp) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Abre uma leitura a partir do último quadro completo com horário menor ou igual ao
+	 * informado
+	 *
+	 * @param timestamp
+	 * @return Reader
+	 * @throws IOException
+	 */
+	public Reader openReader(long timestamp) throws IOException {
+		return this.openReader(this.findKeyframe(timestamp));
+	}
+
+	private Reader openReader(int keyframe) throws IOException {
+		int position = ArchiveFormat.FILE_HEADER_SIZE + keyframe * ArchiveFormat.INDEX_ENTRY_SIZE;
+		return new Reader(this.getKeyframeSegment(keyframe), (int) this.index.getLong(position + 12));
+	}
+
+	private int getKeyframeSegment(int keyframe) {
+		return this.index.getInt(ArchiveFormat.FILE_HEADER_SIZE + keyframe * ArchiveFormat.INDEX_ENTRY_SIZE + 8);
+	}
+
+	private long getKeyframeTime(int keyframe) {
+		return this.index.getLong(ArchiveFormat.FILE_HEADER_SIZE + keyframe * ArchiveFormat.INDEX_ENTRY_SIZE);
+	}
+
+	/**
+	 * Retorna o segmento mapeado, ou null caso ele não exista
+	 */
+	private synchronized ByteBuffer getSegment(int segment) throws IOException {
+		ByteBuffer buffer = this.segments.get(segment);
+		if (buffer == null) {
+			File file = new File(this.directory, ArchiveFormat.getSegmentFile(segment));
+			if (!file.isFile()) {
+				return null;
+			}
+			this.segments.put(segment, buffer = map(file, ArchiveFormat.SEGMENT_MAGIC));
+		}
+		return buffer.duplicate();
+	}
+
+	/**
+	 * Mapeia o arquivo e confere o cabeçalho. O mapeamento continua válido depois que o
+	 * arquivo é fechado.
+	 */
+	private static MappedByteBuffer map(File file, int magic) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < ArchiveFormat.FILE_HEADER_SIZE || buffer.getInt(0) != magic
+					|| buffer.getInt(4) != ArchiveFormat.VERSION) {
+				throw new IOException("Arquivo de gravação inválido: " + file);
+			}
+			return buffer;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Leitura sequencial dos quadros, passando de um segmento para o próximo. Cada
+	 * quadro é copiado para um buffer reaproveitado entre as chamadas de next().
+	 */
+	public class Reader {
+		private int segmentNumber;
+		private ByteBuffer segment;
+		private byte[] data;
+		private int length;
+		private long timestamp;
+		private boolean keyframe;
+
+		private Reader(int segmentNumber, int position) throws IOException {
+			this.segmentNumber = segmentNumber;
+			this.segment = SessionArchive.this.getSegment(segmentNumber);
+			if (this.segment == null) {
+				throw new IOException("Segmento não encontrado: " + ArchiveFormat.getSegmentFile(segmentNumber));
+			}
+			this.segment.position(position);
+			this.data = new byte[64 * 1024];
+		}
+
+		/**
+		 * Lê o próximo quadro
+		 *
+		 * @return boolean false caso a gravação tenha terminado
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			while (this.segment.remaining() < ArchiveFormat.RECORD_HEADER_SIZE
+					|| this.segment.remaining() < ArchiveFormat.RECORD_HEADER_SIZE
+							+ this.segment.getInt(this.segment.position() + 8)) {
+				if (this.segmentNumber >= SessionArchive.this.lastSegment) {
+					return false;
+				}
+				ByteBuffer next = SessionArchive.this.getSegment(this.segmentNumber + 1);
+				if (next == null) {
+					throw new IOException(
+							"Segmento não encontrado: " + ArchiveFormat.getSegmentFile(this.segmentNumber + 1));
+				}
+				this.segmentNumber++;
+				this.segment = next;
+				this.segment.position(ArchiveFormat.FILE_HEADER_SIZE);
+			}
+
+			this.timestamp = this.segment.getLong();
+			this.length = this.segment.getInt();
+			this.keyframe = this.segment.get() != 0;
+			if (this.data.length < this.length) {
+				this.data = new byte[this.length];
+			}
+			this.segment.get(this.data, 0, this.length);
+			return true;
+		}
+
+		/**
+		 * Quadro lido, no formato de DeltaProtocol, válido até a próxima chamada de next()
+		 *
+		 * @return byte[]
+		 */
+		public byte[] getData() {
+			return this.data;
+		}
+
+		public int getLength() {
+			return this.length;
+		}
+
+		/**
+		 * Horário da captura do quadro, em microssegundos desde 1970
+		 *
+		 * @return long
+		 */
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		public boolean isKeyframe() {
+			return this.keyframe;
+		}
+	}
+}
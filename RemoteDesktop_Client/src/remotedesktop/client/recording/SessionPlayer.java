@@ -0,0 +1,250 @@
+package remotedesktop.client.recording;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import remotedesktop.client.delta.DeltaDecoder;
+
+/**
+ * Thread que reproduz uma gravação no ritmo em que foi gravada.
+ *
+ * Os quadros são lidos da SessionArchive, aplicados com um DeltaDecoder e entregues ao
+ * listener no horário correspondente ao da captura. Para ir a outro horário, a leitura
+ * recomeça pelo quadro completo anterior a ele, encontrado pelo índice, e os quadros
+ * até o horário são aplicados de uma vez, sem espera; o custo é limitado pelo
+ * intervalo entre os quadros completos, e não pelo tamanho da gravação.
+ *
+ * Pausas longas na gravação (quando o stream ficou sem clientes, por exemplo) não são
+ * esperadas: o quadro seguinte é exibido em seguida.
+ *
+ * @author Carlos Rodrigues
+ */
+public class SessionPlayer extends Thread {
+	/**
+	 * Maior intervalo entre dois quadros que é esperado durante a reprodução
+	 */
+	private static final long MAX_GAP = 2000000;
+
+	private SessionArchive archive;
+	private SessionPlayerListener listener;
+	private DeltaDecoder decoder;
+	private volatile long position;
+	private boolean paused;
+	private boolean ended;
+	private boolean seeking;
+	private long seekTarget;
+	private boolean stopped;
+
+	/**
+	 * A reprodução começa pelo início da gravação assim que a thread é iniciada
+	 *
+	 * @param archive
+	 * @param listener
+	 */
+	public SessionPlayer(SessionArchive archive, SessionPlayerListener listener) {
+		super("SessionPlayer");
+		this.setDaemon(true);
+		this.archive = archive;
+		this.listener = listener;
+		this.decoder = new DeltaDecoder();
+		this.position = archive.getStartTime();
+		this.seeking = true;
+		this.seekTarget = archive.getStartTime();
+	}
+
+	public SessionArchive getArchive() {
+		return this.archive;
+	}
+
+	/**
+	 * Horário do último quadro exibido, em microssegundos desde 1970
+	 *
+	 * @return long
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * Vai para o horário informado, trazido para dentro da gravação
+	 *
+	 * @param timestamp em microssegundos desde 1970
+	 */
+	public synchronized void seek(long timestamp) {
+		this.seekTarget = Math.max(this.archive.getStartTime(), Math.min(this.archive.getEndTime(), timestamp));
+		this.seeking = true;
+		this.ended = false;
+		this.notifyAll();
+	}
+
+	/**
+	 * Avança ou volta a partir do horário atual
+	 *
+	 * @param micros
+	 */
+	public void seekRelative(long micros) {
+		this.seek(this.position + micros);
+	}
+
+	/**
+	 * Pausa ou continua a reprodução. Continuar depois do fim da gravação volta ao
+	 * início.
+	 *
+	 * @param paused
+	 */
+	public synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		if (!paused && this.ended) {
+			this.seek(this.archive.getStartTime());
+		}
+		this.notifyAll();
+	}
+
+	public synchronized boolean isPaused() {
+		return this.paused || this.ended;
+	}
+
+	/**
+	 * Encerra a reprodução
+	 */
+	public synchronized void stopPlayback() {
+		this.stopped = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Retorna o horário atual, o tempo decorrido e a duração da gravação em uma string
+	 * formatada
+	 *
+	 * @return String
+	 */
+	public String getStatsAsString() {
+		long start = this.archive.getStartTime();
+		return String.format("%s (%s / %s)%s",
+				new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(this.position / 1000)),
+				formatDuration(this.position - start), formatDuration(this.archive.getEndTime() - start),
+				this.isPaused() ? " pausado" : "");
+	}
+
+	@Override
+	public void run() {
+		SessionArchive.Reader reader = null;
+		boolean hasRecord = false;
+		long anchorTime = 0;
+		long anchorNanos = 0;
+		try {
+			while (true) {
+				boolean seek;
+				long target;
+				boolean resumed = false;
+				synchronized (this) {
+					while (!this.stopped && !this.seeking && (this.paused || this.ended)) {
+						this.wait();
+						resumed = true;
+					}
+					if (this.stopped) {
+						break;
+					}
+					seek = this.seeking;
+					target = this.seekTarget;
+					this.seeking = false;
+				}
+
+				if (seek) {
+					reader = this.archive.openReader(target);
+					hasRecord = this.seek(reader, target);
+					resumed = true;
+				}
+				if (resumed) {
+					anchorTime = this.position;
+					anchorNanos = System.nanoTime();
+				}
+
+				if (!hasRecord) {
+					if (!reader.next()) {
+						synchronized (this) {
+							this.ended = true;
+						}
+						continue;
+					}
+					hasRecord = true;
+				}
+
+				long timestamp = reader.getTimestamp();
+				if (timestamp - this.position > MAX_GAP) {
+					anchorTime = timestamp;
+					anchorNanos = System.nanoTime();
+				}
+				long wait = anchorNanos + (timestamp - anchorTime) * 1000 - System.nanoTime();
+				if (wait > 0) {
+					synchronized (this) {
+						if (!this.stopped && !this.seeking && !this.paused) {
+							this.wait(wait / 1000000, (int) (wait % 1000000));
+						}
+					}
+					continue;
+				}
+
+				this.show(this.decoder.decode(reader.getData(), 0, reader.getLength()), this.decoder.getDirtyRegion(),
+						timestamp);
+				hasRecord = false;
+			}
+		} catch (InterruptedException e) {
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Aplica, sem espera, os quadros desde o quadro completo até o horário e exibe a
+	 * imagem resultante
+	 *
+	 * @return boolean true caso o reader tenha lido o quadro seguinte ao horário, que
+	 *         ainda não foi aplicado
+	 */
+	private boolean seek(SessionArchive.Reader reader, long target) throws IOException {
+		BufferedImage image = null;
+		long timestamp = target;
+		boolean hasRecord = false;
+		while (reader.next()) {
+			if (image != null && reader.getTimestamp() > target) {
+				hasRecord = true;
+				break;
+			}
+			BufferedImage decoded = this.decoder.decode(reader.getData(), 0, reader.getLength());
+			if (decoded != null) {
+				image = decoded;
+				timestamp = reader.getTimestamp();
+			}
+		}
+		if (image != null) {
+			this.show(image, new Rectangle(0, 0, image.getWidth(), image.getHeight()), timestamp);
+		}
+		if (hasRecord) {
+			this.position = target;
+		}
+		return hasRecord;
+	}
+
+	private void show(BufferedImage image, Rectangle dirty, long timestamp) {
+		this.position = timestamp;
+		if (image != null) {
+			this.listener.onFrame(image, dirty, timestamp);
+		}
+	}
+
+	/**
+	 * Formata uma duração em microssegundos como minutos e segundos, com as horas quando
+	 * necessário
+	 */
+	private static String formatDuration(long micros) {
+		long seconds = Math.max(0, micros / 1000000);
+		if (seconds >= 3600) {
+			return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+		}
+		return String.format("%02d:%02d", seconds / 60, seconds % 60);
+	}
+}
@@ -0,0 +1,22 @@
+package remotedesktop.client.recording;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Listener para receber as imagens de uma gravação sendo reproduzida
+ *
+ * @author Carlos Rodrigues
+ */
+public interface SessionPlayerListener {
+	/**
+	 * Chamado pela thread do SessionPlayer sempre que um quadro é aplicado na imagem. A
+	 * imagem é a mesma enquanto a resolução não mudar, e deve ser lida com o lock dela
+	 * (ver DeltaDecoder).
+	 *
+	 * @param image
+	 * @param dirty área alterada, em coordenadas da imagem
+	 * @param timestamp horário da captura, em microssegundos desde 1970
+	 */
+	public void onFrame(BufferedImage image, Rectangle dirty, long timestamp);
+}
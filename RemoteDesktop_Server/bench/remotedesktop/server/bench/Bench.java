@@ -0,0 +1,129 @@
+package remotedesktop.server.bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import remotedesktop.server.framesource.SyntheticFrameSource;
+
+/**
+ * Mini harness de micro benchmarks.
+ *
+ * Cada tarefa é executada por um tempo de aquecimento e depois por um tempo de medição.
+ * O resultado informa operações por segundo, tempo médio por operação e bytes alocados
+ * por operação na thread que executa a tarefa.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class Bench {
+	public interface Task {
+		public void run() throws Exception;
+	}
+
+	private static final long WARMUP_NANOS = Long.getLong("bench.warmup", 2000) * 1000000L;
+	private static final long MEASURE_NANOS = Long.getLong("bench.measure", 3000) * 1000000L;
+
+	/**
+	 * Guarda os resultados das tarefas, para que o JIT não elimine o trabalho medido
+	 */
+	public static volatile Object sink;
+
+	private Bench() {
+	}
+
+	/**
+	 * Executa a tarefa e imprime uma linha com o resultado
+	 *
+	 * @param name
+	 * @param task
+	 * @throws Exception
+	 */
+	public static void run(String name, Task task) throws Exception {
+		long end = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < end) {
+			task.run();
+		}
+
+		long operations = 0;
+		long allocatedStart = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + MEASURE_NANOS;
+		long now;
+		do {
+			task.run();
+			operations++;
+		} while ((now = System.nanoTime()) < end);
+		long allocated = allocatedBytes() - allocatedStart;
+
+		double seconds = (now - start) / 1e9;
+		System.out.println(String.format("%-56s %10.1f ops/s %10.3f ms/op %14s alloc/op", name, operations / seconds,
+				seconds * 1000 / operations, allocatedStart < 0 ? "?" : formatBytes(allocated / operations)));
+	}
+
+	/**
+	 * Imprime uma linha informativa, usada para o tamanho dos quadros codificados
+	 *
+	 * @param name
+	 * @param value
+	 */
+	public static void info(String name, String value) {
+		System.out.println(String.format("%-56s %s", name, value));
+	}
+
+	/**
+	 * Gera duas imagens consecutivas do padrão sintético informado. As tarefas
+	 * alternam entre elas para simular a mudança da tela entre duas capturas.
+	 *
+	 * @param pattern
+	 * @param width
+	 * @param height
+	 * @return BufferedImage[]
+	 */
+	public static BufferedImage[] sampleFrames(SyntheticFrameSource.Pattern pattern, int width, int height) {
+		SyntheticFrameSource source = new SyntheticFrameSource(width, height, pattern);
+		BufferedImage[] frames = new BufferedImage[2];
+		for (int i = 0; i < frames.length; i++) {
+			BufferedImage capture = source.capture();
+			frames[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			frames[i].setData(capture.getRaster());
+		}
+		return frames;
+	}
+
+	/**
+	 * Lê uma lista de resoluções no formato "1280x720,1920x1080"
+	 *
+	 * @param spec
+	 * @return int[][]
+	 */
+	public static int[][] parseResolutions(String spec) {
+		String[] items = spec.split(",");
+		int[][] resolutions = new int[items.length][];
+		for (int i = 0; i < items.length; i++) {
+			String[] size = items[i].trim().split("x");
+			resolutions[i] = new int[] { Integer.parseInt(size[0]), Integer.parseInt(size[1]) };
+		}
+		return resolutions;
+	}
+
+	public static void consume(Object value) {
+		sink = value;
+	}
+
+	public static String formatBytes(long bytes) {
+		if (bytes >= 1048576) {
+			return String.format("%.2f MB", bytes / 1048576.0);
+		}
+		if (bytes >= 1024) {
+			return String.format("%.1f KB", bytes / 1024.0);
+		}
+		return bytes + " B";
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,106 @@
+package remotedesktop.server.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.delta.TileDeltaEncoder;
+import remotedesktop.server.framesource.FrameSource;
+import remotedesktop.server.framesource.FrameSources;
+
+/**
+ * Compara os codecs de tiles em tempo de codificação e tamanho por quadro, a partir de
+ * capturas de uma origem de imagens. Para medir com telas reais, grave algumas
+ * screenshots em uma pasta e use a origem "replay:<pasta>".
+ *
+ * Para cada codec e nível de qualidade são medidos o quadro completo e o quadro
+ * parcial, percorrendo as capturas em sequência. Antes da medição é impresso o
+ * tamanho médio de cada quadro.
+ *
+ * Uso: CodecBenchmark [origem] [codecs] [capturas]
+ * Exemplo: CodecBenchmark replay:/tmp/capturas raw,palette,auto,jpeg:50 8
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class CodecBenchmark {
+	public static void main(String[] args) throws Exception {
+		String source = args.length > 0 ? args[0] : "synthetic:scrolling-text";
+		String[] codecs = (args.length > 1 ? args[1] : "raw,png,jpeg").split(",");
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+		ImageIO.setUseCache(false);
+		BufferedImage[] frames = capture(FrameSources.fromSpec(source), count);
+		Bench.info("origem", String.format("%s, %d capturas de %dx%d", source, frames.length, frames[0].getWidth(),
+				frames[0].getHeight()));
+
+		for (String codec : codecs) {
+			for (QualityTier tier : QualityTier.values()) {
+				for (boolean keyframe : new boolean[] { true, false }) {
+					String name = String.format("codec %s %s %s", codec, tier, keyframe ? "keyframe" : "delta");
+					CodecTask task = new CodecTask(frames, codec, tier, keyframe);
+					Bench.info(name, Bench.formatBytes(task.encodedSize()) + " por quadro");
+					Bench.run(name, task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copia as capturas, pois as origens podem reaproveitar a imagem entre as capturas
+	 */
+	private static BufferedImage[] capture(FrameSource source, int count) throws Exception {
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		for (int i = 0; i < count; i++) {
+			BufferedImage capture = source.capture();
+			BufferedImage frame = new BufferedImage(capture.getWidth(), capture.getHeight(),
+					BufferedImage.TYPE_INT_RGB);
+			frame.setData(capture.getRaster());
+			frames.add(frame);
+		}
+		return frames.toArray(new BufferedImage[frames.size()]);
+	}
+
+	/**
+	 * Codifica as capturas em sequência com o codec informado, gerando apenas o quadro
+	 * parcial ou o parcial e o completo
+	 */
+	private static class CodecTask implements Bench.Task {
+		private BufferedImage[] frames;
+		private TileDeltaEncoder encoder;
+		private boolean keyframe;
+		private int index;
+
+		public CodecTask(BufferedImage[] frames, String codec, QualityTier tier, boolean keyframe) throws Exception {
+			this.frames = frames;
+			this.encoder = new TileDeltaEncoder(TileCodecs.create(codec, tier));
+			this.keyframe = keyframe;
+			this.encoder.encode(this.next(), true).release();
+		}
+
+		private BufferedImage next() {
+			return this.frames[this.index++ % this.frames.length];
+		}
+
+		public long encodedSize() throws Exception {
+			long total = 0;
+			for (int i = 0; i < this.frames.length; i++) {
+				DeltaFrame frame = this.encoder.encode(this.next(), this.keyframe);
+				total += this.keyframe ? frame.getKeyframe().getLength() : frame.getDelta().getLength();
+				frame.release();
+			}
+			return total / this.frames.length;
+		}
+
+		@Override
+		public void run() throws Exception {
+			DeltaFrame frame = this.encoder.encode(this.next(), this.keyframe);
+			Bench.consume(frame);
+			frame.release();
+		}
+	}
+}
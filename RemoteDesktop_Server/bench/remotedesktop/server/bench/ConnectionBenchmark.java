@@ -0,0 +1,186 @@
+package remotedesktop.server.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remotedesktop.server.datasender.SendQueue;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.input.InputCommand;
+import remotedesktop.server.network.Connection;
+import remotedesktop.server.network.ConnectionEngine;
+import remotedesktop.server.network.ConnectionEngineListener;
+import remotedesktop.server.network.ConnectionListener;
+import remotedesktop.server.network.NioEngine;
+import remotedesktop.server.network.ThreadEngine;
+
+/**
+ * Mede quantas threads e quanta memória um motor de rede usa para atender uma
+ * quantidade de clientes.
+ *
+ * Os clientes falsos são conexões de loopback lidas por uma única thread, que apenas
+ * descarta os dados recebidos. Um produtor coloca quadros do tamanho informado na fila
+ * de todos os clientes na taxa informada.
+ *
+ * Uso: ConnectionBenchmark [thread|nio] [clientes] [segundos] [bytes por quadro] [fps]
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ConnectionBenchmark {
+	private static final List<SendQueue> queues = new CopyOnWriteArrayList<SendQueue>();
+	private static final AtomicLong sentFrames = new AtomicLong();
+	private static final AtomicLong receivedBytes = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		String engineName = args.length > 0 ? args[0] : "nio";
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int frameSize = args.length > 3 ? Integer.parseInt(args[3]) : 32 * 1024;
+		int fps = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int baseThreads = threads.getThreadCount();
+		long baseMemory = usedMemory();
+
+		final ConnectionEngine engine = engineName.equals("thread") ? new ThreadEngine() : new NioEngine();
+		engine.bind(0);
+
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				engine.run(new ConnectionEngineListener() {
+					@Override
+					public void onConnection(Connection connection) throws IOException {
+						SendQueue queue = new SendQueue();
+						queues.add(queue);
+						connection.start(queue, new CountingListener());
+					}
+				});
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		FakeClients fakeClients = new FakeClients(engine.getLocalPort(), clients);
+		fakeClients.start();
+
+		while (queues.size() < clients) {
+			Thread.sleep(10);
+		}
+
+		byte[] payload = new byte[frameSize];
+		long interval = 1000000000L / fps;
+		long end = System.nanoTime() + seconds * 1000000000L;
+		long next = System.nanoTime();
+		long frames = 0;
+		while (System.nanoTime() < end) {
+			EncodedFrame frame = new EncodedFrame(payload);
+			for (SendQueue queue : queues) {
+				queue.offer(frame, true);
+			}
+			frame.release();
+			frames++;
+
+			next += interval;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+			}
+		}
+
+		System.out.println(String.format("motor: %s, clientes: %d, quadros produzidos: %d", engineName, clients, frames));
+		System.out.println(String.format("threads do servidor: %d (total %d, descontando a base e os clientes falsos)",
+				threads.getThreadCount() - baseThreads - 1, threads.getThreadCount()));
+		System.out.println(String.format("memória usada: %.1f MB (+%.1f MB)", usedMemory() / 1048576.0,
+				(usedMemory() - baseMemory) / 1048576.0));
+		System.out.println(String.format("quadros enviados: %d (%.1f por cliente/s), recebidos: %.1f MB/s",
+				sentFrames.get(), sentFrames.get() / (double) clients / seconds,
+				receivedBytes.get() / 1048576.0 / seconds));
+
+		System.exit(0);
+	}
+
+	private static long usedMemory() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class CountingListener implements ConnectionListener {
+		@Override
+		public void onCommand(Connection connection, String command) {
+		}
+
+		@Override
+		public void onInput(Connection connection, InputCommand command) {
+		}
+
+		@Override
+		public void onSendSuccess(Connection connection, int length, long nanos) {
+			sentFrames.incrementAndGet();
+		}
+
+		@Override
+		public void onSendError(Connection connection, IOException e) {
+		}
+
+		@Override
+		public void onClosed(Connection connection) {
+		}
+	}
+
+	/**
+	 * Clientes falsos, todos lidos por uma única thread
+	 */
+	private static class FakeClients extends Thread {
+		private int port;
+		private int count;
+
+		public FakeClients(int port, int count) {
+			this.port = port;
+			this.count = count;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Selector selector = Selector.open();
+				for (int i = 0; i < this.count; i++) {
+					SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", this.port));
+					channel.configureBlocking(false);
+					channel.register(selector, SelectionKey.OP_READ);
+				}
+
+				ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+				while (true) {
+					selector.select();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						buffer.clear();
+						int read = ((SocketChannel) key.channel()).read(buffer);
+						if (read < 0) {
+							key.cancel();
+						} else {
+							receivedBytes.addAndGet(read);
+						}
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package remotedesktop.server.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.delta.TileDeltaEncoder;
+import remotedesktop.server.framesource.SyntheticFrameSource;
+
+/**
+ * Compara a codificação de uma screenshot em imagens completas (gif, png e jpeg pelo
+ * ImageIO) com a codificação por tiles, em várias resoluções e tipos de conteúdo.
+ *
+ * Cada operação codifica uma das duas imagens de exemplo, alternando entre elas, de
+ * forma que a codificação por tiles sempre compara com a imagem anterior. Antes da
+ * medição é impresso o tamanho médio de cada quadro codificado.
+ *
+ * Uso: EncodeBenchmark [resoluções] [padrões]
+ * Exemplo: EncodeBenchmark 1280x720,1920x1080 static,scrolling-text,noise
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class EncodeBenchmark {
+	public static void main(String[] args) throws Exception {
+		int[][] resolutions = Bench.parseResolutions(args.length > 0 ? args[0] : "1280x720,1920x1080");
+		String[] patterns = (args.length > 1 ? args[1] : "static,scrolling-text,noise").split(",");
+
+		ImageIO.setUseCache(false);
+
+		for (int[] resolution : resolutions) {
+			for (String name : patterns) {
+				SyntheticFrameSource.Pattern pattern = SyntheticFrameSource.Pattern.fromName(name);
+				if (pattern == null) {
+					throw new IllegalArgumentException("Padrão desconhecido: " + name);
+				}
+
+				BufferedImage[] frames = Bench.sampleFrames(pattern, resolution[0], resolution[1]);
+				String prefix = String.format("encode %dx%d %s ", resolution[0], resolution[1], name);
+
+				for (String format : new String[] { "gif", "png", "jpeg" }) {
+					ImageIOTask task = new ImageIOTask(frames, format);
+					Bench.info(prefix + format, Bench.formatBytes(task.encodedSize()) + " por quadro");
+					Bench.run(prefix + format, task);
+				}
+
+				for (QualityTier tier : QualityTier.values()) {
+					TileTask delta = new TileTask(frames, tier, false);
+					Bench.info(prefix + "tiles delta " + tier, Bench.formatBytes(delta.encodedSize()) + " por quadro");
+					Bench.run(prefix + "tiles delta " + tier, delta);
+				}
+
+				TileTask keyframe = new TileTask(frames, QualityTier.TRUE_COLOR, true);
+				Bench.info(prefix + "tiles keyframe", Bench.formatBytes(keyframe.encodedSize()) + " por quadro");
+				Bench.run(prefix + "tiles keyframe", keyframe);
+			}
+		}
+	}
+
+	/**
+	 * Codifica a imagem inteira pelo ImageIO, como o servidor fazia com o gif
+	 */
+	private static class ImageIOTask implements Bench.Task {
+		private BufferedImage[] frames;
+		private String format;
+		private int index;
+
+		public ImageIOTask(BufferedImage[] frames, String format) {
+			this.frames = frames;
+			this.format = format;
+		}
+
+		public long encodedSize() throws Exception {
+			return this.encode().size();
+		}
+
+		private ByteArrayOutputStream encode() throws Exception {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			ImageIO.write(this.frames[this.index++ & 1], this.format, outputStream);
+			return outputStream;
+		}
+
+		@Override
+		public void run() throws Exception {
+			Bench.consume(this.encode());
+		}
+	}
+
+	/**
+	 * Codifica a imagem com o TileDeltaEncoder, gerando apenas o quadro parcial ou o
+	 * parcial e o completo
+	 */
+	private static class TileTask implements Bench.Task {
+		private BufferedImage[] frames;
+		private TileDeltaEncoder encoder;
+		private boolean keyframe;
+		private int index;
+
+		public TileTask(BufferedImage[] frames, QualityTier tier, boolean keyframe) throws Exception {
+			this.frames = frames;
+			this.encoder = new TileDeltaEncoder(tier);
+			this.keyframe = keyframe;
+			this.encoder.encode(frames[this.index++ & 1], true).release();
+		}
+
+		public long encodedSize() throws Exception {
+			long total = 0;
+			for (int i = 0; i < 4; i++) {
+				DeltaFrame frame = this.encoder.encode(this.frames[this.index++ & 1], this.keyframe);
+				total += this.keyframe ? frame.getKeyframe().getLength() : frame.getDelta().getLength();
+				frame.release();
+			}
+			return total / 4;
+		}
+
+		@Override
+		public void run() throws Exception {
+			DeltaFrame frame = this.encoder.encode(this.frames[this.index++ & 1], this.keyframe);
+			Bench.consume(frame);
+			frame.release();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package remotedesktop.server.bench;
+
+import java.io.DataOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import remotedesktop.server.datasender.DataSender;
+import remotedesktop.server.delta.EncodedFrame;
+
+/**
+ * Compara o envio de um quadro por serialização (ObjectOutputStream, como o servidor
+ * fazia) com o enquadramento por tamanho do DataSender, que inclui os horários de
+ * cada estágio.
+ *
+ * Os dados são escritos em um stream que apenas descarta os bytes, de forma que só o
+ * custo do enquadramento é medido. O ObjectOutputStream precisa de reset() a cada
+ * quadro, caso contrário guarda uma referência para cada array enviado.
+ *
+ * Uso: FramingBenchmark [tamanhos dos quadros em bytes]
+ * Exemplo: FramingBenchmark 4096,65536,1048576
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class FramingBenchmark {
+	public static void main(String[] args) throws Exception {
+		String[] sizes = (args.length > 0 ? args[0] : "4096,65536,1048576").split(",");
+
+		for (String size : sizes) {
+			final byte[] payload = new byte[Integer.parseInt(size.trim())];
+			final EncodedFrame frame = new EncodedFrame(payload);
+			String prefix = "frame " + Bench.formatBytes(payload.length) + " ";
+
+			final CountingOutputStream objectSink = new CountingOutputStream();
+			final ObjectOutputStream objectStream = new ObjectOutputStream(objectSink);
+			Bench.run(prefix + "ObjectOutputStream writeObject", new Bench.Task() {
+				@Override
+				public void run() throws Exception {
+					objectStream.writeObject(payload);
+					objectStream.flush();
+					objectStream.reset();
+				}
+			});
+
+			final ObjectOutputStream unsharedStream = new ObjectOutputStream(new CountingOutputStream());
+			Bench.run(prefix + "ObjectOutputStream writeUnshared", new Bench.Task() {
+				@Override
+				public void run() throws Exception {
+					unsharedStream.writeUnshared(payload);
+					unsharedStream.flush();
+					unsharedStream.reset();
+				}
+			});
+
+			final CountingOutputStream dataSink = new CountingOutputStream();
+			final DataOutputStream dataStream = new DataOutputStream(dataSink);
+			Bench.run(prefix + "DataSender.writeFrame", new Bench.Task() {
+				@Override
+				public void run() throws Exception {
+					DataSender.writeFrame(dataStream, frame, 0);
+				}
+			});
+
+			Bench.info(prefix + "bytes por quadro", String.format("serializado: %d, enquadrado: %d",
+					objectSink.perWrite(), dataSink.perWrite()));
+		}
+	}
+
+	/**
+	 * Descarta os bytes escritos, contando quantos bytes cada flush enviou
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private long bytes;
+		private long flushes;
+
+		@Override
+		public void write(int b) {
+			this.bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.bytes += len;
+		}
+
+		@Override
+		public void flush() {
+			this.flushes++;
+		}
+
+		public long perWrite() {
+			return this.flushes == 0 ? 0 : this.bytes / this.flushes;
+		}
+	}
+}
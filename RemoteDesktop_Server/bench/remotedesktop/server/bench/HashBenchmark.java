@@ -0,0 +1,49 @@
+package remotedesktop.server.bench;
+
+import java.awt.image.BufferedImage;
+
+import remotedesktop.server.autoscreenshot.FrameHasher;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.delta.TileDeltaEncoder;
+import remotedesktop.server.framesource.SyntheticFrameSource;
+
+/**
+ * Mede o custo de descobrir que uma screenshot não mudou.
+ *
+ * O FrameHasher é comparado com o que uma screenshot parada custava antes dele: a
+ * comparação dos tiles pelo TileDeltaEncoder, que precisa da imagem já reduzida e lê
+ * a imagem atual e a anterior inteiras.
+ *
+ * Uso: HashBenchmark [resoluções]
+ * Exemplo: HashBenchmark 1280x720,1920x1080,3840x2160
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class HashBenchmark {
+	public static void main(String[] args) throws Exception {
+		int[][] resolutions = Bench.parseResolutions(args.length > 0 ? args[0] : "1280x720,1920x1080,3840x2160");
+
+		for (int[] resolution : resolutions) {
+			final BufferedImage image = Bench.sampleFrames(SyntheticFrameSource.Pattern.SCROLLING_TEXT,
+					resolution[0], resolution[1])[0];
+			String prefix = String.format("unchanged %dx%d ", resolution[0], resolution[1]);
+
+			final FrameHasher hasher = new FrameHasher();
+			Bench.run(prefix + "FrameHasher", new Bench.Task() {
+				@Override
+				public void run() {
+					Bench.consume(hasher.update(image));
+				}
+			});
+
+			final TileDeltaEncoder encoder = new TileDeltaEncoder(QualityTier.TRUE_COLOR);
+			encoder.encode(image, false).release();
+			Bench.run(prefix + "TileDeltaEncoder", new Bench.Task() {
+				@Override
+				public void run() throws Exception {
+					encoder.encode(image, false).release();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package remotedesktop.server.bench;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.Protocol;
+import remotedesktop.server.Server;
+import remotedesktop.server.framesource.FrameSource;
+import remotedesktop.server.framesource.FrameSources;
+import remotedesktop.server.input.InputSink;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.network.ConnectionEngine;
+import remotedesktop.server.network.NioEngine;
+import remotedesktop.server.network.ThreadEngine;
+
+/**
+ * Mede o atraso dos comandos de mouse e teclado enquanto o servidor envia quadros pela
+ * mesma conexão, sem precisar de monitor.
+ *
+ * Um cliente de loopback recebe os quadros e, ao mesmo tempo, envia movimentos do
+ * ponteiro no ritmo informado, com uma tecla pressionada e solta a cada 50 movimentos.
+ * O destino dos comandos apenas registra o horário de execução de cada tecla, e o
+ * atraso é medido do envio pelo cliente até a execução no servidor. Os movimentos
+ * executados mostram quantos foram juntados.
+ *
+ * Uso: InputBenchmark [origem] [segundos] [movimentos por segundo] [motor]
+ * Exemplo: InputBenchmark synthetic:noise:1920x1080 10 1000 nio
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class InputBenchmark {
+	private static final int KEYS = 4096;
+
+	private static final long[] sentAt = new long[KEYS];
+	private static final LatencyHistogram latency = new LatencyHistogram("envio até a execução da tecla");
+	private static final AtomicLong executedMoves = new AtomicLong();
+	private static final AtomicLong receivedBytes = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		String source = args.length > 0 ? args[0] : "synthetic:noise:1920x1080";
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		ConnectionEngine engine = args.length > 3 && args[3].equals("thread") ? new ThreadEngine() : new NioEngine();
+
+		Logger.getInstance().disable();
+
+		Server server = new Server(0, engine, Collections.<String, FrameSource> singletonMap("default",
+				FrameSources.fromSpec(source)), new TimingSink());
+		server.setDaemon(true);
+		server.start();
+
+		Socket socket = new Socket("localhost", server.getLocalPort());
+		socket.setTcpNoDelay(true);
+		Viewer viewer = new Viewer(socket);
+		viewer.start();
+		Thread.sleep(1000);
+
+		OutputStream output = socket.getOutputStream();
+		byte[] move = new byte[5];
+		byte[] key = new byte[4];
+		long interval = 1000000000L / rate;
+		long sentMoves = 0;
+		int keys = 0;
+		long start = System.nanoTime();
+		long next = start;
+		while (System.nanoTime() - start < seconds * 1000000000L) {
+			long now;
+			while ((now = System.nanoTime()) < next) {
+				Thread.yield();
+			}
+			next += interval;
+
+			int x = (int) (sentMoves * 97 % 65536);
+			move[0] = Protocol.INPUT_POINTER_MOVE;
+			move[1] = (byte) (x >> 8);
+			move[2] = (byte) x;
+			move[3] = (byte) (x >> 8);
+			move[4] = (byte) x;
+			output.write(move);
+			sentMoves++;
+
+			if (sentMoves % 50 == 0) {
+				int code = keys++ % KEYS;
+				sentAt[code] = now;
+				key[0] = Protocol.INPUT_KEY;
+				key[1] = (byte) (code >> 8);
+				key[2] = (byte) code;
+				key[3] = 1;
+				output.write(key);
+				key[3] = 0;
+				output.write(key);
+			}
+		}
+		Thread.sleep(500);
+
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("origem: %s, motor: %s", source, engine.getClass().getSimpleName()));
+		System.out.println(String.format("quadros recebidos durante o teste: %.2f MB/s", receivedBytes.get() / elapsed / 1048576));
+		System.out.println(String.format("movimentos: %d enviados, %d executados", sentMoves, executedMoves.get()));
+		System.out.println(latency.getStatsAsString());
+
+		System.exit(0);
+	}
+
+	/**
+	 * Registra o atraso das teclas pressionadas e conta os movimentos executados
+	 */
+	private static class TimingSink implements InputSink {
+		@Override
+		public void pointerMove(int x, int y) {
+			executedMoves.incrementAndGet();
+		}
+
+		@Override
+		public void pointerButton(int button, boolean pressed) {
+		}
+
+		@Override
+		public void wheel(int amount) {
+		}
+
+		@Override
+		public void key(int keyCode, boolean pressed) {
+			if (pressed) {
+				latency.record(System.nanoTime() - sentAt[keyCode]);
+			}
+		}
+	}
+
+	/**
+	 * Cliente de loopback que apenas lê as mensagens
+	 */
+	private static class Viewer extends Thread {
+		private Socket socket;
+
+		public Viewer(Socket socket) {
+			this.socket = socket;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), 65536));
+				byte[] buffer = new byte[65536];
+				while (true) {
+					int length = input.readInt();
+					if (buffer.length < length) {
+						buffer = new byte[length];
+					}
+					input.readFully(buffer, 0, length);
+					receivedBytes.addAndGet(length + 4);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
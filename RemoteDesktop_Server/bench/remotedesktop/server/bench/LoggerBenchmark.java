@@ -0,0 +1,92 @@
+package remotedesktop.server.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+import remotedesktop.server.Logger;
+
+/**
+ * Mede o custo de uma chamada ao Logger para quem chama, comparando com a gravação
+ * síncrona que o Logger fazia antes (pilha de chamadas, String.format, replaceAll e
+ * SimpleDateFormat a cada mensagem, escrevendo direto na saída).
+ *
+ * As mensagens são escritas em uma saída que apenas descarta os bytes. Ao final é
+ * informado quantas mensagens foram descartadas por encontrarem o anel cheio.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class LoggerBenchmark {
+	public static void main(String[] args) throws Exception {
+		final PrintStream sink = new PrintStream(new NullOutputStream());
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+		Bench.run("síncrono (implementação anterior)", new Bench.Task() {
+			private int i;
+
+			@Override
+			public void run() {
+				String msg = String.format("Client (%d): Erro ao enviar dados. %d/10", this.i++, 3);
+				msg = msg.replaceAll("\n", "\n\t");
+				StackTraceElement traceElement = Thread.currentThread().getStackTrace()[1];
+				String location = String.format("%s.%s(%d)", traceElement.getClassName(),
+						traceElement.getMethodName(), traceElement.getLineNumber());
+				sink.print(String.format("%s | %7s | %s\n\t%s\n", dateFormat.format(Calendar.getInstance().getTime()),
+						"ERROR", location, msg));
+			}
+		});
+
+		final Logger logger = Logger.getInstance();
+		logger.addOutputStream(new NullOutputStream());
+		logger.setLevel(Logger.Category.INFO);
+		logger.start();
+
+		Bench.run("assíncrono, nível filtrado", new Bench.Task() {
+			private int i;
+
+			@Override
+			public void run() {
+				logger.debug("Client (%d): quadro enviado", this.i++);
+			}
+		});
+
+		Bench.run("assíncrono, mensagem sem parâmetros", new Bench.Task() {
+			@Override
+			public void run() {
+				logger.info("Sucesso ao enviar dados, zerando contador de erros.");
+			}
+		});
+
+		Bench.run("assíncrono, mensagem com parâmetros", new Bench.Task() {
+			private int i;
+
+			@Override
+			public void run() {
+				logger.error("Client (%d): Erro ao enviar dados. %d/10", this.i++, 3);
+			}
+		});
+
+		logger.setCallerLocation(true);
+		Bench.run("assíncrono, com classe e linha", new Bench.Task() {
+			private int i;
+
+			@Override
+			public void run() {
+				logger.error("Client (%d): Erro ao enviar dados. %d/10", this.i++, 3);
+			}
+		});
+
+		Bench.info("mensagens descartadas", String.valueOf(logger.getDroppedCount()));
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package remotedesktop.server.bench;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.Server;
+import remotedesktop.server.framesource.FrameSources;
+import remotedesktop.server.network.NioEngine;
+
+/**
+ * Mede o caminho completo captura → codificação → envio sem precisar de monitor.
+ *
+ * O servidor é iniciado com uma origem de imagens sintética ou uma gravação, e clientes
+ * de loopback recebem as mensagens, contando os quadros e os bytes recebidos.
+ *
+ * Uso: PipelineBenchmark [origem] [clientes] [segundos] [nível de qualidade]
+ * Exemplo: PipelineBenchmark synthetic:scrolling-text:1920x1080 4 10 TRUE_COLOR
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class PipelineBenchmark {
+	private static final AtomicLong receivedFrames = new AtomicLong();
+	private static final AtomicLong receivedBytes = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		String source = args.length > 0 ? args[0] : "synthetic:scrolling-text";
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		String tier = args.length > 3 ? args[3] : null;
+
+		Logger.getInstance().disable();
+
+		Server server = new Server(0, new NioEngine(), FrameSources.fromSpec(source));
+		server.setDaemon(true);
+		server.start();
+
+		for (int i = 0; i < clients; i++) {
+			Viewer viewer = new Viewer(server.getLocalPort(), tier);
+			viewer.start();
+		}
+
+		Thread.sleep(1000);
+		receivedFrames.set(0);
+		receivedBytes.set(0);
+		long cpuStart = processCpuTime();
+		long start = System.nanoTime();
+
+		Thread.sleep(seconds * 1000L);
+
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		double cpu = (processCpuTime() - cpuStart) / 1e9;
+
+		System.out.println(String.format("origem: %s, clientes: %d", source, clients));
+		System.out.println(String.format("captura: %s", server.getCaptureStatsAsString()));
+		System.out.println(String.format("quadros recebidos: %.1f por cliente/s, %.2f MB/s no total",
+				receivedFrames.get() / elapsed / clients, receivedBytes.get() / elapsed / 1048576));
+		System.out.println(String.format("cpu do processo: %.0f%% de um núcleo", cpu / elapsed * 100));
+
+		System.exit(0);
+	}
+
+	private static long processCpuTime() {
+		java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+		}
+		return 0;
+	}
+
+	/**
+	 * Cliente de loopback que apenas lê as mensagens
+	 */
+	private static class Viewer extends Thread {
+		private int port;
+		private String tier;
+
+		public Viewer(int port, String tier) {
+			this.port = port;
+			this.tier = tier;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Socket socket = new Socket("localhost", this.port);
+				if (this.tier != null) {
+					PrintStream output = new PrintStream(socket.getOutputStream(), true);
+					output.println("TIER " + this.tier);
+				}
+
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+				byte[] buffer = new byte[65536];
+				while (true) {
+					int length = input.readInt();
+					if (buffer.length < length) {
+						buffer = new byte[length];
+					}
+					input.readFully(buffer, 0, length);
+					receivedFrames.incrementAndGet();
+					receivedBytes.addAndGet(length + 4);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
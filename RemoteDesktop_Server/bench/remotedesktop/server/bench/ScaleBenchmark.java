@@ -0,0 +1,129 @@
+package remotedesktop.server.bench;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+
+import remotedesktop.server.framesource.SyntheticFrameSource;
+import remotedesktop.server.scaler.FastScaler;
+
+/**
+ * Compara formas de reduzir a screenshot antes da codificação.
+ *
+ * A primeira variante é a que o AutoScreenshot usava (getScaledInstance com
+ * SCALE_AREA_AVERAGING desenhado em uma nova imagem); em seguida vêm as variantes do
+ * Java2D e o FastScaler, com uma e com todas as threads. Para o FastScaler também é
+ * impressa a diferença média por canal em relação ao SCALE_AREA_AVERAGING.
+ *
+ * Uso: ScaleBenchmark [resoluções] [escala]
+ * Exemplo: ScaleBenchmark 1280x720,1920x1080,3840x2160 0.8
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ScaleBenchmark {
+	public static void main(String[] args) throws Exception {
+		int[][] resolutions = Bench.parseResolutions(args.length > 0 ? args[0] : "1280x720,1920x1080,3840x2160");
+		final float scale = args.length > 1 ? Float.parseFloat(args[1]) : 0.8f;
+
+		for (int[] resolution : resolutions) {
+			final BufferedImage source = Bench.sampleFrames(SyntheticFrameSource.Pattern.SCROLLING_TEXT,
+					resolution[0], resolution[1])[0];
+			final int width = (int) (resolution[0] * scale);
+			final int height = (int) (resolution[1] * scale);
+			String prefix = String.format("scale %dx%d -> %dx%d ", resolution[0], resolution[1], width, height);
+
+			Bench.run(prefix + "areaAveraging", new Bench.Task() {
+				@Override
+				public void run() {
+					Bench.consume(areaAveraging(source, width, height));
+				}
+			});
+
+			Bench.run(prefix + "drawImage nearest", new DrawImageTask(source, width, height,
+					RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR));
+			Bench.run(prefix + "drawImage bilinear", new DrawImageTask(source, width, height,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR));
+			Bench.run(prefix + "drawImage bicubic", new DrawImageTask(source, width, height,
+					RenderingHints.VALUE_INTERPOLATION_BICUBIC));
+
+			final AffineTransformOp op = new AffineTransformOp(AffineTransform.getScaleInstance(scale, scale),
+					AffineTransformOp.TYPE_BILINEAR);
+			final BufferedImage opTarget = new BufferedImage(width, height, source.getType());
+			Bench.run(prefix + "affineTransformOp bilinear", new Bench.Task() {
+				@Override
+				public void run() {
+					Bench.consume(op.filter(source, opTarget));
+				}
+			});
+
+			BufferedImage reference = areaAveraging(source, width, height);
+			int threads = Runtime.getRuntime().availableProcessors();
+			for (FastScaler.Filter filter : FastScaler.Filter.values()) {
+				for (int count : threads > 1 ? new int[] { 1, threads } : new int[] { 1 }) {
+					final FastScaler scaler = new FastScaler(filter, count);
+					String name = prefix + "FastScaler " + filter + " " + count + "t";
+					Bench.info(name, String.format("diferença média: %.2f",
+							difference(reference, scaler.scale(source, width, height))));
+					Bench.run(name, new Bench.Task() {
+						@Override
+						public void run() {
+							Bench.consume(scaler.scale(source, width, height));
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private static BufferedImage areaAveraging(BufferedImage source, int width, int height) {
+		BufferedImage target = new BufferedImage(width, height, source.getType());
+		Graphics2D g2d = target.createGraphics();
+		g2d.drawImage(source.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, width, height, null);
+		g2d.dispose();
+		return target;
+	}
+
+	/**
+	 * Diferença média por canal entre duas imagens do mesmo tamanho
+	 */
+	private static double difference(BufferedImage a, BufferedImage b) {
+		long total = 0;
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				int pa = a.getRGB(x, y);
+				int pb = b.getRGB(x, y);
+				total += Math.abs(((pa >> 16) & 0xFF) - ((pb >> 16) & 0xFF));
+				total += Math.abs(((pa >> 8) & 0xFF) - ((pb >> 8) & 0xFF));
+				total += Math.abs((pa & 0xFF) - (pb & 0xFF));
+			}
+		}
+		return total / (3.0 * a.getWidth() * a.getHeight());
+	}
+
+	/**
+	 * Desenha a imagem reduzida em uma imagem de destino reaproveitada
+	 */
+	private static class DrawImageTask implements Bench.Task {
+		private BufferedImage source;
+		private BufferedImage target;
+		private Object interpolation;
+
+		public DrawImageTask(BufferedImage source, int width, int height, Object interpolation) {
+			this.source = source;
+			this.target = new BufferedImage(width, height, source.getType());
+			this.interpolation = interpolation;
+		}
+
+		@Override
+		public void run() {
+			Graphics2D g2d = this.target.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, this.interpolation);
+			g2d.drawImage(this.source, 0, 0, this.target.getWidth(), this.target.getHeight(), null);
+			g2d.dispose();
+			Bench.consume(this.target);
+		}
+	}
+}
@@ -4,8 +4,22 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
+import javax.management.JMException;
+
 import remotedesktop.server.Logger;
 import remotedesktop.server.Server;
+import remotedesktop.server.cursor.CursorTracker;
+import remotedesktop.server.cursor.MouseInfoCursorSource;
+import remotedesktop.server.framesource.FrameSources;
+import remotedesktop.server.input.InputSink;
+import remotedesktop.server.input.RobotInputSink;
+import remotedesktop.server.metrics.MetricsHttpServer;
+import remotedesktop.server.metrics.MetricsMBean;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.network.ConnectionEngine;
+import remotedesktop.server.network.NioEngine;
+import remotedesktop.server.network.ThreadEngine;
+import remotedesktop.server.recording.SessionRecorder;
 
 /**
  * Esse é um software de código aberto para área de trabalho remota desenvolvido em java.
@@ -24,7 +38,66 @@ import remotedesktop.server.Server;
  */
 
 public class Main {
-	private static final boolean ENABLE_LOGGING = false;
+	private static final boolean ENABLE_LOGGING = true;
+
+	/**
+	 * Nível mínimo das mensagens gravadas, escolhido pela propriedade
+	 * remotedesktop.logLevel: ERROR, WARNING, INFO (padrão) ou DEBUG. A propriedade
+	 * remotedesktop.logLocation=true grava também a classe, o método e a linha de cada
+	 * mensagem, o que é bem mais custoso.
+	 */
+	private static final String LOG_LEVEL = System.getProperty("remotedesktop.logLevel", "INFO");
+	private static final boolean LOG_LOCATION = Boolean.getBoolean("remotedesktop.logLocation");
+
+	/**
+	 * Motor de rede, escolhido pela propriedade remotedesktop.engine:
+	 * "thread" (padrão) usa sockets bloqueantes com duas threads por cliente,
+	 * "nio" usa Selectors com uma quantidade fixa de threads para todos os clientes.
+	 */
+	private static final String ENGINE = System.getProperty("remotedesktop.engine", "thread");
+
+	/**
+	 * Origens das imagens, escolhidas pela propriedade remotedesktop.source, cada uma
+	 * transmitida como um stream. Várias origens são separadas por ponto e vírgula:
+	 * "screens" (padrão) captura cada monitor, "screen:<n>" um monitor,
+	 * "region:<x>,<y>,<largura>,<altura>" uma região da área de trabalho, "robot" a tela
+	 * principal, "synthetic:<padrão>[:<largura>x<altura>]" gera imagens sintéticas e
+	 * "replay:<pasta>" reproduz as imagens de uma pasta.
+	 */
+	private static final String SOURCE = System.getProperty("remotedesktop.source", "screens");
+
+	/**
+	 * Controle de mouse e teclado pelos clientes, escolhido pela propriedade
+	 * remotedesktop.input: "none" (padrão) ignora os comandos e os clientes apenas
+	 * assistem, "robot" executa os comandos com java.awt.Robot. As conexões não são
+	 * autenticadas, então com "robot" qualquer um que alcance a porta controla a máquina.
+	 */
+	private static final String INPUT = System.getProperty("remotedesktop.input", "none");
+
+	/**
+	 * Ponteiro enviado aos clientes por fora dos quadros, consultado
+	 * remotedesktop.cursorRate vezes por segundo (padrão 100). Um valor 0 desativa o
+	 * envio do ponteiro.
+	 */
+	private static final int CURSOR_RATE = Integer.getInteger("remotedesktop.cursorRate", CursorTracker.DEFAULT_RATE);
+
+	/**
+	 * Pasta onde as sessões são gravadas, escolhida pela propriedade remotedesktop.record
+	 * (sem gravação por padrão). Cada stream é gravado em uma pasta própria, a
+	 * remotedesktop.recordFps screenshots por segundo (padrão 5), com os tiles no codec
+	 * remotedesktop.recordCodec (padrão "auto"). As gravações são assistidas no cliente.
+	 */
+	private static final String RECORD = System.getProperty("remotedesktop.record");
+	private static final int RECORD_FPS = Integer.getInteger("remotedesktop.recordFps", SessionRecorder.DEFAULT_FPS);
+	private static final String RECORD_CODEC = System.getProperty("remotedesktop.recordCodec",
+			SessionRecorder.DEFAULT_CODEC);
+
+	/**
+	 * Porta local onde as métricas são exportadas em texto (http://localhost:<porta>/metrics),
+	 * escolhida pela propriedade remotedesktop.metricsPort. Um valor negativo desativa o
+	 * servidor HTTP; as métricas continuam disponíveis por JMX.
+	 */
+	private static final int METRICS_PORT = Integer.getInteger("remotedesktop.metricsPort", 12346);
 	
 	public static void main(String[] args) {
 		config();
@@ -32,19 +105,67 @@ public class Main {
 		Logger logger = Logger.getInstance();
 		
 		logger.info("Iniciando Servidor...");
+		startMetrics();
 		try {
-			Server server = new Server(12345);
+			Server server = new Server(12345, createEngine(), FrameSources.fromSpecs(SOURCE), createInputSink());
+			if (CURSOR_RATE > 0) {
+				server.setCursorSource(new MouseInfoCursorSource(), CURSOR_RATE);
+			}
+			if (RECORD != null) {
+				server.startRecording(new File(RECORD), RECORD_CODEC, RECORD_FPS);
+			}
 			server.start();
 		} catch (IOException | AWTException e) {
 			logger.printStackTrace(e);
 		}
 	}
 	
+	/**
+	 * Exporta as métricas por JMX e, caso a porta não seja negativa, por HTTP. Uma falha
+	 * aqui não impede o servidor de iniciar.
+	 */
+	private static void startMetrics() {
+		Logger logger = Logger.getInstance();
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		try {
+			new MetricsMBean(registry).register();
+		} catch (JMException e) {
+			logger.printStackTrace(e);
+		}
+
+		if (METRICS_PORT >= 0) {
+			try {
+				MetricsHttpServer metricsServer = new MetricsHttpServer(registry);
+				metricsServer.start(METRICS_PORT);
+				logger.info("Métricas em http://localhost:" + metricsServer.getPort() + "/metrics");
+			} catch (IOException e) {
+				logger.printStackTrace(e);
+			}
+		}
+	}
+
+	private static InputSink createInputSink() throws AWTException {
+		if (!INPUT.equals("robot")) {
+			return null;
+		}
+		Logger.getInstance().warning("Controle de mouse e teclado ativado para todos os clientes, sem autenticação");
+		return new RobotInputSink();
+	}
+
+	private static ConnectionEngine createEngine() {
+		if (ENGINE.equals("nio")) {
+			return new NioEngine();
+		}
+		return new ThreadEngine();
+	}
+
 	private static void config() {
 		Logger logger = Logger.getInstance();
 		if(!ENABLE_LOGGING) {
 			logger.disable();
 		}
+		logger.setLevel(Logger.Category.valueOf(LOG_LEVEL.toUpperCase()));
+		logger.setCallerLocation(LOG_LOCATION);
 		//logger.addOutputStream(System.out);
 		try {
 			logger.addOutputStream(new FileOutputStream(new File("log.txt"), true));
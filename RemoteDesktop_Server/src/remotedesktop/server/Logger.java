@@ -1,133 +1,501 @@
 package remotedesktop.server;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Essa classe grava os logs do sistema
- * 
+ *
+ * A gravação é assíncrona: quem chama o log apenas preenche um evento de um anel
+ * pré-alocado, sem formatar nada, e uma thread própria formata os eventos e os escreve
+ * em lotes nas saídas. As mensagens abaixo do nível configurado são descartadas antes
+ * de qualquer trabalho. Caso o anel esteja cheio, a mensagem é descartada e a
+ * quantidade de mensagens descartadas é registrada no log.
+ *
+ * As mensagens podem ter parâmetros no formato do String.format, que só é chamado pela
+ * thread do log. Por isso os parâmetros não devem ser alterados depois da chamada.
+ *
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
 public class Logger {
-	enum Category {
-		ERROR, INFO, WARNING
+	public enum Category {
+		ERROR, WARNING, INFO, DEBUG
 	}
 
-	private boolean disabled = false;
+	/**
+	 * Quantidade de eventos do anel, deve ser uma potência de dois
+	 */
+	private static final int CAPACITY = 8192;
 
-	private List<PrintStream> printers;
-	private SimpleDateFormat dateFormat;
+	/**
+	 * Intervalo em que a thread do log procura novos eventos quando o anel está vazio
+	 */
+	private static final long IDLE_PARK_NANOS = 5000000;
+
+	private volatile boolean disabled = false;
+	private volatile Category level;
+	private volatile boolean callerLocation;
+
+	private List<WritableByteChannel> channels;
+	private Event[] events;
+	private AtomicLong next;
+	private volatile long consumed;
+	private AtomicLong dropped;
+	private TimestampFormatter timestampFormatter;
+	private Flusher flusher;
 	private boolean started;
 
 	private Logger() {
-		this.printers = new ArrayList<PrintStream>();
-		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		this.channels = new ArrayList<WritableByteChannel>();
+		this.level = Category.INFO;
+		this.events = new Event[CAPACITY];
+		for (int i = 0; i < CAPACITY; i++) {
+			this.events[i] = new Event(i - CAPACITY);
+		}
+		this.next = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.timestampFormatter = new TimestampFormatter();
 		this.started = false;
 	}
 
-	private String printAll(String text) {
-		for (PrintStream printer : this.printers) {
-			printer.print(text);
+	/**
+	 * Inicia a thread que escreve os logs. As mensagens registradas antes disso ficam no
+	 * anel e são escritas em seguida.
+	 */
+	public synchronized void start() {
+		if (this.started) {
+			return;
 		}
-		return text;
-	}
-
-	private String getDataAtual() {
-		return this.dateFormat.format(Calendar.getInstance().getTime());
-	}
-
-	public void start() {
-		this.printAll("\nNovo log iniciado em " + this.getDataAtual() + "\n\n");
 		this.started = true;
-	}
+		this.flusher = new Flusher();
+		this.flusher.write("\nNovo log iniciado em " + this.timestampFormatter.format(System.currentTimeMillis())
+				+ "\n\n");
+		this.flusher.start();
 
-	public void printStackTrace(Exception e) {
-		e.printStackTrace();
+		Runtime.getRuntime().addShutdownHook(new Thread("Logger-Shutdown") {
+			@Override
+			public void run() {
+				Logger.this.stop();
+			}
+		});
 	}
 
 	/**
-	 * Adiciona espaçoes em branco na frente do texto ate o mesmo ter o
-	 * comprimento igual ao atributo length
-	 * 
-	 * @param text
-	 * @param length
-	 * @return String
+	 * Escreve os eventos pendentes e encerra a thread do log
 	 */
-	private String textFormat(String text, int length) {
-		StringBuilder blankSpaces = new StringBuilder("");
-
-		for (int i = 0; i < length - text.length(); i++) {
-			blankSpaces.append(' ');
+	public void stop() {
+		Flusher flusher;
+		synchronized (this) {
+			flusher = this.flusher;
 		}
+		if (flusher == null) {
+			return;
+		}
+		flusher.stopping = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		return blankSpaces.append(text).toString();
+	/**
+	 * Registra a exceção com o nível ERROR, incluindo a pilha de chamadas. Enquanto o
+	 * log não estiver gravando, a exceção é escrita na saída de erro.
+	 *
+	 * @param e
+	 */
+	public void printStackTrace(Exception e) {
+		if (this.disabled || !this.started) {
+			e.printStackTrace();
+			return;
+		}
+		this.publish(Category.ERROR, null, null, e);
 	}
 
 	/**
-	 * Adiciona stream de saida para o log
-	 * 
+	 * Adiciona stream de saida para o log. Os arquivos são escritos diretamente pelo
+	 * FileChannel.
+	 *
 	 * @param outputStream
 	 * @return Logger
 	 */
-	public Logger addOutputStream(OutputStream outputStream) {
+	public synchronized Logger addOutputStream(OutputStream outputStream) {
 		if (this.started) {
 			throw new RuntimeException("The logger is started!");
 		}
 
-		this.printers
-				.add(outputStream instanceof PrintStream ? (PrintStream) outputStream : new PrintStream(outputStream));
+		this.channels.add(outputStream instanceof FileOutputStream ? ((FileOutputStream) outputStream).getChannel()
+				: Channels.newChannel(outputStream));
 
 		return this;
 	}
 
+	/**
+	 * Define o nível mínimo das mensagens gravadas
+	 *
+	 * @param level
+	 */
+	public void setLevel(Category level) {
+		this.level = level;
+	}
+
+	/**
+	 * Define se a classe, o método e a linha de quem chamou o log devem ser gravados.
+	 * Obter essa informação exige percorrer a pilha de chamadas a cada mensagem, por
+	 * isso vem desativado, e no lugar dela é gravado o nome da thread.
+	 *
+	 * @param callerLocation
+	 */
+	public void setCallerLocation(boolean callerLocation) {
+		this.callerLocation = callerLocation;
+	}
+
+	/**
+	 * Indica se as mensagens do nível informado são gravadas. Pode ser usado para evitar
+	 * montar os parâmetros de uma mensagem que seria descartada.
+	 *
+	 * @param category
+	 * @return boolean
+	 */
+	public boolean isEnabled(Category category) {
+		return !this.disabled && category.ordinal() <= this.level.ordinal();
+	}
+
 	/**
 	 * Grava os logs em todas as saídas adicionadas
-	 * 
+	 *
 	 * @param category
-	 * @param msg
-	 * @return String
+	 * @param format mensagem, ou formato do String.format caso existam parâmetros
+	 * @param args
 	 */
-	public String log(Category category, String msg) {
-		if (this.disabled) {
-			return msg;
-		}
-		if (!this.started) {
-			throw new RuntimeException("This logger is not started!");
+	public void log(Category category, String format, Object... args) {
+		if (!this.isEnabled(category)) {
+			return;
 		}
+		this.publish(category, format, args, null);
+	}
 
-		msg = msg.replaceAll("\n", "\n\t");
-
-		StackTraceElement traceElement = Thread.currentThread().getStackTrace()[3];
-		String location = String.format("%s.%s(%d)", traceElement.getClassName(), traceElement.getMethodName(),
-				traceElement.getLineNumber());
-
-		return this.printAll(String.format("%s | %s | %s\n\t%s\n", this.getDataAtual(),
-				this.textFormat(category.toString(), 7), location, msg));
+	public void info(String format, Object... args) {
+		this.log(Category.INFO, format, args);
 	}
 
-	public void info(String msg) {
-		this.log(Category.INFO, msg);
+	public void error(String format, Object... args) {
+		this.log(Category.ERROR, format, args);
 	}
 
-	public void error(String msg) {
-		this.log(Category.ERROR, msg);
+	public void warning(String format, Object... args) {
+		this.log(Category.WARNING, format, args);
 	}
 
-	public void warning(String msg) {
-		this.log(Category.WARNING, msg);
+	public void debug(String format, Object... args) {
+		this.log(Category.DEBUG, format, args);
 	}
 
 	public void disable() {
 		this.disabled = true;
 	}
 
+	/**
+	 * Quantidade de mensagens descartadas por encontrarem o anel cheio
+	 *
+	 * @return long
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Reserva um evento do anel e o preenche. Vários produtores podem reservar eventos
+	 * ao mesmo tempo; um evento só é reservado quando a thread do log já consumiu o
+	 * evento que ocupava a mesma posição na volta anterior.
+	 */
+	private void publish(Category category, String format, Object[] args, Throwable throwable) {
+		long sequence;
+		do {
+			sequence = this.next.get();
+			if (sequence - this.consumed >= CAPACITY) {
+				this.dropped.incrementAndGet();
+				return;
+			}
+		} while (!this.next.compareAndSet(sequence, sequence + 1));
+
+		Event event = this.events[(int) (sequence & (CAPACITY - 1))];
+		event.time = System.currentTimeMillis();
+		event.category = category;
+		event.format = format;
+		event.args = args;
+		event.throwable = throwable;
+		event.thread = Thread.currentThread().getName();
+		event.location = this.callerLocation ? findCaller() : null;
+		event.sequence = sequence;
+	}
+
+	/**
+	 * Retorna o primeiro elemento da pilha de chamadas que não pertence ao Logger
+	 */
+	private static StackTraceElement findCaller() {
+		for (StackTraceElement element : new Throwable().getStackTrace()) {
+			if (!element.getClassName().startsWith(Logger.class.getName())) {
+				return element;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Evento do anel. O número de sequência é escrito por último e indica que o evento
+	 * está pronto para ser consumido.
+	 */
+	private static class Event {
+		private volatile long sequence;
+		private long time;
+		private Category category;
+		private String format;
+		private Object[] args;
+		private Throwable throwable;
+		private String thread;
+		private StackTraceElement location;
+
+		public Event(long sequence) {
+			this.sequence = sequence;
+		}
+
+		private void clear() {
+			this.format = null;
+			this.args = null;
+			this.throwable = null;
+			this.location = null;
+		}
+	}
+
+	/**
+	 * Formata os horários no formato yyyy-MM-dd HH:mm:ss.SSS. A parte até os segundos é
+	 * reaproveitada enquanto o segundo não muda, e pode ser usada por várias threads.
+	 */
+	private static class TimestampFormatter {
+		private SimpleDateFormat dateFormat;
+		private volatile CachedSecond cached;
+
+		public TimestampFormatter() {
+			this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			this.cached = new CachedSecond(Long.MIN_VALUE, "");
+		}
+
+		public String format(long millis) {
+			StringBuilder builder = new StringBuilder(23);
+			this.append(builder, millis);
+			return builder.toString();
+		}
+
+		public void append(StringBuilder builder, long millis) {
+			long second = Math.floorDiv(millis, 1000);
+			CachedSecond cached = this.cached;
+			if (cached.second != second) {
+				String text;
+				synchronized (this.dateFormat) {
+					text = this.dateFormat.format(new Date(second * 1000));
+				}
+				this.cached = cached = new CachedSecond(second, text);
+			}
+
+			int fraction = (int) Math.floorMod(millis, 1000);
+			builder.append(cached.text).append('.');
+			builder.append((char) ('0' + fraction / 100)).append((char) ('0' + fraction / 10 % 10))
+					.append((char) ('0' + fraction % 10));
+		}
+
+		private static class CachedSecond {
+			private final long second;
+			private final String text;
+
+			public CachedSecond(long second, String text) {
+				this.second = second;
+				this.text = text;
+			}
+		}
+	}
+
+	/**
+	 * Thread que consome os eventos do anel, formata e escreve em lotes. A thread não é
+	 * interrompida para encerrar, pois isso fecharia os FileChannels no meio da escrita.
+	 */
+	private class Flusher extends Thread {
+		private volatile boolean stopping;
+		private StringBuilder text;
+		private CharsetEncoder encoder;
+		private ByteBuffer bytes;
+
+		public Flusher() {
+			super("Logger");
+			this.setDaemon(true);
+			this.text = new StringBuilder(64 * 1024);
+			this.encoder = StandardCharsets.UTF_8.newEncoder();
+			this.bytes = ByteBuffer.allocate(64 * 1024);
+		}
+
+		@Override
+		public void run() {
+			Logger owner = Logger.this;
+			long reportedDrops = 0;
+			while (true) {
+				boolean stopping = this.stopping;
+				int count = this.drain();
+
+				long drops = owner.dropped.get();
+				if (drops != reportedDrops) {
+					this.text.append(String.format("%s | %7s | %s\n\t%d mensagens descartadas, o log está cheio\n",
+							owner.timestampFormatter.format(System.currentTimeMillis()), Category.WARNING,
+							this.getName(), drops - reportedDrops));
+					reportedDrops = drops;
+				}
+				this.flush();
+
+				if (stopping && count == 0) {
+					return;
+				}
+				if (count == 0) {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+			}
+		}
+
+		/**
+		 * Formata os eventos prontos, até o tamanho de um lote
+		 */
+		private int drain() {
+			Logger owner = Logger.this;
+			int count = 0;
+			long cursor = owner.consumed;
+			while (this.text.length() < 60 * 1024) {
+				Event event = owner.events[(int) (cursor & (CAPACITY - 1))];
+				if (event.sequence != cursor) {
+					break;
+				}
+				this.format(event);
+				event.clear();
+				owner.consumed = ++cursor;
+				count++;
+			}
+			return count;
+		}
+
+		private void format(Event event) {
+			Logger owner = Logger.this;
+			owner.timestampFormatter.append(this.text, event.time);
+			this.text.append(" | ");
+			String category = event.category.name();
+			for (int i = category.length(); i < 7; i++) {
+				this.text.append(' ');
+			}
+			this.text.append(category).append(" | ");
+			if (event.location != null) {
+				this.text.append(event.location.getClassName()).append('.').append(event.location.getMethodName())
+						.append('(').append(event.location.getLineNumber()).append(')');
+			} else {
+				this.text.append(event.thread);
+			}
+			this.text.append("\n\t");
+
+			if (event.format != null) {
+				String message;
+				try {
+					message = event.args == null || event.args.length == 0 ? event.format
+							: String.format(event.format, event.args);
+				} catch (RuntimeException e) {
+					message = event.format + " (" + e + ")";
+				}
+				this.appendIndented(message);
+			}
+
+			// A exceção, quando existe, substitui a mensagem
+			if (event.throwable != null) {
+				StringWriter trace = new StringWriter();
+				event.throwable.printStackTrace(new PrintWriter(trace));
+				this.appendIndented(trace.toString().trim());
+			}
+			this.text.append('\n');
+		}
+
+		/**
+		 * Adiciona o texto, com uma tabulação depois de cada quebra de linha
+		 */
+		private void appendIndented(String message) {
+			for (int i = 0; i < message.length(); i++) {
+				char c = message.charAt(i);
+				this.text.append(c);
+				if (c == '\n') {
+					this.text.append('\t');
+				}
+			}
+		}
+
+		/**
+		 * Adiciona um texto ao próximo lote, usado antes da thread iniciar
+		 */
+		public void write(String text) {
+			this.text.append(text);
+		}
+
+		/**
+		 * Codifica o lote e o escreve em todas as saídas
+		 */
+		private void flush() {
+			if (this.text.length() == 0) {
+				return;
+			}
+
+			CharBuffer chars = CharBuffer.wrap(this.text);
+			this.encoder.reset();
+			while (true) {
+				CoderResult result = this.encoder.encode(chars, this.bytes, true);
+				if (result.isOverflow()) {
+					this.writeBytes();
+				} else {
+					break;
+				}
+			}
+			this.encoder.flush(this.bytes);
+			this.writeBytes();
+			this.text.setLength(0);
+		}
+
+		private void writeBytes() {
+			this.bytes.flip();
+			for (WritableByteChannel channel : Logger.this.channels) {
+				ByteBuffer view = this.bytes.duplicate();
+				try {
+					while (view.hasRemaining()) {
+						channel.write(view);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			this.bytes.clear();
+		}
+	}
+
 	private static Logger instance;
 
-	public static Logger getInstance() {
+	public static synchronized Logger getInstance() {
 		if (instance == null) {
 			instance = new Logger();
 		}
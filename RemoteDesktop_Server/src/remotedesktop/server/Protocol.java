@@ -0,0 +1,106 @@
+package remotedesktop.server;
+
+/**
+ * Constantes do protocolo de comunicação com os clientes.
+ *
+ * Toda mensagem enviada ao cliente é composta por um inteiro com o tamanho da
+ * mensagem, seguido de um byte com o tipo da mensagem e do conteúdo. Essa classe
+ * deve ser mantida igual à classe de mesmo nome no projeto do cliente.
+ *
+ * Os comandos enviados pelo cliente são linhas de texto:
+ *
+ * - "HELLO viewport=<largura>x<altura> codec=<codec> tier=<nível> fps=<n> bandwidth=<kbps>
+ * stream=<número>": enviado logo após conectar, com as preferências do cliente, todos
+ * os campos opcionais. O codec é raw, palette, png, jpeg[:qualidade] ou
+ * auto[:qualidade]. O servidor escolhe o perfil de saída (largura, codec, nível de
+ * qualidade e quadros por segundo) mais próximo entre os poucos que mantém;
+ * - "TIER <nome>": muda apenas o nível de qualidade;
+ * - "STREAM <número>": passa a receber outro stream da lista MSG_STREAMS, começando
+ * por um quadro completo;
+ * - "PING <horário do cliente>": o servidor responde com MSG_PONG, usado para estimar
+ * a diferença entre os relógios;
+ * - "DISCONNECT": encerra a conexão.
+ *
+ * Os comandos de mouse e teclado são binários, para que cheguem e sejam interpretados
+ * o quanto antes: no início de uma linha, um byte INPUT_* (que nunca é o primeiro
+ * caractere de um comando de texto) seguido de um conteúdo de tamanho fixo, com os
+ * números em big endian. Depois do conteúdo vem o próximo comando, sem quebra de linha.
+ *
+ * Todos os horários são em microssegundos desde 1970, cada lado usando o próprio
+ * relógio.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class Protocol {
+	/**
+	 * Quadro codificado em tiles: os horários de cada estágio (TIMING_SIZE bytes)
+	 * seguidos do quadro, ver DeltaProtocol
+	 */
+	public static final int MSG_FRAME = 1;
+
+	/**
+	 * Resposta ao PING: o horário enviado pelo cliente e o horário do servidor, dois
+	 * longs
+	 */
+	public static final int MSG_PONG = 2;
+
+	/**
+	 * Streams disponíveis no servidor, enviado logo após conectar: texto UTF-8 com uma
+	 * linha por stream, "<número> <nome> <x> <y> <largura> <altura>". O cliente começa
+	 * inscrito no stream 0.
+	 */
+	public static final int MSG_STREAMS = 3;
+
+	/**
+	 * Posição do ponteiro, enviada sempre que muda: um byte com 1 quando o ponteiro está
+	 * sobre o stream do cliente e 0 quando está fora dele, seguido de x e y, shorts sem
+	 * sinal, a posição na imagem de 0 a 65535, como nos comandos de entrada
+	 */
+	public static final int MSG_CURSOR_POS = 4;
+
+	/**
+	 * Formato do ponteiro, enviado ao conectar e sempre que muda: largura, altura e o
+	 * ponto da imagem que indica a posição (quatro shorts), seguidos dos pixels ARGB, um
+	 * int por pixel. O ponteiro é desenhado no tamanho original, sem redução.
+	 */
+	public static final int MSG_CURSOR_SHAPE = 5;
+
+	/**
+	 * Enviado no lugar dos quadros enquanto a tela do stream não muda, no máximo uma vez
+	 * por segundo: o número de sequência e o horário da última screenshot (dois longs).
+	 * Indica que o servidor continua capturando e que a imagem do cliente está atual.
+	 */
+	public static final int MSG_KEEPALIVE = 6;
+
+	/**
+	 * Movimento do ponteiro: x e y, shorts sem sinal, a posição na imagem do stream de 0
+	 * (esquerda ou topo) a 65535 (direita ou base), independente da resolução recebida
+	 */
+	public static final int INPUT_POINTER_MOVE = 1;
+
+	/**
+	 * Botão do mouse: um byte com o botão (1 esquerdo, 2 do meio, 3 direito) e um byte
+	 * com 1 para pressionado e 0 para solto. Vale a posição do último movimento.
+	 */
+	public static final int INPUT_POINTER_BUTTON = 2;
+
+	/**
+	 * Roda do mouse: short com a quantidade de passos, positiva para baixo
+	 */
+	public static final int INPUT_WHEEL = 3;
+
+	/**
+	 * Tecla: short sem sinal com o código de java.awt.event.KeyEvent e um byte com 1 para
+	 * pressionada e 0 para solta
+	 */
+	public static final int INPUT_KEY = 4;
+
+	/**
+	 * Tamanho dos horários no início de cada quadro. Seis longs: número de sequência,
+	 * captura, redução, codificação, entrada na fila de envio e início do envio.
+	 */
+	public static final int TIMING_SIZE = 48;
+
+	private Protocol() {
+	}
+}
@@ -1,113 +1,246 @@
 package remotedesktop.server;
 
 import java.awt.AWTException;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.imageio.ImageIO;
-
-import remotedesktop.server.autoscreenshot.AutoScreenshot;
-import remotedesktop.server.autoscreenshot.AutoScreenshotListener;
 import remotedesktop.server.client.Client;
 import remotedesktop.server.client.ClientListener;
+import remotedesktop.server.concurrent.DaemonThreadFactory;
+import remotedesktop.server.cursor.CursorSource;
+import remotedesktop.server.cursor.CursorTracker;
+import remotedesktop.server.framesource.FrameSource;
+import remotedesktop.server.framesource.RobotFrameSource;
+import remotedesktop.server.input.InputCommand;
+import remotedesktop.server.input.InputDispatcher;
+import remotedesktop.server.input.InputSink;
+import remotedesktop.server.metrics.Gauge;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.network.Connection;
+import remotedesktop.server.network.ConnectionEngine;
+import remotedesktop.server.network.ConnectionEngineListener;
+import remotedesktop.server.network.ThreadEngine;
+import remotedesktop.server.profile.HelloRequest;
+import remotedesktop.server.profile.OutputProfile;
+import remotedesktop.server.profile.OutputProfiles;
+import remotedesktop.server.recording.SessionRecorder;
+import remotedesktop.server.stream.ScreenStream;
 
 /**
  * Éssa é a classe Server. 
  * Extende da classe Thread, assumindo assim o comportamento da mesma de iniciar um processamento
  * paralelo. Necessário para que se fique escutando uma determinada porta e adicionando novas conexões
  * 
+ * As conexões são aceitas e tratadas pelo motor de rede informado no construtor.
+ * 
+ * O servidor transmite um ou mais streams (ver ScreenStream), cada um com a sua
+ * própria captura e codificação, por exemplo um por monitor. Cada cliente está
+ * inscrito em um único stream, o stream 0 até pedir outro.
+ * 
+ * Os comandos de mouse e teclado dos clientes são convertidos para coordenadas da
+ * área de trabalho dentro do stream de cada cliente e executados pelo InputDispatcher,
+ * numa thread própria. Sem um InputSink os clientes apenas assistem.
+ * 
+ * O ponteiro, quando acompanhado (ver setCursorSource), é enviado por fora dos quadros
+ * pelo CursorTracker.
+ * 
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
-public class Server extends Thread implements AutoScreenshotListener, ClientListener {
+public class Server extends Thread implements ClientListener, ConnectionEngineListener {
 	private Logger logger;
-	private ServerSocket serverSocket;
-	private AutoScreenshot screenShooter;
+	private ConnectionEngine engine;
+	private List<ScreenStream> streams;
 	private List<Client> clients;
+	private ExecutorService encodePool;
+	private int encodeThreads;
+	private InputDispatcher inputDispatcher;
+	private CursorTracker cursorTracker;
+	private List<SessionRecorder> recorders;
 	
 	/**
-	 * Construtor
+	 * Construtor, usa o motor de rede com sockets bloqueantes, sem controle de mouse e
+	 * teclado
 	 * @param port
 	 * @throws IOException
 	 * @throws AWTException
 	 */
 	public Server(int port) throws IOException, AWTException {
-		this.logger = Logger.getInstance();
-		this.serverSocket = new ServerSocket(port);
-		this.clients = new ArrayList<Client>();
+		this(port, new ThreadEngine(), Collections.<String, FrameSource> singletonMap("default", new RobotFrameSource()));
 	}
-	
+
 	/**
-	 * Grencia inicia e encerra o processo de auto screenshot.
-	 * Esse processo necessita dessa gerência, pois caso não haja nenhum cliente conectado,
-	 * o mesmo estará desperdiçando recursos do sistema, o que pode acarretar em perda de 
-	 * desempenho para o usuário do computador
-	 * 
-	 * Recebe um parâmetro booleano para definir se o processo será iniciado ou interrompido,
-	 * true para iniciar e false para interromper.
-	 * 
-	 * Caso esteja tentando iniciar o processo, primeiramente é verificado se já existe
-	 * um processo rodando, verificando se a variavel screeshooter é nula, se sim, não existem 
-	 * processos de auto-screenshot, e é iniciado um novo processo, se não, nada é feito.
-	 * 
-	 * Para o caso de interrupção do processo, é feito o inverso do descrito anteriormente
-	 * @param start
+	 * Construtor com um único stream
+	 * @param port
+	 * @param engine motor de rede que aceita e trata as conexões
+	 * @param frameSource origem das imagens enviadas aos clientes
+	 * @throws IOException
 	 */
-	private void startAutoScreenshot(boolean start) {
-		if (!start) { 
-			if (this.screenShooter == null) 
-				return; 
+	public Server(int port, ConnectionEngine engine, FrameSource frameSource) throws IOException {
+		this(port, engine, Collections.singletonMap("default", frameSource));
+	}
 
-			this.logger.info("Interrompendo Auto-Screenshot...");
+	/**
+	 * Construtor sem controle de mouse e teclado
+	 * @param port
+	 * @param engine motor de rede que aceita e trata as conexões
+	 * @param frameSources origens das imagens, uma por stream, indexadas pelo nome do
+	 *            stream; os streams são numerados na ordem do mapa
+	 * @throws IOException
+	 */
+	public Server(int port, ConnectionEngine engine, Map<String, FrameSource> frameSources) throws IOException {
+		this(port, engine, frameSources, null);
+	}
 
-			this.screenShooter.interrupt();
-			this.screenShooter = null;
+	/**
+	 * Construtor
+	 * @param port
+	 * @param engine motor de rede que aceita e trata as conexões
+	 * @param frameSources origens das imagens, uma por stream, indexadas pelo nome do
+	 *            stream; os streams são numerados na ordem do mapa
+	 * @param inputSink destino dos comandos de mouse e teclado, ou null para ignorá-los
+	 * @throws IOException
+	 */
+	public Server(int port, ConnectionEngine engine, Map<String, FrameSource> frameSources, InputSink inputSink)
+			throws IOException {
+		this.logger = Logger.getInstance();
+		this.engine = engine;
+		this.engine.bind(port);
+		this.clients = new CopyOnWriteArrayList<Client>();
 
-			return;
+		/**
+		 * Os perfis são codificados um após o outro, e cada imagem é dividida em faixas
+		 * codificadas em paralelo, uma por núcleo. A thread que chama o codificador
+		 * codifica a primeira faixa, por isso o pool tem uma thread a menos. O pool é
+		 * compartilhado por todos os streams.
+		 */
+		this.encodeThreads = Runtime.getRuntime().availableProcessors();
+		this.encodePool = this.encodeThreads > 1
+				? Executors.newFixedThreadPool(this.encodeThreads - 1, new DaemonThreadFactory("Encoder")) : null;
+
+		List<ScreenStream> streams = new ArrayList<ScreenStream>();
+		for (Map.Entry<String, FrameSource> entry : new LinkedHashMap<String, FrameSource>(frameSources).entrySet()) {
+			ScreenStream stream = new ScreenStream(streams.size(), entry.getKey(), entry.getValue(), this.encodePool,
+					this.encodeThreads);
+			streams.add(stream);
+			this.logger.info("Stream " + stream.getDescription());
 		}
+		this.streams = Collections.unmodifiableList(streams);
 
-		if (this.screenShooter != null) 
-			return;
+		if (inputSink != null) {
+			this.inputDispatcher = new InputDispatcher(inputSink);
+			this.inputDispatcher.start();
+		}
+
+		MetricsRegistry.getInstance().register("remotedesktop_clients", "Clientes conectados", MetricsRegistry.Type.GAUGE, new Gauge() {
+			@Override
+			public long getValue() {
+				return Server.this.clients.size();
+			}
+		});
+	}
 
-		this.logger.info("Iniciando auto screenshot");
-		try {
-			this.screenShooter = new AutoScreenshot();
-			this.screenShooter.addAutoScreenshotListener(this);
-			this.screenShooter.start();
-		} catch (AWTException e) {
-			this.logger.printStackTrace(e);
-			System.exit(1);
+	/**
+	 * Retorna os streams transmitidos, na ordem dos números
+	 * 
+	 * @return List
+	 */
+	public List<ScreenStream> getStreams() {
+		return this.streams;
+	}
+
+	/**
+	 * Passa a acompanhar o ponteiro e enviá-lo aos clientes por fora dos quadros. Deve
+	 * ser chamado uma única vez.
+	 * 
+	 * @param source
+	 * @param rate consultas da posição por segundo
+	 */
+	public void setCursorSource(CursorSource source, int rate) {
+		if (this.cursorTracker != null) {
+			throw new IllegalStateException("O ponteiro já está sendo acompanhado");
 		}
+		this.cursorTracker = new CursorTracker(source, this.streams, this.clients, rate);
+		this.cursorTracker.start();
+	}
 
+	/**
+	 * Passa a gravar as screenshots de cada stream em uma pasta própria, dentro da pasta
+	 * informada, nomeada com o horário de início e o nome do stream. Os streams só são
+	 * gravados enquanto possuem clientes. Deve ser chamado uma única vez, antes de o
+	 * servidor aceitar conexões.
+	 * 
+	 * @param directory
+	 * @param codec codec dos tiles, ver TileCodecs
+	 * @param fps screenshots gravadas por segundo
+	 * @throws IOException
+	 */
+	public void startRecording(File directory, String codec, int fps) throws IOException {
+		if (this.recorders != null) {
+			throw new IllegalStateException("Os streams já estão sendo gravados");
+		}
+		this.recorders = new ArrayList<SessionRecorder>();
+		String start = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		for (ScreenStream stream : this.streams) {
+			File streamDirectory = new File(directory, start + "-" + stream.getName().replaceAll("[^\\w.-]", "_"));
+			SessionRecorder recorder = new SessionRecorder(streamDirectory, stream.getName(), codec, fps,
+					SessionRecorder.DEFAULT_KEYFRAME_INTERVAL);
+			stream.setRecorder(recorder);
+			recorder.start();
+			this.recorders.add(recorder);
+		}
+	}
+
+	private ScreenStream getStream(Client client) {
+		return this.streams.get(client.getStreamId());
 	}
 	
 	/**
 	 * Adiciona um novo cliente à lista de clientes conectados.
 	 * 
-	 * Recebe um objeto do tipo Socket, e usa-o para instanciar uma classe cliente,
+	 * Recebe a conexão aceita pelo motor de rede, e usa-a para instanciar uma classe cliente,
 	 * que é a classe responsavel por tratar da comunicação com um cliente única.
 	 * Após a instância do objeto cliente o mesmo é adicionado à lista de clientes conectados.
 	 * 
-	 * Após isso é chamado o método para iniciar o processo de auto screenshot
+	 * O cliente recebe a lista de streams e é inscrito no stream 0, o que inicia a
+	 * captura desse stream caso ainda não esteja rodando.
 	 * 
-	 * @param socket
+	 * @param connection
 	 * @throws IOException
 	 */
-	private void addNewClient(Socket socket) throws IOException {
+	@Override
+	public void onConnection(Connection connection) throws IOException {
 		this.logger.info("Novo cliente conectado!");
 
-		Client client = new Client(socket, this);
-		client.start();
-
+		Client client = new Client(connection, this);
 		this.clients.add(client);
+		client.sendMessage(Protocol.MSG_STREAMS, this.getStreamList());
+		client.start();
 
 		this.logger.info(client.getClientDetailsAsString());
 		
-		this.startAutoScreenshot(true);
+		this.getStream(client).addClient(client);
+	}
+
+	/**
+	 * Lista de streams enviada aos clientes, uma linha por stream
+	 */
+	private byte[] getStreamList() {
+		StringBuilder builder = new StringBuilder();
+		for (ScreenStream stream : this.streams) {
+			builder.append(stream.getDescription()).append('\n');
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
 	}
 	
 	/**
@@ -115,62 +248,165 @@ public class Server extends Thread implements AutoScreenshotListener, ClientList
 	 */
 	@Override
 	public void run() {
-		while (true) {
-			try {
-				this.addNewClient(this.serverSocket.accept());
-			} catch (Exception e) {
-				this.logger.printStackTrace(e);
+		this.engine.run(this);
+	}
+
+	/**
+	 * Retorna a porta onde as conexões são aceitas
+	 * 
+	 * @return int
+	 */
+	public int getLocalPort() {
+		return this.engine.getLocalPort();
+	}
+
+	/**
+	 * Retorna, para cada stream com a captura rodando, o ritmo atual das screenshots, a
+	 * memória alocada por screenshot, o uso do pool de buffers e o tempo de cada estágio
+	 * em uma string formatada, ou null caso nenhum stream esteja capturando
+	 * 
+	 * @return String
+	 */
+	public String getCaptureStatsAsString() {
+		StringBuilder builder = new StringBuilder();
+		for (ScreenStream stream : this.streams) {
+			String stats = stream.getCaptureStatsAsString();
+			if (stats == null) {
+				continue;
+			}
+			if (builder.length() > 0) {
+				builder.append('\n');
 			}
+			if (this.streams.size() > 1) {
+				builder.append("stream ").append(stream.getName()).append(": ");
+			}
+			builder.append(stats);
 		}
+		return builder.length() == 0 ? null : builder.toString();
 	}
 
 	/**
-	 * Nova screenshot pronta tratada e pronta para ser enviada.
-	 * Esse método é um dos métodos do AutoScreenshotListener, é chamado sempre que
-	 * ele tira uma nova screenshot.
+	 * Chamado quando o cliente informa suas preferências, logo após conectar.
 	 * 
-	 * Esse método transforma a imagem em bytes, e percorre a lista de clientes solicitando
-	 * o envio dos bytes para suas devidas máquinas
+	 * Caso o cliente peça um stream, ele é inscrito nesse stream. O perfil pedido pelo
+	 * cliente passa a ser o perfil de saída mais próximo do que informou, de acordo com
+	 * a largura do stream.
+	 */
+	@Override
+	public void onHello(Client client, HelloRequest hello) {
+		synchronized (client) {
+			if (hello.getStream() >= 0) {
+				this.moveToStream(client, hello.getStream());
+			}
+			OutputProfile profile = OutputProfiles.select(hello, this.getStream(client).getSourceWidth());
+			client.setRequestedProfile(profile);
+			this.logger.info("Cliente " + client.getClientId() + " pediu " + hello + ", perfil: " + profile);
+
+			this.onQualityChange(client);
+		}
+	}
+
+	/**
+	 * Chamado quando o cliente pede outro stream. O perfil é recalculado, pois a
+	 * largura do stream pode ser outra.
 	 */
 	@Override
-	public void onScreenshot(BufferedImage image) {
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
+	public void onStreamRequest(Client client, int stream) {
+		synchronized (client) {
+			if (this.moveToStream(client, stream)) {
+				this.onQualityChange(client);
+			}
+		}
+	}
 
-		try {
-			ImageIO.write(image, "gif", output);
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Troca o stream do cliente, retornando false caso o stream não exista ou seja o
+	 * atual
+	 */
+	private boolean moveToStream(Client client, int id) {
+		if (id < 0 || id >= this.streams.size()) {
+			this.logger.error("Cliente %d pediu um stream inexistente: %d", client.getClientId(), id);
+			return false;
 		}
 
-		byte[] bytes = output.toByteArray();
+		ScreenStream current = this.getStream(client);
+		ScreenStream next = this.streams.get(id);
+		if (current == next) {
+			return false;
+		}
 
-		/**
-		 * O Codigo abaixo é um foreach, uma nova instância do array é criada
-		 * pois existem outras threads que podem entar alterar a lista original
-		 * durante o processamento do foreach, o que ocasionaria um erro, pois a lista
-		 * não pode sofrer alterações durante esse processamento, então o foreach percorre a cópia
-		 * enquanto a variavel original fica livre para receber novos elementos.
-		 */
-		for (Client client : new ArrayList<Client>(this.clients)) {
-			client.sendBytes(bytes);
+		this.logger.info("Cliente " + client.getClientId() + ": stream " + next.getName());
+		current.removeClient(client);
+		client.setStreamId(id);
+		next.addClient(client);
+		return true;
+	}
+
+	/**
+	 * Recalcula o perfil efetivo do cliente: o perfil pedido, descendo tantos degraus
+	 * quanto o nível de degradação, limitado ao perfil mais baixo. Caso o perfil mude, a
+	 * largura e o ritmo das screenshots do stream são ajustados aos perfis em uso.
+	 */
+	@Override
+	public void onQualityChange(Client client) {
+		synchronized (client) {
+			ScreenStream stream = this.getStream(client);
+			int sourceWidth = stream.getSourceWidth();
+			int level = client.getQualityLevel();
+			OutputProfile profile = client.getRequestedProfile();
+			OutputProfile selected = profile;
+			int maxLevel = 0;
+			while ((profile = OutputProfiles.degrade(profile, sourceWidth)) != null) {
+				if (++maxLevel <= level) {
+					selected = profile;
+				}
+			}
+			client.setMaxQualityLevel(maxLevel);
+
+			if (!selected.equals(client.getProfile())) {
+				this.logger.info("Cliente " + client.getClientId() + ": perfil " + selected + " (nível "
+						+ Math.min(level, maxLevel) + ", " + client.getSendStatsAsString() + ")");
+				client.setProfile(selected);
+				stream.updateCaptureSettings();
+			}
 		}
 	}
-	
+
+	/**
+	 * Converte a posição do comando para a área do stream do cliente e o coloca na fila
+	 * do InputDispatcher, acelerando as screenshots desse stream para que a reação ao
+	 * comando apareça o quanto antes
+	 */
+	@Override
+	public void onInput(Client client, InputCommand command) {
+		if (this.inputDispatcher == null) {
+			return;
+		}
+		ScreenStream stream = this.getStream(client);
+		this.inputDispatcher.offer(client, command.toScreen(stream.getBounds()));
+		stream.wake();
+	}
+
 	/**
 	 * Chamado quando um cliente é desconectado.
 	 * 
-	 * Sempre que um cliente é desconectado, o objeto Cliente é removido da lista.
-	 * Caso não existam mais clientes na lista, significa que não existem clientes conectados,
-	 * sendo assim, o processo de auto-screenshot é interrompido, para liberar os recursos do sistema
+	 * Sempre que um cliente é desconectado, o objeto Cliente é removido da lista e do
+	 * stream em que estava inscrito. Caso o stream fique sem clientes, a captura dele é
+	 * interrompida, para liberar os recursos do sistema. Teclas e botões que o cliente
+	 * deixou pressionados são soltos.
 	 */
 	@Override
 	public void onDisconnected(Client client) {
 		this.clients.remove(client);
 
-		this.logger.info("Cliente desconectado: " + client.getClientId());
+		this.logger.info("Cliente desconectado: " + client.getClientId() + " (" + client.getSendStatsAsString() + ")");
+
+		synchronized (client) {
+			this.getStream(client).removeClient(client);
+		}
 
-		if (this.clients.size() == 0) {
-			this.startAutoScreenshot(false);
+		if (this.inputDispatcher != null) {
+			this.inputDispatcher.release(client);
 		}
 	}
 }
@@ -1,33 +1,189 @@
 package remotedesktop.server.autoscreenshot;
 
 import java.awt.AWTException;
-import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Rectangle;
-import java.awt.Robot;
-import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.autoscreenshot.CaptureScheduler.ThrottleReason;
+import remotedesktop.server.framesource.FrameSource;
+import remotedesktop.server.framesource.RobotFrameSource;
+import remotedesktop.server.memory.AllocationMeter;
+import remotedesktop.server.metrics.Clock;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.FrameTiming;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.scaler.FastScaler;
 
 /**
  * Classe responsável por tirar screenshots da tela e chamar um evento para
  * receber as imagens
  * 
+ * O trabalho é dividido em estágios: esta thread captura e reduz as imagens, e uma
+ * segunda thread as entrega aos listeners (codificação e envio). Os estágios são
+ * ligados por uma fila limitada, assim o ritmo máximo é definido pelo estágio mais
+ * lento e não pela soma de todos. O tempo de cada estágio é registrado em um
+ * histograma, também exportado pelo MetricsRegistry com o rótulo stream, já que
+ * cada stream do servidor tem o seu próprio AutoScreenshot.
+ * 
+ * Logo após a captura, a imagem é comparada com a anterior pelo FrameHasher. Uma
+ * screenshot igual à anterior não é reduzida nem entregue aos listeners: eles recebem
+ * apenas onUnchanged, e uma tela parada custa só a captura e o hash. A screenshot é
+ * entregue mesmo sem mudanças quando a largura máxima muda, quando invalidate() é
+ * chamado ou quando algum listener pede em onUnchanged. O tempo do hash é contado
+ * no estágio de captura.
+ * 
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
 public class AutoScreenshot extends Thread {
+	public static final int DEFAULT_MAX_FPS = 20;
+	public static final int DEFAULT_MIN_FPS = 2;
+
+	/**
+	 * Quantidade de screenshots que podem aguardar a thread dos listeners. As imagens
+	 * reduzidas formam um anel com uma imagem a mais que as que podem estar em uso (a
+	 * que está sendo reduzida, as da fila e a que os listeners estão tratando).
+	 */
+	private static final int QUEUE_CAPACITY = 1;
 
-	private Robot robot;
-	private Rectangle imageSize;
+	private Logger logger;
+	private FrameSource source;
 	private List<AutoScreenshotListener> listeners;
-	private float widthP;
+	private volatile int maxWidth;
+	private FastScaler scaler;
+	private CaptureScheduler scheduler;
+	private AllocationMeter captureAllocation;
+	private AllocationMeter scaleAllocation;
+	private AllocationMeter processAllocation;
+	private BlockingQueue<Screenshot> queue;
+	private volatile Thread dispatcher;
+	private LatencyHistogram captureTime;
+	private LatencyHistogram scaleTime;
+	private LatencyHistogram queueTime;
+	private LatencyHistogram processTime;
+	private LatencyHistogram totalTime;
+	private Counter capturedFrames;
+	private Counter unchangedFrames;
+	private FrameHasher hasher;
+	private AtomicBoolean invalidated;
+	private int deliveredWidth;
+	private long sequence;
+	private String stream;
 
+	/**
+	 * Captura a tela principal através do java.awt.Robot
+	 * 
+	 * @throws AWTException
+	 */
 	public AutoScreenshot() throws AWTException {
-		this.robot = new Robot();
-		this.imageSize = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
+		this(new RobotFrameSource());
+	}
+
+	/**
+	 * Captura as imagens da origem informada
+	 * 
+	 * @param source
+	 */
+	public AutoScreenshot(FrameSource source) {
+		this(source, "default");
+	}
+
+	/**
+	 * Captura as imagens da origem informada, registrando as métricas com o nome do
+	 * stream
+	 * 
+	 * @param source
+	 * @param stream
+	 */
+	public AutoScreenshot(FrameSource source, String stream) {
+		super("AutoScreenshot-" + stream);
+		this.stream = stream;
+		this.logger = Logger.getInstance();
+		this.source = source;
 		this.listeners = new ArrayList<AutoScreenshotListener>();
-		this.widthP = (float) 0.8;
+		this.maxWidth = 0;
+		this.scaler = new FastScaler(FastScaler.Filter.BOX, Runtime.getRuntime().availableProcessors(),
+				QUEUE_CAPACITY + 2);
+		this.scheduler = new CaptureScheduler(DEFAULT_MAX_FPS, DEFAULT_MIN_FPS);
+		this.captureAllocation = new AllocationMeter();
+		this.scaleAllocation = new AllocationMeter();
+		this.processAllocation = new AllocationMeter();
+		this.queue = new ArrayBlockingQueue<Screenshot>(QUEUE_CAPACITY);
+		this.captureTime = new LatencyHistogram("captura");
+		this.scaleTime = new LatencyHistogram("redução");
+		this.queueTime = new LatencyHistogram("espera pela codificação");
+		this.processTime = new LatencyHistogram("codificação e envio");
+		this.totalTime = new LatencyHistogram("total");
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		String[] stages = { "capture", "scale", "queue", "process", "total" };
+		List<LatencyHistogram> histograms = this.getStageHistograms();
+		for (int i = 0; i < stages.length; i++) {
+			registry.register("remotedesktop_pipeline_stage_seconds", "Tempo de cada estágio das screenshots",
+					histograms.get(i), "stream", stream, "stage", stages[i]);
+		}
+		this.capturedFrames = registry.counter("remotedesktop_frames_captured_total", "Screenshots capturadas",
+				"stream", stream);
+		this.unchangedFrames = registry.counter("remotedesktop_frames_unchanged_total",
+				"Screenshots iguais à anterior, não reduzidas nem codificadas", "stream", stream);
+		this.hasher = new FrameHasher();
+		this.invalidated = new AtomicBoolean();
+		this.deliveredWidth = -1;
+	}
+
+	/**
+	 * Retorna o agendador que controla o ritmo das screenshots. Os listeners devem
+	 * informar a ele se as screenshots estão mudando e se os clientes estão acompanhando.
+	 * 
+	 * @return CaptureScheduler
+	 */
+	public CaptureScheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * Retorna a memória alocada por screenshot em uma string formatada, separando a
+	 * captura (que com o java.awt.Robot sempre gera uma imagem nova) da redução e dos
+	 * listeners, que devem ficar próximos de zero
+	 * 
+	 * @return String
+	 */
+	public String getAllocationStatsAsString() {
+		return String.format("alocado por screenshot: captura %.1f KB, redução %.1f KB, codificação e envio %.1f KB",
+				this.captureAllocation.getAverage() / 1024, this.scaleAllocation.getAverage() / 1024,
+				this.processAllocation.getAverage() / 1024);
+	}
+
+	/**
+	 * Retorna os histogramas de tempo de cada estágio, na ordem do processamento. O
+	 * último histograma é o tempo total, da captura até o fim dos listeners.
+	 * 
+	 * @return List
+	 */
+	public List<LatencyHistogram> getStageHistograms() {
+		return Arrays.asList(this.captureTime, this.scaleTime, this.queueTime, this.processTime, this.totalTime);
+	}
+
+	/**
+	 * Retorna o tempo de cada estágio em uma string formatada, uma linha por estágio
+	 * 
+	 * @return String
+	 */
+	public String getPipelineStatsAsString() {
+		StringBuilder builder = new StringBuilder();
+		for (LatencyHistogram histogram : this.getStageHistograms()) {
+			if (builder.length() > 0) {
+				builder.append('\n');
+			}
+			builder.append(histogram.getStatsAsString());
+		}
+		return builder.toString();
 	}
 
 	/**
@@ -41,50 +197,186 @@ public class AutoScreenshot extends Thread {
 	}
 
 	/**
-	 * Recebe um image e aplica alguns tratamento para reduzir a qualidade e
-	 * consequentemente o tamanho
+	 * Faz com que a próxima screenshot seja entregue aos listeners mesmo que não tenha
+	 * mudado, usado quando um cliente novo precisa de uma imagem
+	 */
+	public void invalidate() {
+		this.invalidated.set(true);
+	}
+
+	/**
+	 * Define a largura máxima das screenshots entregues aos listeners, normalmente a
+	 * maior largura pedida pelos clientes. Com 0 as screenshots mantêm a resolução
+	 * original.
+	 * 
+	 * @param maxWidth
+	 */
+	public void setMaxWidth(int maxWidth) {
+		this.maxWidth = maxWidth;
+	}
+
+	/**
+	 * Reduz a imagem para a largura máxima, mantendo a proporção
 	 * 
 	 * @param buffImage
 	 * @return BufferedImage
 	 */
 	private BufferedImage prepare(BufferedImage buffImage) {
-		float width = buffImage.getWidth();
-		float height = buffImage.getHeight();
-
-		/**
-		 * Obtém a porcentagem da altura em relação a largura Reduz a largura à
-		 * porcentagem definida Calcula a nova altura com base na porcentagem
-		 * obtida anteriormente
-		 */
-		float percent = height / width;
-		width = width * this.widthP;
-		height = percent * width;
+		int width = buffImage.getWidth();
+		int height = buffImage.getHeight();
+		int maxWidth = this.maxWidth;
+		if (maxWidth > 0 && maxWidth < width) {
+			height = (int) ((long) height * maxWidth / width);
+			width = maxWidth;
+		}
 
 		/**
-		 * Cria uma nova umagem vazia Gera o objeto Graphics2D(Responsável por
-		 * desenhar a imagem antiga na nova imagem) Obtém uma imagem
-		 * redimensionada e desenha ela na nova imagem
+		 * A imagem reduzida é reaproveitada entre as screenshots, os listeners devem
+		 * copiar o que precisarem guardar. Mesmo sem redução a imagem é copiada, pois a
+		 * origem pode reaproveitar a imagem na próxima captura.
 		 */
-		BufferedImage newImage = new BufferedImage((int) width, (int) height, buffImage.getType());
-		Graphics2D g2d = newImage.createGraphics();
-		g2d.drawImage(buffImage.getScaledInstance((int) width, (int) height, Image.SCALE_AREA_AVERAGING), 0, 0,
-				(int) width, (int) height, null);
-		g2d.dispose();
-
-		return newImage;
+		return this.scaler.scale(buffImage, width, height);
 	}
 
 	/**
-	 * Método executado quando a thread for iniciada
+	 * Método executado quando a thread for iniciada.
+	 * Antes de cada screenshot aguarda o momento definido pelo agendador, e termina
+	 * quando a thread é interrompida, encerrando também a thread dos listeners.
+	 * 
+	 * Quando a thread dos listeners ainda está ocupada e a fila está cheia, esta
+	 * thread aguarda, de forma que nenhuma screenshot é descartada depois de capturada.
 	 */
 	@Override
 	public void run() {
-		while (true) {
-			BufferedImage buffImage = prepare(this.robot.createScreenCapture(this.imageSize)); // Tratamento
-			for (AutoScreenshotListener listener : this.listeners) {
+		Dispatcher dispatcher = new Dispatcher();
+		this.dispatcher = dispatcher;
+		dispatcher.start();
+
+		ThrottleReason reason = this.scheduler.getThrottleReason();
+		try {
+			while (!this.isInterrupted()) {
+				this.scheduler.awaitNextCapture();
+				this.scheduler.onCapture();
+
+				long start = System.nanoTime();
+				this.captureAllocation.start();
+				BufferedImage capture = this.source.capture();
+				boolean unchanged = this.isUnchanged(capture);
+				this.captureAllocation.stop();
+				long captured = System.nanoTime();
+				this.captureTime.record(captured - start);
+				this.capturedFrames.increment();
+
+				if (unchanged) {
+					this.unchangedFrames.increment();
+					FrameTiming timing = new FrameTiming(++this.sequence, Clock.toMicros(start), 0, 0);
+					this.queue.put(new Screenshot(null, timing, start, captured));
+				} else {
+					this.scaleAllocation.start();
+					BufferedImage buffImage = prepare(capture); // Tratamento
+					this.scaleAllocation.stop();
+					long scaled = System.nanoTime();
+					this.scaleTime.record(scaled - captured);
+
+					FrameTiming timing = new FrameTiming(++this.sequence, Clock.toMicros(start), Clock.toMicros(scaled),
+							0);
+					this.queue.put(new Screenshot(buffImage, timing, start, scaled));
+				}
+
+				if (reason != this.scheduler.getThrottleReason()) {
+					reason = this.scheduler.getThrottleReason();
+					this.logger.info("Ritmo das screenshots: " + this.scheduler.getStatsAsString());
+				}
+			}
+		} catch (InterruptedException e) {
+			// Encerrado
+		} finally {
+			dispatcher.interrupt();
+		}
+	}
+
+	/**
+	 * Indica se a thread atual é a que entrega as screenshots desta captura. Depois de
+	 * interrompida, a captura ainda pode entregar uma ou duas screenshots, então um
+	 * listener pode usar este método para ignorar uma captura que já foi substituída.
+	 *
+	 * @return boolean
+	 */
+	public boolean isDispatcherThread() {
+		return Thread.currentThread() == this.dispatcher;
+	}
+
+	/**
+	 * Compara a captura com a anterior. O hash é calculado mesmo quando a screenshot vai
+	 * ser entregue de qualquer forma, para que a próxima seja comparada com esta.
+	 */
+	private boolean isUnchanged(BufferedImage capture) {
+		boolean changed = this.hasher.update(capture) > 0;
+		boolean invalidated = this.invalidated.getAndSet(false);
+		int maxWidth = this.maxWidth;
+		if (changed || invalidated || maxWidth != this.deliveredWidth) {
+			this.deliveredWidth = maxWidth;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Screenshot reduzida aguardando a thread dos listeners, sem imagem quando é igual à
+	 * anterior
+	 */
+	private static class Screenshot {
+		private BufferedImage image;
+		private FrameTiming timing;
+		private long captureStart;
+		private long queuedAt;
+
+		public Screenshot(BufferedImage image, FrameTiming timing, long captureStart, long queuedAt) {
+			this.image = image;
+			this.timing = timing;
+			this.captureStart = captureStart;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	/**
+	 * Thread que entrega as screenshots aos listeners, na ordem em que foram capturadas
+	 */
+	private class Dispatcher extends Thread {
+		public Dispatcher() {
+			super("AutoScreenshot-Dispatcher-" + AutoScreenshot.this.stream);
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			AutoScreenshot owner = AutoScreenshot.this;
+			while (!this.isInterrupted()) {
+				Screenshot screenshot;
 				try {
-					listener.onScreenshot(buffImage);
-				} catch (Exception ignore) {}
+					screenshot = owner.queue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+
+				long start = System.nanoTime();
+				owner.queueTime.record(start - screenshot.queuedAt);
+
+				owner.processAllocation.start();
+				for (AutoScreenshotListener listener : owner.listeners) {
+					try {
+						if (screenshot.image != null) {
+							listener.onScreenshot(screenshot.image, screenshot.timing);
+						} else if (listener.onUnchanged(screenshot.timing)) {
+							owner.invalidate();
+						}
+					} catch (Exception ignore) {}
+				}
+				owner.processAllocation.stop();
+
+				long end = System.nanoTime();
+				owner.processTime.record(end - start);
+				owner.totalTime.record(end - screenshot.captureStart);
 			}
 		}
 	}
@@ -2,11 +2,30 @@ package remotedesktop.server.autoscreenshot;
 
 import java.awt.image.BufferedImage;
 
+import remotedesktop.server.metrics.FrameTiming;
+
 /**
  * Listener para receber as screenshots
  * 
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
 public interface AutoScreenshotListener {
-	public void onScreenshot(BufferedImage image);
+	/**
+	 * A imagem é reaproveitada pela próxima screenshot, portanto só é válida durante
+	 * a chamada
+	 * 
+	 * @param image
+	 * @param timing número de sequência e horários da captura e da redução
+	 */
+	public void onScreenshot(BufferedImage image, FrameTiming timing);
+
+	/**
+	 * Chamado no lugar de onScreenshot quando a screenshot é igual à anterior, antes da
+	 * redução (ver FrameHasher)
+	 * 
+	 * @param timing número de sequência e horário da captura
+	 * @return true caso o listener precise receber a próxima screenshot mesmo que ela
+	 *         não mude, por exemplo porque ignorou a última mudança
+	 */
+	public boolean onUnchanged(FrameTiming timing);
 }
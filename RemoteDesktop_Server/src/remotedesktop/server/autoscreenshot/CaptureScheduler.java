@@ -0,0 +1,199 @@
+package remotedesktop.server.autoscreenshot;
+
+/**
+ * Controla o ritmo das screenshots.
+ *
+ * O intervalo mínimo entre duas screenshots é definido pelo limite de quadros por
+ * segundo. A partir dele o intervalo é multiplicado por um divisor, que é o maior entre:
+ *
+ * - o divisor de ociosidade, que dobra a cada screenshot idêntica à anterior (após
+ * algumas seguidas) e volta a 1 assim que a tela muda;
+ *
+ * - o divisor de congestionamento, que dobra sempre que todos os clientes ainda estão
+ * com o quadro anterior na fila e diminui de um em um quando algum cliente volta a
+ * acompanhar.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class CaptureScheduler {
+	public enum ThrottleReason {
+		/**
+		 * Capturando no limite de quadros por segundo, ou o mais rápido possível caso a
+		 * captura seja mais lenta que o limite
+		 */
+		NONE,
+
+		/**
+		 * A tela não está mudando
+		 */
+		IDLE,
+
+		/**
+		 * Nenhum cliente está conseguindo acompanhar
+		 */
+		BACKPRESSURE
+	}
+
+	/**
+	 * Quantidade de screenshots idênticas seguidas antes de começar a reduzir o ritmo
+	 */
+	private static final int IDLE_THRESHOLD = 3;
+
+	private int minFps;
+	private long tickNanos;
+	private int maxDivisor;
+	private int idleDivisor;
+	private int pressureDivisor;
+	private int identicalCount;
+	private long nextCapture;
+	private long lastCapture;
+	private double currentFps;
+	private long skippedCaptures;
+	private ThrottleReason reason;
+
+	/**
+	 * @param maxFps limite de quadros por segundo
+	 * @param minFps ritmo mínimo quando a tela está parada ou os clientes estão congestionados
+	 */
+	public CaptureScheduler(int maxFps, int minFps) {
+		this.minFps = Math.max(1, minFps);
+		this.idleDivisor = 1;
+		this.pressureDivisor = 1;
+		this.reason = ThrottleReason.NONE;
+		this.setMaxFps(maxFps);
+	}
+
+	/**
+	 * Muda o limite de quadros por segundo, normalmente para o maior limite pedido pelos
+	 * clientes. A próxima screenshot é reagendada caso fique mais próxima.
+	 *
+	 * @param maxFps
+	 */
+	public synchronized void setMaxFps(int maxFps) {
+		this.tickNanos = 1000000000L / Math.max(1, maxFps);
+		this.maxDivisor = Math.max(1, maxFps / this.minFps);
+		this.idleDivisor = Math.min(this.idleDivisor, this.maxDivisor);
+		this.pressureDivisor = Math.min(this.pressureDivisor, this.maxDivisor);
+		if (this.lastCapture != 0) {
+			this.nextCapture = Math.min(this.nextCapture, this.lastCapture + this.tickNanos * this.getDivisor());
+		}
+		this.updateReason();
+		this.notifyAll();
+	}
+
+	/**
+	 * Aguarda até o momento da próxima screenshot, ou até que wake() seja chamado
+	 *
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitNextCapture() throws InterruptedException {
+		long remaining;
+		while ((remaining = this.nextCapture - System.nanoTime()) > 0) {
+			this.wait(remaining / 1000000, (int) (remaining % 1000000));
+		}
+	}
+
+	/**
+	 * Registra o início de uma screenshot e agenda a próxima
+	 */
+	public synchronized void onCapture() {
+		long now = System.nanoTime();
+		if (this.lastCapture != 0) {
+			double fps = 1000000000.0 / Math.max(1, now - this.lastCapture);
+			this.currentFps = this.currentFps == 0 ? fps : this.currentFps * 0.8 + fps * 0.2;
+		}
+		this.lastCapture = now;
+
+		int divisor = this.getDivisor();
+		this.skippedCaptures += divisor - 1;
+		this.nextCapture = now + this.tickNanos * divisor;
+	}
+
+	/**
+	 * Informa se a última screenshot mudou em relação à anterior
+	 *
+	 * @param changed
+	 */
+	public synchronized void reportFrame(boolean changed) {
+		if (changed) {
+			this.identicalCount = 0;
+			this.idleDivisor = 1;
+		} else if (++this.identicalCount >= IDLE_THRESHOLD) {
+			this.idleDivisor = Math.min(this.maxDivisor, this.idleDivisor * 2);
+		}
+		this.updateReason();
+	}
+
+	/**
+	 * Informa se todos os clientes ainda estavam com o quadro anterior na fila quando
+	 * a última screenshot ficou pronta
+	 *
+	 * @param saturated
+	 */
+	public synchronized void reportBackpressure(boolean saturated) {
+		if (saturated) {
+			this.pressureDivisor = Math.min(this.maxDivisor, this.pressureDivisor * 2);
+		} else if (this.pressureDivisor > 1) {
+			this.pressureDivisor--;
+		}
+		this.updateReason();
+	}
+
+	/**
+	 * Volta imediatamente ao ritmo máximo, usado quando existe algum indício de que a
+	 * tela vai mudar
+	 */
+	public synchronized void wake() {
+		this.identicalCount = 0;
+		this.idleDivisor = 1;
+		this.nextCapture = Math.min(this.nextCapture, this.lastCapture + this.tickNanos * this.getDivisor());
+		this.updateReason();
+		this.notifyAll();
+	}
+
+	private int getDivisor() {
+		return Math.max(this.idleDivisor, this.pressureDivisor);
+	}
+
+	private void updateReason() {
+		if (this.pressureDivisor > 1 && this.pressureDivisor >= this.idleDivisor) {
+			this.reason = ThrottleReason.BACKPRESSURE;
+		} else if (this.idleDivisor > 1) {
+			this.reason = ThrottleReason.IDLE;
+		} else {
+			this.reason = ThrottleReason.NONE;
+		}
+	}
+
+	/**
+	 * Quadros por segundo efetivamente capturados, em média móvel
+	 *
+	 * @return double
+	 */
+	public synchronized double getCurrentFps() {
+		return this.currentFps;
+	}
+
+	/**
+	 * Quantidade de screenshots que deixaram de ser tiradas por causa da redução de ritmo
+	 *
+	 * @return long
+	 */
+	public synchronized long getSkippedCaptures() {
+		return this.skippedCaptures;
+	}
+
+	public synchronized ThrottleReason getThrottleReason() {
+		return this.reason;
+	}
+
+	/**
+	 * Retorna o estado do agendador em uma string formatada
+	 *
+	 * @return String
+	 */
+	public synchronized String getStatsAsString() {
+		return String.format("%.1f fps, %d capturas puladas, motivo: %s", this.currentFps, this.skippedCaptures,
+				this.reason);
+	}
+}
@@ -0,0 +1,106 @@
+package remotedesktop.server.autoscreenshot;
+
+import java.awt.image.BufferedImage;
+
+import remotedesktop.server.hash.XxHash32;
+import remotedesktop.server.memory.ImagePixels;
+
+/**
+ * Compara cada screenshot com a anterior através de um hash de cada tile.
+ *
+ * A imagem capturada, antes da redução, é dividida em tiles e o hash de cada tile
+ * (XxHash32) é comparado com o hash do mesmo tile na captura anterior. A imagem é lida
+ * uma única vez, linha a linha, e apenas os hashes são guardados, não a imagem.
+ *
+ * O hash tem 32 bits por tile, então uma mudança pode passar despercebida com
+ * probabilidade de 1 em 4 bilhões por tile alterado; ela aparece na próxima mudança
+ * do mesmo tile.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class FrameHasher {
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	private int tileSize;
+	private int width;
+	private int height;
+	private int[] hashes;
+	private int[] previous;
+	private int[] pixelBuffer;
+
+	public FrameHasher() {
+		this(DEFAULT_TILE_SIZE);
+	}
+
+	public FrameHasher(int tileSize) {
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Calcula os hashes da imagem e os compara com os da imagem anterior
+	 *
+	 * @param image
+	 * @return int quantidade de tiles diferentes; todos quando a resolução muda
+	 */
+	public int update(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int columns = (width + this.tileSize - 1) / this.tileSize;
+		int rows = (height + this.tileSize - 1) / this.tileSize;
+		boolean sameSize = this.hashes != null && this.width == width && this.height == height;
+		if (!sameSize) {
+			this.width = width;
+			this.height = height;
+			this.hashes = new int[columns * rows];
+			this.previous = new int[columns * rows];
+		}
+
+		/**
+		 * Os hashes da imagem anterior passam para previous, e os novos são calculados
+		 * linha a linha: cada linha de um tile usa como semente o hash das linhas
+		 * anteriores do mesmo tile
+		 */
+		int[] hashes = this.previous;
+		this.previous = this.hashes;
+		this.hashes = hashes;
+
+		int[] pixels = this.getPixels(image);
+		for (int y = 0; y < height; y++) {
+			int tileRow = y / this.tileSize * columns;
+			boolean firstRow = y % this.tileSize == 0;
+			int offset = y * width;
+			for (int column = 0, x = 0; column < columns; column++, x += this.tileSize) {
+				int index = tileRow + column;
+				hashes[index] = XxHash32.hash(pixels, offset + x, Math.min(this.tileSize, width - x),
+						firstRow ? 0 : hashes[index]);
+			}
+		}
+
+		if (!sameSize) {
+			return hashes.length;
+		}
+		int changed = 0;
+		for (int i = 0; i < hashes.length; i++) {
+			if (hashes[i] != this.previous[i]) {
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Retorna os pixels da imagem, usando o próprio array da imagem quando possível
+	 */
+	private int[] getPixels(BufferedImage image) {
+		int[] pixels = ImagePixels.getData(image);
+		if (pixels != null) {
+			return pixels;
+		}
+		int size = image.getWidth() * image.getHeight();
+		if (this.pixelBuffer == null || this.pixelBuffer.length != size) {
+			this.pixelBuffer = new int[size];
+		}
+		image.getRGB(0, 0, image.getWidth(), image.getHeight(), this.pixelBuffer, 0, image.getWidth());
+		return this.pixelBuffer;
+	}
+}
@@ -1,49 +1,128 @@
 package remotedesktop.server.client;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 import remotedesktop.server.Logger;
-import remotedesktop.server.datasender.DataSender;
-import remotedesktop.server.datasender.DataSenderListener;
+import remotedesktop.server.Protocol;
+import remotedesktop.server.datasender.SendQueue;
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.input.InputCommand;
+import remotedesktop.server.metrics.Clock;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.Gauge;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.network.Connection;
+import remotedesktop.server.network.ConnectionListener;
+import remotedesktop.server.profile.HelloRequest;
+import remotedesktop.server.profile.OutputProfile;
+import remotedesktop.server.profile.OutputProfiles;
 
 /**
- * Éssa classe é responsável por tratar de toda a comunicação com um cliente conectado
+ * Éssa classe é responsável por tratar de toda a comunicação com um cliente conectado.
+ * A leitura e escrita na rede ficam a cargo da Connection, que depende do motor de rede
+ * escolhido para o servidor.
+ * 
+ * As métricas de envio do cliente são registradas no MetricsRegistry com o rótulo
+ * client, e removidas quando o cliente é desconectado.
+ * 
+ * O cliente pede um perfil de saída (HELLO ou TIER), mas recebe um perfil mais baixo
+ * enquanto a conexão estiver congestionada, conforme o nível escolhido pelo
+ * QualityController. O perfil efetivo é calculado pelo servidor, avisado por
+ * onQualityChange sempre que o perfil pedido ou o nível mudam.
+ * 
+ * O cliente está inscrito em um único stream do servidor por vez, escolhido no HELLO
+ * ou pelo comando STREAM.
  * 
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
-public class Client extends Thread implements DataSenderListener {
+public class Client implements ConnectionListener {
 	private static int idInc = 1;
 
 	private Logger logger;
 	private int id;
-	private Socket socket;
-	private ObjectOutputStream outputStream;
-	private Scanner inputStream;
+	private Connection connection;
 	private ClientListener listener;
-	private boolean sendLocked;
+	private SendQueue sendQueue;
+	private volatile boolean disconnected;
 	private int errorCount;
+	private volatile boolean needsKeyframe;
+	private volatile OutputProfile profile;
+	private volatile OutputProfile requestedProfile;
+	private volatile int streamId;
+	private QualityController quality;
+	private Counter sentFrames;
+	private Counter sentBytes;
+	private Counter sendErrors;
+	private LatencyHistogram sendTime;
 
 	/**
 	 * No momento da instância da classe, o cliente recebe um id único
 	 * 
-	 * @param socket
+	 * @param connection
 	 * @param listener
-	 * @throws IOException
 	 */
-	public Client(Socket socket, ClientListener listener) throws IOException {
+	public Client(Connection connection, ClientListener listener) {
 		this.logger = Logger.getInstance();
 		this.id = idInc++;
-		this.socket = socket;
-		this.outputStream = new ObjectOutputStream(socket.getOutputStream());
-		this.inputStream = new Scanner(socket.getInputStream());
-		this.sendLocked = false;
+		this.connection = connection;
+		this.sendQueue = new SendQueue();
+		this.needsKeyframe = true;
+		this.profile = OutputProfiles.DEFAULT;
+		this.requestedProfile = OutputProfiles.DEFAULT;
+		this.quality = new QualityController();
 		this.listener = listener;
-		
-		
+		this.registerMetrics();
+	}
+
+	/**
+	 * Registra os contadores de envio, o tempo de envio de cada quadro, os quadros
+	 * descartados pela fila, a profundidade da fila, a banda estimada e o nível de
+	 * degradação
+	 */
+	private void registerMetrics() {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		String id = String.valueOf(this.id);
+		this.sentFrames = registry.counter("remotedesktop_client_frames_sent_total", "Quadros enviados", "client", id);
+		this.sentBytes = registry.counter("remotedesktop_client_bytes_sent_total", "Bytes dos quadros enviados",
+				"client", id);
+		this.sendErrors = registry.counter("remotedesktop_client_send_errors_total", "Erros ao enviar dados",
+				"client", id);
+		this.sendTime = registry.histogram("remotedesktop_client_send_seconds", "Tempo de envio de um quadro",
+				"client", id);
+
+		registry.register("remotedesktop_client_frames_dropped_total",
+				"Quadros substituídos ou juntados antes do envio", MetricsRegistry.Type.COUNTER, new Gauge() {
+					@Override
+					public long getValue() {
+						return Client.this.sendQueue.getDroppedCount();
+					}
+				}, "client", id);
+		registry.register("remotedesktop_client_queue_depth", "Quadros aguardando envio",
+				MetricsRegistry.Type.GAUGE, new Gauge() {
+					@Override
+					public long getValue() {
+						return Client.this.sendQueue.getDepth();
+					}
+				}, "client", id);
+		registry.register("remotedesktop_client_throughput_bytes", "Banda estimada do cliente, em bytes por segundo",
+				MetricsRegistry.Type.GAUGE, new Gauge() {
+					@Override
+					public long getValue() {
+						return Client.this.quality.getThroughput();
+					}
+				}, "client", id);
+		registry.register("remotedesktop_client_quality_level", "Degraus abaixo do perfil pedido pelo cliente",
+				MetricsRegistry.Type.GAUGE, new Gauge() {
+					@Override
+					public long getValue() {
+						return Client.this.quality.getLevel();
+					}
+				}, "client", id);
 	}
 	
 	/**
@@ -58,15 +137,148 @@ public class Client extends Thread implements DataSenderListener {
 		builder.append("\tHost Name: %s\n");
 		builder.append("\tPort: %s\n");
 		
-		InetAddress inet = this.socket.getInetAddress();
+		InetAddress inet = this.connection.getInetAddress();
 		
-		return String.format(builder.toString(), this.getClientId(), inet.getHostAddress(), inet.getHostName(), this.socket.getPort(), this.socket.getLocalPort());
+		return String.format(builder.toString(), this.getClientId(), inet.getHostAddress(), inet.getHostName(), this.connection.getPort(), this.connection.getLocalPort());
 	}
 
 	public int getClientId() {
 		return id;
 	}
+
+	/**
+	 * Retorna a quantidade de quadros aguardando envio
+	 * 
+	 * @return int
+	 */
+	public int getQueueDepth() {
+		return this.sendQueue.getDepth();
+	}
+
+	/**
+	 * Retorna a quantidade de quadros que foram substituídos por um quadro mais recente
+	 * antes de serem enviados
+	 * 
+	 * @return long
+	 */
+	public long getDroppedCount() {
+		return this.sendQueue.getDroppedCount();
+	}
+
+	/**
+	 * Retorna estatísticas de envio do cliente em uma string formatada
+	 * 
+	 * @return String
+	 */
+	public String getSendStatsAsString() {
+		return String.format("enviados: %d (%d bytes), descartados: %d, na fila: %d, banda estimada: %d KB/s",
+				this.connection.getSentCount(), this.connection.getSentBytes(), this.getDroppedCount(),
+				this.getQueueDepth(), this.quality.getThroughput() / 1024);
+	}
+
+	/**
+	 * Retorna o perfil de saída pedido pelo cliente
+	 * 
+	 * @return OutputProfile
+	 */
+	public OutputProfile getRequestedProfile() {
+		return this.requestedProfile;
+	}
+
+	/**
+	 * Muda o perfil de saída pedido pelo cliente. O perfil efetivo só muda quando o
+	 * servidor o recalcula.
+	 * 
+	 * @param profile
+	 */
+	public void setRequestedProfile(OutputProfile profile) {
+		this.requestedProfile = profile;
+	}
+
+	/**
+	 * Retorna quantos degraus abaixo do perfil pedido o cliente deve ficar
+	 * 
+	 * @return int
+	 */
+	public int getQualityLevel() {
+		return this.quality.getLevel();
+	}
+
+	/**
+	 * Informa quantos degraus existem abaixo do perfil pedido
+	 * 
+	 * @param maxLevel
+	 */
+	public void setMaxQualityLevel(int maxLevel) {
+		this.quality.setMaxLevel(maxLevel);
+	}
+
+	/**
+	 * Retorna o perfil de saída em que o cliente está inscrito
+	 * 
+	 * @return OutputProfile
+	 */
+	public OutputProfile getProfile() {
+		return this.profile;
+	}
+
+	/**
+	 * Muda o perfil de saída do cliente. Como os quadros parciais de perfis diferentes
+	 * não são compatíveis entre si, o cliente passa a aguardar um quadro completo.
+	 * 
+	 * @param profile
+	 */
+	public synchronized void setProfile(OutputProfile profile) {
+		if (!profile.equals(this.profile)) {
+			this.profile = profile;
+			this.needsKeyframe = true;
+		}
+	}
+	
+	/**
+	 * Retorna o número do stream em que o cliente está inscrito
+	 * 
+	 * @return int
+	 */
+	public int getStreamId() {
+		return this.streamId;
+	}
+
+	/**
+	 * Muda o stream do cliente. Os quadros do stream anterior deixam de ser aceitos, e
+	 * o cliente passa a aguardar um quadro completo do novo stream.
+	 * 
+	 * @param streamId
+	 */
+	public synchronized void setStreamId(int streamId) {
+		if (streamId != this.streamId) {
+			this.streamId = streamId;
+			this.needsKeyframe = true;
+		}
+	}
+
+	/**
+	 * Coloca uma mensagem de controle na fila de envio, na frente dos quadros
+	 * 
+	 * @param type ver Protocol
+	 * @param payload
+	 */
+	public void sendMessage(int type, byte[] payload) {
+		this.sendQueue.offerControl(type, payload);
+	}
 	
+	/**
+	 * Coloca uma mensagem de controle na fila de envio, substituindo a mensagem do mesmo
+	 * tipo que ainda não foi enviada. Usado para mensagens em que só o valor mais recente
+	 * importa, como a posição do ponteiro.
+	 * 
+	 * @param type ver Protocol
+	 * @param payload
+	 */
+	public void sendLatestMessage(int type, byte[] payload) {
+		this.sendQueue.offerLatestControl(type, payload);
+	}
+
 	/**
 	 * Realiza os procedimentos de desconexão.
 	 * Primeiramente o método tenta encerrar a conexão com o cliente,
@@ -76,13 +288,18 @@ public class Client extends Thread implements DataSenderListener {
 	 * @throws IOException
 	 */
 	private void disconnect() throws IOException {
-		this.sendLocked = true;
+		synchronized (this) {
+			if (this.disconnected) {
+				return;
+			}
+			this.disconnected = true;
+		}
+		this.sendQueue.close();
+		MetricsRegistry.getInstance().remove("client", String.valueOf(this.id));
 
 		IOException e = null;
 		try {
-			this.inputStream.close();
-			this.outputStream.close();
-			this.socket.close();
+			this.connection.close();
 		} catch (IOException e1) {
 			e = e1;
 		}
@@ -95,79 +312,153 @@ public class Client extends Thread implements DataSenderListener {
 	}
 	
 	/**
-	 * Método chamado quando é necessario enviar dados em bytes para o cliente
-	 * Esse método monta um pacote passando os bytes e o OutputStream, para que os dados sejam
-	 * enviados de forma assincrona, assim caso um cliente tenha uma conexão muito lenta, ou
-	 * não esteja recebendo os dados por algum motivo, esse cliente não travará o sistema
-	 * inteiro, apenas o processo em que ele está rodando, que sendo um processó exclusivo para o 
-	 * envio de dados, não trará danos ao sistema.
+	 * Indica se o cliente precisa receber um quadro completo. Isso acontece logo após
+	 * a conexão e sempre que algum quadro parcial deixa de ser enviado, pois a imagem
+	 * do cliente deixa de corresponder à imagem usada como base pelos quadros parciais.
 	 * 
-	 * @param bytes
+	 * @return boolean
 	 */
-	public void sendBytes(byte[] bytes) {
-		if (!this.sendLocked) {
-			DataSender sender = new DataSender(bytes, this.outputStream, this);
-			sender.start();
+	public boolean needsKeyframe() {
+		return this.needsKeyframe;
+	}
+
+	/**
+	 * Escolhe qual quadro deve ser enviado para o cliente e o coloca na fila de envio.
+	 * Clientes sincronizados recebem o quadro parcial, que é descartado caso não tenha
+	 * nenhum tile alterado. Clientes que precisam de um quadro completo ignoram os quadros
+	 * parciais até que um quadro completo esteja disponível.
+	 * 
+	 * A fila de envio não bloqueia: caso ainda exista um quadro aguardando envio, ele é
+	 * substituído pelo novo, então um cliente lento não atrasa o servidor nem os outros
+	 * clientes.
+	 * 
+	 * Quadros de um stream em que o cliente não está mais inscrito são ignorados. Como
+	 * cada stream codifica na sua própria thread, um quadro do stream anterior ainda
+	 * pode chegar logo depois da troca. Pelo mesmo motivo também são ignorados os
+	 * quadros de outro perfil: os clientes são agrupados por perfil antes da
+	 * codificação, e o perfil do cliente pode mudar antes do envio.
+	 * 
+	 * @param stream número do stream que codificou o quadro
+	 * @param frame
+	 */
+	public synchronized void sendFrame(int stream, DeltaFrame frame) {
+		if (stream != this.streamId || !this.profile.equals(frame.getProfile())) {
+			return;
+		}
+
+		EncodedFrame encoded;
+		boolean keyframe = this.needsKeyframe || frame.getDelta() == null;
+		if (keyframe) {
+			encoded = frame.getKeyframe();
+		} else if (frame.isEmpty()) {
+			return;
+		} else {
+			encoded = frame.getDelta();
 		}
+
+		if (encoded == null) {
+			return;
+		}
+
+		this.needsKeyframe = !this.sendQueue.offer(encoded, keyframe);
+	}
+
+	/**
+	 * Inicia a leitura dos comandos e o envio dos quadros da fila
+	 */
+	public void start() {
+		this.connection.start(this.sendQueue, this);
 	}
 
 	/**
-	 * Método executado quando a Thread é iniciada.
-	 * É responsável por escutar o InputStream, caso o cliente envie algum comando.
-	 * No momento o único comando implementado é o de desconectar, porém é possível implementar
-	 * outros comandos posteriormente, como controle de mouse e teclado
+	 * Chamado pela conexão sempre que o cliente envia algum comando.
+	 * Os comandos implementados são o de desconectar, o HELLO, com as preferências do
+	 * cliente (ver HelloRequest), o de escolher apenas o nível de qualidade (TIER <nome>),
+	 * o de trocar de stream (STREAM <número>) e o PING, usado pelo cliente para estimar a
+	 * diferença entre os relógios.
+	 * Os comandos de mouse e teclado são binários e chegam por onInput.
 	 */
 	@Override
-	public void run() {
-		while (this.inputStream.hasNextLine()) {
-			String line = this.inputStream.nextLine();
-			if (line.equals("DISCONNECT")) {
-				try {
-					this.disconnect();
-				} catch (IOException e) {
-					this.logger.printStackTrace(e);
-				}
-				break;
+	public void onCommand(Connection connection, String line) {
+		if (line.startsWith("HELLO")) {
+			try {
+				this.listener.onHello(this, HelloRequest.parse(line.substring(5)));
+			} catch (IllegalArgumentException e) {
+				this.logger.error("Client (%d): HELLO inválido: %s (%s)", this.getClientId(), line, e.getMessage());
+			}
+		} else if (line.startsWith("TIER ")) {
+			QualityTier tier = QualityTier.fromName(line.substring(5).trim());
+			if (tier != null) {
+				this.requestedProfile = this.requestedProfile.withTier(tier);
+				this.listener.onQualityChange(this);
+			}
+		} else if (line.startsWith("STREAM ")) {
+			try {
+				this.listener.onStreamRequest(this, Integer.parseInt(line.substring(7).trim()));
+			} catch (NumberFormatException e) {
+				this.logger.error("Client (%d): STREAM inválido: %s", this.getClientId(), line);
+			}
+		} else if (line.startsWith("PING ")) {
+			long received = Clock.micros();
+			try {
+				long clientTime = Long.parseLong(line.substring(5).trim());
+				this.sendQueue.offerControl(Protocol.MSG_PONG,
+						ByteBuffer.allocate(16).putLong(clientTime).putLong(received).array());
+			} catch (NumberFormatException e) {
+				this.logger.error("Client (%d): PING inválido: %s", this.getClientId(), line);
+			}
+		} else if (line.equals("DISCONNECT")) {
+			try {
+				this.disconnect();
+			} catch (IOException e) {
+				this.logger.printStackTrace(e);
 			}
 		}
 	}
 
 	/**
-	 * Todos os métodos abaixo pertencem à implementação do DataSenderListener e são chamados
-	 * pelos data senders durante o processo de envio de dados.
-	 * 
-	 * onPrepare é chamado logo no início, a thread de envio é iniciada. Nesse caso esse evento
-	 * muda o valor da variável sendLocked, que impede que novos datasenders sejam criados.
-	 * Caso alguma imagem chege durante o envio de uma anterior, a nova será descartada.
-	 * 
-	 * onStart é chamado quando o processo de envio é iniciado
-	 * É verificado se ocorreu algum erro antes, para que seja emitido um logo customizado
-	 * 
-	 * onSuccess é chamado se o envio for concluído com erros.
-	 * É verificado se ocorreu algum erro antes, para que seja emitido um logo customizado.
-	 * Caso tenham ocorrido erros anteriormente, o contador de erros é zerado.
-	 * 
-	 * onErro é chamado caso ocorra algum erro, nesse caso é recebido uma Exception e um contador
-	 * de erros é incrementado. Caso ocorram 10 erros seguidos, o cliente é desconectado.
-	 * 
-	 * onComplete sempre será chamado, é chamado por último, quando o processo de envio ja foi
-	 * concluído, seja com erro ou não. Nesse evendo a variavel sendLocked muda de valor
-	 * e a criação de novos pacotes de envio é liberada
+	 * Chamado pela conexão para cada comando de mouse ou teclado, repassado ao servidor
+	 * sem passar pela fila de envio
 	 */
 	@Override
-	public void onPrepare(DataSender clientDataSender) {
-		this.sendLocked = true;
+	public void onInput(Connection connection, InputCommand command) {
+		this.listener.onInput(this, command);
 	}
 
+	/**
+	 * Chamado quando o cliente fecha a conexão sem avisar
+	 */
 	@Override
-	public void onStart(DataSender clientDataSender) {
-		if(this.errorCount > 0) {
-			this.logger.info("Tentando novamente...");
+	public void onClosed(Connection connection) {
+		try {
+			this.disconnect();
+		} catch (IOException e) {
+			this.logger.printStackTrace(e);
 		}
 	}
 
+	/**
+	 * Os métodos abaixo são chamados pela conexão ao fim do envio de cada quadro.
+	 * 
+	 * onSendSuccess é chamado se o envio for concluído sem erros, e registra o tamanho e
+	 * o tempo do envio nas métricas do cliente e no QualityController, que pode mudar o
+	 * nível de degradação do perfil.
+	 * É verificado se ocorreu algum erro antes, para que seja emitido um logo customizado.
+	 * Caso tenham ocorrido erros anteriormente, o contador de erros é zerado.
+	 * 
+	 * onSendError é chamado caso ocorra algum erro, nesse caso é recebido uma Exception e um contador
+	 * de erros é incrementado, e o perfil desce um degrau. Caso ocorram 10 erros seguidos, o
+	 * cliente é desconectado.
+	 */
 	@Override
-	public void onSuccess(DataSender clientDataSender) {
+	public void onSendSuccess(Connection connection, int length, long nanos) {
+		this.sentFrames.increment();
+		this.sentBytes.add(length);
+		this.sendTime.record(nanos);
+		if (this.quality.onSent(length, nanos, this.sendQueue.getDroppedCount())) {
+			this.listener.onQualityChange(this);
+		}
+
 		if(this.errorCount > 0) {
 			this.logger.info("Sucesso ao enviar dados, zerando contador de erros.");
 			this.errorCount = 0;
@@ -175,12 +466,19 @@ public class Client extends Thread implements DataSenderListener {
 	}
 
 	@Override
-	public void onError(DataSender clientDataSender, IOException e) {
+	public void onSendError(Connection connection, IOException e) {
 		++ this.errorCount;
+		this.sendErrors.increment();
+		synchronized (this) {
+			this.needsKeyframe = true;
+		}
+		if (this.quality.onError()) {
+			this.listener.onQualityChange(this);
+		}
 		
-		this.logger.error(String.format("Client (%d): Erro ao enviar dados. %d/10", this.getClientId(), this.errorCount));
+		this.logger.error("Client (%d): Erro ao enviar dados. %d/10", this.getClientId(), this.errorCount);
 		
-		if( this.errorCount >= 10) {
+		if( this.errorCount >= 10 && !this.disconnected) {
 			try {
 				this.disconnect();
 			} catch (IOException e1) {
@@ -189,9 +487,4 @@ public class Client extends Thread implements DataSenderListener {
 			}
 		}
 	}
-
-	@Override
-	public void onComplete(DataSender clientDataSender) {
-		this.sendLocked = false;
-	}
 }
@@ -1,5 +1,42 @@
 package remotedesktop.server.client;
 
+import remotedesktop.server.input.InputCommand;
+import remotedesktop.server.profile.HelloRequest;
+
 public interface ClientListener {
 	public void onDisconnected(Client client);
+
+	/**
+	 * Chamado quando o cliente informa as suas preferências, para que o perfil de saída
+	 * seja escolhido
+	 * 
+	 * @param client
+	 * @param hello
+	 */
+	public void onHello(Client client, HelloRequest hello);
+
+	/**
+	 * Chamado quando o cliente pede para trocar de stream
+	 * 
+	 * @param client
+	 * @param stream número do stream pedido
+	 */
+	public void onStreamRequest(Client client, int stream);
+
+	/**
+	 * Chamado quando o perfil pedido pelo cliente ou o nível de degradação mudam, para
+	 * que o perfil de saída efetivo seja recalculado
+	 * 
+	 * @param client
+	 */
+	public void onQualityChange(Client client);
+
+	/**
+	 * Chamado para cada comando de mouse ou teclado do cliente, pela thread de rede, que
+	 * não deve ser bloqueada
+	 * 
+	 * @param client
+	 * @param command posição ainda relativa à imagem do stream do cliente
+	 */
+	public void onInput(Client client, InputCommand command);
 }
@@ -0,0 +1,175 @@
+package remotedesktop.server.client;
+
+/**
+ * Estima a banda de um cliente a partir do fim de cada envio e escolhe o nível de
+ * degradação do perfil de saída, de 0 (o perfil pedido pelo cliente) até o limite
+ * informado pelo servidor.
+ *
+ * Os envios são agrupados em janelas de um segundo. Em cada janela são calculados:
+ *
+ * - a vazão, bytes enviados dividido pelo tempo gasto enviando, que é a estimativa da
+ * banda do cliente (média móvel entre as janelas);
+ * - a ocupação, o tempo gasto enviando dividido pela duração da janela;
+ * - o tempo médio de envio de um quadro;
+ * - os quadros descartados pela fila, substituídos por um mais recente antes do envio.
+ *
+ * A janela está congestionada quando o tempo médio de envio passa da latência alvo, a
+ * ocupação passa de 85% ou mais de um quarto dos quadros é descartado, e então o nível
+ * é aumentado imediatamente. O nível só é reduzido depois de algumas janelas seguidas
+ * com folga (sem descartes, ocupação abaixo de 50% e envio abaixo de metade da latência
+ * alvo), para não oscilar entre dois níveis. A janela seguinte a uma mudança é
+ * ignorada, pois o primeiro quadro de um perfil novo é um quadro completo.
+ *
+ * Janelas em que o tempo sem envios passa de dois segundos indicam que a tela ficou
+ * parada e são descartadas sem avaliação. Um único envio demorado não é confundido
+ * com tela parada, pois o tempo gasto enviando é descontado.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class QualityController {
+	public static final long DEFAULT_TARGET_LATENCY = 100000000L;
+
+	private static final long WINDOW = 1000000000L;
+	private static final int RECOVERY_WINDOWS = 3;
+	private static final double CONGESTED_UTILIZATION = 0.85;
+	private static final double IDLE_UTILIZATION = 0.5;
+	private static final double THROUGHPUT_WEIGHT = 0.3;
+
+	private long targetLatency;
+	private int level;
+	private int maxLevel;
+	private long windowStart;
+	private long windowBusy;
+	private long windowBytes;
+	private int windowFrames;
+	private long windowDropsStart;
+	private int clearWindows;
+	private boolean skipWindow;
+	private double throughput;
+
+	public QualityController() {
+		this(DEFAULT_TARGET_LATENCY);
+	}
+
+	/**
+	 * @param targetLatency tempo máximo de envio de um quadro, em nanossegundos
+	 */
+	public QualityController(long targetLatency) {
+		this.targetLatency = targetLatency;
+		this.maxLevel = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Registra um envio concluído e avalia a janela caso ela tenha terminado
+	 *
+	 * @param length bytes enviados
+	 * @param nanos tempo do envio
+	 * @param dropped total de quadros descartados pela fila até agora
+	 * @return true caso o nível tenha mudado
+	 */
+	public synchronized boolean onSent(int length, long nanos, long dropped) {
+		long now = System.nanoTime();
+		if (this.windowStart == 0) {
+			this.startWindow(now, dropped);
+		}
+
+		this.windowBusy += nanos;
+		this.windowBytes += length;
+		this.windowFrames++;
+
+		long elapsed = now - this.windowStart;
+		if (elapsed < WINDOW) {
+			return false;
+		}
+
+		int previous = this.level;
+		if (elapsed - this.windowBusy > WINDOW * 2 || this.skipWindow) {
+			this.skipWindow = false;
+		} else {
+			this.evaluate(elapsed, (int) (dropped - this.windowDropsStart));
+		}
+		this.startWindow(now, dropped);
+		return this.level != previous;
+	}
+
+	/**
+	 * Um erro de envio conta como congestionamento
+	 *
+	 * @return true caso o nível tenha mudado
+	 */
+	public synchronized boolean onError() {
+		int previous = this.level;
+		this.degrade();
+		this.windowStart = 0;
+		return this.level != previous;
+	}
+
+	private void startWindow(long now, long dropped) {
+		this.windowStart = now;
+		this.windowBusy = 0;
+		this.windowBytes = 0;
+		this.windowFrames = 0;
+		this.windowDropsStart = dropped;
+	}
+
+	private void evaluate(long elapsed, int drops) {
+		if (this.windowBusy > 0) {
+			double throughput = this.windowBytes * 1e9 / this.windowBusy;
+			this.throughput = this.throughput == 0 ? throughput
+					: this.throughput * (1 - THROUGHPUT_WEIGHT) + throughput * THROUGHPUT_WEIGHT;
+		}
+
+		double utilization = (double) this.windowBusy / elapsed;
+		long sendTime = this.windowBusy / this.windowFrames;
+
+		if (sendTime > this.targetLatency || utilization > CONGESTED_UTILIZATION || drops * 4 > this.windowFrames) {
+			this.degrade();
+		} else if (drops == 0 && utilization < IDLE_UTILIZATION && sendTime < this.targetLatency / 2) {
+			if (++this.clearWindows >= RECOVERY_WINDOWS && this.level > 0) {
+				this.level--;
+				this.clearWindows = 0;
+				this.skipWindow = true;
+			}
+		} else {
+			this.clearWindows = 0;
+		}
+	}
+
+	private void degrade() {
+		this.clearWindows = 0;
+		if (this.level < this.maxLevel) {
+			this.level++;
+			this.skipWindow = true;
+		}
+	}
+
+	/**
+	 * Nível de degradação atual, 0 para o perfil pedido pelo cliente
+	 *
+	 * @return int
+	 */
+	public synchronized int getLevel() {
+		return this.level;
+	}
+
+	/**
+	 * Limita o nível de degradação aos níveis que realmente existem a partir do perfil
+	 * pedido pelo cliente
+	 *
+	 * @param maxLevel
+	 */
+	public synchronized void setMaxLevel(int maxLevel) {
+		this.maxLevel = maxLevel;
+		this.level = Math.min(this.level, maxLevel);
+	}
+
+	/**
+	 * Banda estimada do cliente, em bytes por segundo, ou 0 caso ainda não exista
+	 * nenhuma estimativa
+	 *
+	 * @return long
+	 */
+	public synchronized long getThroughput() {
+		return (long) this.throughput;
+	}
+}
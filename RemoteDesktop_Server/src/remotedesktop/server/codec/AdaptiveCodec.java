@@ -0,0 +1,250 @@
+package remotedesktop.server.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import remotedesktop.server.delta.DeltaProtocol;
+import remotedesktop.server.delta.FrameBuffer;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.MetricsRegistry;
+
+/**
+ * Escolhe o codec de cada tile pelo conteúdo, para que texto continue nítido e fotos e
+ * vídeos não custem tanto quanto texto.
+ *
+ * Cada tile é classificado a partir de:
+ *
+ * - a quantidade de cores, contada até o limite da paleta;
+ * - a proporção de pixels vizinhos com diferença pequena (gradientes, fotos) e com
+ * diferença grande (bordas de letras e de janelas);
+ * - a frequência com que o tile muda, estimada pelo intervalo entre as codificações
+ * do tile (só os tiles alterados são codificados).
+ *
+ * Tiles com poucas cores (texto, interfaces) vão para o PaletteCodec, sem perdas.
+ * Tiles com muitas cores e transições suaves, ou que mudam a cada poucos quadros
+ * (vídeo), vão para o JpegCodec. O restante vai para o RawDeflateCodec.
+ *
+ * Os tiles são escritos no formato FORMAT_MIXED: o primeiro byte de cada tile é o
+ * formato escolhido, e o cliente compõe os tiles normalmente.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class AdaptiveCodec implements TileCodec {
+	/**
+	 * Diferença máxima entre os canais de dois vizinhos para a transição ser suave
+	 */
+	private static final int SMOOTH_DIFFERENCE = 48;
+
+	/**
+	 * Proporção mínima de transições suaves para o tile ser tratado como foto
+	 */
+	private static final double PHOTO_SMOOTH_RATIO = 0.4;
+
+	/**
+	 * Intervalo médio entre as mudanças de um tile de vídeo, em nanossegundos
+	 */
+	private static final long VIDEO_INTERVAL = 250000000L;
+
+	/**
+	 * Mudanças necessárias antes de o intervalo médio ser considerado
+	 */
+	private static final int VIDEO_CHANGES = 4;
+
+	/**
+	 * Intervalo a partir do qual o tile volta a ser considerado parado
+	 */
+	private static final long IDLE_INTERVAL = 2000000000L;
+
+	private static final double INTERVAL_WEIGHT = 0.3;
+
+	private QualityTier tier;
+	private PaletteCodec palette;
+	private RawDeflateCodec raw;
+	private JpegCodec jpeg;
+	private int scanline;
+	private long[] lastChanges;
+	private double[] intervals;
+	private int[] changes;
+	private Counter textTiles;
+	private Counter photoTiles;
+	private Counter otherTiles;
+
+	/**
+	 * @param tier nível de qualidade, repassado aos codecs sem perdas
+	 * @param quality qualidade dos tiles em JPEG, de 0 a 1
+	 */
+	public AdaptiveCodec(QualityTier tier, float quality) {
+		this.tier = tier;
+		this.palette = new PaletteCodec(tier);
+		this.raw = new RawDeflateCodec(tier);
+		this.jpeg = new JpegCodec(quality);
+		this.lastChanges = new long[0];
+		this.intervals = new double[0];
+		this.changes = new int[0];
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		String help = "Tiles codificados pelo codec auto, por classe de conteúdo";
+		this.textTiles = registry.counter("remotedesktop_classified_tiles_total", help, "class", "text");
+		this.photoTiles = registry.counter("remotedesktop_classified_tiles_total", help, "class", "photo");
+		this.otherTiles = registry.counter("remotedesktop_classified_tiles_total", help, "class", "other");
+	}
+
+	@Override
+	public int getFormat() {
+		return DeltaProtocol.FORMAT_MIXED;
+	}
+
+	@Override
+	public String getName() {
+		return "auto:" + Math.round(this.jpeg.getQuality() * 100);
+	}
+
+	@Override
+	public TileEncoder createEncoder(int tileSize) {
+		return new Encoder(tileSize);
+	}
+
+	/**
+	 * Registra uma mudança do tile e indica se ele muda com frequência de vídeo. A
+	 * mudança é registrada em vetores indexados pela posição do tile, que crescem
+	 * conforme aparecem tiles novos, para não alocar nada por tile.
+	 *
+	 * @param offset posição do tile nos pixels da screenshot
+	 * @param scanline largura da screenshot
+	 * @param tileSize
+	 * @return boolean
+	 */
+	private synchronized boolean onChange(int offset, int scanline, int tileSize) {
+		if (this.scanline != scanline) {
+			// Outra resolução: as posições antigas não valem mais
+			Arrays.fill(this.changes, 0);
+			this.scanline = scanline;
+		}
+
+		int columns = (scanline + tileSize - 1) / tileSize;
+		int tile = offset / scanline / tileSize * columns + offset % scanline / tileSize;
+		if (tile >= this.changes.length) {
+			int length = Math.max(tile + 1, this.changes.length * 2);
+			this.lastChanges = Arrays.copyOf(this.lastChanges, length);
+			this.intervals = Arrays.copyOf(this.intervals, length);
+			this.changes = Arrays.copyOf(this.changes, length);
+		}
+
+		long now = System.nanoTime();
+		long elapsed = now - this.lastChanges[tile];
+		this.lastChanges[tile] = now;
+		if (this.changes[tile] == 0 || elapsed > IDLE_INTERVAL) {
+			this.changes[tile] = 1;
+			return false;
+		}
+
+		this.intervals[tile] = this.changes[tile] == 1 ? elapsed
+				: this.intervals[tile] * (1 - INTERVAL_WEIGHT) + elapsed * INTERVAL_WEIGHT;
+		this.changes[tile]++;
+		return this.changes[tile] > VIDEO_CHANGES && this.intervals[tile] < VIDEO_INTERVAL;
+	}
+
+	private class Encoder implements TileEncoder {
+		private TileEncoder palette;
+		private TileEncoder raw;
+		private TileEncoder jpeg;
+		private int[] colors;
+		private int[] stamps;
+		private int stamp;
+		private int tileSize;
+
+		public Encoder(int tileSize) {
+			AdaptiveCodec owner = AdaptiveCodec.this;
+			this.tileSize = tileSize;
+			this.palette = owner.palette.createEncoder(tileSize);
+			this.raw = owner.raw.createEncoder(tileSize);
+			this.jpeg = owner.jpeg.createEncoder(tileSize);
+			this.colors = new int[1024];
+			this.stamps = new int[1024];
+		}
+
+		@Override
+		public void encode(int[] pixels, int offset, int scanline, int width, int height, FrameBuffer output)
+				throws IOException {
+			AdaptiveCodec owner = AdaptiveCodec.this;
+			boolean video = owner.onChange(offset, scanline, this.tileSize);
+
+			if (this.hasFewColors(pixels, offset, scanline, width, height)) {
+				owner.textTiles.increment();
+				output.writeByte(DeltaProtocol.FORMAT_PALETTE);
+				this.palette.encode(pixels, offset, scanline, width, height, output);
+			} else if (video || this.isSmooth(pixels, offset, scanline, width, height)) {
+				owner.photoTiles.increment();
+				output.writeByte(DeltaProtocol.FORMAT_JPEG);
+				this.jpeg.encode(pixels, offset, scanline, width, height, output);
+			} else {
+				owner.otherTiles.increment();
+				output.writeByte(owner.raw.getFormat());
+				this.raw.encode(pixels, offset, scanline, width, height, output);
+			}
+		}
+
+		/**
+		 * Indica se o tile cabe na paleta, contando as cores já reduzidas ao nível
+		 */
+		private boolean hasFewColors(int[] pixels, int offset, int scanline, int width, int height) {
+			if (++this.stamp == 0) {
+				Arrays.fill(this.stamps, 0);
+				this.stamp = 1;
+			}
+
+			QualityTier tier = AdaptiveCodec.this.tier;
+			int count = 0;
+			int previous = -1;
+			for (int row = 0; row < height; row++, offset += scanline) {
+				for (int i = offset; i < offset + width; i++) {
+					int color = tier.quantize(pixels[i]);
+					if (color == previous) {
+						continue;
+					}
+					previous = color;
+
+					int slot = (color * 0x9E3779B1) >>> 22;
+					while (this.stamps[slot] == this.stamp && this.colors[slot] != color) {
+						slot = (slot + 1) & 1023;
+					}
+					if (this.stamps[slot] != this.stamp) {
+						if (++count > PaletteCodec.MAX_COLORS) {
+							return false;
+						}
+						this.stamps[slot] = this.stamp;
+						this.colors[slot] = color;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Indica se a maior parte das transições entre vizinhos na horizontal é suave,
+		 * como em fotos e gradientes. Transições bruscas são bordas, que o JPEG borra.
+		 */
+		private boolean isSmooth(int[] pixels, int offset, int scanline, int width, int height) {
+			int smooth = 0;
+			int sharp = 0;
+			for (int row = 0; row < height; row++, offset += scanline) {
+				for (int i = offset + 1; i < offset + width; i++) {
+					int a = pixels[i - 1], b = pixels[i];
+					if (a == b) {
+						continue;
+					}
+					int difference = Math.max(Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)),
+							Math.max(Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)), Math.abs((a & 0xFF) - (b & 0xFF))));
+					if (difference > SMOOTH_DIFFERENCE) {
+						sharp++;
+					} else {
+						smooth++;
+					}
+				}
+			}
+			int pairs = height * (width - 1);
+			return pairs > 0 && smooth >= pairs * PHOTO_SMOOTH_RATIO && smooth > sharp * 4;
+		}
+	}
+}
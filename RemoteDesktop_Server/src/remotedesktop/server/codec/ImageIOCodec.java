@@ -0,0 +1,104 @@
+package remotedesktop.server.codec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import remotedesktop.server.delta.FrameBuffer;
+
+/**
+ * Base dos codecs que escrevem cada tile como uma imagem pelo ImageIO.
+ *
+ * Cada codificador reaproveita o ImageWriter e uma imagem por tamanho de tile (os
+ * tiles da borda direita e da borda inferior podem ser menores), e escreve a imagem
+ * diretamente no buffer do quadro.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public abstract class ImageIOCodec implements TileCodec {
+	private String formatName;
+
+	/**
+	 * @param formatName nome do formato no ImageIO
+	 */
+	protected ImageIOCodec(String formatName) {
+		this.formatName = formatName;
+	}
+
+	/**
+	 * Parâmetros de escrita, ou null para os parâmetros padrão do formato
+	 *
+	 * @param writer
+	 * @return ImageWriteParam
+	 */
+	protected abstract ImageWriteParam createWriteParam(ImageWriter writer);
+
+	/**
+	 * Ajusta os pixels antes da escrita; por padrão os pixels não são alterados
+	 *
+	 * @param pixel
+	 * @return int
+	 */
+	protected int preparePixel(int pixel) {
+		return pixel;
+	}
+
+	@Override
+	public TileEncoder createEncoder(int tileSize) {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(this.formatName);
+		if (!writers.hasNext()) {
+			throw new IllegalStateException("Formato de imagem não suportado: " + this.formatName);
+		}
+		ImageWriter writer = writers.next();
+		return new Encoder(writer, this.createWriteParam(writer));
+	}
+
+	private class Encoder implements TileEncoder {
+		private ImageWriter writer;
+		private ImageWriteParam param;
+		private Map<Integer, BufferedImage> images;
+
+		public Encoder(ImageWriter writer, ImageWriteParam param) {
+			this.writer = writer;
+			this.param = param;
+			this.images = new HashMap<Integer, BufferedImage>();
+		}
+
+		@Override
+		public void encode(int[] pixels, int offset, int scanline, int width, int height, FrameBuffer output)
+				throws IOException {
+			BufferedImage image = this.images.get((width << 16) | height);
+			if (image == null) {
+				image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				this.images.put((width << 16) | height, image);
+			}
+
+			int[] target = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			int index = 0;
+			for (int row = 0; row < height; row++, offset += scanline) {
+				for (int i = offset; i < offset + width; i++) {
+					target[index++] = ImageIOCodec.this.preparePixel(pixels[i]);
+				}
+			}
+
+			ImageOutputStream stream = new MemoryCacheImageOutputStream(output.getOutputStream());
+			try {
+				this.writer.setOutput(stream);
+				this.writer.write(null, new IIOImage(image, null, null), this.param);
+			} finally {
+				this.writer.setOutput(null);
+				stream.close();
+			}
+		}
+	}
+}
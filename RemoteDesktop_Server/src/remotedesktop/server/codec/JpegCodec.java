@@ -0,0 +1,67 @@
+package remotedesktop.server.codec;
+
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+
+import remotedesktop.server.delta.DeltaProtocol;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Tiles em JPEG, com perdas. Bem menor que os codecs sem perdas em fotos, vídeos e
+ * gradientes, mas borra o texto.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class JpegCodec extends ImageIOCodec {
+	private float quality;
+
+	/**
+	 * @param quality qualidade da compressão, de 0 a 1
+	 */
+	public JpegCodec(float quality) {
+		super("jpeg");
+		if (quality < 0 || quality > 1) {
+			throw new IllegalArgumentException("Qualidade inválida: " + quality);
+		}
+		this.quality = quality;
+	}
+
+	/**
+	 * Qualidade padrão de cada nível: 0.9, 0.75 e 0.5
+	 *
+	 * @param tier
+	 * @return float
+	 */
+	public static float getDefaultQuality(QualityTier tier) {
+		switch (tier) {
+		case TRUE_COLOR:
+			return 0.9f;
+		case HIGH_COLOR:
+			return 0.75f;
+		default:
+			return 0.5f;
+		}
+	}
+
+	public float getQuality() {
+		return this.quality;
+	}
+
+	@Override
+	public int getFormat() {
+		return DeltaProtocol.FORMAT_JPEG;
+	}
+
+	@Override
+	public String getName() {
+		return "jpeg:" + Math.round(this.quality * 100);
+	}
+
+	@Override
+	protected ImageWriteParam createWriteParam(ImageWriter writer) {
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(this.quality);
+		return param;
+	}
+}
@@ -0,0 +1,178 @@
+package remotedesktop.server.codec;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import remotedesktop.server.delta.DeltaProtocol;
+import remotedesktop.server.delta.FrameBuffer;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Tiles com poucas cores, como texto e interfaces: uma paleta com as cores do tile
+ * seguida das sequências de pixels iguais (RLE), comprimidas com deflate. Sem perdas
+ * além da redução de cores do nível de qualidade. As sequências reduzem bastante o
+ * que o deflate precisa percorrer, e os índices repetem os mesmos padrões para cada
+ * letra.
+ *
+ * Formato: um byte com a quantidade de cores, as cores (3 bytes cada) e as sequências
+ * comprimidas, cada uma com o índice da cor e o tamanho menos um em um varint (7 bits
+ * por byte, o bit mais alto indica que existe mais um byte). Os pixels são percorridos
+ * linha a linha, e as sequências podem continuar na linha seguinte. Tiles com mais de
+ * MAX_COLORS cores são escritos com 0 cores, e cada sequência traz a própria cor no
+ * lugar do índice.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class PaletteCodec implements TileCodec {
+	public static final int MAX_COLORS = 255;
+
+	private static final int TABLE_SIZE = 1024;
+
+	private QualityTier tier;
+
+	public PaletteCodec(QualityTier tier) {
+		this.tier = tier;
+	}
+
+	@Override
+	public int getFormat() {
+		return DeltaProtocol.FORMAT_PALETTE;
+	}
+
+	@Override
+	public String getName() {
+		return "palette";
+	}
+
+	@Override
+	public TileEncoder createEncoder(int tileSize) {
+		return new Encoder(tileSize);
+	}
+
+	private class Encoder implements TileEncoder {
+		private int[] tile;
+		private int[] keys;
+		private int[] indexes;
+		private int[] stamps;
+		private int stamp;
+		private int[] palette;
+		private byte[] runs;
+		private Deflater deflater;
+
+		public Encoder(int tileSize) {
+			this.tile = new int[tileSize * tileSize];
+			this.keys = new int[TABLE_SIZE];
+			this.indexes = new int[TABLE_SIZE];
+			this.stamps = new int[TABLE_SIZE];
+			this.palette = new int[MAX_COLORS];
+			// Pior caso: uma sequência por pixel, com a cor e um varint de até 3 bytes
+			this.runs = new byte[tileSize * tileSize * 6];
+			this.deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+
+		@Override
+		public void encode(int[] pixels, int offset, int scanline, int width, int height, FrameBuffer output) {
+			int size = width * height;
+			int[] tile = this.tile;
+			int index = 0;
+			for (int row = 0; row < height; row++, offset += scanline) {
+				for (int i = offset; i < offset + width; i++) {
+					tile[index++] = PaletteCodec.this.tier.quantize(pixels[i]);
+				}
+			}
+
+			int colors = this.buildPalette(tile, size);
+			output.writeByte(colors);
+			for (int i = 0; i < colors; i++) {
+				int color = this.palette[i];
+				output.writeByte(color >> 16);
+				output.writeByte(color >> 8);
+				output.writeByte(color);
+			}
+
+			byte[] runs = this.runs;
+			int length = 0;
+			for (int start = 0; start < size;) {
+				int color = tile[start];
+				int end = start + 1;
+				while (end < size && tile[end] == color) {
+					end++;
+				}
+
+				if (colors > 0) {
+					runs[length++] = (byte) this.find(color);
+				} else {
+					runs[length++] = (byte) (color >> 16);
+					runs[length++] = (byte) (color >> 8);
+					runs[length++] = (byte) color;
+				}
+
+				// Tamanho da sequência menos um
+				int value = end - start - 1;
+				while (value >= 0x80) {
+					runs[length++] = (byte) ((value & 0x7F) | 0x80);
+					value >>>= 7;
+				}
+				runs[length++] = (byte) value;
+				start = end;
+			}
+
+			Deflater deflater = this.deflater;
+			deflater.reset();
+			deflater.setInput(runs, 0, length);
+			deflater.finish();
+			while (!deflater.finished()) {
+				output.ensure(Math.max(1024, length / 4));
+				byte[] data = output.getData();
+				output.skip(deflater.deflate(data, output.getLength(), data.length - output.getLength()));
+			}
+		}
+
+		/**
+		 * Monta a paleta, retornando a quantidade de cores ou 0 caso passe de MAX_COLORS
+		 */
+		private int buildPalette(int[] tile, int size) {
+			if (++this.stamp == 0) {
+				Arrays.fill(this.stamps, 0);
+				this.stamp = 1;
+			}
+
+			int colors = 0;
+			int previous = -1;
+			for (int i = 0; i < size; i++) {
+				int color = tile[i];
+				if (color == previous) {
+					continue;
+				}
+				previous = color;
+
+				int slot = this.slot(color);
+				if (this.stamps[slot] != this.stamp) {
+					if (colors == MAX_COLORS) {
+						return 0;
+					}
+					this.stamps[slot] = this.stamp;
+					this.keys[slot] = color;
+					this.indexes[slot] = colors;
+					this.palette[colors++] = color;
+				}
+			}
+			return colors;
+		}
+
+		private int find(int color) {
+			return this.indexes[this.slot(color)];
+		}
+
+		/**
+		 * Posição da cor na tabela, ou a posição livre onde ela deve ser colocada
+		 */
+		private int slot(int color) {
+			int slot = (color * 0x9E3779B1) >>> 22;
+			while (this.stamps[slot] == this.stamp && this.keys[slot] != color) {
+				slot = (slot + 1) & (TABLE_SIZE - 1);
+			}
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package remotedesktop.server.codec;
+
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+
+import remotedesktop.server.delta.DeltaProtocol;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Tiles em PNG. Sem perdas, com as cores reduzidas conforme o nível de qualidade
+ * antes da compressão, o que deixa os tiles menores nos níveis mais baixos.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class PngCodec extends ImageIOCodec {
+	private QualityTier tier;
+
+	public PngCodec(QualityTier tier) {
+		super("png");
+		this.tier = tier;
+	}
+
+	@Override
+	public int getFormat() {
+		return DeltaProtocol.FORMAT_PNG;
+	}
+
+	@Override
+	public String getName() {
+		return "png";
+	}
+
+	@Override
+	protected ImageWriteParam createWriteParam(ImageWriter writer) {
+		return null;
+	}
+
+	@Override
+	protected int preparePixel(int pixel) {
+		return this.tier.quantize(pixel);
+	}
+}
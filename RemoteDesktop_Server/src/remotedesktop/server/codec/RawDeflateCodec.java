@@ -0,0 +1,91 @@
+package remotedesktop.server.codec;
+
+import java.util.zip.Deflater;
+
+import remotedesktop.server.delta.DeltaProtocol;
+import remotedesktop.server.delta.FrameBuffer;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Pixels no formato do nível de qualidade, comprimidos com deflate. É o codec
+ * padrão: sem perdas além da redução de cores do nível, e o mais rápido para telas
+ * com texto e áreas de cor sólida.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class RawDeflateCodec implements TileCodec {
+	private QualityTier tier;
+
+	public RawDeflateCodec(QualityTier tier) {
+		this.tier = tier;
+	}
+
+	@Override
+	public int getFormat() {
+		return this.tier.getFormat();
+	}
+
+	@Override
+	public String getName() {
+		return "raw";
+	}
+
+	@Override
+	public TileEncoder createEncoder(int tileSize) {
+		return new Encoder(tileSize);
+	}
+
+	private class Encoder implements TileEncoder {
+		private Deflater deflater;
+		private byte[] buffer;
+
+		public Encoder(int tileSize) {
+			this.deflater = new Deflater(Deflater.BEST_SPEED);
+			this.buffer = new byte[tileSize * tileSize * RawDeflateCodec.this.tier.getBytesPerPixel()];
+		}
+
+		/**
+		 * Converte os pixels para o formato do nível e os comprime diretamente no buffer
+		 */
+		@Override
+		public void encode(int[] pixels, int offset, int scanline, int width, int height, FrameBuffer output) {
+			byte[] buffer = this.buffer;
+			int length = 0;
+			for (int row = 0; row < height; row++, offset += scanline) {
+				switch (RawDeflateCodec.this.tier.getFormat()) {
+				case DeltaProtocol.FORMAT_RGB565:
+					for (int i = offset; i < offset + width; i++) {
+						int pixel = pixels[i];
+						int value = ((pixel >> 8) & 0xF800) | ((pixel >> 5) & 0x07E0) | ((pixel >> 3) & 0x001F);
+						buffer[length++] = (byte) (value >> 8);
+						buffer[length++] = (byte) value;
+					}
+					break;
+				case DeltaProtocol.FORMAT_RGB332:
+					for (int i = offset; i < offset + width; i++) {
+						int pixel = pixels[i];
+						buffer[length++] = (byte) (((pixel >> 16) & 0xE0) | ((pixel >> 11) & 0x1C) | ((pixel >> 6) & 0x03));
+					}
+					break;
+				default:
+					for (int i = offset; i < offset + width; i++) {
+						int pixel = pixels[i];
+						buffer[length++] = (byte) (pixel >> 16);
+						buffer[length++] = (byte) (pixel >> 8);
+						buffer[length++] = (byte) pixel;
+					}
+				}
+			}
+
+			Deflater deflater = this.deflater;
+			deflater.reset();
+			deflater.setInput(buffer, 0, length);
+			deflater.finish();
+			while (!deflater.finished()) {
+				output.ensure(Math.max(1024, length / 4));
+				byte[] data = output.getData();
+				output.skip(deflater.deflate(data, output.getLength(), data.length - output.getLength()));
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package remotedesktop.server.codec;
+
+/**
+ * Codec usado para comprimir os tiles de um quadro.
+ *
+ * O codec informa o formato escrito no cabeçalho do quadro, que o cliente usa para
+ * escolher o decodificador equivalente, e cria os codificadores. Os codificadores
+ * guardam estado (compressores e buffers), por isso cada faixa de tiles codificada em
+ * paralelo usa o seu próprio.
+ *
+ * Novos codecs são registrados em TileCodecs, e precisam de um TileDecoder de mesmo
+ * formato no cliente.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface TileCodec {
+	/**
+	 * Formato dos tiles, ver DeltaProtocol
+	 *
+	 * @return int
+	 */
+	public int getFormat();
+
+	/**
+	 * Nome do codec, usado nos logs e nas métricas
+	 *
+	 * @return String
+	 */
+	public String getName();
+
+	/**
+	 * Cria um codificador para tiles de até tileSize x tileSize pixels
+	 *
+	 * @param tileSize
+	 * @return TileEncoder
+	 */
+	public TileEncoder createEncoder(int tileSize);
+}
@@ -0,0 +1,125 @@
+package remotedesktop.server.codec;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Registro dos codecs de tiles, escolhidos por nome.
+ *
+ * O nome pode ter opções depois de dois pontos, repassadas ao codec. Os codecs
+ * registrados são:
+ *
+ * - "raw": pixels comprimidos com deflate (padrão);
+ * - "palette": paleta de cores e sequências de pixels iguais, para texto;
+ * - "png": tiles em PNG;
+ * - "jpeg[:qualidade]": tiles em JPEG, com a qualidade de 1 a 100; sem a opção a
+ * qualidade depende do nível de qualidade;
+ * - "auto[:qualidade]": escolhe entre os anteriores pelo conteúdo de cada tile, com a
+ * qualidade dos tiles em JPEG.
+ *
+ * O nível de qualidade é repassado a todos os codecs, para que a degradação dos
+ * perfis continue funcionando com qualquer codec.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class TileCodecs {
+	public static final String DEFAULT = "raw";
+
+	/**
+	 * Cria os codecs de um nome
+	 */
+	public interface Factory {
+		/**
+		 * @param tier nível de qualidade do perfil
+		 * @param options texto depois dos dois pontos, ou null
+		 * @return TileCodec
+		 * @throws IllegalArgumentException caso as opções sejam inválidas
+		 */
+		public TileCodec create(QualityTier tier, String options);
+	}
+
+	private static final Map<String, Factory> factories = new LinkedHashMap<String, Factory>();
+
+	static {
+		register("raw", new Factory() {
+			@Override
+			public TileCodec create(QualityTier tier, String options) {
+				return new RawDeflateCodec(tier);
+			}
+		});
+		register("png", new Factory() {
+			@Override
+			public TileCodec create(QualityTier tier, String options) {
+				return new PngCodec(tier);
+			}
+		});
+		register("palette", new Factory() {
+			@Override
+			public TileCodec create(QualityTier tier, String options) {
+				return new PaletteCodec(tier);
+			}
+		});
+		register("jpeg", new Factory() {
+			@Override
+			public TileCodec create(QualityTier tier, String options) {
+				if (options == null) {
+					return new JpegCodec(JpegCodec.getDefaultQuality(tier));
+				}
+				return new JpegCodec(Integer.parseInt(options) / 100f);
+			}
+		});
+		register("auto", new Factory() {
+			@Override
+			public TileCodec create(QualityTier tier, String options) {
+				if (options == null) {
+					return new AdaptiveCodec(tier, JpegCodec.getDefaultQuality(tier));
+				}
+				return new AdaptiveCodec(tier, Integer.parseInt(options) / 100f);
+			}
+		});
+	}
+
+	private TileCodecs() {
+	}
+
+	/**
+	 * Registra um codec. O cliente precisa de um decodificador para o formato do codec.
+	 *
+	 * @param name
+	 * @param factory
+	 */
+	public static synchronized void register(String name, Factory factory) {
+		factories.put(name.toLowerCase(), factory);
+	}
+
+	/**
+	 * Retorna os nomes dos codecs registrados
+	 *
+	 * @return List
+	 */
+	public static synchronized List<String> getNames() {
+		return new ArrayList<String>(factories.keySet());
+	}
+
+	/**
+	 * Cria o codec com o nome informado
+	 *
+	 * @param spec nome do codec, com as opções depois de dois pontos
+	 * @param tier nível de qualidade
+	 * @return TileCodec
+	 * @throws IllegalArgumentException caso o codec não exista ou as opções sejam inválidas
+	 */
+	public static synchronized TileCodec create(String spec, QualityTier tier) {
+		int separator = spec.indexOf(':');
+		String name = (separator < 0 ? spec : spec.substring(0, separator)).toLowerCase();
+		Factory factory = factories.get(name);
+		if (factory == null) {
+			throw new IllegalArgumentException("Codec desconhecido: " + spec);
+		}
+		return factory.create(tier, separator < 0 ? null : spec.substring(separator + 1));
+	}
+}
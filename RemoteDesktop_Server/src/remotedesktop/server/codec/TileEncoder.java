@@ -0,0 +1,26 @@
+package remotedesktop.server.codec;
+
+import java.io.IOException;
+
+import remotedesktop.server.delta.FrameBuffer;
+
+/**
+ * Codificador de tiles criado por um TileCodec. Não é thread safe.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface TileEncoder {
+	/**
+	 * Comprime um tile e escreve o resultado no final do buffer
+	 *
+	 * @param pixels pixels RGB da imagem inteira
+	 * @param offset posição do primeiro pixel do tile
+	 * @param scanline largura da imagem
+	 * @param width largura do tile
+	 * @param height altura do tile
+	 * @param output
+	 * @throws IOException
+	 */
+	public void encode(int[] pixels, int offset, int scanline, int width, int height, FrameBuffer output)
+			throws IOException;
+}
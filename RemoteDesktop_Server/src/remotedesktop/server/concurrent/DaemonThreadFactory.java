@@ -0,0 +1,25 @@
+package remotedesktop.server.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cria threads daemon numeradas para os pools de trabalho, para que eles não impeçam
+ * o encerramento do servidor
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private String name;
+	private int count;
+
+	public DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public synchronized Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, this.name + "-" + this.count++);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,94 @@
+package remotedesktop.server.cursor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Formato do ponteiro: uma imagem ARGB pequena e o ponto dela que indica a posição (o
+ * hotspot, a ponta da seta).
+ *
+ * O conteúdo da mensagem MSG_CURSOR_SHAPE é calculado uma única vez e reaproveitado
+ * para todos os clientes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class CursorShape {
+	private int width;
+	private int height;
+	private int hotspotX;
+	private int hotspotY;
+	private int[] pixels;
+	private byte[] payload;
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param hotspotX
+	 * @param hotspotY
+	 * @param pixels ARGB, linha a linha
+	 */
+	public CursorShape(int width, int height, int hotspotX, int hotspotY, int[] pixels) {
+		this.width = width;
+		this.height = height;
+		this.hotspotX = hotspotX;
+		this.hotspotY = hotspotY;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Seta padrão, branca com borda preta, usada quando o formato real do ponteiro não
+	 * pode ser obtido
+	 *
+	 * @return CursorShape
+	 */
+	public static CursorShape createArrow() {
+		int width = 12, height = 20;
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		Polygon arrow = new Polygon(new int[] { 0, 0, 4, 7, 9, 6, 11 }, new int[] { 0, 16, 12, 18, 17, 11, 11 }, 7);
+		g2d.setColor(Color.WHITE);
+		g2d.fillPolygon(arrow);
+		g2d.setColor(Color.BLACK);
+		g2d.drawPolygon(arrow);
+		g2d.dispose();
+		return new CursorShape(width, height, 0, 0, image.getRGB(0, 0, width, height, null, 0, width));
+	}
+
+	/**
+	 * Conteúdo da mensagem MSG_CURSOR_SHAPE: largura, altura e hotspot (quatro shorts)
+	 * seguidos dos pixels ARGB, um int por pixel
+	 *
+	 * @return byte[]
+	 */
+	public synchronized byte[] getPayload() {
+		if (this.payload == null) {
+			ByteBuffer buffer = ByteBuffer.allocate(8 + this.pixels.length * 4);
+			buffer.putShort((short) this.width).putShort((short) this.height);
+			buffer.putShort((short) this.hotspotX).putShort((short) this.hotspotY);
+			buffer.asIntBuffer().put(this.pixels);
+			this.payload = buffer.array();
+		}
+		return this.payload;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getHotspotX() {
+		return this.hotspotX;
+	}
+
+	public int getHotspotY() {
+		return this.hotspotY;
+	}
+}
@@ -0,0 +1,27 @@
+package remotedesktop.server.cursor;
+
+import java.awt.Point;
+
+/**
+ * Origem da posição e do formato do ponteiro, consultada pelo CursorTracker muitas
+ * vezes por segundo; as duas consultas devem ser baratas.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface CursorSource {
+	/**
+	 * Retorna a posição do ponteiro em coordenadas da área de trabalho, ou null caso não
+	 * seja possível obtê-la
+	 *
+	 * @return Point
+	 */
+	public Point getPosition();
+
+	/**
+	 * Retorna o formato atual do ponteiro. O mesmo objeto deve ser retornado enquanto o
+	 * formato não mudar, pois um objeto diferente é reenviado a todos os clientes.
+	 *
+	 * @return CursorShape
+	 */
+	public CursorShape getShape();
+}
@@ -0,0 +1,165 @@
+package remotedesktop.server.cursor;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.Protocol;
+import remotedesktop.server.client.Client;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.stream.ScreenStream;
+
+/**
+ * Thread que acompanha o ponteiro e o envia aos clientes por fora dos quadros.
+ *
+ * A posição é consultada muitas vezes por segundo, independente do ritmo das
+ * screenshots, e enviada a cada cliente apenas quando muda, relativa à imagem do
+ * stream em que ele está inscrito (ou escondida, quando o ponteiro está fora da área do
+ * stream). Uma posição que ainda não foi enviada é substituída pela mais recente, então
+ * um cliente lento não acumula posições atrasadas. O formato é enviado apenas quando
+ * muda e para os clientes que ainda não o receberam.
+ *
+ * Assim o movimento do ponteiro não altera nenhum pixel dos quadros, não passa pela
+ * codificação e continua suave mesmo quando os quadros estão lentos.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class CursorTracker extends Thread {
+	public static final int DEFAULT_RATE = 100;
+
+	private Logger logger;
+	private CursorSource source;
+	private List<ScreenStream> streams;
+	private List<Client> clients;
+	private long interval;
+	private Map<Client, CursorState> states;
+	private Counter sentPositions;
+	private Counter sentShapes;
+
+	/**
+	 * @param source
+	 * @param streams streams do servidor, na ordem dos números
+	 * @param clients clientes conectados, lista que pode ser alterada por outras threads
+	 * @param rate consultas da posição por segundo
+	 */
+	public CursorTracker(CursorSource source, List<ScreenStream> streams, List<Client> clients, int rate) {
+		super("CursorTracker");
+		this.setDaemon(true);
+		this.logger = Logger.getInstance();
+		this.source = source;
+		this.streams = streams;
+		this.clients = clients;
+		this.interval = 1000000000L / rate;
+		this.states = new HashMap<Client, CursorState>();
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		this.sentPositions = registry.counter("remotedesktop_cursor_messages_total", "Mensagens do ponteiro enviadas",
+				"kind", "position");
+		this.sentShapes = registry.counter("remotedesktop_cursor_messages_total", "Mensagens do ponteiro enviadas",
+				"kind", "shape");
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		while (!this.isInterrupted()) {
+			try {
+				this.update();
+			} catch (RuntimeException e) {
+				this.logger.error("O ponteiro deixou de ser acompanhado: %s", e);
+				break;
+			}
+
+			next += this.interval;
+			long sleep = next - System.nanoTime();
+			if (sleep <= 0) {
+				next = System.nanoTime();
+				continue;
+			}
+			try {
+				Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Consulta o ponteiro e envia o que mudou para cada cliente
+	 */
+	private void update() {
+		Point position = this.source.getPosition();
+		CursorShape shape = this.source.getShape();
+
+		int[] relative = new int[this.streams.size()];
+		for (int i = 0; i < relative.length; i++) {
+			relative[i] = toStream(position, this.streams.get(i).getBounds());
+		}
+
+		if (this.states.size() > this.clients.size()) {
+			this.states.keySet().retainAll(this.clients);
+		}
+
+		for (Client client : this.clients) {
+			CursorState state = this.states.get(client);
+			if (state == null) {
+				this.states.put(client, state = new CursorState());
+			}
+
+			if (shape != null && shape != state.shape) {
+				client.sendMessage(Protocol.MSG_CURSOR_SHAPE, shape.getPayload());
+				state.shape = shape;
+				this.sentShapes.increment();
+			}
+
+			int stream = client.getStreamId();
+			int value = relative[stream];
+			if (stream != state.stream || value != state.position) {
+				client.sendLatestMessage(Protocol.MSG_CURSOR_POS, encode(value));
+				state.stream = stream;
+				state.position = value;
+				this.sentPositions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Converte a posição para a imagem do stream, de 0 a 65535 em cada eixo, com x nos
+	 * 16 bits mais altos e y nos mais baixos, ou -1 caso o ponteiro esteja fora do stream
+	 */
+	private static int toStream(Point position, Rectangle bounds) {
+		if (position == null || !bounds.contains(position)) {
+			return -1;
+		}
+		int x = (int) ((long) (position.x - bounds.x) * 65536 / bounds.width);
+		int y = (int) ((long) (position.y - bounds.y) * 65536 / bounds.height);
+		return x << 16 | y;
+	}
+
+	/**
+	 * Conteúdo da mensagem MSG_CURSOR_POS
+	 */
+	private static byte[] encode(int value) {
+		ByteBuffer buffer = ByteBuffer.allocate(5);
+		if (value == -1) {
+			buffer.put((byte) 0).putInt(0);
+		} else {
+			buffer.put((byte) 1).putInt(value);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * O que já foi enviado a um cliente
+	 */
+	private static class CursorState {
+		private CursorShape shape;
+		private int stream = -1;
+		private int position = -2;
+	}
+}
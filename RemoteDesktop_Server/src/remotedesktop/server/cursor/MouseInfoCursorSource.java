@@ -0,0 +1,33 @@
+package remotedesktop.server.cursor;
+
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+
+/**
+ * Lê a posição do ponteiro através de java.awt.MouseInfo.
+ *
+ * O Java não permite ler o formato do ponteiro do sistema, então o formato é sempre a
+ * seta padrão de CursorShape. As screenshots do java.awt.Robot não incluem o ponteiro,
+ * assim ele aparece no cliente apenas uma vez, desenhado por cima da imagem.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class MouseInfoCursorSource implements CursorSource {
+	private CursorShape shape;
+
+	public MouseInfoCursorSource() {
+		this.shape = CursorShape.createArrow();
+	}
+
+	@Override
+	public Point getPosition() {
+		PointerInfo info = MouseInfo.getPointerInfo();
+		return info == null ? null : info.getLocation();
+	}
+
+	@Override
+	public CursorShape getShape() {
+		return this.shape;
+	}
+}
@@ -0,0 +1,35 @@
+package remotedesktop.server.datasender;
+
+/**
+ * Mensagem pequena enviada ao cliente fora da sequência de quadros, como a resposta
+ * ao PING. As mensagens de controle nunca são descartadas, e são enviadas antes do
+ * próximo quadro. Apenas as mensagens colocadas com SendQueue.offerLatestControl podem
+ * ter o conteúdo trocado por um mais recente enquanto aguardam o envio.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ControlMessage {
+	private int type;
+	private byte[] payload;
+
+	/**
+	 * @param type tipo da mensagem, ver Protocol
+	 * @param payload
+	 */
+	public ControlMessage(int type, byte[] payload) {
+		this.type = type;
+		this.payload = payload;
+	}
+
+	public int getType() {
+		return this.type;
+	}
+
+	public byte[] getPayload() {
+		return this.payload;
+	}
+
+	void setPayload(byte[] payload) {
+		this.payload = payload;
+	}
+}
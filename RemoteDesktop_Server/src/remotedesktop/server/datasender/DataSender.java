@@ -1,50 +1,148 @@
 package remotedesktop.server.datasender;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+
+import remotedesktop.server.Protocol;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.metrics.Clock;
+import remotedesktop.server.metrics.FrameTiming;
 
 /**
- * Éssa classe é responsável por enviar os dados por um outputStream de forma assincrona
- * 
+ * Éssa classe é responsável por enviar os dados por um outputStream de forma assincrona.
+ *
+ * Cada cliente possui um único DataSender, que fica aguardando quadros na fila de envio
+ * do cliente e os escreve um de cada vez, assim nunca existem duas escritas simultâneas
+ * no mesmo outputStream.
+ *
  * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
  */
 public class DataSender extends Thread {
-	private byte[] data;
-	private ObjectOutputStream outputStream;
+	private SendQueue queue;
+	private DataOutputStream outputStream;
 	private DataSenderListener listener;
-	
+	private volatile long sentCount;
+	private volatile long sentBytes;
+	private volatile int lastLength;
+
 	/**
-	 * O Construtor recebe os dados a serem enviados, o outputStream e o listener, que escutará
-	 * os eventos.
-	 * 
-	 * @param data
+	 * O Construtor recebe a fila de onde os quadros serão retirados, o outputStream e o
+	 * listener, que escutará os eventos.
+	 *
+	 * @param queue
 	 * @param outputStream
 	 * @param listener
 	 */
-	public DataSender(byte[] data, ObjectOutputStream outputStream, DataSenderListener listener) {
-		this.data = data;
+	public DataSender(SendQueue queue, DataOutputStream outputStream, DataSenderListener listener) {
+		this.queue = queue;
 		this.outputStream = outputStream;
 		this.listener = listener;
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Escreve um quadro no outputStream: o tamanho, o tipo, os horários e o conteúdo.
+	 * O horário de envio é lido no momento da escrita. Os bytes do quadro são escritos
+	 * diretamente, sem serialização nem cópias.
+	 *
+	 * @param outputStream
+	 * @param frame
+	 * @param enqueued horário em que o quadro entrou na fila de envio
+	 * @throws IOException
+	 */
+	public static void writeFrame(DataOutputStream outputStream, EncodedFrame frame, long enqueued)
+			throws IOException {
+		FrameTiming timing = frame.getTiming();
+		outputStream.writeInt(Protocol.TIMING_SIZE + frame.getLength() + 1);
+		outputStream.writeByte(Protocol.MSG_FRAME);
+		outputStream.writeLong(timing == null ? 0 : timing.getSequence());
+		outputStream.writeLong(timing == null ? 0 : timing.getCapture());
+		outputStream.writeLong(timing == null ? 0 : timing.getScaled());
+		outputStream.writeLong(timing == null ? 0 : timing.getEncoded());
+		outputStream.writeLong(enqueued);
+		outputStream.writeLong(Clock.micros());
+		outputStream.write(frame.getData(), 0, frame.getLength());
+		outputStream.flush();
+	}
+
+	/**
+	 * Escreve uma mensagem de controle no outputStream: o tamanho, o tipo e o conteúdo
+	 *
+	 * @param outputStream
+	 * @param type
+	 * @param payload
+	 * @throws IOException
+	 */
+	public static void writeMessage(DataOutputStream outputStream, int type, byte[] payload) throws IOException {
+		outputStream.writeInt(payload.length + 1);
+		outputStream.writeByte(type);
+		outputStream.write(payload);
+		outputStream.flush();
+	}
+
+	public long getSentCount() {
+		return this.sentCount;
+	}
+
+	public long getSentBytes() {
+		return this.sentBytes;
 	}
-	
+
 	/**
-	 * Aqui o processo de envio é iniciado em um novo processo e os eventos são chamados de 
-	 * acordo com o stado do processo.
+	 * Retorna o tamanho do último quadro enviado
+	 *
+	 * @return int
+	 */
+	public int getLastLength() {
+		return this.lastLength;
+	}
+
+	/**
+	 * Retira os quadros da fila e os envia, chamando os eventos de acordo com o estado
+	 * de cada envio. As mensagens de controle são enviadas antes do quadro, e apenas
+	 * os erros delas são repassados ao listener. O processo termina quando a fila é
+	 * fechada.
 	 */
 	@Override
-	public void run () {
-		try {
-			this.listener.onPrepare(this);
-			
-			this.listener.onStart(this);
-			this.outputStream.writeObject(this.data);
-			this.outputStream.flush();
-			
-			this.listener.onSuccess(this);
-		} catch (IOException e) {
-			this.listener.onError(this, e);
+	public void run() {
+		while (true) {
+			try {
+				if (!this.queue.awaitAvailable()) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			ControlMessage control;
+			while ((control = this.queue.pollControl()) != null) {
+				try {
+					writeMessage(this.outputStream, control.getType(), control.getPayload());
+				} catch (IOException e) {
+					this.listener.onError(this, e);
+				}
+			}
+
+			EncodedFrame frame = this.queue.poll();
+			if (frame == null) {
+				continue;
+			}
+
+			try {
+				this.listener.onStart(this);
+				writeFrame(this.outputStream, frame, this.queue.getPolledEnqueueTime());
+
+				this.sentCount++;
+				this.sentBytes += frame.getLength();
+				this.lastLength = frame.getLength();
+				this.listener.onSuccess(this);
+			} catch (IOException e) {
+				this.listener.onError(this, e);
+			} finally {
+				frame.release();
+			}
+
+			this.listener.onComplete(this);
 		}
-		
-		this.listener.onComplete(this);
 	}
 }
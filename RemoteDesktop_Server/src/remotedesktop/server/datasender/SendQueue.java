@@ -0,0 +1,226 @@
+package remotedesktop.server.datasender;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import remotedesktop.server.delta.DeltaMerger;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.metrics.Clock;
+
+/**
+ * Fila de envio de um cliente, onde o quadro mais recente sempre vence.
+ *
+ * A fila guarda no máximo um quadro pendente. Quando um novo quadro chega antes do
+ * pendente ser enviado, o pendente é substituído: um quadro completo simplesmente
+ * toma o lugar do anterior, e um quadro parcial é juntado ao anterior, já que depende
+ * dele. Assim um cliente lento recebe sempre a imagem mais recente, sem acumular
+ * quadros atrasados.
+ *
+ * Além do quadro, a fila guarda as mensagens de controle, que são sempre enviadas
+ * na ordem em que chegaram e antes do quadro pendente. Mensagens que só valem pelo
+ * valor mais recente, como a posição do ponteiro, substituem a mensagem do mesmo tipo
+ * que ainda não foi enviada. Há um único consumidor por fila.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class SendQueue {
+	private EncodedFrame pending;
+	private long pendingEnqueued;
+	private long polledEnqueued;
+	private Queue<ControlMessage> controls;
+	private SendQueueListener listener;
+	private boolean closed;
+	private long offeredCount;
+	private long droppedCount;
+
+	public SendQueue() {
+		this.controls = new ArrayDeque<ControlMessage>();
+	}
+
+	/**
+	 * Coloca o quadro na fila, reservando uma referência a ele. Retorna false caso o
+	 * quadro não possa ser enviado, nesse caso o quadro pendente também é descartado e
+	 * o cliente precisa receber um quadro completo.
+	 *
+	 * @param frame
+	 * @param keyframe
+	 * @return boolean
+	 */
+	public boolean offer(EncodedFrame frame, boolean keyframe) {
+		SendQueueListener listener;
+		synchronized (this) {
+			if (this.closed) {
+				return false;
+			}
+
+			this.offeredCount++;
+			this.pendingEnqueued = Clock.micros();
+
+			if (this.pending != null) {
+				this.droppedCount++;
+
+				EncodedFrame replacement = keyframe ? frame.retain() : DeltaMerger.merge(this.pending, frame);
+				this.pending.release();
+				this.pending = replacement;
+
+				return replacement != null;
+			}
+
+			this.pending = frame.retain();
+			this.notifyAll();
+			listener = this.listener;
+		}
+
+		if (listener != null) {
+			listener.onFrameAvailable(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Coloca uma mensagem de controle na fila. Retorna false caso a fila já tenha sido
+	 * fechada.
+	 *
+	 * @param type
+	 * @param payload
+	 * @return boolean
+	 */
+	public boolean offerControl(int type, byte[] payload) {
+		SendQueueListener listener;
+		synchronized (this) {
+			if (this.closed) {
+				return false;
+			}
+			this.controls.add(new ControlMessage(type, payload));
+			this.notifyAll();
+			listener = this.listener;
+		}
+
+		if (listener != null) {
+			listener.onFrameAvailable(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Coloca uma mensagem de controle na fila, substituindo o conteúdo da mensagem do
+	 * mesmo tipo que ainda não foi enviada, caso exista. A mensagem substituída mantém a
+	 * sua posição na fila. Retorna false caso a fila já tenha sido fechada.
+	 *
+	 * @param type
+	 * @param payload
+	 * @return boolean
+	 */
+	public boolean offerLatestControl(int type, byte[] payload) {
+		synchronized (this) {
+			if (this.closed) {
+				return false;
+			}
+			for (ControlMessage control : this.controls) {
+				if (control.getType() == type) {
+					control.setPayload(payload);
+					return true;
+				}
+			}
+		}
+		return this.offerControl(type, payload);
+	}
+
+	/**
+	 * Define o listener avisado sempre que algo é colocado na fila vazia. Usado pelas
+	 * conexões que não ficam bloqueadas aguardando em awaitAvailable().
+	 *
+	 * @param listener
+	 */
+	public synchronized void setSendQueueListener(SendQueueListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Aguarda até que exista um quadro ou uma mensagem de controle na fila. Retorna
+	 * false quando a fila for fechada.
+	 *
+	 * @return boolean
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitAvailable() throws InterruptedException {
+		while (this.pending == null && this.controls.isEmpty() && !this.closed) {
+			this.wait();
+		}
+		return !this.closed;
+	}
+
+	/**
+	 * Retira a próxima mensagem de controle sem aguardar, retornando null caso não
+	 * exista nenhuma
+	 *
+	 * @return ControlMessage
+	 */
+	public synchronized ControlMessage pollControl() {
+		return this.controls.poll();
+	}
+
+	/**
+	 * Retira o próximo quadro da fila sem aguardar, retornando null caso a fila esteja
+	 * vazia. A referência reservada passa a pertencer a quem retirou o quadro.
+	 *
+	 * @return EncodedFrame
+	 */
+	public synchronized EncodedFrame poll() {
+		EncodedFrame frame = this.pending;
+		this.pending = null;
+		this.polledEnqueued = this.pendingEnqueued;
+		return frame;
+	}
+
+	/**
+	 * Horário, pelo Clock, em que o último quadro retirado por poll() entrou na fila.
+	 * Quando o quadro foi juntado a outro, é o horário da última junção.
+	 *
+	 * @return long
+	 */
+	public synchronized long getPolledEnqueueTime() {
+		return this.polledEnqueued;
+	}
+
+	/**
+	 * Fecha a fila, descartando o quadro pendente e as mensagens de controle
+	 */
+	public synchronized void close() {
+		this.closed = true;
+		this.controls.clear();
+		if (this.pending != null) {
+			this.pending.release();
+			this.pending = null;
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Quantidade de quadros aguardando envio
+	 *
+	 * @return int
+	 */
+	public synchronized int getDepth() {
+		return this.pending == null ? 0 : 1;
+	}
+
+	/**
+	 * Quantidade de quadros recebidos pela fila
+	 *
+	 * @return long
+	 */
+	public synchronized long getOfferedCount() {
+		return this.offeredCount;
+	}
+
+	/**
+	 * Quantidade de quadros que foram substituídos ou juntados a um quadro mais recente
+	 * antes de serem enviados
+	 *
+	 * @return long
+	 */
+	public synchronized long getDroppedCount() {
+		return this.droppedCount;
+	}
+}
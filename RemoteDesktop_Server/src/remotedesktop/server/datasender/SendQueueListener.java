@@ -0,0 +1,11 @@
+package remotedesktop.server.datasender;
+
+/**
+ * Listener para ser avisado quando a fila de envio recebe um quadro ou uma mensagem de
+ * controle
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface SendQueueListener {
+	public void onFrameAvailable(SendQueue queue);
+}
@@ -0,0 +1,112 @@
+package remotedesktop.server.delta;
+
+import remotedesktop.server.metrics.FrameTiming;
+import remotedesktop.server.profile.OutputProfile;
+
+/**
+ * Resultado da codificação de uma screenshot.
+ *
+ * Contém o quadro parcial (apenas os tiles alterados) e, quando solicitado, o
+ * quadro completo da mesma screenshot, usado pelos clientes que ainda não possuem
+ * uma imagem base ou que perderam algum quadro.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class DeltaFrame {
+	private EncodedFrame delta;
+	private EncodedFrame keyframe;
+	private int changedTiles;
+	private int copies;
+	private OutputProfile profile;
+
+	/**
+	 * @param delta
+	 * @param keyframe
+	 * @param changedTiles registros do quadro parcial (tiles e cópias), ou do completo
+	 *            quando não existe parcial
+	 * @param copies cópias de blocos deslocados no quadro parcial
+	 */
+	public DeltaFrame(EncodedFrame delta, EncodedFrame keyframe, int changedTiles, int copies) {
+		this.delta = delta;
+		this.keyframe = keyframe;
+		this.changedTiles = changedTiles;
+		this.copies = copies;
+	}
+
+	/**
+	 * Retorna o quadro parcial, ou null caso não seja possível gerar um (primeiro
+	 * quadro ou mudança de resolução)
+	 *
+	 * @return EncodedFrame
+	 */
+	public EncodedFrame getDelta() {
+		return this.delta;
+	}
+
+	/**
+	 * Retorna o quadro completo, ou null caso não tenha sido solicitado
+	 *
+	 * @return EncodedFrame
+	 */
+	public EncodedFrame getKeyframe() {
+		return this.keyframe;
+	}
+
+	public int getChangedTiles() {
+		return this.changedTiles;
+	}
+
+	public int getCopies() {
+		return this.copies;
+	}
+
+	/**
+	 * Retorna o perfil de saída em que o quadro foi codificado, ou null quando o quadro
+	 * não é de um perfil (gravações, testes)
+	 *
+	 * @return OutputProfile
+	 */
+	public OutputProfile getProfile() {
+		return this.profile;
+	}
+
+	public void setProfile(OutputProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Indica se nenhum tile foi alterado desde o quadro anterior
+	 *
+	 * @return boolean
+	 */
+	public boolean isEmpty() {
+		return this.delta != null && this.changedTiles == 0;
+	}
+
+	/**
+	 * Define os horários da screenshot nos dois quadros
+	 *
+	 * @param timing
+	 */
+	public void setTiming(FrameTiming timing) {
+		if (this.delta != null) {
+			this.delta.setTiming(timing);
+		}
+		if (this.keyframe != null) {
+			this.keyframe.setTiming(timing);
+		}
+	}
+
+	/**
+	 * Libera a referência do codificador aos quadros. Os quadros que ainda estiverem
+	 * sendo enviados continuam válidos até o fim do envio.
+	 */
+	public void release() {
+		if (this.delta != null) {
+			this.delta.release();
+		}
+		if (this.keyframe != null) {
+			this.keyframe.release();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package remotedesktop.server.delta;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import remotedesktop.server.memory.BufferPool;
+
+/**
+ * Junta dois quadros consecutivos em um único quadro.
+ *
+ * Usado quando um quadro ainda não foi enviado e um novo quadro chega: o resultado
+ * tem o tipo do primeiro quadro e contém os tiles do segundo quadro mais os tiles do
+ * primeiro que não foram substituídos pelo segundo. Como os tiles seguem sempre a
+ * mesma grade, um tile do segundo quadro substitui completamente o tile de mesma
+ * posição do primeiro. Os horários do resultado são os do segundo quadro, que é a
+ * imagem que o cliente passa a exibir.
+ *
+ * As cópias de blocos deslocados (OP_COPY) dependem da imagem como ela está naquele
+ * ponto do quadro, por isso as cópias do primeiro quadro são sempre mantidas, na
+ * ordem, junto com todos os tiles anteriores à última delas, que podem ser a origem
+ * da cópia. Apenas os tiles do primeiro quadro depois da última cópia podem ser
+ * substituídos. Quando o segundo quadro tem uma cópia, ela pode ler tiles do primeiro
+ * quadro, e então nenhum tile do primeiro é descartado.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class DeltaMerger {
+	private static final int HEADER_SIZE = 14;
+	private static final int TILE_HEADER_SIZE = 13;
+
+	private DeltaMerger() {
+	}
+
+	/**
+	 * Retorna o quadro resultante, ou null caso os quadros não sejam compatíveis
+	 * (formato ou resolução diferentes)
+	 *
+	 * @param first
+	 * @param second
+	 * @return EncodedFrame
+	 */
+	public static EncodedFrame merge(EncodedFrame first, EncodedFrame second) {
+		ByteBuffer a = ByteBuffer.wrap(first.getData(), 0, first.getLength());
+		ByteBuffer b = ByteBuffer.wrap(second.getData(), 0, second.getLength());
+
+		int type = a.get(0);
+		if (a.get(1) != b.get(1) || a.getInt(2) != b.getInt(2) || a.getInt(6) != b.getInt(6)) {
+			return null;
+		}
+
+		// Posição e tamanho de cada tile do segundo quadro, ordenados para busca binária
+		int secondCount = b.getInt(10);
+		long[] replaced = new long[secondCount];
+		int replacedCount = 0;
+		int position = HEADER_SIZE;
+		for (int i = 0; i < secondCount; i++) {
+			if (b.get(position) == DeltaProtocol.OP_COPY) {
+				replacedCount = 0;
+				break;
+			}
+			replaced[replacedCount++] = b.getLong(position + 1);
+			position += TILE_HEADER_SIZE + b.getInt(position + 9);
+		}
+		Arrays.sort(replaced, 0, replacedCount);
+
+		// Os registros do primeiro quadro até a última cópia são sempre mantidos
+		int firstCount = a.getInt(10);
+		int lastCopy = -1;
+		position = HEADER_SIZE;
+		for (int i = 0; i < firstCount; i++) {
+			if (a.get(position) == DeltaProtocol.OP_COPY) {
+				lastCopy = i;
+			}
+			position += TILE_HEADER_SIZE + a.getInt(position + 9);
+		}
+
+		int[] kept = new int[firstCount];
+		int keptCount = 0;
+		int size = second.getLength();
+		position = HEADER_SIZE;
+		for (int i = 0; i < firstCount; i++) {
+			int length = TILE_HEADER_SIZE + a.getInt(position + 9);
+			if (i <= lastCopy || Arrays.binarySearch(replaced, 0, replacedCount, a.getLong(position + 1)) < 0) {
+				kept[keptCount++] = position;
+				size += length;
+			}
+			position += length;
+		}
+
+		BufferPool pool = BufferPool.getInstance();
+		byte[] data = pool.acquire(size);
+		ByteBuffer output = ByteBuffer.wrap(data, 0, size);
+		output.put((byte) type);
+		output.put(first.getData(), 1, 9);
+		output.putInt(keptCount + secondCount);
+		for (int i = 0; i < keptCount; i++) {
+			int length = TILE_HEADER_SIZE + a.getInt(kept[i] + 9);
+			output.put(first.getData(), kept[i], length);
+		}
+		output.put(second.getData(), HEADER_SIZE, second.getLength() - HEADER_SIZE);
+
+		EncodedFrame merged = new EncodedFrame(data, size, pool);
+		merged.setTiming(second.getTiming());
+		return merged;
+	}
+}
@@ -0,0 +1,118 @@
+package remotedesktop.server.delta;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import remotedesktop.server.memory.BufferPool;
+import remotedesktop.server.metrics.FrameTiming;
+
+/**
+ * Quadro já codificado, compartilhado por todos os clientes que o recebem.
+ *
+ * O quadro possui um contador de referências: quem o cria possui a primeira
+ * referência, e cada envio pendente adiciona uma referência que é liberada quando o
+ * envio termina. Quando o contador chega a zero os bytes são descartados, ou
+ * devolvidos ao pool de onde vieram.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class EncodedFrame {
+	private byte[] data;
+	private int length;
+	private AtomicInteger references;
+	private BufferPool pool;
+	private volatile FrameTiming timing;
+
+	public EncodedFrame(byte[] data) {
+		this(data, data.length);
+	}
+
+	public EncodedFrame(byte[] data, int length) {
+		this(data, length, null);
+	}
+
+	/**
+	 * @param data array obtido do pool, devolvido quando o quadro for liberado
+	 * @param length
+	 * @param pool
+	 */
+	public EncodedFrame(byte[] data, int length, BufferPool pool) {
+		this.data = data;
+		this.length = length;
+		this.references = new AtomicInteger(1);
+		this.pool = pool;
+	}
+
+	/**
+	 * Retorna os bytes do quadro. Apenas os primeiros getLength() bytes são válidos.
+	 *
+	 * @return byte[]
+	 */
+	public byte[] getData() {
+		byte[] data = this.data;
+		if (data == null) {
+			throw new IllegalStateException("Quadro já liberado");
+		}
+		return data;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Retorna os horários da screenshot de onde o quadro veio, ou null caso não sejam
+	 * conhecidos
+	 *
+	 * @return FrameTiming
+	 */
+	public FrameTiming getTiming() {
+		return this.timing;
+	}
+
+	/**
+	 * Define os horários da screenshot, deve ser chamado antes do quadro ser colocado
+	 * em alguma fila de envio
+	 *
+	 * @param timing
+	 */
+	public void setTiming(FrameTiming timing) {
+		this.timing = timing;
+	}
+
+	/**
+	 * Adiciona uma referência ao quadro
+	 *
+	 * @return EncodedFrame
+	 */
+	public EncodedFrame retain() {
+		int count;
+		do {
+			count = this.references.get();
+			if (count <= 0) {
+				throw new IllegalStateException("Quadro já liberado");
+			}
+		} while (!this.references.compareAndSet(count, count + 1));
+		return this;
+	}
+
+	/**
+	 * Libera uma referência ao quadro, descartando os bytes quando não houver mais
+	 * nenhuma
+	 */
+	public void release() {
+		int count = this.references.decrementAndGet();
+		if (count == 0) {
+			byte[] data = this.data;
+			this.data = null;
+			if (this.pool != null) {
+				this.pool.release(data);
+			}
+		} else if (count < 0) {
+			throw new IllegalStateException("Quadro liberado mais de uma vez");
+		}
+	}
+
+	public int getReferenceCount() {
+		return this.references.get();
+	}
+}
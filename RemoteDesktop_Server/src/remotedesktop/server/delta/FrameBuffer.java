@@ -0,0 +1,153 @@
+package remotedesktop.server.delta;
+
+import java.io.OutputStream;
+
+import remotedesktop.server.memory.BufferPool;
+
+/**
+ * Array de bytes crescente usado para montar um quadro diretamente em um array do
+ * pool, sem cópias intermediárias.
+ *
+ * Ao terminar o quadro o array é entregue ao EncodedFrame, que o devolve ao pool
+ * quando for liberado, e o próximo quadro começa com um novo array do pool.
+ *
+ * Os codecs de tiles escrevem diretamente no buffer (ver TileCodec), ou pelo
+ * OutputStream retornado por getOutputStream() quando usam o ImageIO.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class FrameBuffer {
+	private BufferPool pool;
+	private byte[] data;
+	private int length;
+	private OutputStream outputStream;
+
+	public FrameBuffer(BufferPool pool) {
+		this.pool = pool;
+		this.outputStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				FrameBuffer.this.writeByte(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				FrameBuffer.this.write(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Retorna um OutputStream que escreve no final do buffer
+	 *
+	 * @return OutputStream
+	 */
+	public OutputStream getOutputStream() {
+		return this.outputStream;
+	}
+
+	/**
+	 * Começa um novo quadro com a capacidade informada
+	 *
+	 * @param capacity
+	 */
+	public void start(int capacity) {
+		if (this.data != null) {
+			this.pool.release(this.data);
+		}
+		this.data = this.pool.acquire(capacity);
+		this.length = 0;
+	}
+
+	/**
+	 * Esvazia o buffer mantendo o array atual, usado pelos buffers de trabalho que nunca
+	 * são entregues a um EncodedFrame
+	 */
+	public void clear() {
+		if (this.data == null) {
+			this.data = this.pool.acquire(4096);
+		}
+		this.length = 0;
+	}
+
+	/**
+	 * Garante espaço para mais a quantidade de bytes informada
+	 *
+	 * @param count
+	 */
+	public void ensure(int count) {
+		if (this.length + count <= this.data.length) {
+			return;
+		}
+		byte[] data = this.pool.acquire(Math.max(this.length + count, this.data.length * 2));
+		System.arraycopy(this.data, 0, data, 0, this.length);
+		this.pool.release(this.data);
+		this.data = data;
+	}
+
+	public byte[] getData() {
+		return this.data;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Avança o tamanho após uma escrita direta em getData()
+	 *
+	 * @param count
+	 */
+	public void skip(int count) {
+		this.length += count;
+	}
+
+	public void writeByte(int value) {
+		this.ensure(1);
+		this.data[this.length++] = (byte) value;
+	}
+
+	public void writeShort(int value) {
+		this.ensure(2);
+		this.data[this.length++] = (byte) (value >> 8);
+		this.data[this.length++] = (byte) value;
+	}
+
+	public void writeInt(int value) {
+		this.ensure(4);
+		this.putInt(this.length, value);
+		this.length += 4;
+	}
+
+	public void write(byte[] source, int offset, int count) {
+		this.ensure(count);
+		System.arraycopy(source, offset, this.data, this.length, count);
+		this.length += count;
+	}
+
+	/**
+	 * Sobrescreve um inteiro já escrito, usado para os tamanhos e contadores que só são
+	 * conhecidos no final
+	 *
+	 * @param position
+	 * @param value
+	 */
+	public void putInt(int position, int value) {
+		this.data[position] = (byte) (value >> 24);
+		this.data[position + 1] = (byte) (value >> 16);
+		this.data[position + 2] = (byte) (value >> 8);
+		this.data[position + 3] = (byte) value;
+	}
+
+	/**
+	 * Entrega o array a um EncodedFrame. O buffer fica vazio até o próximo start().
+	 *
+	 * @return EncodedFrame
+	 */
+	public EncodedFrame finish() {
+		EncodedFrame frame = new EncodedFrame(this.data, this.length, this.pool);
+		this.data = null;
+		this.length = 0;
+		return frame;
+	}
+}
@@ -0,0 +1,323 @@
+package remotedesktop.server.delta;
+
+import java.util.Arrays;
+
+/**
+ * Detecta um bloco da imagem que foi deslocado em relação à imagem anterior, como
+ * acontece ao rolar um terminal ou uma página.
+ *
+ * Primeiro é calculado o retângulo onde as imagens diferem. Dentro dele é calculado
+ * um hash de cada linha das duas imagens, e algumas linhas da imagem atual são
+ * procuradas na imagem anterior; cada linha encontrada vota no deslocamento entre as
+ * duas posições. O deslocamento mais votado é conferido linha a linha, pixel a pixel,
+ * e a maior sequência de linhas que coincidem é o bloco deslocado. Caso não exista
+ * deslocamento vertical, o mesmo é feito com as colunas, para deslocamentos
+ * horizontais.
+ *
+ * O resultado é a cópia de um retângulo da imagem anterior para outra posição. Depois
+ * de aplicar a cópia, apenas a faixa descoberta pelo deslocamento continua diferente.
+ *
+ * Quando a busca falha em uma área grande, como em um vídeo, a próxima busca só é
+ * feita depois de alguns quadros, mais a cada falha seguida, para que telas que
+ * mudam sem rolar não paguem o custo dos hashes em todo quadro.
+ *
+ * Não é thread safe; os vetores de hashes são reaproveitados entre as chamadas.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class MotionDetector {
+	/**
+	 * Distância entre as linhas procuradas na imagem anterior
+	 */
+	private static final int SAMPLE_STEP = 8;
+
+	/**
+	 * Votos mínimos para um deslocamento ser conferido
+	 */
+	private static final int MIN_VOTES = 3;
+
+	/**
+	 * Máximo de quadros sem busca depois de falhas seguidas
+	 */
+	private static final int MAX_SKIPPED_FRAMES = 8;
+
+	private int minSize;
+	private int[] currentHashes;
+	private int[] previousHashes;
+	private int[] votes;
+	private int failures;
+	private int skippedFrames;
+
+	private int sourceX;
+	private int sourceY;
+	private int targetX;
+	private int targetY;
+	private int width;
+	private int height;
+
+	/**
+	 * @param minSize largura e altura mínimas do bloco deslocado, normalmente o tamanho
+	 *            de dois tiles; blocos menores não compensam a cópia
+	 */
+	public MotionDetector(int minSize) {
+		this.minSize = minSize;
+		this.currentHashes = new int[0];
+		this.previousHashes = new int[0];
+		this.votes = new int[0];
+	}
+
+	/**
+	 * Procura um bloco deslocado entre as duas imagens. Quando encontra, o resultado
+	 * fica disponível nos getters até a próxima chamada.
+	 *
+	 * @param current pixels da imagem atual
+	 * @param previous pixels da imagem anterior
+	 * @param width largura das imagens
+	 * @param height altura das imagens
+	 * @return true caso tenha encontrado um bloco deslocado
+	 */
+	public boolean detect(int[] current, int[] previous, int width, int height) {
+		if (this.skippedFrames > 0) {
+			this.skippedFrames--;
+			return false;
+		}
+
+		// Retângulo onde as imagens diferem
+		int top = -1, bottom = 0, left = width, right = 0;
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			int x = 0;
+			while (x < width && current[offset + x] == previous[offset + x]) {
+				x++;
+			}
+			if (x == width) {
+				continue;
+			}
+			if (top < 0) {
+				top = y;
+			}
+			bottom = y + 1;
+			left = Math.min(left, x);
+
+			x = width - 1;
+			while (x >= right && current[offset + x] == previous[offset + x]) {
+				x--;
+			}
+			right = Math.max(right, x + 1);
+		}
+
+		if (top < 0 || bottom - top < this.minSize || right - left < this.minSize) {
+			return false;
+		}
+		if (this.detectVertical(current, previous, width, left, top, right, bottom)
+				|| this.detectHorizontal(current, previous, width, left, top, right, bottom)) {
+			this.failures = 0;
+			return true;
+		}
+		this.failures = Math.min(this.failures + 1, MAX_SKIPPED_FRAMES);
+		this.skippedFrames = this.failures;
+		return false;
+	}
+
+	private boolean detectVertical(int[] current, int[] previous, int width, int left, int top, int right,
+			int bottom) {
+		int count = bottom - top;
+		int[] currentHashes = this.hashes(true, count);
+		int[] previousHashes = this.hashes(false, count);
+		for (int i = 0; i < count; i++) {
+			int offset = (top + i) * width;
+			currentHashes[i] = hash(current, offset + left, offset + right);
+			previousHashes[i] = hash(previous, offset + left, offset + right);
+		}
+
+		int shift = this.vote(currentHashes, previousHashes, count);
+		if (shift == 0) {
+			return false;
+		}
+
+		// Maior sequência de linhas iguais às linhas deslocadas da imagem anterior
+		int bestStart = 0, bestLength = 0, start = 0, length = 0;
+		for (int i = Math.max(0, shift); i < Math.min(count, count + shift); i++) {
+			if (currentHashes[i] == previousHashes[i - shift]
+					&& equals(current, (top + i) * width + left, previous, (top + i - shift) * width + left, right - left,
+							1)) {
+				if (length++ == 0) {
+					start = i;
+				}
+				if (length > bestLength) {
+					bestStart = start;
+					bestLength = length;
+				}
+			} else {
+				length = 0;
+			}
+		}
+
+		if (bestLength < this.minSize) {
+			return false;
+		}
+		this.setResult(left, top + bestStart - shift, left, top + bestStart, right - left, bestLength);
+		return true;
+	}
+
+	private boolean detectHorizontal(int[] current, int[] previous, int width, int left, int top, int right,
+			int bottom) {
+		int count = right - left;
+		int[] currentHashes = this.hashes(true, count);
+		int[] previousHashes = this.hashes(false, count);
+		int from = top * width;
+		Arrays.fill(currentHashes, 0, count, 1);
+		Arrays.fill(previousHashes, 0, count, 1);
+		// Percorre linha a linha, acumulando o hash de todas as colunas ao mesmo tempo
+		for (int y = top; y < bottom; y++) {
+			int offset = y * width + left;
+			for (int i = 0; i < count; i++) {
+				currentHashes[i] = currentHashes[i] * 31 + current[offset + i];
+				previousHashes[i] = previousHashes[i] * 31 + previous[offset + i];
+			}
+		}
+
+		int shift = this.vote(currentHashes, previousHashes, count);
+		if (shift == 0) {
+			return false;
+		}
+
+		int bestStart = 0, bestLength = 0, start = 0, length = 0;
+		for (int i = Math.max(0, shift); i < Math.min(count, count + shift); i++) {
+			if (currentHashes[i] == previousHashes[i - shift]
+					&& equals(current, from + left + i, previous, from + left + i - shift, bottom - top, width)) {
+				if (length++ == 0) {
+					start = i;
+				}
+				if (length > bestLength) {
+					bestStart = start;
+					bestLength = length;
+				}
+			} else {
+				length = 0;
+			}
+		}
+
+		if (bestLength < this.minSize) {
+			return false;
+		}
+		this.setResult(left + bestStart - shift, top, left + bestStart, top, bestLength, bottom - top);
+		return true;
+	}
+
+	/**
+	 * Procura algumas linhas (ou colunas) da imagem atual na imagem anterior e retorna o
+	 * deslocamento mais votado, ou 0 caso nenhum tenha votos suficientes. Linhas iguais à
+	 * vizinha, como as de fundo liso, não são procuradas, pois aparecem em todo lugar.
+	 */
+	private int vote(int[] currentHashes, int[] previousHashes, int count) {
+		if (this.votes.length < count * 2) {
+			this.votes = new int[count * 2];
+		}
+		int[] votes = this.votes;
+		Arrays.fill(votes, 0, count * 2, 0);
+
+		int best = 0;
+		for (int i = 1; i < count; i += SAMPLE_STEP) {
+			int hash = currentHashes[i];
+			if (hash == currentHashes[i - 1] || hash == previousHashes[i]) {
+				continue;
+			}
+			for (int j = 0; j < count; j++) {
+				if (previousHashes[j] == hash) {
+					int index = i - j + count;
+					if (++votes[index] > votes[best]) {
+						best = index;
+					}
+				}
+			}
+		}
+		return votes[best] >= MIN_VOTES ? best - count : 0;
+	}
+
+	private int[] hashes(boolean current, int count) {
+		if (this.currentHashes.length < count) {
+			this.currentHashes = new int[count];
+			this.previousHashes = new int[count];
+		}
+		return current ? this.currentHashes : this.previousHashes;
+	}
+
+	private void setResult(int sourceX, int sourceY, int targetX, int targetY, int width, int height) {
+		this.sourceX = sourceX;
+		this.sourceY = sourceY;
+		this.targetX = targetX;
+		this.targetY = targetY;
+		this.width = width;
+		this.height = height;
+	}
+
+	private static int hash(int[] pixels, int from, int to) {
+		int hash = 1;
+		for (int i = from; i < to; i++) {
+			hash = hash * 31 + pixels[i];
+		}
+		return hash;
+	}
+
+	private static boolean equals(int[] a, int offsetA, int[] b, int offsetB, int count, int step) {
+		for (int i = 0; i < count; i++, offsetA += step, offsetB += step) {
+			if (a[offsetA] != b[offsetB]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copia um retângulo de uma imagem para outra posição da mesma imagem, na ordem
+	 * certa para que as linhas de origem não sejam sobrescritas antes de copiadas
+	 *
+	 * @param pixels
+	 * @param scanline largura da imagem
+	 * @param sourceX
+	 * @param sourceY
+	 * @param targetX
+	 * @param targetY
+	 * @param width
+	 * @param height
+	 */
+	public static void copy(int[] pixels, int scanline, int sourceX, int sourceY, int targetX, int targetY, int width,
+			int height) {
+		if (targetY > sourceY) {
+			for (int row = height - 1; row >= 0; row--) {
+				System.arraycopy(pixels, (sourceY + row) * scanline + sourceX, pixels,
+						(targetY + row) * scanline + targetX, width);
+			}
+		} else {
+			for (int row = 0; row < height; row++) {
+				System.arraycopy(pixels, (sourceY + row) * scanline + sourceX, pixels,
+						(targetY + row) * scanline + targetX, width);
+			}
+		}
+	}
+
+	public int getSourceX() {
+		return this.sourceX;
+	}
+
+	public int getSourceY() {
+		return this.sourceY;
+	}
+
+	public int getTargetX() {
+		return this.targetX;
+	}
+
+	public int getTargetY() {
+		return this.targetY;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+}
@@ -0,0 +1,81 @@
+package remotedesktop.server.delta;
+
+/**
+ * Níveis de qualidade em que as screenshots podem ser codificadas.
+ *
+ * Cada nível define o formato dos pixels enviados nos tiles. Cada screenshot é
+ * codificada uma única vez por nível, e todos os clientes inscritos no mesmo nível
+ * recebem exatamente os mesmos bytes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public enum QualityTier {
+	/**
+	 * 24 bits por pixel, sem perdas
+	 */
+	TRUE_COLOR(DeltaProtocol.FORMAT_RGB888, 3),
+
+	/**
+	 * 16 bits por pixel (5 bits para vermelho, 6 para verde e 5 para azul)
+	 */
+	HIGH_COLOR(DeltaProtocol.FORMAT_RGB565, 2),
+
+	/**
+	 * 8 bits por pixel (3 bits para vermelho, 3 para verde e 2 para azul)
+	 */
+	LOW_COLOR(DeltaProtocol.FORMAT_RGB332, 1);
+
+	private int format;
+	private int bytesPerPixel;
+
+	private QualityTier(int format, int bytesPerPixel) {
+		this.format = format;
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	public int getFormat() {
+		return this.format;
+	}
+
+	public int getBytesPerPixel() {
+		return this.bytesPerPixel;
+	}
+
+	/**
+	 * Reduz a cor à precisão do nível e a expande de volta para 24 bits, da mesma forma
+	 * que o cliente expande os pixels recebidos. Usado pelos codecs que não escrevem os
+	 * pixels no formato do nível.
+	 *
+	 * @param pixel
+	 * @return int
+	 */
+	public int quantize(int pixel) {
+		switch (this) {
+		case HIGH_COLOR: {
+			int r = (pixel >> 19) & 0x1F, g = (pixel >> 10) & 0x3F, b = (pixel >> 3) & 0x1F;
+			return (((r << 3) | (r >> 2)) << 16) | (((g << 2) | (g >> 4)) << 8) | ((b << 3) | (b >> 2));
+		}
+		case LOW_COLOR: {
+			int r = (pixel >> 21) & 0x07, g = (pixel >> 13) & 0x07, b = (pixel >> 6) & 0x03;
+			return ((r * 255 / 7) << 16) | ((g * 255 / 7) << 8) | (b * 255 / 3);
+		}
+		default:
+			return pixel & 0xFFFFFF;
+		}
+	}
+
+	/**
+	 * Retorna o nível com o nome informado, ou null caso não exista
+	 *
+	 * @param name
+	 * @return QualityTier
+	 */
+	public static QualityTier fromName(String name) {
+		for (QualityTier tier : values()) {
+			if (tier.name().equalsIgnoreCase(name)) {
+				return tier;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,384 @@
+package remotedesktop.server.delta;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import remotedesktop.server.codec.RawDeflateCodec;
+import remotedesktop.server.codec.TileCodec;
+import remotedesktop.server.codec.TileEncoder;
+import remotedesktop.server.memory.BufferPool;
+import remotedesktop.server.memory.ImagePixels;
+
+/**
+ * Codifica as screenshots em quadros por tiles.
+ *
+ * A imagem é dividida em tiles de tamanho fixo e cada tile é comparado com o mesmo
+ * tile do quadro anterior. Apenas os tiles alterados são comprimidos e colocados no
+ * quadro parcial, o que reduz bastante o tráfego e o processamento em desktops que
+ * ficam a maior parte do tempo parados. A compressão de cada tile fica a cargo do
+ * TileCodec informado.
+ *
+ * Antes da comparação, o MotionDetector procura um bloco deslocado desde o quadro
+ * anterior (rolagem de texto ou de uma página). Quando encontra, o quadro parcial
+ * começa com a cópia do bloco, que o cliente aplica na própria imagem, e a cópia é
+ * aplicada também na imagem anterior guardada aqui. Assim os tiles do bloco deixam de
+ * ser diferentes e apenas a faixa descoberta é enviada.
+ *
+ * Os quadros são montados diretamente em arrays do BufferPool, e todos os buffers
+ * intermediários são reaproveitados entre as chamadas.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class TileDeltaEncoder {
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/**
+	 * Quantidade mínima de pixels para dividir a imagem em faixas codificadas em paralelo
+	 */
+	private static final int PARALLEL_THRESHOLD = 512 * 512;
+
+	private int tileSize;
+	private TileCodec codec;
+	private int width;
+	private int height;
+	private int[] previous;
+	private int[] pixelBuffer;
+	private ExecutorService executor;
+	private Band[] bands;
+	private FrameBuffer deltaBuffer;
+	private FrameBuffer keyBuffer;
+	private int lastDeltaLength;
+	private int lastKeyLength;
+	private MotionDetector motionDetector;
+	private boolean motionDetection;
+
+	public TileDeltaEncoder(QualityTier tier) {
+		this(tier, DEFAULT_TILE_SIZE);
+	}
+
+	public TileDeltaEncoder(QualityTier tier, int tileSize) {
+		this(new RawDeflateCodec(tier), tileSize, null, 1);
+	}
+
+	public TileDeltaEncoder(TileCodec codec) {
+		this(codec, DEFAULT_TILE_SIZE, null, 1);
+	}
+
+	/**
+	 * @param codec
+	 * @param tileSize
+	 * @param executor pool onde as faixas são codificadas, ou null para codificar tudo
+	 *            na thread que chamou encode()
+	 * @param bands quantidade máxima de faixas de tiles codificadas em paralelo
+	 */
+	public TileDeltaEncoder(TileCodec codec, int tileSize, ExecutorService executor, int bands) {
+		this.tileSize = tileSize;
+		this.codec = codec;
+		this.executor = executor;
+		this.bands = new Band[executor == null ? 1 : Math.max(1, bands)];
+		for (int i = 0; i < this.bands.length; i++) {
+			this.bands[i] = new Band(i == 0);
+		}
+		this.deltaBuffer = new FrameBuffer(BufferPool.getInstance());
+		this.keyBuffer = new FrameBuffer(BufferPool.getInstance());
+		this.motionDetector = new MotionDetector(tileSize * 2);
+		this.motionDetection = true;
+	}
+
+	/**
+	 * Ativa ou desativa a detecção de blocos deslocados (ativa por padrão)
+	 *
+	 * @param motionDetection
+	 */
+	public synchronized void setMotionDetection(boolean motionDetection) {
+		this.motionDetection = motionDetection;
+	}
+
+	/**
+	 * Codifica a imagem comparando-a com a imagem recebida na chamada anterior.
+	 *
+	 * O quadro parcial é sempre gerado, exceto quando não existe uma imagem anterior
+	 * com a mesma resolução. O quadro completo só é gerado quando solicitado ou
+	 * quando não é possível gerar o parcial. Os tiles alterados são comprimidos uma
+	 * única vez e compartilhados pelos dois quadros.
+	 *
+	 * Imagens grandes são divididas em faixas horizontais de tiles, codificadas em
+	 * paralelo. A primeira faixa é escrita diretamente nos quadros e as demais são
+	 * copiadas em seguida, na ordem, de forma que os tiles sempre saem na mesma ordem.
+	 *
+	 * @param image
+	 * @param keyframe
+	 * @return DeltaFrame
+	 * @throws IOException
+	 */
+	public synchronized DeltaFrame encode(BufferedImage image, boolean keyframe) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		final int[] pixels = this.getPixels(image);
+
+		final boolean hasPrevious = this.previous != null && this.width == width && this.height == height;
+		if (!hasPrevious) {
+			this.width = width;
+			this.height = height;
+			this.previous = new int[width * height];
+			keyframe = true;
+		}
+
+		FrameBuffer delta = hasPrevious ? this.deltaBuffer : null;
+		FrameBuffer key = keyframe ? this.keyBuffer : null;
+		if (delta != null) {
+			this.startFrame(delta, DeltaProtocol.DELTA, this.lastDeltaLength);
+		}
+		if (key != null) {
+			this.startFrame(key, DeltaProtocol.KEYFRAME, this.lastKeyLength);
+		}
+
+		int copies = 0;
+		if (delta != null && this.motionDetection
+				&& this.motionDetector.detect(pixels, this.previous, width, height)) {
+			this.encodeCopy(delta);
+			copies++;
+		}
+
+		int tileRows = (height + this.tileSize - 1) / this.tileSize;
+		int count = width * height >= PARALLEL_THRESHOLD ? Math.min(this.bands.length, tileRows) : 1;
+		final boolean encodeKeyframe = keyframe;
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(count - 1);
+		for (int i = 1; i < count; i++) {
+			final Band band = this.bands[i];
+			band.start(hasPrevious, keyframe, tileRows * i / count * this.tileSize,
+					tileRows * (i + 1) / count * this.tileSize);
+			futures.add(this.executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					TileDeltaEncoder.this.encodeBand(band, pixels, hasPrevious, encodeKeyframe);
+					return null;
+				}
+			}));
+		}
+
+		Band first = this.bands[0];
+		first.start(hasPrevious, keyframe, 0, tileRows / count * this.tileSize);
+		first.delta = delta;
+		first.key = key;
+		this.encodeBand(first, pixels, hasPrevious, keyframe);
+
+		int deltaCount = copies + first.deltaCount, keyCount = first.keyCount;
+		for (int i = 1; i < count; i++) {
+			try {
+				futures.get(i - 1).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Codificação interrompida", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+
+			Band band = this.bands[i];
+			if (delta != null) {
+				delta.write(band.delta.getData(), 0, band.delta.getLength());
+			}
+			if (key != null) {
+				key.write(band.key.getData(), 0, band.key.getLength());
+			}
+			deltaCount += band.deltaCount;
+			keyCount += band.keyCount;
+		}
+
+		EncodedFrame deltaFrame = null, keyFrame = null;
+		if (delta != null) {
+			delta.putInt(10, deltaCount);
+			this.lastDeltaLength = delta.getLength();
+			deltaFrame = delta.finish();
+		}
+		if (key != null) {
+			key.putInt(10, keyCount);
+			this.lastKeyLength = key.getLength();
+			keyFrame = key.finish();
+		}
+
+		return new DeltaFrame(deltaFrame, keyFrame, hasPrevious ? deltaCount : keyCount, copies);
+	}
+
+	/**
+	 * Começa um quadro com o cabeçalho; a quantidade de tiles é preenchida no final
+	 */
+	private void startFrame(FrameBuffer buffer, int type, int expectedLength) {
+		buffer.start(Math.max(4096, expectedLength + expectedLength / 4));
+		buffer.writeByte(type);
+		buffer.writeByte(this.codec.getFormat());
+		buffer.writeInt(this.width);
+		buffer.writeInt(this.height);
+		buffer.writeInt(0);
+	}
+
+	/**
+	 * Codifica os tiles de uma faixa. Cada faixa só lê e escreve as suas próprias
+	 * linhas da imagem anterior, por isso as faixas podem ser codificadas ao mesmo tempo.
+	 */
+	private void encodeBand(Band band, int[] pixels, boolean hasPrevious, boolean keyframe) throws IOException {
+		FrameBuffer delta = band.delta;
+		FrameBuffer key = band.key;
+
+		for (int y = band.fromY; y < band.toY; y += this.tileSize) {
+			int h = Math.min(this.tileSize, this.height - y);
+			for (int x = 0; x < this.width; x += this.tileSize) {
+				int w = Math.min(this.tileSize, this.width - x);
+
+				boolean changed = !hasPrevious || this.tileChanged(pixels, x, y, w, h);
+				if (!changed && !keyframe) {
+					continue;
+				}
+
+				// O tile é comprimido uma única vez e copiado para o outro quadro
+				FrameBuffer target = changed && delta != null ? delta : key;
+				int start = target.getLength();
+				this.encodeTile(band, target, pixels, x, y, w, h);
+				if (changed) {
+					this.storeTile(pixels, x, y, w, h);
+				}
+				if (target == delta) {
+					band.deltaCount++;
+				}
+				if (key != null) {
+					if (target != key) {
+						key.write(delta.getData(), start, delta.getLength() - start);
+					}
+					band.keyCount++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compara o tile com o mesmo tile da imagem anterior, linha a linha,
+	 * interrompendo na primeira diferença
+	 */
+	private boolean tileChanged(int[] pixels, int x, int y, int w, int h) {
+		for (int row = y; row < y + h; row++) {
+			int offset = row * this.width + x;
+			for (int i = offset; i < offset + w; i++) {
+				if (pixels[i] != this.previous[i]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void storeTile(int[] pixels, int x, int y, int w, int h) {
+		for (int row = y; row < y + h; row++) {
+			int offset = row * this.width + x;
+			System.arraycopy(pixels, offset, this.previous, offset, w);
+		}
+	}
+
+	/**
+	 * Escreve o registro da cópia do bloco encontrado pelo MotionDetector e aplica a
+	 * cópia na imagem anterior, como o cliente fará na dele
+	 */
+	private void encodeCopy(FrameBuffer output) {
+		MotionDetector motion = this.motionDetector;
+		output.writeByte(DeltaProtocol.OP_COPY);
+		output.writeShort(motion.getTargetX());
+		output.writeShort(motion.getTargetY());
+		output.writeShort(motion.getWidth());
+		output.writeShort(motion.getHeight());
+		output.writeInt(4);
+		output.writeShort(motion.getSourceX());
+		output.writeShort(motion.getSourceY());
+
+		MotionDetector.copy(this.previous, this.width, motion.getSourceX(), motion.getSourceY(), motion.getTargetX(),
+				motion.getTargetY(), motion.getWidth(), motion.getHeight());
+	}
+
+	/**
+	 * Escreve o registro de um tile: operação, posição, tamanho e os pixels comprimidos
+	 * pelo codec. Os pixels são comprimidos diretamente no quadro.
+	 */
+	private void encodeTile(Band band, FrameBuffer output, int[] pixels, int x, int y, int w, int h)
+			throws IOException {
+		output.writeByte(DeltaProtocol.OP_TILE);
+		output.writeShort(x);
+		output.writeShort(y);
+		output.writeShort(w);
+		output.writeShort(h);
+		output.writeInt(0);
+		int start = output.getLength();
+
+		band.encoder.encode(pixels, y * this.width + x, this.width, w, h, output);
+
+		output.putInt(start - 4, output.getLength() - start);
+	}
+
+	public TileCodec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * Retorna os pixels da imagem em um array de inteiros RGB. Quando possível o
+	 * próprio array da imagem é usado, evitando uma cópia; caso contrário os pixels são
+	 * copiados para um array reaproveitado.
+	 *
+	 * @param image
+	 * @return int[]
+	 */
+	private int[] getPixels(BufferedImage image) {
+		int[] pixels = ImagePixels.getData(image);
+		if (pixels != null) {
+			return pixels;
+		}
+		int size = image.getWidth() * image.getHeight();
+		if (this.pixelBuffer == null || this.pixelBuffer.length != size) {
+			this.pixelBuffer = new int[size];
+		}
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), this.pixelBuffer, 0, image.getWidth());
+	}
+
+	/**
+	 * Estado de uma faixa de tiles: o codificador de tiles e, a partir da
+	 * segunda faixa, os buffers onde os tiles ficam até serem copiados para os quadros
+	 */
+	private class Band {
+		private TileEncoder encoder;
+		private FrameBuffer ownDelta;
+		private FrameBuffer ownKey;
+		private FrameBuffer delta;
+		private FrameBuffer key;
+		private int fromY;
+		private int toY;
+		private int deltaCount;
+		private int keyCount;
+
+		public Band(boolean first) {
+			this.encoder = TileDeltaEncoder.this.codec.createEncoder(TileDeltaEncoder.this.tileSize);
+			if (!first) {
+				this.ownDelta = new FrameBuffer(BufferPool.getInstance());
+				this.ownKey = new FrameBuffer(BufferPool.getInstance());
+			}
+		}
+
+		public void start(boolean hasPrevious, boolean keyframe, int fromY, int toY) {
+			this.fromY = fromY;
+			this.toY = Math.min(toY, TileDeltaEncoder.this.height);
+			this.deltaCount = 0;
+			this.keyCount = 0;
+			if (this.ownDelta != null) {
+				this.ownDelta.clear();
+				this.ownKey.clear();
+				this.delta = hasPrevious ? this.ownDelta : null;
+				this.key = keyframe ? this.ownKey : null;
+			}
+		}
+	}
+}
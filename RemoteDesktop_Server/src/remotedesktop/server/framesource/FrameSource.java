@@ -0,0 +1,30 @@
+package remotedesktop.server.framesource;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Origem das imagens capturadas pelo AutoScreenshot.
+ *
+ * A implementação padrão captura a tela com java.awt.Robot, mas a origem pode ser
+ * trocada por uma gravação ou por um gerador sintético, o que permite rodar e medir o
+ * servidor em máquinas sem monitor.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface FrameSource {
+	/**
+	 * Retorna a área capturada
+	 *
+	 * @return Rectangle
+	 */
+	public Rectangle getBounds();
+
+	/**
+	 * Captura uma nova imagem. A imagem retornada pode ser reaproveitada pela origem na
+	 * próxima captura, então não deve ser guardada por quem a recebe.
+	 *
+	 * @return BufferedImage
+	 */
+	public BufferedImage capture();
+}
@@ -0,0 +1,138 @@
+package remotedesktop.server.framesource;
+
+import java.awt.AWTException;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cria as origens de imagem a partir de uma descrição em texto:
+ *
+ * - "robot": captura a tela principal (padrão);
+ * - "screen:<n>": captura o monitor n, sendo 0 o monitor principal;
+ * - "region:<x>,<y>,<largura>,<altura>": captura um retângulo da área de trabalho;
+ * - "synthetic:<padrão>[:<largura>x<altura>]": gerador sintético, com os padrões
+ * static, scrolling-text e noise, em 1920x1080 caso a resolução não seja informada;
+ * - "replay:<pasta>": reproduz as imagens de uma pasta.
+ *
+ * Várias origens podem ser informadas de uma vez separadas por ponto e vírgula, cada
+ * uma transmitida como um stream independente. "screens" equivale a um "screen:<n>"
+ * para cada monitor.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class FrameSources {
+	private FrameSources() {
+	}
+
+	public static FrameSource fromSpec(String spec) throws IOException, AWTException {
+		String[] parts = spec.split(":", 3);
+
+		if (parts[0].equals("synthetic")) {
+			SyntheticFrameSource.Pattern pattern = SyntheticFrameSource.Pattern
+					.fromName(parts.length > 1 ? parts[1] : "static");
+			if (pattern == null) {
+				throw new IllegalArgumentException("Padrão desconhecido: " + parts[1]);
+			}
+
+			int width = 1920, height = 1080;
+			if (parts.length > 2) {
+				String[] size = parts[2].split("x");
+				width = Integer.parseInt(size[0]);
+				height = Integer.parseInt(size[1]);
+			}
+			return new SyntheticFrameSource(width, height, pattern);
+		}
+
+		if (parts[0].equals("replay")) {
+			return new ReplayFrameSource(new File(spec.substring("replay:".length())));
+		}
+
+		if (parts[0].equals("robot")) {
+			return new RobotFrameSource();
+		}
+
+		if (parts[0].equals("screen") && parts.length > 1) {
+			GraphicsDevice[] screens = getScreens();
+			int index = Integer.parseInt(parts[1]);
+			if (index < 0 || index >= screens.length) {
+				throw new IllegalArgumentException("Monitor inexistente: " + index + " (" + screens.length + " monitores)");
+			}
+			return new RobotFrameSource(screens[index]);
+		}
+
+		if (parts[0].equals("region") && parts.length > 1) {
+			String[] values = parts[1].split(",");
+			if (values.length != 4) {
+				throw new IllegalArgumentException("Região inválida: " + spec);
+			}
+			return new RobotFrameSource(new Rectangle(Integer.parseInt(values[0].trim()),
+					Integer.parseInt(values[1].trim()), Integer.parseInt(values[2].trim()),
+					Integer.parseInt(values[3].trim())));
+		}
+
+		throw new IllegalArgumentException("Origem de imagens desconhecida: " + spec);
+	}
+
+	/**
+	 * Cria as origens de uma lista separada por ponto e vírgula, expandindo "screens"
+	 * para os monitores. As origens mantêm a ordem da lista, e cada uma é indexada pela
+	 * própria descrição.
+	 *
+	 * @param specs
+	 * @return Map
+	 * @throws IOException
+	 * @throws AWTException
+	 */
+	public static Map<String, FrameSource> fromSpecs(String specs) throws IOException, AWTException {
+		List<String> names = new ArrayList<String>();
+		for (String spec : specs.split(";")) {
+			spec = spec.trim();
+			if (spec.equals("screens")) {
+				for (int i = 0; i < getScreens().length; i++) {
+					names.add("screen:" + i);
+				}
+			} else if (!spec.isEmpty()) {
+				names.add(spec);
+			}
+		}
+
+		Map<String, FrameSource> sources = new LinkedHashMap<String, FrameSource>();
+		for (String name : names) {
+			if (!sources.containsKey(name)) {
+				sources.put(name, fromSpec(name));
+			}
+		}
+		if (sources.isEmpty()) {
+			throw new IllegalArgumentException("Nenhuma origem de imagens: " + specs);
+		}
+		return sources;
+	}
+
+	/**
+	 * Retorna os monitores, com o principal primeiro
+	 *
+	 * @return GraphicsDevice[]
+	 */
+	public static GraphicsDevice[] getScreens() {
+		GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+		GraphicsDevice primary = environment.getDefaultScreenDevice();
+		GraphicsDevice[] devices = environment.getScreenDevices();
+
+		GraphicsDevice[] screens = new GraphicsDevice[devices.length];
+		screens[0] = primary;
+		int count = 1;
+		for (GraphicsDevice device : devices) {
+			if (device != primary && count < screens.length) {
+				screens[count++] = device;
+			}
+		}
+		return screens;
+	}
+}
@@ -0,0 +1,76 @@
+package remotedesktop.server.framesource;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reproduz uma gravação: uma pasta com uma imagem por quadro, em ordem alfabética.
+ *
+ * As imagens são carregadas para a memória no início, para que a leitura dos arquivos
+ * não interfira nas medições, e a reprodução recomeça do início ao chegar ao fim.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ReplayFrameSource implements FrameSource {
+	private List<BufferedImage> frames;
+	private Rectangle bounds;
+	private int next;
+
+	public ReplayFrameSource(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Pasta não encontrada: " + directory);
+		}
+		Arrays.sort(files);
+
+		this.frames = new ArrayList<BufferedImage>();
+		for (File file : files) {
+			BufferedImage image = file.isFile() ? ImageIO.read(file) : null;
+			if (image == null) {
+				continue;
+			}
+			if (!this.frames.isEmpty() && (image.getWidth() != this.bounds.width || image.getHeight() != this.bounds.height)) {
+				throw new IOException("Todas as imagens devem ter a mesma resolução: " + file);
+			}
+			if (this.bounds == null) {
+				this.bounds = new Rectangle(image.getWidth(), image.getHeight());
+			}
+			this.frames.add(toIntRgb(image));
+		}
+
+		if (this.frames.isEmpty()) {
+			throw new IOException("Nenhuma imagem encontrada em " + directory);
+		}
+	}
+
+	private static BufferedImage toIntRgb(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+			return image;
+		}
+		BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = converted.createGraphics();
+		g2d.drawImage(image, 0, 0, null);
+		g2d.dispose();
+		return converted;
+	}
+
+	@Override
+	public Rectangle getBounds() {
+		return this.bounds;
+	}
+
+	@Override
+	public synchronized BufferedImage capture() {
+		BufferedImage frame = this.frames.get(this.next);
+		this.next = (this.next + 1) % this.frames.size();
+		return frame;
+	}
+}
@@ -0,0 +1,60 @@
+package remotedesktop.server.framesource;
+
+import java.awt.AWTException;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+
+/**
+ * Captura a tela através do java.awt.Robot. A área capturada pode ser a tela
+ * principal, um monitor ou qualquer retângulo da área de trabalho.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class RobotFrameSource implements FrameSource {
+	private Robot robot;
+	private Rectangle bounds;
+
+	/**
+	 * Captura a tela principal inteira
+	 *
+	 * @throws AWTException
+	 */
+	public RobotFrameSource() throws AWTException {
+		this(new Rectangle(Toolkit.getDefaultToolkit().getScreenSize()));
+	}
+
+	/**
+	 * Captura um retângulo da área de trabalho, nas coordenadas da tela principal
+	 *
+	 * @param bounds
+	 * @throws AWTException
+	 */
+	public RobotFrameSource(Rectangle bounds) throws AWTException {
+		this.robot = new Robot();
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Captura um monitor inteiro
+	 *
+	 * @param screen
+	 * @throws AWTException
+	 */
+	public RobotFrameSource(GraphicsDevice screen) throws AWTException {
+		this.robot = new Robot(screen);
+		this.bounds = screen.getDefaultConfiguration().getBounds();
+	}
+
+	@Override
+	public Rectangle getBounds() {
+		return this.bounds;
+	}
+
+	@Override
+	public BufferedImage capture() {
+		return this.robot.createScreenCapture(this.bounds);
+	}
+}
@@ -0,0 +1,154 @@
+package remotedesktop.server.framesource;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Gera imagens sintéticas com padrões de mudança conhecidos, para medir o servidor sem
+ * depender de um monitor.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class SyntheticFrameSource implements FrameSource {
+	public enum Pattern {
+		/**
+		 * Uma área de trabalho que nunca muda
+		 */
+		STATIC,
+
+		/**
+		 * Um terminal com texto rolando para cima, uma linha por quadro
+		 */
+		SCROLLING_TEXT,
+
+		/**
+		 * Ruído aleatório em toda a imagem, simulando um vídeo em tela cheia
+		 */
+		NOISE;
+
+		/**
+		 * Retorna o padrão com o nome informado, ou null caso não exista
+		 *
+		 * @param name
+		 * @return Pattern
+		 */
+		public static Pattern fromName(String name) {
+			for (Pattern pattern : values()) {
+				if (pattern.name().replace("_", "").equalsIgnoreCase(name.replace("_", "").replace("-", ""))) {
+					return pattern;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final int LINE_HEIGHT = 16;
+	private static final String[] WORDS = { "ls", "-la", "/var/log", "total", "drwxr-xr-x", "root", "4096", "out",
+			"12:34", "syslog", "kern.log", "auth.log", "OK", "[done]", "remote", "desktop", "frame", "tile" };
+
+	private Rectangle bounds;
+	private Pattern pattern;
+	private BufferedImage image;
+	private int[] pixels;
+	private int line;
+	private int seed;
+
+	public SyntheticFrameSource(int width, int height, Pattern pattern) {
+		this.bounds = new Rectangle(width, height);
+		this.pattern = pattern;
+		this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+		this.seed = 0x2545F491;
+		this.drawDesktop();
+	}
+
+	@Override
+	public Rectangle getBounds() {
+		return this.bounds;
+	}
+
+	@Override
+	public synchronized BufferedImage capture() {
+		switch (this.pattern) {
+		case SCROLLING_TEXT:
+			this.scroll();
+			break;
+		case NOISE:
+			this.noise();
+			break;
+		default:
+		}
+		return this.image;
+	}
+
+	/**
+	 * Desenha uma área de trabalho simples: um terminal maximizado com algumas linhas
+	 * de texto e a barra de tarefas
+	 */
+	private void drawDesktop() {
+		Graphics2D g2d = this.image.createGraphics();
+		g2d.setColor(new Color(0x202020));
+		g2d.fillRect(0, this.bounds.height - 32, this.bounds.width, 32);
+		g2d.setColor(Color.BLACK);
+		g2d.fillRect(0, 0, this.bounds.width, this.bounds.height - 32);
+		g2d.dispose();
+
+		for (int i = 0; i < (this.bounds.height - 32) / LINE_HEIGHT; i++) {
+			this.drawLine(i * LINE_HEIGHT);
+		}
+	}
+
+	/**
+	 * Escreve uma linha de texto de terminal na posição informada
+	 */
+	private void drawLine(int y) {
+		Graphics2D g2d = this.image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2d.setColor(Color.BLACK);
+		g2d.fillRect(0, y, this.bounds.width, LINE_HEIGHT);
+		g2d.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+		g2d.setColor(new Color(0xC0C0C0));
+
+		StringBuilder text = new StringBuilder();
+		text.append(this.line++).append("$ ");
+		for (int i = 0; i < 12; i++) {
+			text.append(WORDS[(this.nextRandom() >>> 1) % WORDS.length]).append(' ');
+		}
+		g2d.drawString(text.toString(), 4, y + LINE_HEIGHT - 4);
+		g2d.dispose();
+	}
+
+	/**
+	 * Move o terminal uma linha para cima e escreve uma nova linha no final
+	 */
+	private void scroll() {
+		int width = this.bounds.width;
+		int terminalHeight = ((this.bounds.height - 32) / LINE_HEIGHT) * LINE_HEIGHT;
+		System.arraycopy(this.pixels, LINE_HEIGHT * width, this.pixels, 0, (terminalHeight - LINE_HEIGHT) * width);
+		this.drawLine(terminalHeight - LINE_HEIGHT);
+	}
+
+	private void noise() {
+		int[] pixels = this.pixels;
+		int seed = this.seed;
+		for (int i = 0; i < pixels.length; i++) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			pixels[i] = seed & 0xFFFFFF;
+		}
+		this.seed = seed;
+	}
+
+	private int nextRandom() {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 17;
+		this.seed ^= this.seed << 5;
+		return this.seed;
+	}
+}
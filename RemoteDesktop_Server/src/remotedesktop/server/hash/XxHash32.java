@@ -0,0 +1,66 @@
+package remotedesktop.server.hash;
+
+/**
+ * Hash xxHash32 (https://github.com/Cyan4973/xxHash) calculado direto sobre arrays de
+ * pixels.
+ *
+ * Cada int é lido como os seus 4 bytes em little endian, então o resultado de
+ * hash(int[]) é o mesmo da implementação de referência sobre esses bytes. O xxHash
+ * processa quatro ints independentes por vez, o que o torna limitado praticamente só
+ * pela leitura da memória; não serve para fins criptográficos.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class XxHash32 {
+	private static final int PRIME1 = 0x9E3779B1;
+	private static final int PRIME2 = 0x85EBCA77;
+	private static final int PRIME3 = 0xC2B2AE3D;
+	private static final int PRIME4 = 0x27D4EB2F;
+	private static final int PRIME5 = 0x165667B1;
+
+	private XxHash32() {
+	}
+
+	/**
+	 * Calcula o hash de uma sequência de ints
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length quantidade de ints
+	 * @param seed
+	 * @return int
+	 */
+	public static int hash(int[] data, int offset, int length, int seed) {
+		int end = offset + length;
+		int i = offset;
+		int h;
+		if (length >= 4) {
+			int v1 = seed + PRIME1 + PRIME2;
+			int v2 = seed + PRIME2;
+			int v3 = seed;
+			int v4 = seed - PRIME1;
+			for (int limit = end - 4; i <= limit; i += 4) {
+				v1 = Integer.rotateLeft(v1 + data[i] * PRIME2, 13) * PRIME1;
+				v2 = Integer.rotateLeft(v2 + data[i + 1] * PRIME2, 13) * PRIME1;
+				v3 = Integer.rotateLeft(v3 + data[i + 2] * PRIME2, 13) * PRIME1;
+				v4 = Integer.rotateLeft(v4 + data[i + 3] * PRIME2, 13) * PRIME1;
+			}
+			h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12)
+					+ Integer.rotateLeft(v4, 18);
+		} else {
+			h = seed + PRIME5;
+		}
+
+		h += length * 4;
+		for (; i < end; i++) {
+			h = Integer.rotateLeft(h + data[i] * PRIME3, 17) * PRIME4;
+		}
+
+		h ^= h >>> 15;
+		h *= PRIME2;
+		h ^= h >>> 13;
+		h *= PRIME3;
+		h ^= h >>> 16;
+		return h;
+	}
+}
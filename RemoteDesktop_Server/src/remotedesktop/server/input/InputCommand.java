@@ -0,0 +1,239 @@
+package remotedesktop.server.input;
+
+import java.awt.Rectangle;
+
+import remotedesktop.server.Protocol;
+
+/**
+ * Um comando de mouse ou teclado enviado pelo cliente, já decodificado.
+ *
+ * As posições do ponteiro chegam relativas à imagem do stream, de 0 a 65535 em cada
+ * eixo, independente da resolução em que o cliente recebe os quadros. O servidor as
+ * converte para coordenadas da área de trabalho com toScreen antes de entregar o
+ * comando ao InputDispatcher.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class InputCommand {
+	/**
+	 * Maior valor das posições relativas à imagem
+	 */
+	public static final int POSITION_SCALE = 65536;
+
+	private int type;
+	private int x;
+	private int y;
+	private int button;
+	private int amount;
+	private int keyCode;
+	private boolean pressed;
+	private long received;
+
+	private InputCommand(int type, long received) {
+		this.type = type;
+		this.received = received;
+	}
+
+	/**
+	 * Tamanho do conteúdo de cada tipo de comando, sem o byte do tipo
+	 *
+	 * @param type ver Protocol
+	 * @return int tamanho em bytes, ou -1 caso o tipo não seja um comando de entrada
+	 */
+	public static int getLength(int type) {
+		switch (type) {
+		case Protocol.INPUT_POINTER_MOVE:
+			return 4;
+		case Protocol.INPUT_POINTER_BUTTON:
+			return 2;
+		case Protocol.INPUT_WHEEL:
+			return 2;
+		case Protocol.INPUT_KEY:
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Decodifica o conteúdo de um comando
+	 *
+	 * @param type ver Protocol
+	 * @param data conteúdo, com o tamanho retornado por getLength
+	 * @param received horário em que o comando chegou, em nanossegundos
+	 * @return InputCommand
+	 */
+	public static InputCommand decode(int type, byte[] data, long received) {
+		InputCommand command = new InputCommand(type, received);
+		switch (type) {
+		case Protocol.INPUT_POINTER_MOVE:
+			command.x = readShort(data, 0) & 0xFFFF;
+			command.y = readShort(data, 2) & 0xFFFF;
+			break;
+		case Protocol.INPUT_POINTER_BUTTON:
+			command.button = data[0] & 0xFF;
+			command.pressed = data[1] != 0;
+			break;
+		case Protocol.INPUT_WHEEL:
+			command.amount = readShort(data, 0);
+			break;
+		case Protocol.INPUT_KEY:
+			command.keyCode = readShort(data, 0) & 0xFFFF;
+			command.pressed = data[2] != 0;
+			break;
+		default:
+			throw new IllegalArgumentException("Comando de entrada desconhecido: " + type);
+		}
+		return command;
+	}
+
+	/**
+	 * Cria um comando de tecla
+	 *
+	 * @param keyCode código de java.awt.event.KeyEvent
+	 * @param pressed
+	 * @param received horário do comando, em nanossegundos
+	 * @return InputCommand
+	 */
+	public static InputCommand key(int keyCode, boolean pressed, long received) {
+		InputCommand command = new InputCommand(Protocol.INPUT_KEY, received);
+		command.keyCode = keyCode;
+		command.pressed = pressed;
+		return command;
+	}
+
+	/**
+	 * Cria um comando de botão do mouse
+	 *
+	 * @param button
+	 * @param pressed
+	 * @param received horário do comando, em nanossegundos
+	 * @return InputCommand
+	 */
+	public static InputCommand pointerButton(int button, boolean pressed, long received) {
+		InputCommand command = new InputCommand(Protocol.INPUT_POINTER_BUTTON, received);
+		command.button = button;
+		command.pressed = pressed;
+		return command;
+	}
+
+	private static short readShort(byte[] data, int offset) {
+		return (short) (((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF));
+	}
+
+	/**
+	 * Retorna uma cópia do comando com a posição convertida para coordenadas da área de
+	 * trabalho, dentro da área capturada pelo stream
+	 *
+	 * @param bounds área capturada pelo stream
+	 * @return InputCommand
+	 */
+	public InputCommand toScreen(Rectangle bounds) {
+		InputCommand command = new InputCommand(this.type, this.received);
+		command.button = this.button;
+		command.amount = this.amount;
+		command.keyCode = this.keyCode;
+		command.pressed = this.pressed;
+		command.x = bounds.x + (int) ((long) this.x * bounds.width / POSITION_SCALE);
+		command.y = bounds.y + (int) ((long) this.y * bounds.height / POSITION_SCALE);
+		return command;
+	}
+
+	/**
+	 * Executa o comando
+	 *
+	 * @param sink
+	 */
+	public void applyTo(InputSink sink) {
+		switch (this.type) {
+		case Protocol.INPUT_POINTER_MOVE:
+			sink.pointerMove(this.x, this.y);
+			break;
+		case Protocol.INPUT_POINTER_BUTTON:
+			sink.pointerButton(this.button, this.pressed);
+			break;
+		case Protocol.INPUT_WHEEL:
+			sink.wheel(this.amount);
+			break;
+		case Protocol.INPUT_KEY:
+			sink.key(this.keyCode, this.pressed);
+			break;
+		}
+	}
+
+	/**
+	 * @return int ver Protocol
+	 */
+	public int getType() {
+		return this.type;
+	}
+
+	/**
+	 * Nome do tipo, usado nos rótulos das métricas
+	 *
+	 * @return String
+	 */
+	public String getTypeName() {
+		switch (this.type) {
+		case Protocol.INPUT_POINTER_MOVE:
+			return "move";
+		case Protocol.INPUT_POINTER_BUTTON:
+			return "button";
+		case Protocol.INPUT_WHEEL:
+			return "wheel";
+		default:
+			return "key";
+		}
+	}
+
+	public boolean isPointerMove() {
+		return this.type == Protocol.INPUT_POINTER_MOVE;
+	}
+
+	public int getX() {
+		return this.x;
+	}
+
+	public int getY() {
+		return this.y;
+	}
+
+	public int getButton() {
+		return this.button;
+	}
+
+	public int getAmount() {
+		return this.amount;
+	}
+
+	public int getKeyCode() {
+		return this.keyCode;
+	}
+
+	public boolean isPressed() {
+		return this.pressed;
+	}
+
+	/**
+	 * Horário em que o comando chegou ao servidor, em nanossegundos (System.nanoTime)
+	 *
+	 * @return long
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+
+	@Override
+	public String toString() {
+		switch (this.type) {
+		case Protocol.INPUT_POINTER_MOVE:
+			return "move " + this.x + "," + this.y;
+		case Protocol.INPUT_POINTER_BUTTON:
+			return "button " + this.button + (this.pressed ? " down" : " up");
+		case Protocol.INPUT_WHEEL:
+			return "wheel " + this.amount;
+		default:
+			return "key " + this.keyCode + (this.pressed ? " down" : " up");
+		}
+	}
+}
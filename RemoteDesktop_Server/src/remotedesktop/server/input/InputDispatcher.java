@@ -0,0 +1,217 @@
+package remotedesktop.server.input;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.Protocol;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.metrics.MetricsRegistry;
+
+/**
+ * Thread que executa os comandos de mouse e teclado dos clientes, na ordem em que
+ * chegaram.
+ *
+ * Os comandos são lidos pelas threads de rede, que apenas os colocam na fila desta
+ * thread e voltam a ler, então o envio dos quadros (e um InputSink lento) nunca atrasa
+ * a leitura dos comandos, nem o contrário.
+ *
+ * Quando o InputSink não acompanha o ritmo do cliente, movimentos seguidos do ponteiro
+ * de um mesmo cliente que ainda estão na fila são juntados: o movimento da fila passa a
+ * ter a última posição. Os movimentos de clientes diferentes nunca são juntados. Os
+ * outros comandos nunca são descartados, e um movimento nunca passa na frente de um
+ * clique do mesmo cliente, então o clique acontece sempre na posição certa.
+ *
+ * As teclas e botões pressionados são lembrados por cliente, para que possam ser
+ * soltos quando o cliente desconecta no meio de um atalho, sem soltar os que outro
+ * cliente mantém pressionados.
+ *
+ * As métricas são o total de comandos por tipo, os movimentos juntados e o tempo entre
+ * a chegada do comando e o fim da sua execução.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class InputDispatcher extends Thread {
+	private Logger logger;
+	private InputSink sink;
+	private ArrayDeque<Entry> queue;
+	private Map<Object, Source> sources;
+	private Map<String, Counter> commands;
+	private Counter coalesced;
+	private LatencyHistogram latency;
+
+	public InputDispatcher(InputSink sink) {
+		super("InputDispatcher");
+		this.setDaemon(true);
+		this.logger = Logger.getInstance();
+		this.sink = sink;
+		this.queue = new ArrayDeque<Entry>();
+		this.sources = new HashMap<Object, Source>();
+		this.commands = new HashMap<String, Counter>();
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		for (String type : new String[] { "move", "button", "wheel", "key" }) {
+			this.commands.put(type, registry.counter("remotedesktop_input_commands_total",
+					"Comandos de mouse e teclado recebidos", "type", type));
+		}
+		this.coalesced = registry.counter("remotedesktop_input_coalesced_total",
+				"Movimentos do ponteiro juntados ao movimento seguinte antes da execução");
+		this.latency = registry.histogram("remotedesktop_input_latency_seconds",
+				"Tempo entre a chegada de um comando e o fim da sua execução");
+	}
+
+	/**
+	 * Coloca o comando na fila, sem bloquear. Caso o último comando do mesmo cliente na
+	 * fila também seja um movimento do ponteiro, ele recebe a posição do novo.
+	 *
+	 * @param client identifica o cliente que enviou o comando
+	 * @param command comando com a posição já em coordenadas da área de trabalho
+	 */
+	public synchronized void offer(Object client, InputCommand command) {
+		this.commands.get(command.getTypeName()).increment();
+		Source source = this.getSource(client);
+		if (command.isPointerMove() && source.pendingMove != null) {
+			source.pendingMove.command = command;
+			this.coalesced.increment();
+			return;
+		}
+		Entry entry = this.enqueue(client, source, command);
+		source.pendingMove = command.isPointerMove() ? entry : null;
+	}
+
+	/**
+	 * Solta as teclas e botões que o cliente mantém pressionados, inclusive os que
+	 * ainda estão na fila, e esquece o cliente. Teclas e botões também pressionados por
+	 * outro cliente continuam pressionados.
+	 *
+	 * @param client
+	 */
+	public synchronized void release(Object client) {
+		Source source = this.sources.remove(client);
+		if (source == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (Integer keyCode : source.pressedKeys) {
+			if (!this.isPressedByOther(keyCode, true)) {
+				this.enqueue(client, null, InputCommand.key(keyCode, false, now));
+			}
+		}
+		for (Integer button : source.pressedButtons) {
+			if (!this.isPressedByOther(button, false)) {
+				this.enqueue(client, null, InputCommand.pointerButton(button, false, now));
+			}
+		}
+	}
+
+	/**
+	 * O estado das teclas e botões é o que vale depois de executada toda a fila
+	 */
+	private Entry enqueue(Object client, Source source, InputCommand command) {
+		if (source != null) {
+			if (command.getType() == Protocol.INPUT_KEY) {
+				track(source.pressedKeys, command.getKeyCode(), command.isPressed());
+			} else if (command.getType() == Protocol.INPUT_POINTER_BUTTON) {
+				track(source.pressedButtons, command.getButton(), command.isPressed());
+			}
+		}
+		Entry entry = new Entry(client, command);
+		this.queue.addLast(entry);
+		this.notify();
+		return entry;
+	}
+
+	private Source getSource(Object client) {
+		Source source = this.sources.get(client);
+		if (source == null) {
+			source = new Source();
+			this.sources.put(client, source);
+		}
+		return source;
+	}
+
+	private boolean isPressedByOther(int code, boolean key) {
+		for (Source source : this.sources.values()) {
+			if ((key ? source.pressedKeys : source.pressedButtons).contains(code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Retira o próximo comando da fila. Um movimento retirado não recebe mais posições,
+	 * já que vai ser executado.
+	 */
+	private synchronized InputCommand take() throws InterruptedException {
+		while (this.queue.isEmpty()) {
+			this.wait();
+		}
+		Entry entry = this.queue.pollFirst();
+		Source source = this.sources.get(entry.client);
+		if (source != null && source.pendingMove == entry) {
+			source.pendingMove = null;
+		}
+		return entry.command;
+	}
+
+	private static void track(Set<Integer> pressed, int code, boolean down) {
+		if (down) {
+			pressed.add(code);
+		} else {
+			pressed.remove(code);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!this.isInterrupted()) {
+			InputCommand command;
+			try {
+				command = this.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			try {
+				command.applyTo(this.sink);
+			} catch (RuntimeException e) {
+				this.logger.error("Comando de entrada inválido: %s (%s)", command, e.getMessage());
+			}
+			this.latency.record(System.nanoTime() - command.getReceived());
+		}
+	}
+
+	/**
+	 * Comando na fila, com o cliente que o enviou. O comando de um movimento é trocado
+	 * quando o movimento é juntado a um mais novo.
+	 */
+	private static class Entry {
+		private Object client;
+		private InputCommand command;
+
+		public Entry(Object client, InputCommand command) {
+			this.client = client;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * Estado de um cliente: teclas e botões pressionados e o movimento que ainda está
+	 * na fila, quando é o último comando do cliente na fila
+	 */
+	private static class Source {
+		private Set<Integer> pressedKeys;
+		private Set<Integer> pressedButtons;
+		private Entry pendingMove;
+
+		public Source() {
+			this.pressedKeys = new LinkedHashSet<Integer>();
+			this.pressedButtons = new LinkedHashSet<Integer>();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package remotedesktop.server.input;
+
+/**
+ * Destino dos comandos de mouse e teclado enviados pelos clientes.
+ *
+ * A implementação padrão usa java.awt.Robot, mas o destino pode ser trocado, por
+ * exemplo por um RecordingInputSink, que apenas guarda os comandos, para medir o
+ * servidor em máquinas sem monitor. Os métodos são chamados sempre pela mesma thread,
+ * a do InputDispatcher.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface InputSink {
+	/**
+	 * Move o ponteiro para a posição informada, em coordenadas da área de trabalho
+	 */
+	public void pointerMove(int x, int y);
+
+	/**
+	 * Pressiona ou solta um botão do mouse: 1 esquerdo, 2 do meio e 3 direito
+	 */
+	public void pointerButton(int button, boolean pressed);
+
+	/**
+	 * Gira a roda do mouse, valores positivos para baixo
+	 */
+	public void wheel(int amount);
+
+	/**
+	 * Pressiona ou solta uma tecla, identificada pelo código de java.awt.event.KeyEvent
+	 */
+	public void key(int keyCode, boolean pressed);
+}
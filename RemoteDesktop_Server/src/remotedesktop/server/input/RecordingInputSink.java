@@ -0,0 +1,90 @@
+package remotedesktop.server.input;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Destino que apenas guarda os comandos recebidos, em texto e na ordem em que foram
+ * executados. Usado pelos testes do canal de entrada e para rodar o servidor em
+ * máquinas sem monitor.
+ *
+ * Thread safe, os comandos podem ser lidos por outra thread enquanto são gravados.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class RecordingInputSink implements InputSink {
+	private List<String> events;
+	private long lastExecuted;
+
+	public RecordingInputSink() {
+		this.events = new ArrayList<String>();
+	}
+
+	private synchronized void record(String event) {
+		this.events.add(event);
+		this.lastExecuted = System.nanoTime();
+		this.notifyAll();
+	}
+
+	@Override
+	public void pointerMove(int x, int y) {
+		this.record("move " + x + "," + y);
+	}
+
+	@Override
+	public void pointerButton(int button, boolean pressed) {
+		this.record("button " + button + (pressed ? " down" : " up"));
+	}
+
+	@Override
+	public void wheel(int amount) {
+		this.record("wheel " + amount);
+	}
+
+	@Override
+	public void key(int keyCode, boolean pressed) {
+		this.record("key " + keyCode + (pressed ? " down" : " up"));
+	}
+
+	/**
+	 * Retorna uma cópia dos comandos executados até agora
+	 *
+	 * @return List
+	 */
+	public synchronized List<String> getEvents() {
+		return new ArrayList<String>(this.events);
+	}
+
+	/**
+	 * Horário do último comando executado, em nanossegundos (System.nanoTime)
+	 *
+	 * @return long
+	 */
+	public synchronized long getLastExecuted() {
+		return this.lastExecuted;
+	}
+
+	/**
+	 * Aguarda até que a quantidade de comandos executados chegue ao valor informado
+	 *
+	 * @param count
+	 * @param timeoutMillis
+	 * @return boolean true caso os comandos tenham sido executados dentro do tempo
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitEvents(int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (this.events.size() < count) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			this.wait(remaining);
+		}
+		return true;
+	}
+
+	public synchronized void clear() {
+		this.events.clear();
+	}
+}
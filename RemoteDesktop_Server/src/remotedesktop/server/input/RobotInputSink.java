@@ -0,0 +1,53 @@
+package remotedesktop.server.input;
+
+import java.awt.AWTException;
+import java.awt.Robot;
+import java.awt.event.InputEvent;
+
+/**
+ * Executa os comandos através do java.awt.Robot.
+ *
+ * O Robot não espera entre os comandos (autoDelay 0) nem aguarda a fila de eventos do
+ * sistema (autoWaitForIdle desligado), assim cada comando leva poucos microssegundos e
+ * o ponteiro acompanha o cliente sem atraso.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class RobotInputSink implements InputSink {
+	private Robot robot;
+
+	public RobotInputSink() throws AWTException {
+		this.robot = new Robot();
+		this.robot.setAutoDelay(0);
+		this.robot.setAutoWaitForIdle(false);
+	}
+
+	@Override
+	public void pointerMove(int x, int y) {
+		this.robot.mouseMove(x, y);
+	}
+
+	@Override
+	public void pointerButton(int button, boolean pressed) {
+		int mask = InputEvent.getMaskForButton(button);
+		if (pressed) {
+			this.robot.mousePress(mask);
+		} else {
+			this.robot.mouseRelease(mask);
+		}
+	}
+
+	@Override
+	public void wheel(int amount) {
+		this.robot.mouseWheel(amount);
+	}
+
+	@Override
+	public void key(int keyCode, boolean pressed) {
+		if (pressed) {
+			this.robot.keyPress(keyCode);
+		} else {
+			this.robot.keyRelease(keyCode);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package remotedesktop.server.memory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Mede quantos bytes a thread atual aloca em um trecho de código, mantendo uma média
+ * móvel por execução.
+ *
+ * Depende da extensão com.sun.management.ThreadMXBean, presente nas JVMs HotSpot e
+ * OpenJ9. Em outras JVMs as medições ficam zeradas.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class AllocationMeter {
+	private com.sun.management.ThreadMXBean bean;
+	private long start;
+	private double average;
+	private long last;
+	private long total;
+	private long count;
+
+	public AllocationMeter() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			this.bean = (com.sun.management.ThreadMXBean) bean;
+			this.bean.setThreadAllocatedMemoryEnabled(true);
+		}
+	}
+
+	/**
+	 * Início do trecho medido, deve ser chamado pela thread que executa o trecho
+	 */
+	public void start() {
+		this.start = this.allocatedBytes();
+	}
+
+	/**
+	 * Fim do trecho medido, deve ser chamado pela mesma thread que chamou start()
+	 *
+	 * @return long bytes alocados desde o start()
+	 */
+	public long stop() {
+		long bytes = Math.max(0, this.allocatedBytes() - this.start);
+		synchronized (this) {
+			this.last = bytes;
+			this.total += bytes;
+			this.average = this.count++ == 0 ? bytes : this.average * 0.9 + bytes * 0.1;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Média móvel dos bytes alocados por execução
+	 *
+	 * @return double
+	 */
+	public synchronized double getAverage() {
+		return this.average;
+	}
+
+	public synchronized long getLast() {
+		return this.last;
+	}
+
+	public synchronized long getTotal() {
+		return this.total;
+	}
+
+	public synchronized long getCount() {
+		return this.count;
+	}
+
+	private long allocatedBytes() {
+		if (this.bean == null) {
+			return 0;
+		}
+		return this.bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,141 @@
+package remotedesktop.server.memory;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reaproveita os arrays de bytes dos quadros codificados.
+ *
+ * Os arrays são agrupados por tamanho, em potências de dois. Um array devolvido ao
+ * pool é entregue ao próximo pedido do mesmo grupo, de forma que, depois dos primeiros
+ * quadros, a codificação e o envio praticamente não alocam memória.
+ *
+ * O pool guarda no máximo alguns arrays por grupo e um total de bytes limitado; os
+ * arrays que passam do limite são simplesmente deixados para o coletor de lixo.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class BufferPool {
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 26;
+	private static final int MAX_PER_SIZE = 16;
+	private static final long DEFAULT_MAX_RETAINED = 128L * 1024 * 1024;
+
+	private ArrayDeque<byte[]>[] buckets;
+	private long maxRetained;
+	private long retainedBytes;
+	private long acquired;
+	private long reused;
+	private long allocatedBytes;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(long maxRetained) {
+		this.maxRetained = maxRetained;
+		this.buckets = new ArrayDeque[MAX_SHIFT + 1];
+		for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+			this.buckets[shift] = new ArrayDeque<byte[]>();
+		}
+	}
+
+	/**
+	 * Retorna um array com pelo menos o tamanho informado
+	 *
+	 * @param minLength
+	 * @return byte[]
+	 */
+	public byte[] acquire(int minLength) {
+		int shift = shiftFor(minLength);
+		if (shift > MAX_SHIFT) {
+			synchronized (this) {
+				this.acquired++;
+				this.allocatedBytes += minLength;
+			}
+			return new byte[minLength];
+		}
+
+		synchronized (this) {
+			this.acquired++;
+			byte[] buffer = this.buckets[shift].pollFirst();
+			if (buffer != null) {
+				this.reused++;
+				this.retainedBytes -= buffer.length;
+				return buffer;
+			}
+			this.allocatedBytes += 1 << shift;
+		}
+		return new byte[1 << shift];
+	}
+
+	/**
+	 * Devolve um array obtido por acquire(). O array não pode mais ser usado por quem
+	 * o devolveu.
+	 *
+	 * @param buffer
+	 */
+	public void release(byte[] buffer) {
+		int length = buffer.length;
+		if (Integer.bitCount(length) != 1) {
+			return;
+		}
+		int shift = Integer.numberOfTrailingZeros(length);
+		if (shift < MIN_SHIFT || shift > MAX_SHIFT) {
+			return;
+		}
+
+		synchronized (this) {
+			if (this.buckets[shift].size() < MAX_PER_SIZE && this.retainedBytes + length <= this.maxRetained) {
+				this.buckets[shift].addFirst(buffer);
+				this.retainedBytes += length;
+			}
+		}
+	}
+
+	private static int shiftFor(int length) {
+		if (length <= 1 << MIN_SHIFT) {
+			return MIN_SHIFT;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1);
+	}
+
+	/**
+	 * Quantidade de pedidos atendidos com arrays reaproveitados
+	 *
+	 * @return long
+	 */
+	public synchronized long getReusedCount() {
+		return this.reused;
+	}
+
+	/**
+	 * Total de bytes alocados por pedidos que não puderam ser reaproveitados
+	 *
+	 * @return long
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+
+	/**
+	 * Retorna as estatísticas do pool em uma string formatada
+	 *
+	 * @return String
+	 */
+	public synchronized String getStatsAsString() {
+		return String.format("%d pedidos, %.1f%% reaproveitados, %.1f MB alocados, %.1f MB guardados", this.acquired,
+				this.acquired == 0 ? 0 : this.reused * 100.0 / this.acquired, this.allocatedBytes / 1048576.0,
+				this.retainedBytes / 1048576.0);
+	}
+
+	private static BufferPool instance;
+
+	/**
+	 * Pool compartilhado pelos codificadores e pelo envio dos quadros
+	 *
+	 * @return BufferPool
+	 */
+	public static synchronized BufferPool getInstance() {
+		if (instance == null) {
+			instance = new BufferPool(DEFAULT_MAX_RETAINED);
+		}
+		return instance;
+	}
+}
@@ -0,0 +1,43 @@
+package remotedesktop.server.memory;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Acesso direto ao array de pixels de uma BufferedImage, usado por quem percorre
+ * imagens inteiras a cada screenshot e quer evitar a cópia feita por getRGB.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class ImagePixels {
+	private ImagePixels() {
+	}
+
+	/**
+	 * Retorna o próprio array de pixels da imagem, um inteiro RGB por pixel, linha após
+	 * linha, sem espaço entre as linhas. Retorna null quando a imagem não é
+	 * TYPE_INT_RGB ou TYPE_INT_ARGB ou quando os pixels não ocupam o array dessa forma,
+	 * como em uma subimagem; nesse caso os pixels devem ser lidos com getRGB.
+	 *
+	 * O array é o da imagem: alterá-lo altera a imagem.
+	 *
+	 * @param image
+	 * @return int[]
+	 */
+	public static int[] getData(BufferedImage image) {
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+			return null;
+		}
+		WritableRaster raster = image.getRaster();
+		if (raster.getDataBuffer() instanceof DataBufferInt
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+				&& ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == image.getWidth()
+				&& raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+			return ((DataBufferInt) raster.getDataBuffer()).getData();
+		}
+		return null;
+	}
+}
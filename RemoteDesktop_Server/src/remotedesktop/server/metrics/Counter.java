@@ -0,0 +1,28 @@
+package remotedesktop.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contador que só aumenta, seguro para várias threads
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class Counter {
+	private AtomicLong value;
+
+	public Counter() {
+		this.value = new AtomicLong();
+	}
+
+	public void increment() {
+		this.value.incrementAndGet();
+	}
+
+	public void add(long amount) {
+		this.value.addAndGet(amount);
+	}
+
+	public long get() {
+		return this.value.get();
+	}
+}
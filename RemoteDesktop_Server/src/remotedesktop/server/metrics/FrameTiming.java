@@ -0,0 +1,48 @@
+package remotedesktop.server.metrics;
+
+/**
+ * Número de sequência e horários de uma screenshot no servidor, em microssegundos
+ * pelo Clock. Os horários de entrada na fila e de envio são de cada cliente, e por isso
+ * são escritos apenas no momento do envio.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class FrameTiming {
+	private long sequence;
+	private long capture;
+	private long scaled;
+	private long encoded;
+
+	public FrameTiming(long sequence, long capture, long scaled, long encoded) {
+		this.sequence = sequence;
+		this.capture = capture;
+		this.scaled = scaled;
+		this.encoded = encoded;
+	}
+
+	/**
+	 * Retorna uma cópia com o horário de fim da codificação
+	 *
+	 * @param encoded
+	 * @return FrameTiming
+	 */
+	public FrameTiming withEncoded(long encoded) {
+		return new FrameTiming(this.sequence, this.capture, this.scaled, encoded);
+	}
+
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	public long getCapture() {
+		return this.capture;
+	}
+
+	public long getScaled() {
+		return this.scaled;
+	}
+
+	public long getEncoded() {
+		return this.encoded;
+	}
+}
@@ -0,0 +1,11 @@
+package remotedesktop.server.metrics;
+
+/**
+ * Valor lido no momento da exportação, usado para métricas que já são mantidas por
+ * outra classe, como a profundidade de uma fila
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface Gauge {
+	public long getValue();
+}
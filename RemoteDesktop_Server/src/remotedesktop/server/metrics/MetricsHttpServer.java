@@ -0,0 +1,84 @@
+package remotedesktop.server.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import remotedesktop.server.concurrent.DaemonThreadFactory;
+
+/**
+ * Servidor HTTP que exporta as métricas em texto, no formato do Prometheus, no
+ * caminho /metrics.
+ *
+ * O servidor escuta apenas no endereço local, as métricas não devem ser expostas para
+ * a rede. As requisições são atendidas por uma única thread daemon.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class MetricsHttpServer implements HttpHandler {
+	private MetricsRegistry registry;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public MetricsHttpServer(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Começa a atender as requisições na porta informada do endereço local
+	 *
+	 * @param port
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/metrics", this);
+		this.executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Metrics"));
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * Retorna a porta onde as requisições são atendidas
+	 *
+	 * @return int
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdown();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			StringBuilder builder = new StringBuilder();
+			this.registry.writeText(builder);
+			byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream output = exchange.getResponseBody();
+			output.write(body);
+			output.close();
+		} finally {
+			exchange.close();
+		}
+	}
+}
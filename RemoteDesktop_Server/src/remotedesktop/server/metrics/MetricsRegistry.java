@@ -0,0 +1,227 @@
+package remotedesktop.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registro central das métricas do servidor: contadores, valores lidos na exportação
+ * e histogramas de tempo.
+ *
+ * Cada métrica pertence a uma família, identificada pelo nome, e é identificada dentro
+ * da família pelos seus rótulos, informados como pares de nome e valor (por exemplo
+ * "client", "3"). Pedir uma métrica que já existe retorna a mesma instância, assim
+ * quem registra não precisa guardar referências para continuar contando.
+ *
+ * As métricas são exportadas em texto no formato do Prometheus (ver MetricsHttpServer)
+ * e por JMX (ver MetricsMBean). Os histogramas são exportados em segundos, como
+ * resumos com os percentis 50, 90 e 99.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class MetricsRegistry {
+	public enum Type {
+		COUNTER, GAUGE, SUMMARY
+	}
+
+	private static MetricsRegistry instance;
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private Map<String, Family> families;
+
+	public MetricsRegistry() {
+		this.families = new TreeMap<String, Family>();
+	}
+
+	/**
+	 * Retorna o contador com o nome e os rótulos informados, criando-o caso não exista
+	 *
+	 * @param name
+	 * @param help descrição exportada junto com a família
+	 * @param labels pares de nome e valor
+	 * @return Counter
+	 */
+	public synchronized Counter counter(String name, String help, String... labels) {
+		Family family = this.family(name, help, Type.COUNTER);
+		String key = labelsToString(labels);
+		Object metric = family.series.get(key);
+		if (!(metric instanceof Counter)) {
+			family.series.put(key, metric = new Counter());
+		}
+		return (Counter) metric;
+	}
+
+	/**
+	 * Retorna o histograma com o nome e os rótulos informados, criando-o caso não exista
+	 *
+	 * @param name
+	 * @param help
+	 * @param labels
+	 * @return LatencyHistogram
+	 */
+	public synchronized LatencyHistogram histogram(String name, String help, String... labels) {
+		Family family = this.family(name, help, Type.SUMMARY);
+		String key = labelsToString(labels);
+		Object metric = family.series.get(key);
+		if (!(metric instanceof LatencyHistogram)) {
+			family.series.put(key, metric = new LatencyHistogram(name));
+		}
+		return (LatencyHistogram) metric;
+	}
+
+	/**
+	 * Registra um histograma já existente, substituindo o anterior com os mesmos rótulos
+	 *
+	 * @param name
+	 * @param help
+	 * @param histogram
+	 * @param labels
+	 */
+	public synchronized void register(String name, String help, LatencyHistogram histogram, String... labels) {
+		this.family(name, help, Type.SUMMARY).series.put(labelsToString(labels), histogram);
+	}
+
+	/**
+	 * Registra um valor lido no momento da exportação, substituindo o anterior com os
+	 * mesmos rótulos. O tipo deve ser COUNTER quando o valor só aumenta.
+	 *
+	 * @param name
+	 * @param help
+	 * @param type
+	 * @param gauge
+	 * @param labels
+	 */
+	public synchronized void register(String name, String help, Type type, Gauge gauge, String... labels) {
+		this.family(name, help, type).series.put(labelsToString(labels), gauge);
+	}
+
+	/**
+	 * Remove de todas as famílias as métricas com exatamente os rótulos informados,
+	 * usado quando um cliente é desconectado
+	 *
+	 * @param labels
+	 */
+	public synchronized void remove(String... labels) {
+		String key = labelsToString(labels);
+		for (Family family : this.families.values()) {
+			family.series.remove(key);
+		}
+	}
+
+	private Family family(String name, String help, Type type) {
+		Family family = this.families.get(name);
+		if (family == null) {
+			this.families.put(name, family = new Family(help, type));
+		} else if (family.type != type) {
+			throw new IllegalArgumentException("Métrica " + name + " já registrada como " + family.type);
+		}
+		return family;
+	}
+
+	private static String labelsToString(String... labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Os rótulos devem ser pares de nome e valor");
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (builder.length() > 0) {
+				builder.append(',');
+			}
+			builder.append(labels[i]).append("=\"");
+			builder.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		}
+		return builder.toString();
+	}
+
+	private static String seriesName(String name, String labels, String extra) {
+		if (labels.isEmpty() && extra == null) {
+			return name;
+		}
+		StringBuilder builder = new StringBuilder(name).append('{').append(labels);
+		if (extra != null) {
+			builder.append(labels.isEmpty() ? "" : ",").append(extra);
+		}
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * Retorna o valor atual de cada série, com o nome completo (nome e rótulos) de cada
+	 * uma. Os histogramas são desmembrados em percentis, soma e quantidade.
+	 *
+	 * @return Map
+	 */
+	public synchronized Map<String, Number> snapshot() {
+		Map<String, Number> values = new LinkedHashMap<String, Number>();
+		for (Map.Entry<String, Family> entry : this.families.entrySet()) {
+			entry.getValue().appendValues(entry.getKey(), values);
+		}
+		return values;
+	}
+
+	/**
+	 * Escreve todas as métricas no formato de texto do Prometheus
+	 *
+	 * @param builder
+	 */
+	public synchronized void writeText(StringBuilder builder) {
+		Map<String, Number> values = new LinkedHashMap<String, Number>();
+		for (Map.Entry<String, Family> entry : this.families.entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			builder.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+			builder.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+
+			values.clear();
+			family.appendValues(name, values);
+			for (Map.Entry<String, Number> value : values.entrySet()) {
+				builder.append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Métricas de mesmo nome, uma por combinação de rótulos
+	 */
+	private static class Family {
+		private String help;
+		private Type type;
+		private Map<String, Object> series;
+
+		public Family(String help, Type type) {
+			this.help = help;
+			this.type = type;
+			this.series = new TreeMap<String, Object>();
+		}
+
+		/**
+		 * Adiciona o valor atual de cada série da família
+		 */
+		private void appendValues(String name, Map<String, Number> values) {
+			for (Map.Entry<String, Object> series : this.series.entrySet()) {
+				String labels = series.getKey();
+				Object metric = series.getValue();
+				if (metric instanceof Counter) {
+					values.put(seriesName(name, labels, null), ((Counter) metric).get());
+				} else if (metric instanceof Gauge) {
+					values.put(seriesName(name, labels, null), ((Gauge) metric).getValue());
+				} else {
+					LatencyHistogram histogram = (LatencyHistogram) metric;
+					for (double quantile : QUANTILES) {
+						values.put(seriesName(name, labels, "quantile=\"" + quantile + "\""),
+								histogram.getPercentile(quantile * 100) / 1e6);
+					}
+					values.put(seriesName(name + "_sum", labels, null), histogram.getTotalMicros() / 1e6);
+					values.put(seriesName(name + "_count", labels, null), histogram.getCount());
+				}
+			}
+		}
+	}
+
+	public static synchronized MetricsRegistry getInstance() {
+		if (instance == null) {
+			instance = new MetricsRegistry();
+		}
+		return instance;
+	}
+}
@@ -0,0 +1,80 @@
+package remotedesktop.server.network;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import remotedesktop.server.input.InputCommand;
+
+/**
+ * Separa os bytes recebidos de um cliente em comandos, usado pelas conexões dos dois
+ * motores de rede.
+ *
+ * Os comandos de texto terminam com uma quebra de linha. Um byte de comando de entrada
+ * (ver Protocol) no início de uma linha indica um comando binário de tamanho fixo, que
+ * é repassado ao listener assim que o último byte chega, sem esperar por nenhuma
+ * quebra de linha.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class CommandReader {
+	private Connection connection;
+	private ConnectionListener listener;
+	private ByteArrayOutputStream line;
+	private byte[] input;
+	private int inputType;
+	private int inputLength;
+	private int inputRead;
+	private volatile boolean stopped;
+
+	public CommandReader(Connection connection, ConnectionListener listener) {
+		this.connection = connection;
+		this.listener = listener;
+		this.line = new ByteArrayOutputStream();
+		this.input = new byte[8];
+		this.inputLength = -1;
+	}
+
+	/**
+	 * Interpreta os bytes recebidos, avisando o listener de cada comando completo. Os
+	 * bytes de um comando incompleto são guardados até a próxima chamada.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param count
+	 */
+	public void read(byte[] data, int offset, int count) {
+		for (int i = offset; i < offset + count && !this.stopped; i++) {
+			byte b = data[i];
+
+			if (this.inputLength >= 0) {
+				this.input[this.inputRead++] = b;
+				if (this.inputRead == this.inputLength) {
+					this.inputLength = -1;
+					this.listener.onInput(this.connection,
+							InputCommand.decode(this.inputType, this.input, System.nanoTime()));
+				}
+			} else if (this.line.size() == 0 && InputCommand.getLength(b) > 0) {
+				this.inputType = b;
+				this.inputLength = InputCommand.getLength(b);
+				this.inputRead = 0;
+			} else if (b == '\n') {
+				String command = new String(this.line.toByteArray(), StandardCharsets.UTF_8);
+				this.line.reset();
+				if (command.endsWith("\r")) {
+					command = command.substring(0, command.length() - 1);
+				}
+				this.listener.onCommand(this.connection, command);
+			} else {
+				this.line.write(b);
+			}
+		}
+	}
+
+	/**
+	 * Descarta o restante dos bytes, chamado quando a conexão é fechada durante a
+	 * leitura
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+}
@@ -0,0 +1,44 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import remotedesktop.server.datasender.SendQueue;
+
+/**
+ * Conexão com um cliente, independente de como a rede é tratada.
+ *
+ * A conexão lê os comandos enviados pelo cliente e envia os quadros colocados na fila
+ * de envio, avisando o listener sobre cada evento.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface Connection {
+	/**
+	 * Tamanho do buffer de envio do sistema para cada conexão. Um buffer grande aceita
+	 * vários quadros de uma vez e esconde a lentidão da rede, que só aparece como atraso
+	 * no cliente; com um buffer pequeno o envio só termina quando a rede acompanha, e o
+	 * tempo de envio informado ao listener reflete a banda do cliente.
+	 */
+	public static final int SEND_BUFFER_SIZE = 128 * 1024;
+
+	/**
+	 * Inicia a leitura dos comandos e o envio dos quadros da fila
+	 *
+	 * @param queue
+	 * @param listener
+	 */
+	public void start(SendQueue queue, ConnectionListener listener);
+
+	public void close() throws IOException;
+
+	public InetAddress getInetAddress();
+
+	public int getPort();
+
+	public int getLocalPort();
+
+	public long getSentCount();
+
+	public long getSentBytes();
+}
@@ -0,0 +1,34 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+
+/**
+ * Motor de rede do servidor, responsável por aceitar as conexões e tratar a leitura e
+ * escrita de todos os clientes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface ConnectionEngine {
+	/**
+	 * Abre a porta onde as conexões serão aceitas
+	 *
+	 * @param port
+	 * @throws IOException
+	 */
+	public void bind(int port) throws IOException;
+
+	/**
+	 * Aceita as conexões, avisando o listener sobre cada nova conexão. Não retorna
+	 * enquanto o motor estiver rodando.
+	 *
+	 * @param listener
+	 */
+	public void run(ConnectionEngineListener listener);
+
+	/**
+	 * Retorna a porta onde as conexões são aceitas
+	 *
+	 * @return int
+	 */
+	public int getLocalPort();
+}
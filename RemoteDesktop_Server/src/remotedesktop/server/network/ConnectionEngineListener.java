@@ -0,0 +1,12 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+
+/**
+ * Listener para receber as novas conexões aceitas pelo motor de rede
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface ConnectionEngineListener {
+	public void onConnection(Connection connection) throws IOException;
+}
@@ -0,0 +1,35 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+
+import remotedesktop.server.input.InputCommand;
+
+/**
+ * Listener para receber os eventos de uma conexão
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public interface ConnectionListener {
+	/**
+	 * Chamado para cada linha de comando recebida do cliente
+	 */
+	public void onCommand(Connection connection, String command);
+
+	/**
+	 * Chamado para cada comando de mouse ou teclado recebido do cliente, pela thread que
+	 * lê a conexão
+	 */
+	public void onInput(Connection connection, InputCommand command);
+
+	/**
+	 * Chamado quando um quadro é enviado por completo
+	 */
+	public void onSendSuccess(Connection connection, int length, long nanos);
+
+	public void onSendError(Connection connection, IOException e);
+
+	/**
+	 * Chamado quando o cliente encerra a conexão sem enviar o comando de desconexão
+	 */
+	public void onClosed(Connection connection);
+}
@@ -0,0 +1,216 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import remotedesktop.server.Protocol;
+import remotedesktop.server.datasender.ControlMessage;
+import remotedesktop.server.datasender.SendQueue;
+import remotedesktop.server.datasender.SendQueueListener;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.metrics.Clock;
+import remotedesktop.server.metrics.FrameTiming;
+
+/**
+ * Conexão não bloqueante, tratada por um NioWorker.
+ *
+ * Os quadros são escritos aos poucos, conforme o socket aceita mais dados, e a
+ * conexão só se interessa pela escrita enquanto existir uma mensagem sendo enviada.
+ * As mensagens de controle são enviadas antes do próximo quadro.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class NioConnection implements Connection, SendQueueListener {
+	private SocketChannel channel;
+	private NioWorker worker;
+	private SelectionKey key;
+	private SendQueue queue;
+	private ConnectionListener listener;
+	private ByteBuffer readBuffer;
+	private CommandReader reader;
+	private ByteBuffer[] writeBuffers;
+	private boolean writing;
+	private EncodedFrame current;
+	private long writeStart;
+	private volatile long sentCount;
+	private volatile long sentBytes;
+	private volatile boolean closed;
+
+	public NioConnection(SocketChannel channel, NioWorker worker) {
+		this.channel = channel;
+		this.worker = worker;
+		this.readBuffer = ByteBuffer.allocate(4096);
+		this.writeBuffers = new ByteBuffer[] { ByteBuffer.allocate(5 + Protocol.TIMING_SIZE), null };
+	}
+
+	@Override
+	public void start(SendQueue queue, ConnectionListener listener) {
+		this.queue = queue;
+		this.listener = listener;
+		this.reader = new CommandReader(this, listener);
+		queue.setSendQueueListener(this);
+		this.worker.register(this);
+	}
+
+	/**
+	 * Registra a conexão no Selector, chamado pela thread do worker
+	 */
+	void register(Selector selector) throws IOException {
+		this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+		this.handleWrite();
+	}
+
+	@Override
+	public void onFrameAvailable(SendQueue queue) {
+		this.worker.requestWrite(this);
+	}
+
+	/**
+	 * Lê os dados disponíveis e repassa ao listener cada comando completo
+	 */
+	void handleRead() {
+		int count;
+		try {
+			this.readBuffer.clear();
+			count = this.channel.read(this.readBuffer);
+		} catch (IOException e) {
+			count = -1;
+		}
+
+		if (count < 0) {
+			if (!this.closed) {
+				this.listener.onClosed(this);
+			}
+			return;
+		}
+
+		this.reader.read(this.readBuffer.array(), 0, count);
+	}
+
+	/**
+	 * Escreve o quanto for possível das mensagens pendentes, chamado pela thread do
+	 * worker
+	 */
+	synchronized void handleWrite() {
+		if (this.closed || this.key == null) {
+			return;
+		}
+
+		try {
+			while (true) {
+				if (!this.writing && !this.nextMessage()) {
+					this.key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+
+				this.channel.write(this.writeBuffers);
+				if (this.writeBuffers[0].hasRemaining() || this.writeBuffers[1].hasRemaining()) {
+					this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+
+				this.writing = false;
+				if (this.current == null) {
+					continue;
+				}
+
+				int length = this.current.getLength();
+				this.current.release();
+				this.current = null;
+				this.sentCount++;
+				this.sentBytes += length;
+				this.listener.onSendSuccess(this, length, System.nanoTime() - this.writeStart);
+			}
+		} catch (IOException e) {
+			this.releaseCurrent();
+			this.listener.onSendError(this, e);
+		}
+	}
+
+	/**
+	 * Retira a próxima mensagem da fila e prepara os buffers de escrita: o cabeçalho com
+	 * o tamanho e o tipo da mensagem (e os horários, no caso de um quadro), e o conteúdo,
+	 * sem cópias
+	 */
+	private boolean nextMessage() {
+		ByteBuffer header = this.writeBuffers[0];
+		header.clear();
+
+		ControlMessage control = this.queue.pollControl();
+		if (control != null) {
+			header.putInt(control.getPayload().length + 1);
+			header.put((byte) control.getType());
+			header.flip();
+			this.writeBuffers[1] = ByteBuffer.wrap(control.getPayload());
+			this.writing = true;
+			return true;
+		}
+
+		this.current = this.queue.poll();
+		if (this.current == null) {
+			return false;
+		}
+
+		FrameTiming timing = this.current.getTiming();
+		header.putInt(Protocol.TIMING_SIZE + this.current.getLength() + 1);
+		header.put((byte) Protocol.MSG_FRAME);
+		header.putLong(timing == null ? 0 : timing.getSequence());
+		header.putLong(timing == null ? 0 : timing.getCapture());
+		header.putLong(timing == null ? 0 : timing.getScaled());
+		header.putLong(timing == null ? 0 : timing.getEncoded());
+		header.putLong(this.queue.getPolledEnqueueTime());
+		header.putLong(Clock.micros());
+		header.flip();
+		this.writeBuffers[1] = ByteBuffer.wrap(this.current.getData(), 0, this.current.getLength());
+		this.writeStart = System.nanoTime();
+		this.writing = true;
+		return true;
+	}
+
+	private void releaseCurrent() {
+		this.writing = false;
+		if (this.current != null) {
+			this.current.release();
+			this.current = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.closed = true;
+		if (this.reader != null) {
+			this.reader.stop();
+		}
+		this.releaseCurrent();
+		this.channel.close();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return this.channel.socket().getInetAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return this.channel.socket().getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return this.channel.socket().getLocalPort();
+	}
+
+	@Override
+	public long getSentCount() {
+		return this.sentCount;
+	}
+
+	@Override
+	public long getSentBytes() {
+		return this.sentBytes;
+	}
+}
@@ -0,0 +1,95 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import remotedesktop.server.Logger;
+
+/**
+ * Motor de rede não bloqueante, baseado em Selector.
+ *
+ * Uma thread aceita as conexões e as distribui entre um número fixo de workers, cada
+ * um com o seu próprio Selector, responsável pela leitura e escrita de todas as suas
+ * conexões. A quantidade de threads não depende da quantidade de clientes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class NioEngine implements ConnectionEngine {
+	private Logger logger;
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private NioWorker[] workers;
+	private int next;
+
+	/**
+	 * Cria o motor com um worker por processador, limitado a 4
+	 */
+	public NioEngine() {
+		this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+	}
+
+	public NioEngine(int workers) {
+		this.logger = Logger.getInstance();
+		this.workers = new NioWorker[Math.max(1, workers)];
+	}
+
+	@Override
+	public void bind(int port) throws IOException {
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(port));
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+		for (int i = 0; i < this.workers.length; i++) {
+			this.workers[i] = new NioWorker(i);
+			this.workers[i].start();
+		}
+	}
+
+	@Override
+	public void run(ConnectionEngineListener listener) {
+		while (true) {
+			try {
+				this.selector.select();
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (key.isValid() && key.isAcceptable()) {
+						this.accept(listener);
+					}
+				}
+			} catch (Exception e) {
+				this.logger.printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Aceita as conexões pendentes, distribuindo-as entre os workers
+	 */
+	private void accept(ConnectionEngineListener listener) throws IOException {
+		SocketChannel channel;
+		while ((channel = this.serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setSendBufferSize(Connection.SEND_BUFFER_SIZE);
+
+			NioWorker worker = this.workers[this.next++ % this.workers.length];
+			listener.onConnection(new NioConnection(channel, worker));
+		}
+	}
+
+	@Override
+	public int getLocalPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+}
@@ -0,0 +1,99 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import remotedesktop.server.Logger;
+
+/**
+ * Thread de um NioEngine, trata a leitura e a escrita de várias conexões através de um
+ * único Selector.
+ *
+ * As outras threads não acessam o Selector diretamente: os pedidos de registro e de
+ * escrita são colocados em uma fila e o Selector é acordado para processá-los.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class NioWorker extends Thread {
+	private Logger logger;
+	private Selector selector;
+	private Queue<NioConnection> registrations;
+	private Queue<NioConnection> writeRequests;
+
+	public NioWorker(int index) throws IOException {
+		super("NioWorker-" + index);
+		this.logger = Logger.getInstance();
+		this.selector = Selector.open();
+		this.registrations = new ConcurrentLinkedQueue<NioConnection>();
+		this.writeRequests = new ConcurrentLinkedQueue<NioConnection>();
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Pede o registro da conexão no Selector desse worker
+	 *
+	 * @param connection
+	 */
+	public void register(NioConnection connection) {
+		this.registrations.add(connection);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Avisa que a conexão possui dados para enviar
+	 *
+	 * @param connection
+	 */
+	public void requestWrite(NioConnection connection) {
+		this.writeRequests.add(connection);
+		this.selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				this.selector.select();
+				this.processRequests();
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioConnection connection = (NioConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							connection.handleRead();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.handleWrite();
+						}
+					} catch (CancelledKeyException ignore) {
+					}
+				}
+			} catch (Exception e) {
+				this.logger.printStackTrace(e);
+			}
+		}
+	}
+
+	private void processRequests() {
+		NioConnection connection;
+		while ((connection = this.registrations.poll()) != null) {
+			try {
+				connection.register(this.selector);
+			} catch (IOException e) {
+				this.logger.printStackTrace(e);
+			}
+		}
+		while ((connection = this.writeRequests.poll()) != null) {
+			connection.handleWrite();
+		}
+	}
+}
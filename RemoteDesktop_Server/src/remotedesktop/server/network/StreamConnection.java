@@ -0,0 +1,123 @@
+package remotedesktop.server.network;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import remotedesktop.server.datasender.DataSender;
+import remotedesktop.server.datasender.DataSenderListener;
+import remotedesktop.server.datasender.SendQueue;
+
+/**
+ * Conexão com sockets bloqueantes, usada pelo ThreadEngine.
+ *
+ * Os comandos são lidos por uma thread própria e os quadros são enviados pelo
+ * DataSender da conexão.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class StreamConnection extends Thread implements Connection, DataSenderListener {
+	private Socket socket;
+	private DataOutputStream outputStream;
+	private InputStream inputStream;
+	private CommandReader reader;
+	private DataSender sender;
+	private ConnectionListener listener;
+	private volatile boolean closed;
+	private long sendStart;
+
+	public StreamConnection(Socket socket) throws IOException {
+		this.socket = socket;
+		this.socket.setTcpNoDelay(true);
+		this.socket.setSendBufferSize(SEND_BUFFER_SIZE);
+		this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.inputStream = socket.getInputStream();
+	}
+
+	@Override
+	public void start(SendQueue queue, ConnectionListener listener) {
+		this.listener = listener;
+		this.reader = new CommandReader(this, listener);
+		this.sender = new DataSender(queue, this.outputStream, this);
+		this.sender.start();
+		this.start();
+	}
+
+	/**
+	 * Lê os comandos enviados pelo cliente, repassando cada comando assim que chega
+	 */
+	@Override
+	public void run() {
+		byte[] buffer = new byte[4096];
+		int count;
+		try {
+			while (!this.closed && (count = this.inputStream.read(buffer)) >= 0) {
+				this.reader.read(buffer, 0, count);
+			}
+		} catch (IOException ignore) {
+			// Conexão encerrada
+		}
+
+		if (!this.closed) {
+			this.listener.onClosed(this);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		if (this.reader != null) {
+			this.reader.stop();
+		}
+		this.inputStream.close();
+		this.outputStream.close();
+		this.socket.close();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return this.socket.getInetAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return this.socket.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return this.socket.getLocalPort();
+	}
+
+	@Override
+	public long getSentCount() {
+		return this.sender == null ? 0 : this.sender.getSentCount();
+	}
+
+	@Override
+	public long getSentBytes() {
+		return this.sender == null ? 0 : this.sender.getSentBytes();
+	}
+
+	@Override
+	public void onStart(DataSender clientDataSender) {
+		this.sendStart = System.nanoTime();
+	}
+
+	@Override
+	public void onSuccess(DataSender clientDataSender) {
+		this.listener.onSendSuccess(this, clientDataSender.getLastLength(), System.nanoTime() - this.sendStart);
+	}
+
+	@Override
+	public void onError(DataSender clientDataSender, IOException e) {
+		this.listener.onSendError(this, e);
+	}
+
+	@Override
+	public void onComplete(DataSender clientDataSender) {
+	}
+}
@@ -0,0 +1,44 @@
+package remotedesktop.server.network;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import remotedesktop.server.Logger;
+
+/**
+ * Motor de rede com sockets bloqueantes.
+ *
+ * Cada conexão usa duas threads: uma para ler os comandos do cliente e outra para
+ * enviar os quadros. É o modelo mais simples, indicado para poucos clientes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ThreadEngine implements ConnectionEngine {
+	private Logger logger;
+	private ServerSocket serverSocket;
+
+	public ThreadEngine() {
+		this.logger = Logger.getInstance();
+	}
+
+	@Override
+	public void bind(int port) throws IOException {
+		this.serverSocket = new ServerSocket(port);
+	}
+
+	@Override
+	public void run(ConnectionEngineListener listener) {
+		while (true) {
+			try {
+				listener.onConnection(new StreamConnection(this.serverSocket.accept()));
+			} catch (Exception e) {
+				this.logger.printStackTrace(e);
+			}
+		}
+	}
+
+	@Override
+	public int getLocalPort() {
+		return this.serverSocket.getLocalPort();
+	}
+}
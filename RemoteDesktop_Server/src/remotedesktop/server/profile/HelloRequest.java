@@ -0,0 +1,139 @@
+package remotedesktop.server.profile;
+
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Preferências enviadas pelo cliente logo após conectar, no comando
+ * "HELLO viewport=<largura>x<altura> codec=<codec> tier=<nível> fps=<n> bandwidth=<kbit/s>
+ * stream=<número>".
+ *
+ * O codec é um dos registrados em TileCodecs (raw, palette, png, jpeg[:qualidade],
+ * auto[:qualidade]). Por compatibilidade, um nível de qualidade informado como codec é
+ * aceito como o nível.
+ *
+ * Todos os campos são opcionais e podem vir em qualquer ordem. Campos desconhecidos
+ * são ignorados, para que clientes mais novos continuem funcionando com servidores
+ * mais antigos.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class HelloRequest {
+	private int viewportWidth;
+	private int viewportHeight;
+	private String codec;
+	private QualityTier tier;
+	private int maxFps;
+	private int bandwidthKbps;
+	private int stream = -1;
+
+	/**
+	 * Lê os campos do comando, sem o "HELLO"
+	 *
+	 * @param arguments
+	 * @return HelloRequest
+	 * @throws IllegalArgumentException caso algum campo conhecido tenha um valor inválido
+	 */
+	public static HelloRequest parse(String arguments) {
+		HelloRequest hello = new HelloRequest();
+		for (String field : arguments.trim().split("\\s+")) {
+			int separator = field.indexOf('=');
+			if (separator < 0) {
+				continue;
+			}
+			String key = field.substring(0, separator);
+			String value = field.substring(separator + 1);
+
+			if (key.equals("viewport")) {
+				String[] size = value.split("x");
+				if (size.length != 2) {
+					throw new IllegalArgumentException("viewport inválido: " + value);
+				}
+				hello.viewportWidth = Integer.parseInt(size[0]);
+				hello.viewportHeight = Integer.parseInt(size[1]);
+			} else if (key.equals("codec") && QualityTier.fromName(value) != null) {
+				hello.tier = QualityTier.fromName(value);
+			} else if (key.equals("codec")) {
+				// Valida o nome e as opções antes de aceitar o codec
+				TileCodecs.create(value, QualityTier.TRUE_COLOR);
+				hello.codec = value.toLowerCase();
+			} else if (key.equals("tier")) {
+				hello.tier = QualityTier.fromName(value);
+				if (hello.tier == null) {
+					throw new IllegalArgumentException("nível desconhecido: " + value);
+				}
+			} else if (key.equals("fps")) {
+				hello.maxFps = Integer.parseInt(value);
+			} else if (key.equals("bandwidth")) {
+				hello.bandwidthKbps = Integer.parseInt(value);
+			} else if (key.equals("stream")) {
+				hello.stream = Integer.parseInt(value);
+			}
+		}
+		return hello;
+	}
+
+	/**
+	 * Largura da área onde o cliente exibe as imagens, ou 0 caso não tenha sido informada
+	 *
+	 * @return int
+	 */
+	public int getViewportWidth() {
+		return this.viewportWidth;
+	}
+
+	public int getViewportHeight() {
+		return this.viewportHeight;
+	}
+
+	/**
+	 * Codec preferido, ou null caso não tenha sido informado
+	 *
+	 * @return String
+	 */
+	public String getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * Nível de qualidade preferido, ou null caso não tenha sido informado
+	 *
+	 * @return QualityTier
+	 */
+	public QualityTier getTier() {
+		return this.tier;
+	}
+
+	/**
+	 * Limite de quadros por segundo, ou 0 caso não tenha sido informado
+	 *
+	 * @return int
+	 */
+	public int getMaxFps() {
+		return this.maxFps;
+	}
+
+	/**
+	 * Banda disponível em kbit/s, ou 0 caso não tenha sido informada
+	 *
+	 * @return int
+	 */
+	public int getBandwidthKbps() {
+		return this.bandwidthKbps;
+	}
+
+	/**
+	 * Número do stream pedido, ou -1 caso não tenha sido informado
+	 *
+	 * @return int
+	 */
+	public int getStream() {
+		return this.stream;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("viewport=%dx%d codec=%s tier=%s fps=%d bandwidth=%d stream=%d", this.viewportWidth,
+				this.viewportHeight, this.codec, this.tier, this.maxFps, this.bandwidthKbps, this.stream);
+	}
+}
@@ -0,0 +1,98 @@
+package remotedesktop.server.profile;
+
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Perfil de saída compartilhado pelos clientes: a largura máxima das imagens, o codec
+ * dos tiles (ver TileCodecs), o nível de qualidade e o limite de quadros por segundo.
+ *
+ * Cada screenshot é reduzida e codificada uma única vez por perfil que possui clientes,
+ * e todos os clientes do perfil recebem os mesmos bytes.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class OutputProfile {
+	/**
+	 * Largura que indica a resolução original da tela
+	 */
+	public static final int NATIVE_WIDTH = 0;
+
+	private final int maxWidth;
+	private final String codec;
+	private final QualityTier tier;
+	private final int fps;
+
+	/**
+	 * @param maxWidth largura máxima, ou NATIVE_WIDTH para a resolução original
+	 * @param codec nome do codec dos tiles
+	 * @param tier
+	 * @param fps
+	 */
+	public OutputProfile(int maxWidth, String codec, QualityTier tier, int fps) {
+		this.maxWidth = maxWidth;
+		this.codec = codec;
+		this.tier = tier;
+		this.fps = fps;
+	}
+
+	public int getMaxWidth() {
+		return this.maxWidth;
+	}
+
+	public String getCodec() {
+		return this.codec;
+	}
+
+	public QualityTier getTier() {
+		return this.tier;
+	}
+
+	public int getFps() {
+		return this.fps;
+	}
+
+	/**
+	 * Retorna a largura das imagens do perfil para uma tela da largura informada. As
+	 * imagens nunca são ampliadas.
+	 *
+	 * @param sourceWidth
+	 * @return int
+	 */
+	public int getWidth(int sourceWidth) {
+		return this.maxWidth == NATIVE_WIDTH ? sourceWidth : Math.min(this.maxWidth, sourceWidth);
+	}
+
+	/**
+	 * Retorna uma cópia do perfil com outro nível de qualidade
+	 *
+	 * @param tier
+	 * @return OutputProfile
+	 */
+	public OutputProfile withTier(QualityTier tier) {
+		return new OutputProfile(this.maxWidth, this.codec, tier, this.fps);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof OutputProfile)) {
+			return false;
+		}
+		OutputProfile profile = (OutputProfile) other;
+		return this.maxWidth == profile.maxWidth && this.codec.equals(profile.codec) && this.tier == profile.tier
+				&& this.fps == profile.fps;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((this.maxWidth * 31 + this.codec.hashCode()) * 31 + this.tier.hashCode()) * 31 + this.fps;
+	}
+
+	/**
+	 * Nome do perfil, usado nos logs e nas métricas. Exemplo: 1280/raw/HIGH_COLOR/10fps
+	 */
+	@Override
+	public String toString() {
+		return (this.maxWidth == NATIVE_WIDTH ? "native" : String.valueOf(this.maxWidth)) + "/" + this.codec + "/"
+				+ this.tier + "/" + this.fps + "fps";
+	}
+}
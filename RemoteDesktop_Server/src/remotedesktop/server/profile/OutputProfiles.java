@@ -0,0 +1,149 @@
+package remotedesktop.server.profile;
+
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.delta.QualityTier;
+
+/**
+ * Escolhe o perfil de saída de cada cliente.
+ *
+ * Os perfis seguem uma escada fixa de larguras e de quadros por segundo, de forma que
+ * clientes com preferências parecidas caem no mesmo perfil e compartilham a mesma
+ * codificação:
+ *
+ * - a largura é o menor degrau que cobre a área de exibição do cliente (nunca é
+ * preciso ampliar no cliente), descendo enquanto a banda informada estiver abaixo da
+ * recomendada para o degrau;
+ * - os quadros por segundo são o maior degrau que não passa do limite do cliente;
+ * - o codec e o nível de qualidade são os preferidos pelo cliente.
+ *
+ * Clientes com a conexão congestionada descem na escada um degrau por vez (ver
+ * degrade), sempre para perfis que também podem ser compartilhados.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class OutputProfiles {
+	/**
+	 * Degraus de largura, do maior para o menor
+	 */
+	private static final int[] WIDTH_STEPS = { OutputProfile.NATIVE_WIDTH, 1920, 1280, 854 };
+
+	/**
+	 * Banda recomendada para cada degrau de largura, em kbit/s
+	 */
+	private static final int[] WIDTH_BANDWIDTH = { 8000, 4000, 1500, 0 };
+
+	/**
+	 * Degraus de quadros por segundo, do maior para o menor
+	 */
+	private static final int[] FPS_STEPS = { 20, 10, 5 };
+
+	/**
+	 * Perfil dos clientes que não enviam HELLO
+	 */
+	public static final OutputProfile DEFAULT = new OutputProfile(1280, TileCodecs.DEFAULT, QualityTier.TRUE_COLOR,
+			FPS_STEPS[0]);
+
+	private OutputProfiles() {
+	}
+
+	/**
+	 * Retorna o maior limite de quadros por segundo dos perfis
+	 *
+	 * @return int
+	 */
+	public static int getMaxFps() {
+		return FPS_STEPS[0];
+	}
+
+	/**
+	 * Escolhe o perfil mais próximo das preferências do cliente
+	 *
+	 * @param hello
+	 * @param sourceWidth largura da tela capturada
+	 * @return OutputProfile
+	 */
+	public static OutputProfile select(HelloRequest hello, int sourceWidth) {
+		// Degraus maiores ou iguais à tela equivalem à resolução original
+		int first = 0;
+		while (first + 1 < WIDTH_STEPS.length && WIDTH_STEPS[first + 1] >= sourceWidth) {
+			first++;
+		}
+
+		int step = first;
+		if (hello.getViewportWidth() > 0) {
+			while (step + 1 < WIDTH_STEPS.length && WIDTH_STEPS[step + 1] >= hello.getViewportWidth()) {
+				step++;
+			}
+		}
+		if (hello.getBandwidthKbps() > 0) {
+			while (step + 1 < WIDTH_STEPS.length && hello.getBandwidthKbps() < WIDTH_BANDWIDTH[step]) {
+				step++;
+			}
+		}
+		int maxWidth = step == first ? OutputProfile.NATIVE_WIDTH : WIDTH_STEPS[step];
+
+		int fps = FPS_STEPS[0];
+		if (hello.getMaxFps() > 0) {
+			for (int i = 0; i < FPS_STEPS.length; i++) {
+				fps = FPS_STEPS[i];
+				if (fps <= hello.getMaxFps()) {
+					break;
+				}
+			}
+		}
+
+		String codec = hello.getCodec() != null ? hello.getCodec() : DEFAULT.getCodec();
+		QualityTier tier = hello.getTier() != null ? hello.getTier() : DEFAULT.getTier();
+		return new OutputProfile(maxWidth, codec, tier, fps);
+	}
+
+	/**
+	 * Retorna o perfil um degrau abaixo, ou null caso o perfil já seja o mais baixo. A
+	 * ordem dos degraus é: quadros por segundo até 10, nível de qualidade até HIGH_COLOR,
+	 * largura até o menor degrau, quadros por segundo até o mínimo e nível de qualidade
+	 * até o mínimo.
+	 *
+	 * @param profile
+	 * @param sourceWidth largura da tela capturada
+	 * @return OutputProfile
+	 */
+	public static OutputProfile degrade(OutputProfile profile, int sourceWidth) {
+		int fps = lowerFps(profile.getFps());
+		if (fps >= FPS_STEPS[1]) {
+			return new OutputProfile(profile.getMaxWidth(), profile.getCodec(), profile.getTier(), fps);
+		}
+
+		QualityTier[] tiers = QualityTier.values();
+		int tier = profile.getTier().ordinal();
+		if (tier == 0) {
+			return profile.withTier(tiers[1]);
+		}
+
+		int width = profile.getWidth(sourceWidth);
+		for (int i = 1; i < WIDTH_STEPS.length; i++) {
+			if (WIDTH_STEPS[i] < width) {
+				return new OutputProfile(WIDTH_STEPS[i], profile.getCodec(), profile.getTier(), profile.getFps());
+			}
+		}
+
+		if (fps > 0) {
+			return new OutputProfile(profile.getMaxWidth(), profile.getCodec(), profile.getTier(), fps);
+		}
+		if (tier + 1 < tiers.length) {
+			return profile.withTier(tiers[tier + 1]);
+		}
+		return null;
+	}
+
+	/**
+	 * Retorna o degrau de quadros por segundo abaixo do informado, ou 0 caso não exista
+	 */
+	private static int lowerFps(int fps) {
+		for (int i = 0; i < FPS_STEPS.length; i++) {
+			if (FPS_STEPS[i] < fps) {
+				return FPS_STEPS[i];
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,164 @@
+package remotedesktop.server.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Grava os quadros de uma sessão nos arquivos descritos em ArchiveFormat.
+ *
+ * Os quadros são acrescentados ao segmento atual através de um FileChannel, com o
+ * cabeçalho e os bytes do quadro em uma única escrita, sem copiar o quadro. Quando o
+ * segmento passa do tamanho máximo, o próximo quadro completo abre um segmento novo,
+ * de forma que todo segmento começa por um quadro completo. Cada quadro completo ganha
+ * uma entrada no índice.
+ *
+ * Os arquivos são sincronizados com o disco ao trocar de segmento e ao fechar.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ArchiveWriter {
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private File directory;
+	private long segmentSize;
+	private FileChannel index;
+	private FileChannel segment;
+	private int segmentNumber;
+	private long position;
+	private ByteBuffer[] record;
+	private ByteBuffer indexEntry;
+
+	/**
+	 * @param directory pasta da gravação, criada caso não exista. Uma pasta que já tem
+	 *            arquivos não é usada, para que uma gravação anterior nunca seja
+	 *            sobrescrita nem misturada com a nova.
+	 * @param segmentSize tamanho a partir do qual o próximo quadro completo abre um
+	 *            segmento novo
+	 * @throws IOException caso a pasta não possa ser criada ou não esteja vazia
+	 */
+	public ArchiveWriter(File directory, long segmentSize) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Não foi possível criar a pasta " + directory);
+		}
+		String[] files = directory.list();
+		if (files == null || files.length > 0) {
+			throw new IOException("A pasta da gravação não está vazia: " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segmentNumber = -1;
+		this.record = new ByteBuffer[] { ByteBuffer.allocate(ArchiveFormat.RECORD_HEADER_SIZE), null };
+		this.indexEntry = ByteBuffer.allocate(ArchiveFormat.INDEX_ENTRY_SIZE);
+		this.index = open(new File(directory, ArchiveFormat.INDEX_FILE), ArchiveFormat.INDEX_MAGIC);
+	}
+
+	/**
+	 * Acrescenta um quadro à gravação. A gravação deve começar por um quadro completo.
+	 *
+	 * @param timestamp horário da captura, em microssegundos desde 1970
+	 * @param data quadro no formato de DeltaProtocol
+	 * @param length
+	 * @param keyframe
+	 * @throws IOException
+	 */
+	public synchronized void write(long timestamp, byte[] data, int length, boolean keyframe) throws IOException {
+		if (this.segment == null) {
+			if (!keyframe) {
+				throw new IllegalStateException("A gravação deve começar por um quadro completo");
+			}
+			this.nextSegment();
+		} else if (keyframe && this.position >= this.segmentSize) {
+			this.nextSegment();
+		}
+
+		ByteBuffer header = this.record[0];
+		header.clear();
+		header.putLong(timestamp).putInt(length).put((byte) (keyframe ? 1 : 0));
+		header.flip();
+		this.record[1] = ByteBuffer.wrap(data, 0, length);
+		while (this.record[1].hasRemaining()) {
+			this.segment.write(this.record);
+		}
+		this.record[1] = null;
+
+		/**
+		 * A entrada do índice é gravada depois do quadro, então uma gravação interrompida
+		 * nunca tem no índice um quadro que não está no segmento
+		 */
+		if (keyframe) {
+			this.indexEntry.clear();
+			this.indexEntry.putLong(timestamp).putInt(this.segmentNumber).putLong(this.position);
+			this.indexEntry.flip();
+			writeFully(this.index, this.indexEntry);
+		}
+		this.position += ArchiveFormat.RECORD_HEADER_SIZE + length;
+	}
+
+	/**
+	 * Retorna o número do segmento atual, ou -1 caso nenhum quadro tenha sido gravado
+	 *
+	 * @return int
+	 */
+	public synchronized int getSegmentNumber() {
+		return this.segmentNumber;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Sincroniza e fecha os arquivos
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			this.closeSegment();
+		} finally {
+			this.index.force(true);
+			this.index.close();
+		}
+	}
+
+	/**
+	 * Fecha o segmento atual e abre o próximo
+	 */
+	private void nextSegment() throws IOException {
+		this.closeSegment();
+		this.index.force(true);
+		this.segmentNumber++;
+		this.segment = open(new File(this.directory, ArchiveFormat.getSegmentFile(this.segmentNumber)),
+				ArchiveFormat.SEGMENT_MAGIC);
+		this.position = ArchiveFormat.FILE_HEADER_SIZE;
+	}
+
+	private void closeSegment() throws IOException {
+		if (this.segment != null) {
+			this.segment.force(true);
+			this.segment.close();
+			this.segment = null;
+		}
+	}
+
+	/**
+	 * Cria o arquivo, que ainda não pode existir, e grava o cabeçalho
+	 */
+	private static FileChannel open(File file, int magic) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(ArchiveFormat.FILE_HEADER_SIZE);
+		header.putInt(magic).putInt(ArchiveFormat.VERSION);
+		header.flip();
+		writeFully(channel, header);
+		return channel;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package remotedesktop.server.recording;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.autoscreenshot.AutoScreenshotListener;
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.delta.QualityTier;
+import remotedesktop.server.delta.TileDeltaEncoder;
+import remotedesktop.server.memory.ImagePixels;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.FrameTiming;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.metrics.MetricsRegistry;
+
+/**
+ * Grava as screenshots de um stream em disco, para que as sessões possam ser
+ * assistidas depois (ver ArchiveWriter).
+ *
+ * O gravador recebe as screenshots como qualquer outro listener, mas não codifica
+ * nada na thread das screenshots: no ritmo da gravação, a imagem é apenas copiada para
+ * um buffer e entregue a esta thread, de prioridade baixa, que a codifica com o seu
+ * próprio codificador (sem usar o pool compartilhado pelos streams) e grava o quadro.
+ * Caso a thread ainda não tenha terminado a imagem anterior, a cópia pendente é
+ * substituída pela nova e a anterior é descartada; a gravação perde quadros, mas os
+ * clientes nunca esperam por ela.
+ *
+ * Um quadro completo é gravado no início e a cada intervalo de quadros completos, o
+ * que limita quanto é preciso decodificar para chegar a qualquer horário da gravação.
+ * Screenshots sem nenhuma mudança não são gravadas. Quando uma screenshot alterada
+ * chega fora do ritmo da gravação e a tela para em seguida, o gravador pede a próxima
+ * screenshot, para que a última mudança também seja gravada.
+ *
+ * Depois que a gravação termina, por stopRecording() ou por um erro de escrita, o
+ * gravador continua inscrito no stream, mas ignora as screenshots.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class SessionRecorder extends Thread implements AutoScreenshotListener {
+	public static final int DEFAULT_FPS = 5;
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+	public static final String DEFAULT_CODEC = "auto";
+
+	private Logger logger;
+	private ArchiveWriter writer;
+	private TileDeltaEncoder encoder;
+	private long interval;
+	private long keyframeInterval;
+	private long nextCapture;
+	private long nextKeyframe;
+	private BufferedImage pending;
+	private long pendingTimestamp;
+	private BufferedImage spare;
+	private boolean stopped;
+	private volatile boolean finished;
+	private boolean skippedChanges;
+	private Counter recordedFrames;
+	private Counter recordedBytes;
+	private Counter droppedFrames;
+	private LatencyHistogram copyTime;
+
+	/**
+	 * @param directory pasta da gravação
+	 * @param stream nome do stream, usado nas métricas
+	 * @param codec codec dos tiles, ver TileCodecs
+	 * @param fps screenshots gravadas por segundo
+	 * @param keyframeInterval segundos entre os quadros completos
+	 * @throws IOException
+	 */
+	public SessionRecorder(File directory, String stream, String codec, int fps, int keyframeInterval)
+			throws IOException {
+		super("SessionRecorder-" + stream);
+		this.setDaemon(true);
+		this.setPriority(Thread.MIN_PRIORITY);
+		this.logger = Logger.getInstance();
+		this.encoder = new TileDeltaEncoder(TileCodecs.create(codec, QualityTier.TRUE_COLOR));
+		this.writer = new ArchiveWriter(directory, ArchiveWriter.DEFAULT_SEGMENT_SIZE);
+		this.interval = 1000000000L / fps;
+		this.keyframeInterval = keyframeInterval * 1000000000L;
+		this.nextCapture = System.nanoTime();
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		this.recordedFrames = registry.counter("remotedesktop_recorded_frames_total", "Quadros gravados",
+				"stream", stream);
+		this.recordedBytes = registry.counter("remotedesktop_recorded_bytes_total", "Bytes dos quadros gravados",
+				"stream", stream);
+		this.droppedFrames = registry.counter("remotedesktop_recording_dropped_total",
+				"Screenshots descartadas porque a gravação estava atrasada", "stream", stream);
+		this.copyTime = registry.histogram("remotedesktop_recording_copy_seconds",
+				"Tempo da cópia da screenshot na thread das screenshots", "stream", stream);
+	}
+
+	/**
+	 * Copia a screenshot caso seja o momento da próxima gravação. É a única parte da
+	 * gravação executada na thread das screenshots.
+	 */
+	@Override
+	public void onScreenshot(BufferedImage image, FrameTiming timing) {
+		if (this.finished) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (now - this.nextCapture < -this.interval / 4) {
+			this.skippedChanges = true;
+			return;
+		}
+		this.skippedChanges = false;
+		this.nextCapture = Math.max(this.nextCapture, now - this.interval) + this.interval;
+
+		BufferedImage copy;
+		synchronized (this) {
+			if (this.pending != null) {
+				copy = this.pending;
+				this.pending = null;
+				this.droppedFrames.increment();
+			} else {
+				copy = this.spare;
+				this.spare = null;
+			}
+		}
+		copy = copy(image, copy);
+		this.copyTime.record(System.nanoTime() - now);
+
+		synchronized (this) {
+			if (!this.finished) {
+				this.pending = copy;
+				this.pendingTimestamp = timing.getCapture();
+				this.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public boolean onUnchanged(FrameTiming timing) {
+		return this.skippedChanges && !this.finished;
+	}
+
+	@Override
+	public void run() {
+		this.logger.info("Gravando em " + this.writer.getDirectory());
+		try {
+			while (true) {
+				BufferedImage image;
+				long timestamp;
+				synchronized (this) {
+					while (this.pending == null && !this.stopped) {
+						this.wait();
+					}
+					if (this.stopped) {
+						break;
+					}
+					image = this.pending;
+					timestamp = this.pendingTimestamp;
+					this.pending = null;
+				}
+
+				this.record(image, timestamp);
+
+				synchronized (this) {
+					this.spare = image;
+				}
+			}
+		} catch (InterruptedException e) {
+		} catch (IOException e) {
+			this.logger.error("A gravação em %s foi interrompida: %s", this.writer.getDirectory(), e);
+		} finally {
+			this.finished = true;
+			synchronized (this) {
+				this.pending = null;
+				this.spare = null;
+			}
+			try {
+				this.writer.close();
+			} catch (IOException e) {
+				this.logger.printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Encerra a gravação depois do quadro que estiver sendo gravado e fecha os arquivos.
+	 * A thread não é interrompida, já que uma interrupção durante uma escrita fecharia o
+	 * FileChannel.
+	 */
+	public synchronized void stopRecording() {
+		this.stopped = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Codifica e grava a imagem. A codificação gera um quadro completo sozinha quando a
+	 * resolução muda.
+	 */
+	private void record(BufferedImage image, long timestamp) throws IOException {
+		long now = System.nanoTime();
+		boolean keyframe = this.writer.getSegmentNumber() < 0 || now - this.nextKeyframe >= 0;
+		DeltaFrame frame = this.encoder.encode(image, keyframe);
+		try {
+			EncodedFrame encoded = frame.getKeyframe();
+			if (encoded != null) {
+				this.nextKeyframe = now + this.keyframeInterval;
+			} else if (frame.isEmpty()) {
+				return;
+			} else {
+				encoded = frame.getDelta();
+			}
+			this.writer.write(timestamp, encoded.getData(), encoded.getLength(), encoded == frame.getKeyframe());
+			this.recordedFrames.increment();
+			this.recordedBytes.add(encoded.getLength());
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Copia a imagem para o buffer informado, ou para um novo caso o buffer seja null ou
+	 * tenha outra resolução
+	 */
+	private static BufferedImage copy(BufferedImage image, BufferedImage target) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (target == null || target.getWidth() != width || target.getHeight() != height) {
+			target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		// Uma imagem com alfa é desenhada, para que a transparência seja aplicada
+		int[] source = image.getType() == BufferedImage.TYPE_INT_RGB ? ImagePixels.getData(image) : null;
+		if (source != null) {
+			System.arraycopy(source, 0, ImagePixels.getData(target), 0, width * height);
+		} else {
+			Graphics2D g2d = target.createGraphics();
+			g2d.drawImage(image, 0, 0, null);
+			g2d.dispose();
+		}
+		return target;
+	}
+}
@@ -0,0 +1,362 @@
+package remotedesktop.server.scaler;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import remotedesktop.server.concurrent.DaemonThreadFactory;
+import remotedesktop.server.memory.ImagePixels;
+
+/**
+ * Reduz imagens trabalhando diretamente sobre o array de pixels.
+ *
+ * Substitui o getScaledInstance, que passa por toda a cadeia de ImageProducer do AWT
+ * e gera uma imagem nova a cada chamada. Aqui a imagem de destino é criada uma única
+ * vez e reaproveitada enquanto a resolução não mudar, e as linhas de imagens grandes
+ * são divididas entre os núcleos do processador.
+ *
+ * As imagens de destino formam um anel: a imagem retornada só é sobrescrita depois de
+ * tantas chamadas de scale() quanto o número de buffers, o que permite entregá-la a
+ * outra thread enquanto a próxima imagem é reduzida.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class FastScaler {
+	public enum Filter {
+		/**
+		 * Média de todos os pixels de origem cobertos pelo pixel de destino. Equivalente
+		 * ao SCALE_AREA_AVERAGING e indicado para reduções.
+		 */
+		BOX,
+
+		/**
+		 * Interpolação entre os quatro pixels de origem mais próximos. Mais rápido que o
+		 * BOX, mas perde detalhes em reduções maiores que a metade.
+		 */
+		BILINEAR
+	}
+
+	/**
+	 * Quantidade mínima de pixels de destino para dividir o trabalho entre threads
+	 */
+	private static final int PARALLEL_THRESHOLD = 512 * 512;
+
+	private Filter filter;
+	private int threads;
+	private ExecutorService executor;
+
+	private BufferedImage[] targets;
+	private int[][] targetsPixels;
+	private int next;
+	private BufferedImage target;
+	private int[] targetPixels;
+	private int[] sourceBuffer;
+	private int sourceWidth;
+	private int sourceHeight;
+
+	// Tabelas de coordenadas, recalculadas apenas quando as resoluções mudam
+	private int[] xStart;
+	private int[] yStart;
+	private int[] xWeight;
+	private int[] yWeight;
+	private int xSpan;
+	private int ySpan;
+	private int[][] rowSums;
+
+	public FastScaler(Filter filter) {
+		this(filter, Runtime.getRuntime().availableProcessors());
+	}
+
+	public FastScaler(Filter filter, int threads) {
+		this(filter, threads, 1);
+	}
+
+	/**
+	 * @param filter
+	 * @param threads quantidade máxima de threads usadas em uma redução
+	 * @param buffers quantidade de imagens de destino usadas em rodízio
+	 */
+	public FastScaler(Filter filter, int threads, int buffers) {
+		this(filter, threads > 1 ? Executors.newFixedThreadPool(threads - 1, new DaemonThreadFactory("FastScaler"))
+				: null, threads, buffers);
+	}
+
+	/**
+	 * Usa um pool de threads compartilhado, que deve ter pelo menos threads - 1 threads
+	 * para que todas as faixas sejam reduzidas ao mesmo tempo
+	 *
+	 * @param filter
+	 * @param executor pool de threads, ou null para reduzir apenas na thread que chama
+	 * @param threads quantidade máxima de threads usadas em uma redução
+	 * @param buffers quantidade de imagens de destino usadas em rodízio
+	 */
+	public FastScaler(Filter filter, ExecutorService executor, int threads, int buffers) {
+		this.filter = filter;
+		this.executor = executor;
+		this.threads = executor == null ? 1 : Math.max(1, threads);
+		this.targets = new BufferedImage[Math.max(1, buffers)];
+		this.targetsPixels = new int[this.targets.length][];
+	}
+
+	public Filter getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Reduz a imagem para a resolução informada. Quando a resolução é a mesma da origem
+	 * a imagem é apenas copiada, assim o resultado nunca é a própria origem, que pode
+	 * ser alterada pela próxima captura.
+	 *
+	 * @param source
+	 * @param width
+	 * @param height
+	 * @return BufferedImage imagem reaproveitada entre as chamadas
+	 */
+	public synchronized BufferedImage scale(BufferedImage source, int width, int height) {
+		width = Math.max(1, width);
+		height = Math.max(1, height);
+
+		this.prepare(source.getWidth(), source.getHeight(), width, height);
+		this.target = this.targets[this.next];
+		this.targetPixels = this.targetsPixels[this.next];
+		this.next = (this.next + 1) % this.targets.length;
+		final int[] pixels = this.getPixels(source);
+
+		if (source.getWidth() == width && source.getHeight() == height) {
+			System.arraycopy(pixels, 0, this.targetPixels, 0, width * height);
+			return this.target;
+		}
+
+		int bands = width * height >= PARALLEL_THRESHOLD ? Math.min(this.threads, height) : 1;
+		List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+		for (int band = 1; band < bands; band++) {
+			final int index = band;
+			final int from = height * band / bands;
+			final int to = height * (band + 1) / bands;
+			futures.add(this.executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					FastScaler.this.scaleRows(pixels, from, to, index);
+				}
+			}));
+		}
+		this.scaleRows(pixels, 0, height / bands, 0);
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		return this.target;
+	}
+
+	/**
+	 * Cria a imagem de destino e as tabelas de coordenadas, caso alguma resolução
+	 * tenha mudado
+	 */
+	private void prepare(int sourceWidth, int sourceHeight, int width, int height) {
+		BufferedImage first = this.targets[0];
+		if (first != null && this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight
+				&& first.getWidth() == width && first.getHeight() == height) {
+			return;
+		}
+
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+		for (int i = 0; i < this.targets.length; i++) {
+			this.targets[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			this.targetsPixels[i] = ((DataBufferInt) this.targets[i].getRaster().getDataBuffer()).getData();
+		}
+		this.sourceBuffer = null;
+
+		if (this.filter == Filter.BOX) {
+			this.xSpan = boxSpan(sourceWidth, width);
+			this.ySpan = boxSpan(sourceHeight, height);
+			this.xStart = new int[width];
+			this.yStart = new int[height];
+			this.xWeight = new int[width * this.xSpan];
+			this.yWeight = new int[height * this.ySpan];
+			boxTable(sourceWidth, width, this.xSpan, this.xStart, this.xWeight);
+			boxTable(sourceHeight, height, this.ySpan, this.yStart, this.yWeight);
+			this.rowSums = new int[this.threads][sourceWidth * 3];
+		} else {
+			this.xStart = new int[width];
+			this.xWeight = new int[width];
+			this.yStart = new int[height];
+			this.yWeight = new int[height];
+			bilinearTable(sourceWidth, width, this.xStart, this.xWeight);
+			bilinearTable(sourceHeight, height, this.yStart, this.yWeight);
+		}
+	}
+
+	/**
+	 * Quantidade máxima de pixels de origem que um pixel de destino pode cobrir
+	 */
+	private static int boxSpan(int sourceLength, int length) {
+		return (sourceLength + length - 1) / length + 1;
+	}
+
+	/**
+	 * Primeiro pixel de origem coberto por cada pixel de destino e o peso de cada
+	 * pixel coberto, proporcional à área coberta. Os pesos de cada pixel de destino
+	 * somam 256.
+	 */
+	private static void boxTable(int sourceLength, int length, int span, int[] start, int[] weight) {
+		double scale = (double) sourceLength / length;
+		for (int i = 0; i < length; i++) {
+			double low = i * scale;
+			double high = Math.min(sourceLength, (i + 1) * scale);
+			int first = Math.min((int) low, sourceLength - 1);
+			start[i] = first;
+
+			int total = 0, largest = 0;
+			for (int k = 0; k < span; k++) {
+				int j = first + k;
+				double overlap = j < sourceLength ? Math.min(high, j + 1) - Math.max(low, j) : 0;
+				int value = overlap > 0 ? (int) Math.round(overlap / scale * 256) : 0;
+				weight[i * span + k] = value;
+				total += value;
+				if (value > weight[i * span + largest]) {
+					largest = k;
+				}
+			}
+			weight[i * span + largest] += 256 - total;
+		}
+	}
+
+	/**
+	 * Primeiro pixel de origem usado por cada pixel de destino e o peso do segundo,
+	 * de 0 a 256
+	 */
+	private static void bilinearTable(int sourceLength, int length, int[] start, int[] weight) {
+		long step = ((long) sourceLength << 16) / length;
+		for (int i = 0; i < length; i++) {
+			long position = Math.max(0, i * step + step / 2 - 32768);
+			int index = (int) (position >> 16);
+			if (index >= sourceLength - 1) {
+				start[i] = Math.max(0, sourceLength - 2);
+				weight[i] = sourceLength > 1 ? 256 : 0;
+			} else {
+				start[i] = index;
+				weight[i] = (int) ((position & 0xFFFF) >> 8);
+			}
+		}
+	}
+
+	private void scaleRows(int[] pixels, int from, int to, int band) {
+		if (this.filter == Filter.BOX) {
+			this.boxRows(pixels, from, to, this.rowSums[band]);
+		} else {
+			this.bilinearRows(pixels, from, to);
+		}
+	}
+
+	/**
+	 * Para cada linha de destino, soma as linhas de origem cobertas coluna a coluna,
+	 * ponderadas pela área coberta, e depois soma as colunas cobertas por cada pixel de
+	 * destino da mesma forma
+	 */
+	private void boxRows(int[] pixels, int from, int to, int[] sums) {
+		int sourceWidth = this.sourceWidth;
+		int sourceHeight = this.sourceHeight;
+		int width = this.target.getWidth();
+		int[] target = this.targetPixels;
+		int xSpan = this.xSpan;
+		int ySpan = this.ySpan;
+
+		for (int y = from; y < to; y++) {
+			Arrays.fill(sums, 0);
+			for (int k = 0; k < ySpan; k++) {
+				int weight = this.yWeight[y * ySpan + k];
+				int row = this.yStart[y] + k;
+				if (weight == 0 || row >= sourceHeight) {
+					continue;
+				}
+				int offset = row * sourceWidth;
+				for (int x = 0, s = 0; x < sourceWidth; x++, s += 3) {
+					int pixel = pixels[offset + x];
+					sums[s] += ((pixel >> 16) & 0xFF) * weight;
+					sums[s + 1] += ((pixel >> 8) & 0xFF) * weight;
+					sums[s + 2] += (pixel & 0xFF) * weight;
+				}
+			}
+
+			int targetOffset = y * width;
+			for (int x = 0; x < width; x++) {
+				int r = 0, g = 0, b = 0;
+				int s = this.xStart[x] * 3;
+				int w = x * xSpan;
+				for (int k = 0; k < xSpan && s < sums.length; k++, s += 3) {
+					int weight = this.xWeight[w + k];
+					r += sums[s] * weight;
+					g += sums[s + 1] * weight;
+					b += sums[s + 2] * weight;
+				}
+				target[targetOffset + x] = (Math.min(255, (r + 32768) >> 16) << 16)
+						| (Math.min(255, (g + 32768) >> 16) << 8) | Math.min(255, (b + 32768) >> 16);
+			}
+		}
+	}
+
+	/**
+	 * Interpola os canais vermelho e azul juntos e o verde separado, com pesos de 8 bits
+	 */
+	private void bilinearRows(int[] pixels, int from, int to) {
+		int sourceWidth = this.sourceWidth;
+		int lastRow = this.sourceHeight - 1;
+		int width = this.target.getWidth();
+		int[] target = this.targetPixels;
+
+		for (int y = from; y < to; y++) {
+			int top = this.yStart[y] * sourceWidth;
+			int bottom = Math.min(this.yStart[y] + 1, lastRow) * sourceWidth;
+			int wy = this.yWeight[y];
+			int targetOffset = y * width;
+
+			for (int x = 0; x < width; x++) {
+				int sx = this.xStart[x];
+				int sx1 = Math.min(sx + 1, sourceWidth - 1);
+				int wx = this.xWeight[x];
+
+				int upper = lerp(pixels[top + sx], pixels[top + sx1], wx);
+				int lower = lerp(pixels[bottom + sx], pixels[bottom + sx1], wx);
+				target[targetOffset + x] = lerp(upper, lower, wy);
+			}
+		}
+	}
+
+	private static int lerp(int a, int b, int weight) {
+		int inverse = 256 - weight;
+		int rb = (((a & 0xFF00FF) * inverse + (b & 0xFF00FF) * weight) >>> 8) & 0xFF00FF;
+		int g = (((a & 0x00FF00) * inverse + (b & 0x00FF00) * weight) >>> 8) & 0x00FF00;
+		return rb | g;
+	}
+
+	/**
+	 * Retorna os pixels da imagem em um array de inteiros RGB. Quando possível o
+	 * próprio array da imagem é usado; caso contrário os pixels são copiados para um
+	 * array reaproveitado.
+	 */
+	private int[] getPixels(BufferedImage image) {
+		int[] pixels = ImagePixels.getData(image);
+		if (pixels != null) {
+			return pixels;
+		}
+		if (this.sourceBuffer == null) {
+			this.sourceBuffer = new int[image.getWidth() * image.getHeight()];
+		}
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), this.sourceBuffer, 0, image.getWidth());
+	}
+}
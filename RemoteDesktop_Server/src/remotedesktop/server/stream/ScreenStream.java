@@ -0,0 +1,508 @@
+package remotedesktop.server.stream;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+
+import remotedesktop.server.Logger;
+import remotedesktop.server.Protocol;
+import remotedesktop.server.autoscreenshot.AutoScreenshot;
+import remotedesktop.server.autoscreenshot.AutoScreenshotListener;
+import remotedesktop.server.client.Client;
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.TileDeltaEncoder;
+import remotedesktop.server.framesource.FrameSource;
+import remotedesktop.server.memory.BufferPool;
+import remotedesktop.server.metrics.Clock;
+import remotedesktop.server.metrics.Counter;
+import remotedesktop.server.metrics.FrameTiming;
+import remotedesktop.server.metrics.LatencyHistogram;
+import remotedesktop.server.metrics.MetricsRegistry;
+import remotedesktop.server.profile.OutputProfile;
+import remotedesktop.server.scaler.FastScaler;
+
+/**
+ * Uma área capturada e transmitida de forma independente: um monitor, uma região da
+ * área de trabalho ou qualquer outra origem de imagens.
+ *
+ * Cada stream tem a sua própria thread de captura (AutoScreenshot), os seus
+ * codificadores e os seus clientes inscritos. A captura só roda enquanto o stream tem
+ * clientes, então um monitor que ninguém está vendo não custa nada.
+ *
+ * Enquanto a tela não muda, as screenshots nem chegam a ser reduzidas e codificadas
+ * (ver AutoScreenshot), e os clientes recebem apenas um MSG_KEEPALIVE por segundo.
+ *
+ * As métricas do stream são registradas com o rótulo stream.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ScreenStream implements AutoScreenshotListener {
+	/**
+	 * Intervalo mínimo entre os MSG_KEEPALIVE enviados enquanto a tela não muda
+	 */
+	private static final long KEEPALIVE_INTERVAL = 1000000000L;
+
+	private Logger logger;
+	private int id;
+	private String name;
+	private FrameSource frameSource;
+	private ExecutorService encodePool;
+	private int encodeThreads;
+	private volatile AutoScreenshot screenShooter;
+	private List<Client> clients;
+	private Map<OutputProfile, ProfileEncoder> encoders;
+	private Map<Integer, FastScaler> scalers;
+	private AutoScreenshotListener recorder;
+	private boolean skippedChanges;
+	private long lastSent;
+
+	/**
+	 * @param id número do stream, escolhido pelos clientes
+	 * @param name descrição da origem, usada nos logs e nas métricas
+	 * @param frameSource
+	 * @param encodePool pool compartilhado onde as faixas dos quadros são codificadas,
+	 *            ou null para codificar na thread do stream
+	 * @param encodeThreads quantidade de faixas codificadas em paralelo
+	 */
+	public ScreenStream(int id, String name, FrameSource frameSource, ExecutorService encodePool, int encodeThreads) {
+		this.logger = Logger.getInstance();
+		this.id = id;
+		this.name = name;
+		this.frameSource = frameSource;
+		this.encodePool = encodePool;
+		this.encodeThreads = encodeThreads;
+		this.clients = new CopyOnWriteArrayList<Client>();
+		this.encoders = new HashMap<OutputProfile, ProfileEncoder>();
+		this.scalers = new HashMap<Integer, FastScaler>();
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Retorna a área capturada
+	 *
+	 * @return Rectangle
+	 */
+	public Rectangle getBounds() {
+		return this.frameSource.getBounds();
+	}
+
+	/**
+	 * Retorna a largura original das imagens, antes da redução de cada perfil
+	 *
+	 * @return int
+	 */
+	public int getSourceWidth() {
+		return this.frameSource.getBounds().width;
+	}
+
+	/**
+	 * Descrição do stream enviada aos clientes: número, nome e área capturada
+	 *
+	 * @return String
+	 */
+	public String getDescription() {
+		Rectangle bounds = this.getBounds();
+		return String.format("%d %s %d %d %d %d", this.id, this.name, bounds.x, bounds.y, bounds.width,
+				bounds.height);
+	}
+
+	/**
+	 * Inscreve o cliente, iniciando a captura caso seja o primeiro
+	 *
+	 * @param client
+	 */
+	public synchronized void addClient(Client client) {
+		if (!this.clients.contains(client)) {
+			this.clients.add(client);
+		}
+		this.startAutoScreenshot(true);
+		this.updateCaptureSettings();
+
+		/**
+		 * O cliente novo precisa de um quadro completo, que só é gerado a partir de uma
+		 * screenshot entregue, mesmo que a tela esteja parada
+		 */
+		AutoScreenshot screenShooter = this.screenShooter;
+		screenShooter.invalidate();
+		screenShooter.getScheduler().wake();
+	}
+
+	/**
+	 * Remove o cliente, interrompendo a captura caso não reste nenhum
+	 *
+	 * @param client
+	 */
+	public synchronized void removeClient(Client client) {
+		this.clients.remove(client);
+		if (this.clients.isEmpty()) {
+			this.startAutoScreenshot(false);
+		} else {
+			this.updateCaptureSettings();
+		}
+	}
+
+	public int getClientCount() {
+		return this.clients.size();
+	}
+
+	/**
+	 * Define o listener que grava as screenshots do stream (ver SessionRecorder). Ele
+	 * recebe as screenshots depois da codificação e do envio aos clientes, e apenas
+	 * enquanto a captura está rodando. Deve ser chamado antes de o stream ter clientes.
+	 *
+	 * @param recorder
+	 */
+	public synchronized void setRecorder(AutoScreenshotListener recorder) {
+		if (this.screenShooter != null) {
+			throw new IllegalStateException("A captura do stream " + this.name + " já foi iniciada");
+		}
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Inicia ou interrompe a thread de captura. A captura só roda enquanto o stream tem
+	 * clientes, para não desperdiçar recursos do computador.
+	 */
+	private void startAutoScreenshot(boolean start) {
+		if (!start) {
+			if (this.screenShooter == null) {
+				return;
+			}
+			this.logger.info("Interrompendo Auto-Screenshot do stream " + this.name);
+			this.screenShooter.interrupt();
+			this.screenShooter = null;
+			return;
+		}
+
+		if (this.screenShooter != null) {
+			return;
+		}
+		this.logger.info("Iniciando auto screenshot do stream " + this.name);
+		this.screenShooter = new AutoScreenshot(this.frameSource, this.name);
+		this.screenShooter.addAutoScreenshotListener(this);
+		if (this.recorder != null) {
+			this.screenShooter.addAutoScreenshotListener(this.recorder);
+		}
+		this.updateCaptureSettings();
+		this.screenShooter.start();
+	}
+
+	/**
+	 * Ajusta a largura e o ritmo das screenshots aos perfis dos clientes inscritos. As
+	 * screenshots são reduzidas para a maior largura entre os perfis, e cada perfil
+	 * reduz novamente a partir dela, e são tiradas no ritmo do perfil mais rápido.
+	 */
+	public void updateCaptureSettings() {
+		AutoScreenshot screenShooter = this.screenShooter;
+		if (screenShooter == null) {
+			return;
+		}
+
+		int sourceWidth = this.getSourceWidth();
+		int maxWidth = 0;
+		int maxFps = 0;
+		for (Client client : this.clients) {
+			OutputProfile profile = client.getProfile();
+			maxWidth = Math.max(maxWidth, profile.getWidth(sourceWidth));
+			maxFps = Math.max(maxFps, profile.getFps());
+		}
+		if (maxFps == 0) {
+			return;
+		}
+
+		screenShooter.setMaxWidth(maxWidth >= sourceWidth ? OutputProfile.NATIVE_WIDTH : maxWidth);
+		screenShooter.getScheduler().setMaxFps(maxFps);
+	}
+
+	/**
+	 * Volta ao ritmo máximo de screenshots, chamado quando um cliente usa o mouse ou o
+	 * teclado, já que a tela provavelmente vai mudar. Sem isso, uma tela parada há algum
+	 * tempo só mostraria a reação ao comando na próxima screenshot do ritmo reduzido.
+	 */
+	public void wake() {
+		AutoScreenshot screenShooter = this.screenShooter;
+		if (screenShooter != null) {
+			screenShooter.getScheduler().wake();
+		}
+	}
+
+	/**
+	 * Retorna o ritmo atual das screenshots, a memória alocada por screenshot, o uso do
+	 * pool de buffers e o tempo de cada estágio em uma string formatada, ou null caso a
+	 * captura não esteja rodando
+	 *
+	 * @return String
+	 */
+	public String getCaptureStatsAsString() {
+		AutoScreenshot screenShooter = this.screenShooter;
+		return screenShooter == null ? null
+				: screenShooter.getScheduler().getStatsAsString() + ", " + screenShooter.getAllocationStatsAsString()
+						+ "\nbuffers: " + BufferPool.getInstance().getStatsAsString() + "\n"
+						+ screenShooter.getPipelineStatsAsString();
+	}
+
+	/**
+	 * Nova screenshot do stream.
+	 *
+	 * A imagem é codificada em tiles, enviando apenas os tiles alterados desde a
+	 * screenshot anterior. Caso algum cliente precise de uma imagem completa (acabou de
+	 * se inscrever ou perdeu algum quadro), o quadro completo também é gerado a partir
+	 * da mesma screenshot.
+	 *
+	 * A imagem é reduzida e codificada uma única vez para cada perfil de saída que possui
+	 * clientes inscritos, e os mesmos bytes são enviados para todos os clientes daquele
+	 * perfil, assim o custo de codificação não aumenta com a quantidade de clientes.
+	 * Perfis com menos quadros por segundo que o ritmo das screenshots pulam algumas
+	 * delas; as mudanças são acumuladas pelo codificador e enviadas no próximo quadro.
+	 *
+	 * Screenshots de uma captura já interrompida são ignoradas (ver isCurrentCapture).
+	 */
+	@Override
+	public void onScreenshot(BufferedImage image, FrameTiming timing) {
+		synchronized (this.encoders) {
+			if (this.isCurrentCapture()) {
+				this.encode(image, timing);
+			}
+		}
+	}
+
+	private void encode(BufferedImage image, FrameTiming timing) {
+		Map<OutputProfile, List<Client>> subscribers = new HashMap<OutputProfile, List<Client>>();
+		for (Client client : this.clients) {
+			List<Client> profileClients = subscribers.get(client.getProfile());
+			if (profileClients == null) {
+				subscribers.put(client.getProfile(), profileClients = new ArrayList<Client>());
+			}
+			profileClients.add(client);
+		}
+		this.releaseUnusedProfiles(subscribers);
+
+		int sourceWidth = this.getSourceWidth();
+		long now = System.nanoTime();
+		boolean changed = false;
+		boolean skipped = false;
+		boolean saturated = !subscribers.isEmpty();
+		for (Map.Entry<OutputProfile, List<Client>> entry : subscribers.entrySet()) {
+			OutputProfile profile = entry.getKey();
+			ProfileEncoder encoder = this.encoders.get(profile);
+			if (encoder == null) {
+				this.encoders.put(profile, encoder = new ProfileEncoder(profile));
+			}
+
+			boolean keyframe = false;
+			for (Client client : entry.getValue()) {
+				keyframe |= client.needsKeyframe();
+				saturated &= client.getQueueDepth() > 0;
+			}
+			if (!keyframe && !encoder.isDue(now)) {
+				skipped = true;
+				continue;
+			}
+
+			DeltaFrame frame;
+			long encodeStart = System.nanoTime();
+			try {
+				frame = encoder.encode(this.scale(image, profile.getWidth(sourceWidth)), keyframe, encodeStart);
+			} catch (IOException e) {
+				this.logger.printStackTrace(e);
+				continue;
+			}
+			encoder.record(frame, System.nanoTime() - encodeStart);
+			changed |= frame.getChangedTiles() > 0;
+			frame.setTiming(timing.withEncoded(Clock.micros()));
+
+			for (Client client : entry.getValue()) {
+				client.sendFrame(this.id, frame);
+			}
+			frame.release();
+		}
+		this.skippedChanges = skipped;
+		if (changed) {
+			this.lastSent = now;
+		}
+
+		/**
+		 * Informa ao agendador se a tela mudou e se algum cliente está conseguindo acompanhar,
+		 * para que o ritmo das screenshots seja ajustado
+		 */
+		AutoScreenshot screenShooter = this.screenShooter;
+		if (screenShooter != null) {
+			screenShooter.getScheduler().reportFrame(changed);
+			screenShooter.getScheduler().reportBackpressure(saturated);
+		}
+	}
+
+	/**
+	 * Screenshot igual à anterior: nada é codificado, e os clientes recebem no máximo um
+	 * MSG_KEEPALIVE por segundo, que substitui um anterior ainda não enviado.
+	 *
+	 * A próxima screenshot é pedida mesmo sem mudanças caso algum perfil tenha pulado a
+	 * última screenshot entregue (ele ainda não enviou a última mudança) ou algum cliente
+	 * precise de um quadro completo.
+	 */
+	@Override
+	public boolean onUnchanged(FrameTiming timing) {
+		synchronized (this.encoders) {
+			return this.isCurrentCapture() && this.keepAlive(timing);
+		}
+	}
+
+	private boolean keepAlive(FrameTiming timing) {
+		long now = System.nanoTime();
+		boolean keyframe = false;
+		for (Client client : this.clients) {
+			keyframe |= client.needsKeyframe();
+		}
+
+		if (now - this.lastSent >= KEEPALIVE_INTERVAL) {
+			this.lastSent = now;
+			byte[] payload = ByteBuffer.allocate(16).putLong(timing.getSequence()).putLong(timing.getCapture())
+					.array();
+			for (Client client : this.clients) {
+				client.sendLatestMessage(Protocol.MSG_KEEPALIVE, payload);
+			}
+		}
+
+		AutoScreenshot screenShooter = this.screenShooter;
+		if (screenShooter != null) {
+			screenShooter.getScheduler().reportFrame(false);
+		}
+		return this.skippedChanges || keyframe;
+	}
+
+	/**
+	 * Indica se a screenshot foi entregue pela captura atual do stream. Quando o último
+	 * cliente sai, a captura é interrompida mas ainda pode entregar uma ou duas
+	 * screenshots, e se um cliente chegar nesse meio tempo uma nova captura é iniciada.
+	 * As screenshots da captura anterior são ignoradas, e o monitor de encoders impede que
+	 * as duas threads usem os codificadores ao mesmo tempo.
+	 */
+	private boolean isCurrentCapture() {
+		AutoScreenshot screenShooter = this.screenShooter;
+		return screenShooter != null && screenShooter.isDispatcherThread();
+	}
+
+	/**
+	 * Reduz a screenshot para a largura do perfil, mantendo a proporção. Perfis com a
+	 * mesma largura da screenshot usam a própria imagem.
+	 */
+	private BufferedImage scale(BufferedImage image, int width) {
+		if (width >= image.getWidth()) {
+			return image;
+		}
+
+		FastScaler scaler = this.scalers.get(width);
+		if (scaler == null) {
+			scaler = new FastScaler(FastScaler.Filter.BOX, this.encodePool, this.encodeThreads, 1);
+			this.scalers.put(width, scaler);
+		}
+		int height = (int) ((long) image.getHeight() * width / image.getWidth());
+		return scaler.scale(image, width, height);
+	}
+
+	/**
+	 * Descarta os codificadores e as métricas dos perfis que não possuem mais clientes
+	 */
+	private void releaseUnusedProfiles(Map<OutputProfile, List<Client>> subscribers) {
+		Iterator<OutputProfile> iterator = this.encoders.keySet().iterator();
+		while (iterator.hasNext()) {
+			OutputProfile profile = iterator.next();
+			if (!subscribers.containsKey(profile)) {
+				iterator.remove();
+				MetricsRegistry.getInstance().remove("stream", this.name, "profile", profile.toString());
+				this.logger.info("Perfil sem clientes descartado: " + profile + " (stream " + this.name + ")");
+			}
+		}
+		if (this.encoders.isEmpty()) {
+			this.scalers.clear();
+		}
+	}
+
+	/**
+	 * Codificador e métricas de um perfil de saída
+	 */
+	private class ProfileEncoder {
+		private OutputProfile profile;
+		private TileDeltaEncoder encoder;
+		private long interval;
+		private long nextEncode;
+		private LatencyHistogram encodeTime;
+		private Counter encodedFrames;
+		private Counter encodedBytes;
+		private Counter copies;
+
+		public ProfileEncoder(OutputProfile profile) {
+			ScreenStream stream = ScreenStream.this;
+			this.profile = profile;
+			this.encoder = new TileDeltaEncoder(TileCodecs.create(profile.getCodec(), profile.getTier()),
+					TileDeltaEncoder.DEFAULT_TILE_SIZE, stream.encodePool, stream.encodeThreads);
+
+			this.interval = 1000000000L / profile.getFps();
+
+			MetricsRegistry registry = MetricsRegistry.getInstance();
+			String name = profile.toString();
+			this.encodeTime = registry.histogram("remotedesktop_encode_seconds",
+					"Tempo de codificação de uma screenshot", "stream", stream.name, "profile", name);
+			this.encodedFrames = registry.counter("remotedesktop_frames_encoded_total",
+					"Quadros codificados, parciais e completos", "stream", stream.name, "profile", name);
+			this.encodedBytes = registry.counter("remotedesktop_encoded_bytes_total",
+					"Bytes dos quadros codificados", "stream", stream.name, "profile", name);
+			this.copies = registry.counter("remotedesktop_copy_rects_total",
+					"Blocos deslocados enviados como cópia em vez de pixels", "stream", stream.name, "profile", name);
+		}
+
+		/**
+		 * Indica se chegou o momento do próximo quadro do perfil. Screenshots um pouco
+		 * adiantadas são aceitas, para que a variação no ritmo das capturas não faça um
+		 * perfil com o mesmo ritmo pular quadros.
+		 */
+		public boolean isDue(long now) {
+			return now - this.nextEncode >= -this.interval / 4;
+		}
+
+		/**
+		 * Codifica a imagem e agenda o próximo quadro um intervalo depois do agendado
+		 * para este, sem acumular atraso quando as screenshots estão mais lentas. O
+		 * quadro leva o perfil, para que um cliente que acabou de trocar de perfil o
+		 * descarte.
+		 */
+		public DeltaFrame encode(BufferedImage image, boolean keyframe, long now) throws IOException {
+			this.nextEncode = Math.max(this.nextEncode, now - this.interval) + this.interval;
+			DeltaFrame frame = this.encoder.encode(image, keyframe);
+			frame.setProfile(this.profile);
+			return frame;
+		}
+
+		/**
+		 * Registra o tempo da codificação e os quadros gerados por ela
+		 */
+		public void record(DeltaFrame frame, long nanos) {
+			this.encodeTime.record(nanos);
+			if (frame.getDelta() != null) {
+				this.encodedFrames.increment();
+				this.encodedBytes.add(frame.getDelta().getLength());
+				this.copies.add(frame.getCopies());
+			}
+			if (frame.getKeyframe() != null) {
+				this.encodedFrames.increment();
+				this.encodedBytes.add(frame.getKeyframe().getLength());
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package remotedesktop.server.client;
+
+import static remotedesktop.server.test.Tests.check;
+import static remotedesktop.server.test.Tests.checkEquals;
+
+import remotedesktop.server.delta.DeltaFrame;
+import remotedesktop.server.delta.EncodedFrame;
+import remotedesktop.server.profile.OutputProfile;
+import remotedesktop.server.profile.OutputProfiles;
+import remotedesktop.server.test.Tests;
+
+/**
+ * Testes da escolha dos quadros enviados a um cliente. O cliente não é iniciado, então
+ * os quadros aceitos ficam na fila de envio.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ClientTest {
+	private static final OutputProfile SMALL = OutputProfiles.degrade(OutputProfiles.DEFAULT, 1920);
+
+	public static void main(String[] args) {
+		run();
+		Tests.finish();
+	}
+
+	public static void run() {
+		Tests.run("cliente: quadro do perfil anterior é descartado depois da troca de perfil", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				check(!SMALL.equals(OutputProfiles.DEFAULT), "os perfis deveriam ser diferentes");
+				Client client = new Client(null, null);
+				client.setProfile(SMALL);
+
+				client.sendFrame(0, keyframe(OutputProfiles.DEFAULT));
+				checkEquals(0, client.getQueueDepth(), "quadros na fila");
+				check(client.needsKeyframe(), "o cliente deveria continuar aguardando um quadro completo");
+
+				client.sendFrame(0, keyframe(SMALL));
+				checkEquals(1, client.getQueueDepth(), "quadros na fila");
+				check(!client.needsKeyframe(), "o quadro completo do perfil novo deveria ser aceito");
+			}
+		});
+
+		Tests.run("cliente: quadro de outro stream é descartado", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				Client client = new Client(null, null);
+				client.setStreamId(1);
+
+				client.sendFrame(0, keyframe(OutputProfiles.DEFAULT));
+				checkEquals(0, client.getQueueDepth(), "quadros na fila");
+				client.sendFrame(1, keyframe(OutputProfiles.DEFAULT));
+				checkEquals(1, client.getQueueDepth(), "quadros na fila");
+			}
+		});
+	}
+
+	private static DeltaFrame keyframe(OutputProfile profile) {
+		DeltaFrame frame = new DeltaFrame(null, new EncodedFrame(new byte[] { 0, 1, 2, 3 }), 1, 0);
+		frame.setProfile(profile);
+		return frame;
+	}
+}
@@ -0,0 +1,226 @@
+package remotedesktop.server.delta;
+
+import static remotedesktop.server.test.Tests.check;
+import static remotedesktop.server.test.Tests.checkEquals;
+import static remotedesktop.server.test.Tests.checkPixels;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import remotedesktop.client.delta.DeltaDecoder;
+import remotedesktop.server.codec.TileCodec;
+import remotedesktop.server.codec.TileCodecs;
+import remotedesktop.server.test.Tests;
+
+/**
+ * Testes de ida e volta do formato por tiles: o que o TileDeltaEncoder do servidor
+ * codifica, o DeltaDecoder do cliente deve reconstruir.
+ *
+ * Com os codecs sem perdas a imagem decodificada é a própria screenshot. Com os codecs
+ * com perdas ela é comparada com a decodificação do quadro completo gerado junto com o
+ * parcial, que deve ser igual à dos quadros parciais aplicados desde o início.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class DeltaCodecTest {
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 320;
+	private static final int FRAMES = 12;
+
+	public static void main(String[] args) {
+		run();
+		Tests.finish();
+	}
+
+	public static void run() {
+		for (final String codec : new String[] { "raw", "png", "palette" }) {
+			Tests.run("codec " + codec + ": quadros parciais reconstroem cada screenshot", new Tests.Case() {
+				@Override
+				public void run() throws Exception {
+					List<BufferedImage> images = new ArrayList<BufferedImage>();
+					List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+					TileDeltaEncoder encoder = new TileDeltaEncoder(TileCodecs.create(codec, QualityTier.TRUE_COLOR));
+					Frames.session(encoder, WIDTH - 17, HEIGHT - 9, FRAMES, 0, images, frames);
+
+					DeltaDecoder decoder = new DeltaDecoder();
+					for (int i = 0; i < FRAMES; i++) {
+						EncodedFrame frame = frames.get(i);
+						checkPixels(images.get(i), decoder.decode(frame.getData(), 0, frame.getLength()),
+								"quadro " + i);
+					}
+				}
+			});
+		}
+
+		for (final String codec : new String[] { "raw", "jpeg", "auto" }) {
+			for (final QualityTier tier : QualityTier.values()) {
+				if (!codec.equals("raw") && tier != QualityTier.TRUE_COLOR) {
+					continue;
+				}
+				Tests.run("codec " + codec + " " + tier + ": quadros parciais igual ao quadro completo",
+						new Tests.Case() {
+							@Override
+							public void run() throws Exception {
+								TileCodec tileCodec = TileCodecs.create(codec, tier);
+								checkKeyframeEquivalence(tileCodec.getName(), new TileDeltaEncoder(tileCodec));
+							}
+						});
+			}
+		}
+
+		Tests.run("codificação em faixas paralelas gera os mesmos bytes", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				ExecutorService executor = Executors.newFixedThreadPool(3);
+				try {
+					TileDeltaEncoder serial = new TileDeltaEncoder(TileCodecs.create("raw", QualityTier.TRUE_COLOR));
+					TileDeltaEncoder parallel = new TileDeltaEncoder(TileCodecs.create("raw", QualityTier.TRUE_COLOR),
+							TileDeltaEncoder.DEFAULT_TILE_SIZE, executor, 4);
+					List<BufferedImage> images = new ArrayList<BufferedImage>();
+					List<EncodedFrame> expected = new ArrayList<EncodedFrame>();
+					List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+					Frames.session(serial, 800, 600, 6, 4, images, expected);
+					Frames.session(parallel, 800, 600, 6, 4, new ArrayList<BufferedImage>(), frames);
+
+					for (int i = 0; i < expected.size(); i++) {
+						check(Arrays.equals(expected.get(i).getData(), frames.get(i).getData()),
+								"bytes diferentes no quadro " + i);
+					}
+					checkPixels(images.get(images.size() - 1),
+							Frames.decodeEach(frames.toArray(new EncodedFrame[0])), "último quadro");
+				} finally {
+					executor.shutdown();
+				}
+			}
+		});
+
+		Tests.run("rolagem: cópias de blocos reconstroem cada screenshot", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				List<BufferedImage> images = new ArrayList<BufferedImage>();
+				List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+				int copies = Frames.scrollingSession(WIDTH, HEIGHT, FRAMES, images, frames);
+				check(copies >= 2, "a sequência deveria ter cópias, tem " + copies);
+
+				DeltaDecoder decoder = new DeltaDecoder();
+				for (int i = 0; i < FRAMES; i++) {
+					EncodedFrame frame = frames.get(i);
+					checkPixels(images.get(i), decoder.decode(frame.getData(), 0, frame.getLength()), "quadro " + i);
+				}
+			}
+		});
+
+		for (final boolean motion : new boolean[] { false, true }) {
+			Tests.run("lotes: qualquer divisão da sequência dá a mesma imagem" + (motion ? ", com cópias" : ""),
+					new Tests.Case() {
+						@Override
+						public void run() throws Exception {
+							checkBatches(motion);
+						}
+					});
+		}
+
+		Tests.run("resolução: parcial sem base compatível é ignorado, completo recria a imagem", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				TileDeltaEncoder encoder = new TileDeltaEncoder(QualityTier.TRUE_COLOR);
+				BufferedImage small = Frames.document(200, 100, 0, 1);
+				BufferedImage large = Frames.document(300, 150, 0, 2);
+				EncodedFrame first = encode(encoder, small, true);
+				BufferedImage changed = Frames.document(200, 100, 0, 1);
+				Frames.paint(changed, 10, 10, 20, 20, 0xFF0000);
+				EncodedFrame delta = encode(encoder, changed, false);
+				EncodedFrame resized = encode(encoder, large, false);
+				check(resized.getData()[0] == DeltaProtocol.KEYFRAME,
+						"a mudança de resolução deveria gerar um quadro completo");
+
+				DeltaDecoder decoder = new DeltaDecoder();
+				check(decoder.decode(delta.getData(), 0, delta.getLength()) == null, "parcial sem base");
+				checkPixels(small, decoder.decode(first.getData(), 0, first.getLength()), "completo");
+				checkPixels(changed, decoder.decode(delta.getData(), 0, delta.getLength()), "parcial");
+				checkPixels(large, decoder.decode(resized.getData(), 0, resized.getLength()), "nova resolução");
+				check(decoder.decode(delta.getData(), 0, delta.getLength()) == null, "parcial da resolução anterior");
+			}
+		});
+	}
+
+	/**
+	 * Cada screenshot é codificada pedindo também o quadro completo, como acontece
+	 * quando um cliente entra no meio do stream: a imagem desse cliente deve ser a mesma
+	 * dos clientes que receberam todos os quadros parciais. A detecção de blocos
+	 * deslocados é desativada, já que com perdas a cópia de um bloco já decodificado não
+	 * é igual ao bloco codificado de novo.
+	 */
+	private static void checkKeyframeEquivalence(String name, TileDeltaEncoder encoder) throws Exception {
+		encoder.setMotionDetection(false);
+		DeltaDecoder decoder = new DeltaDecoder();
+		int firstRow = 0;
+		for (int i = 0; i < FRAMES; i++) {
+			firstRow += 8 + i % 4 * 8;
+			BufferedImage image = Frames.document(WIDTH, HEIGHT, firstRow, 1);
+			Frames.paint(image, i * 37 % (WIDTH - 48), i * 53 % (HEIGHT - 40), 48, 40, i * 0x10F0F);
+
+			DeltaFrame frame = encoder.encode(image, true);
+			try {
+				EncodedFrame applied = frame.getDelta() != null ? frame.getDelta() : frame.getKeyframe();
+				BufferedImage decoded = decoder.decode(applied.getData(), 0, applied.getLength());
+				checkPixels(Frames.decodeEach(frame.getKeyframe()), decoded, name + ", quadro " + i);
+			} finally {
+				frame.release();
+			}
+		}
+	}
+
+	/**
+	 * Divide a sequência em lotes de todos os tamanhos, com quadros completos em
+	 * posições que caem no início, no meio e no fim dos lotes, e confere a imagem no fim
+	 * de cada lote. Sem cópias, os lotes usam o caminho que aplica cada posição de tile
+	 * uma única vez, do quadro mais novo para o mais antigo.
+	 */
+	private static void checkBatches(boolean motion) throws Exception {
+		TileDeltaEncoder encoder = new TileDeltaEncoder(QualityTier.TRUE_COLOR);
+		encoder.setMotionDetection(motion);
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+		int copies = Frames.session(encoder, WIDTH, HEIGHT, FRAMES, 5, images, frames);
+		checkEquals(motion, copies > 0, "cópias na sequência");
+
+		int skippedTiles = 0;
+		int skippedFrames = 0;
+		for (int size = 1; size <= FRAMES; size++) {
+			for (int offset = 0; offset < size; offset++) {
+				DeltaDecoder decoder = new DeltaDecoder();
+				int start = 0;
+				int end = offset == 0 ? size : offset;
+				while (start < FRAMES) {
+					end = Math.min(end, FRAMES);
+					EncodedFrame[] batch = frames.subList(start, end).toArray(new EncodedFrame[0]);
+					checkPixels(images.get(end - 1), Frames.decodeBatch(decoder, batch),
+							"lote " + start + " a " + (end - 1) + " (tamanho " + size + ")");
+					skippedTiles += decoder.getSkippedTiles();
+					skippedFrames += decoder.getSkippedFrames();
+					start = end;
+					end = start + size;
+				}
+			}
+		}
+		if (!motion) {
+			check(skippedTiles > 0, "nenhum tile foi ignorado pelos lotes");
+		}
+		check(skippedFrames > 0, "nenhum quadro anterior a um completo foi ignorado");
+	}
+
+	private static EncodedFrame encode(TileDeltaEncoder encoder, BufferedImage image, boolean keyframe)
+			throws Exception {
+		DeltaFrame frame = encoder.encode(image, keyframe);
+		try {
+			return Frames.copy(frame.getKeyframe() != null ? frame.getKeyframe() : frame.getDelta());
+		} finally {
+			frame.release();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package remotedesktop.server.delta;
+
+import static remotedesktop.server.test.Tests.check;
+import static remotedesktop.server.test.Tests.checkEquals;
+import static remotedesktop.server.test.Tests.checkPixels;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import remotedesktop.server.test.Tests;
+
+/**
+ * Testes do DeltaMerger: aplicar o quadro resultante de uma junção deve dar a mesma
+ * imagem que aplicar os quadros um a um, inclusive quando há cópias de blocos.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class DeltaMergerTest {
+	private static final int WIDTH = 256;
+	private static final int HEIGHT = 128;
+
+	public static void main(String[] args) {
+		run();
+		Tests.finish();
+	}
+
+	public static void run() {
+		Tests.run("merge: tile lido por uma cópia não é descartado", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				BufferedImage base = Frames.document(WIDTH, HEIGHT, 0, 1);
+				BufferedImage b = Frames.document(WIDTH, HEIGHT, 0, 2);
+				BufferedImage c = Frames.document(WIDTH, HEIGHT, 0, 3);
+				EncodedFrame k = keyframe(base);
+				EncodedFrame p = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(b, 0, 0, 64, 64).finish();
+				EncodedFrame q = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).copy(0, 0, 64, 0, 64, 64)
+						.finish();
+				EncodedFrame r = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(c, 0, 0, 64, 64).finish();
+
+				BufferedImage expected = Frames.decodeEach(k, p, q, r);
+				check(expected.getRGB(64, 0) == b.getRGB(0, 0), "a cópia deve ler o tile de p");
+				checkPixels(expected, Frames.decodeEach(k, DeltaMerger.merge(DeltaMerger.merge(p, q), r)),
+						"merge(merge(p, q), r)");
+				checkPixels(expected, Frames.decodeEach(k, DeltaMerger.merge(p, DeltaMerger.merge(q, r))),
+						"merge(p, merge(q, r))");
+			}
+		});
+
+		Tests.run("merge: tiles depois da última cópia são substituídos", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				BufferedImage base = Frames.document(WIDTH, HEIGHT, 0, 1);
+				BufferedImage b = Frames.document(WIDTH, HEIGHT, 0, 2);
+				BufferedImage c = Frames.document(WIDTH, HEIGHT, 0, 3);
+				EncodedFrame k = keyframe(base);
+				EncodedFrame p = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(b, 128, 0, 64, 64)
+						.copy(128, 0, 0, 64, 64, 64).tile(b, 0, 0, 64, 64).finish();
+				EncodedFrame r = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(c, 0, 0, 64, 64).finish();
+
+				EncodedFrame merged = DeltaMerger.merge(p, r);
+				checkEquals(3, recordCount(merged), "registros do quadro resultante");
+				checkPixels(Frames.decodeEach(k, p, r), Frames.decodeEach(k, merged), "merge(p, r)");
+			}
+		});
+
+		Tests.run("merge: cópia no segundo quadro mantém todos os tiles do primeiro", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				BufferedImage base = Frames.document(WIDTH, HEIGHT, 0, 1);
+				BufferedImage b = Frames.document(WIDTH, HEIGHT, 0, 2);
+				BufferedImage c = Frames.document(WIDTH, HEIGHT, 0, 3);
+				EncodedFrame k = keyframe(base);
+				EncodedFrame p = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(b, 0, 0, 64, 64).finish();
+				EncodedFrame q = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).copy(0, 0, 64, 0, 64, 64)
+						.tile(c, 0, 0, 64, 64).finish();
+
+				EncodedFrame merged = DeltaMerger.merge(p, q);
+				checkEquals(3, recordCount(merged), "registros do quadro resultante");
+				checkPixels(Frames.decodeEach(k, p, q), Frames.decodeEach(k, merged), "merge(p, q)");
+			}
+		});
+
+		Tests.run("merge: resoluções diferentes não são juntadas", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				BufferedImage b = Frames.document(WIDTH, HEIGHT, 0, 2);
+				EncodedFrame p = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT).tile(b, 0, 0, 64, 64).finish();
+				EncodedFrame q = new Frames.Writer(DeltaProtocol.DELTA, WIDTH, HEIGHT * 2).tile(b, 0, 0, 64, 64)
+						.finish();
+				check(DeltaMerger.merge(p, q) == null, "o resultado deveria ser null");
+			}
+		});
+
+		Tests.run("merge: qualquer sequência de quadros do codificador, com rolagens", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				List<BufferedImage> images = new ArrayList<BufferedImage>();
+				List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+				int copies = Frames.scrollingSession(320, 320, 12, images, frames);
+				check(copies >= 2, "a sequência deveria ter cópias, tem " + copies);
+
+				// Os quadros i..j juntos, depois dos quadros 0..i-1 aplicados um a um
+				for (int i = 1; i < frames.size(); i++) {
+					EncodedFrame merged = frames.get(i);
+					for (int j = i; j < frames.size(); j++) {
+						if (j > i) {
+							merged = DeltaMerger.merge(merged, frames.get(j));
+						}
+						List<EncodedFrame> applied = new ArrayList<EncodedFrame>(frames.subList(0, i));
+						applied.add(merged);
+						checkPixels(images.get(j), Frames.decodeEach(applied.toArray(new EncodedFrame[0])),
+								"quadros " + i + " a " + j + " juntos");
+					}
+				}
+			}
+		});
+	}
+
+	private static EncodedFrame keyframe(BufferedImage image) throws Exception {
+		DeltaFrame frame = new TileDeltaEncoder(QualityTier.TRUE_COLOR).encode(image, true);
+		try {
+			return Frames.copy(frame.getKeyframe());
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static int recordCount(EncodedFrame frame) {
+		byte[] data = frame.getData();
+		return (data[10] & 0xFF) << 24 | (data[11] & 0xFF) << 16 | (data[12] & 0xFF) << 8 | (data[13] & 0xFF);
+	}
+}
@@ -0,0 +1,209 @@
+package remotedesktop.server.delta;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import remotedesktop.client.delta.DeltaDecoder;
+import remotedesktop.server.codec.RawDeflateCodec;
+import remotedesktop.server.codec.TileEncoder;
+import remotedesktop.server.memory.BufferPool;
+
+/**
+ * Imagens e quadros usados pelos testes do formato por tiles.
+ *
+ * As imagens são um "documento" de linhas diferentes entre si, exibido a partir de
+ * uma linha inicial, de forma que uma rolagem desloca as linhas como em um terminal e
+ * o MotionDetector consegue encontrá-la. Os quadros são decodificados pelo
+ * DeltaDecoder do cliente, que é o que define o resultado esperado.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+final class Frames {
+	private Frames() {
+	}
+
+	/**
+	 * Imagem do documento a partir da linha informada. Documentos com sementes
+	 * diferentes não têm nenhuma linha em comum.
+	 */
+	static BufferedImage document(int width, int height, int firstRow, int seed) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			int row = (firstRow + y) * 31 + seed * 1000003;
+			for (int x = 0; x < width; x++) {
+				int value = row * 0x9E3779B1 ^ x * 0x85EBCA77;
+				image.setRGB(x, y, (value ^ value >>> 15) & 0xFFFFFF);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Pinta um retângulo de cor sólida na imagem, simulando a mudança de uma área
+	 * pequena da tela
+	 */
+	static void paint(BufferedImage image, int x, int y, int w, int h, int color) {
+		for (int row = y; row < y + h; row++) {
+			for (int column = x; column < x + w; column++) {
+				image.setRGB(column, row, color);
+			}
+		}
+	}
+
+	/**
+	 * Codifica uma sessão de um terminal sem perdas, com um único quadro completo no
+	 * início (ver session)
+	 */
+	static int scrollingSession(int width, int height, int count, List<BufferedImage> images,
+			List<EncodedFrame> frames) throws IOException {
+		return session(new TileDeltaEncoder(QualityTier.TRUE_COLOR), width, height, count, 0, images, frames);
+	}
+
+	/**
+	 * Codifica uma sessão de um terminal: a cada quadro o documento rola algumas linhas,
+	 * uma área pequena muda, ou os dois. O primeiro quadro é completo, e também os
+	 * quadros múltiplos de keyframeInterval quando ele é positivo; os demais são
+	 * parciais.
+	 *
+	 * @param images recebe as screenshots, na ordem
+	 * @param frames recebe os quadros de cada screenshot
+	 * @return int quantidade de cópias de blocos nos quadros parciais
+	 */
+	static int session(TileDeltaEncoder encoder, int width, int height, int count, int keyframeInterval,
+			List<BufferedImage> images, List<EncodedFrame> frames) throws IOException {
+		int copies = 0;
+		int firstRow = 0;
+		for (int i = 0; i < count; i++) {
+			if (i % 3 != 2) {
+				firstRow += 8 + i % 4 * 8;
+			}
+			BufferedImage image = document(width, height, firstRow, 1);
+			if (i % 3 != 1) {
+				paint(image, i * 37 % (width - 48), i * 53 % (height - 40), 48, 40, i * 0x10F0F);
+			}
+
+			boolean keyframe = i == 0 || keyframeInterval > 0 && i % keyframeInterval == 0;
+			DeltaFrame frame = encoder.encode(image, keyframe);
+			try {
+				images.add(image);
+				frames.add(copy(keyframe ? frame.getKeyframe() : frame.getDelta()));
+				if (!keyframe) {
+					copies += frame.getCopies();
+				}
+			} finally {
+				frame.release();
+			}
+		}
+		return copies;
+	}
+
+	/**
+	 * Copia os bytes do quadro para um array próprio, para que o quadro continue válido
+	 * depois que o DeltaFrame for liberado e o array voltar ao pool
+	 */
+	static EncodedFrame copy(EncodedFrame frame) {
+		return new EncodedFrame(Arrays.copyOf(frame.getData(), frame.getLength()));
+	}
+
+	/**
+	 * Aplica os quadros um a um em um decodificador novo e retorna uma cópia da imagem
+	 */
+	static BufferedImage decodeEach(EncodedFrame... frames) throws IOException {
+		DeltaDecoder decoder = new DeltaDecoder();
+		BufferedImage image = null;
+		for (EncodedFrame frame : frames) {
+			image = decoder.decode(frame.getData(), 0, frame.getLength());
+		}
+		return snapshot(image);
+	}
+
+	/**
+	 * Aplica os quadros de uma vez, como o cliente faz quando está atrasado. Cada quadro
+	 * fica no meio de um array maior, como nas mensagens lidas pelo cliente.
+	 */
+	static BufferedImage decodeBatch(DeltaDecoder decoder, EncodedFrame... frames) throws IOException {
+		byte[][] data = new byte[frames.length][];
+		int[] offsets = new int[frames.length];
+		int[] lengths = new int[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			offsets[i] = 5 + i;
+			lengths[i] = frames[i].getLength();
+			data[i] = new byte[offsets[i] + lengths[i] + 3];
+			System.arraycopy(frames[i].getData(), 0, data[i], offsets[i], lengths[i]);
+		}
+		return snapshot(decoder.decode(data, offsets, lengths, frames.length));
+	}
+
+	static BufferedImage snapshot(BufferedImage image) {
+		if (image == null) {
+			return null;
+		}
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		copy.setData(image.getRaster());
+		return copy;
+	}
+
+	/**
+	 * Monta um quadro registro a registro, com os tiles comprimidos pelo codec sem
+	 * perdas
+	 */
+	static class Writer {
+		private FrameBuffer buffer;
+		private TileEncoder encoder;
+		private int count;
+
+		Writer(int type, int width, int height) {
+			this.buffer = new FrameBuffer(BufferPool.getInstance());
+			this.buffer.start(4096);
+			this.buffer.writeByte(type);
+			this.buffer.writeByte(DeltaProtocol.FORMAT_RGB888);
+			this.buffer.writeInt(width);
+			this.buffer.writeInt(height);
+			this.buffer.writeInt(0);
+			this.encoder = new RawDeflateCodec(QualityTier.TRUE_COLOR)
+					.createEncoder(TileDeltaEncoder.DEFAULT_TILE_SIZE);
+		}
+
+		/**
+		 * Tile com os pixels da imagem na mesma posição
+		 */
+		Writer tile(BufferedImage image, int x, int y, int w, int h) throws IOException {
+			int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+			this.header(DeltaProtocol.OP_TILE, x, y, w, h);
+			int start = this.buffer.getLength();
+			this.encoder.encode(pixels, y * image.getWidth() + x, image.getWidth(), w, h, this.buffer);
+			this.buffer.putInt(start - 4, this.buffer.getLength() - start);
+			return this;
+		}
+
+		Writer copy(int sourceX, int sourceY, int x, int y, int w, int h) {
+			this.header(DeltaProtocol.OP_COPY, x, y, w, h);
+			this.buffer.putInt(this.buffer.getLength() - 4, 4);
+			this.buffer.writeShort(sourceX);
+			this.buffer.writeShort(sourceY);
+			return this;
+		}
+
+		EncodedFrame finish() {
+			this.buffer.putInt(10, this.count);
+			EncodedFrame frame = this.buffer.finish();
+			try {
+				return Frames.copy(frame);
+			} finally {
+				frame.release();
+			}
+		}
+
+		private void header(int op, int x, int y, int w, int h) {
+			this.buffer.writeByte(op);
+			this.buffer.writeShort(x);
+			this.buffer.writeShort(y);
+			this.buffer.writeShort(w);
+			this.buffer.writeShort(h);
+			this.buffer.writeInt(0);
+			this.count++;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package remotedesktop.server.input;
+
+import static remotedesktop.server.test.Tests.check;
+import static remotedesktop.server.test.Tests.checkEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import remotedesktop.server.Protocol;
+import remotedesktop.server.network.CommandReader;
+import remotedesktop.server.network.Connection;
+import remotedesktop.server.network.ConnectionListener;
+import remotedesktop.server.test.Tests;
+
+/**
+ * Testes do canal de entrada: a separação dos comandos pelo CommandReader e a ordem,
+ * a junção dos movimentos e a liberação das teclas pelo InputDispatcher, conferidas
+ * com um RecordingInputSink.
+ *
+ * Nos testes de junção os comandos são colocados na fila antes da thread do
+ * InputDispatcher iniciar, como quando o InputSink está atrasado.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class InputDispatcherTest {
+	private static final long TIMEOUT = 5000;
+
+	public static void main(String[] args) {
+		run();
+		Tests.finish();
+	}
+
+	public static void run() {
+		Tests.run("input: comandos binários e de texto mantêm a ordem, byte a byte", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				bytes.write("STREAM 1\n".getBytes("UTF-8"));
+				bytes.write(new byte[] { Protocol.INPUT_POINTER_MOVE, 0x10, 0x00, 0x20, 0x00 });
+				bytes.write(new byte[] { Protocol.INPUT_POINTER_BUTTON, 1, 1 });
+				bytes.write(new byte[] { Protocol.INPUT_KEY, 0, 65, 1 });
+				bytes.write("PING\r\n".getBytes("UTF-8"));
+				bytes.write(new byte[] { Protocol.INPUT_WHEEL, (byte) 0xFF, (byte) 0xFD });
+				bytes.write(new byte[] { Protocol.INPUT_KEY, 0, 65, 0 });
+				bytes.write(new byte[] { Protocol.INPUT_POINTER_BUTTON, 1, 0 });
+
+				RecordingInputSink sink = new RecordingInputSink();
+				final InputDispatcher dispatcher = new InputDispatcher(sink);
+				final List<String> lines = new ArrayList<String>();
+				CommandReader reader = new CommandReader(null, new Listener() {
+					@Override
+					public void onCommand(Connection connection, String command) {
+						lines.add(command);
+					}
+
+					@Override
+					public void onInput(Connection connection, InputCommand command) {
+						dispatcher.offer(this, command);
+					}
+				});
+				dispatcher.start();
+				try {
+					byte[] data = bytes.toByteArray();
+					for (int i = 0; i < data.length; i++) {
+						reader.read(data, i, 1);
+					}
+					check(sink.awaitEvents(6, TIMEOUT), "comandos não executados: " + sink.getEvents());
+					checkEquals(Arrays.asList("STREAM 1", "PING"), lines, "linhas de texto");
+					checkEquals(Arrays.asList("move 4096,8192", "button 1 down", "key 65 down", "wheel -3", "key 65 up",
+							"button 1 up"), sink.getEvents(), "comandos executados");
+				} finally {
+					dispatcher.interrupt();
+				}
+			}
+		});
+
+		Tests.run("input: movimentos são juntados apenas com os do mesmo cliente", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				Object a = "a", b = "b";
+				RecordingInputSink sink = new RecordingInputSink();
+				InputDispatcher dispatcher = new InputDispatcher(sink);
+				dispatcher.offer(a, move(1, 1));
+				dispatcher.offer(a, move(2, 2));
+				dispatcher.offer(b, move(3, 3));
+				dispatcher.offer(a, move(4, 4));
+				dispatcher.offer(a, InputCommand.pointerButton(1, true, System.nanoTime()));
+				dispatcher.offer(a, move(5, 5));
+				dispatcher.offer(b, move(6, 6));
+				dispatcher.start();
+				try {
+					check(sink.awaitEvents(4, TIMEOUT), "comandos não executados: " + sink.getEvents());
+					Thread.sleep(50);
+					checkEquals(Arrays.asList("move 4,4", "move 6,6", "button 1 down", "move 5,5"), sink.getEvents(),
+							"comandos executados");
+				} finally {
+					dispatcher.interrupt();
+				}
+			}
+		});
+
+		Tests.run("input: movimento já executado não recebe posições novas", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				RecordingInputSink sink = new RecordingInputSink();
+				InputDispatcher dispatcher = new InputDispatcher(sink);
+				dispatcher.start();
+				try {
+					dispatcher.offer("a", move(1, 1));
+					check(sink.awaitEvents(1, TIMEOUT), "primeiro movimento não executado");
+					dispatcher.offer("a", move(2, 2));
+					check(sink.awaitEvents(2, TIMEOUT), "segundo movimento não executado");
+					checkEquals(Arrays.asList("move 1,1", "move 2,2"), sink.getEvents(), "comandos executados");
+				} finally {
+					dispatcher.interrupt();
+				}
+			}
+		});
+
+		Tests.run("input: desconexão solta apenas as teclas do cliente", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				Object a = "a", b = "b";
+				RecordingInputSink sink = new RecordingInputSink();
+				InputDispatcher dispatcher = new InputDispatcher(sink);
+				long now = System.nanoTime();
+				dispatcher.offer(a, InputCommand.key(16, true, now));
+				dispatcher.offer(a, InputCommand.key(65, true, now));
+				dispatcher.offer(a, InputCommand.key(65, false, now));
+				dispatcher.offer(a, InputCommand.pointerButton(1, true, now));
+				dispatcher.offer(b, InputCommand.key(16, true, now));
+				dispatcher.offer(b, InputCommand.key(17, true, now));
+				dispatcher.release(a);
+				dispatcher.release(a);
+				dispatcher.start();
+				try {
+					check(sink.awaitEvents(7, TIMEOUT), "comandos não executados: " + sink.getEvents());
+					checkEquals("button 1 up", sink.getEvents().get(6), "liberação do cliente a");
+
+					dispatcher.release(b);
+					check(sink.awaitEvents(9, TIMEOUT), "liberação do cliente b não executada: " + sink.getEvents());
+					Thread.sleep(50);
+					checkEquals(Arrays.asList("key 16 up", "key 17 up"), sink.getEvents().subList(7, 9),
+							"liberação do cliente b");
+					checkEquals(9, sink.getEvents().size(), "comandos executados");
+				} finally {
+					dispatcher.interrupt();
+				}
+			}
+		});
+	}
+
+	private static InputCommand move(int x, int y) {
+		return InputCommand.decode(Protocol.INPUT_POINTER_MOVE,
+				new byte[] { (byte) (x >> 8), (byte) x, (byte) (y >> 8), (byte) y }, System.nanoTime());
+	}
+
+	/**
+	 * Listener que ignora os eventos de envio
+	 */
+	private abstract static class Listener implements ConnectionListener {
+		@Override
+		public void onSendSuccess(Connection connection, int length, long nanos) {
+		}
+
+		@Override
+		public void onSendError(Connection connection, IOException e) {
+		}
+
+		@Override
+		public void onClosed(Connection connection) {
+		}
+	}
+}
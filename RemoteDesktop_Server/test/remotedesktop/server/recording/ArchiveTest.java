@@ -0,0 +1,182 @@
+package remotedesktop.server.recording;
+
+import static remotedesktop.server.test.Tests.check;
+import static remotedesktop.server.test.Tests.checkEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import remotedesktop.client.recording.SessionArchive;
+import remotedesktop.server.test.Tests;
+
+/**
+ * Testes do formato das gravações: o que o ArchiveWriter do servidor grava deve ser lido
+ * pela SessionArchive do cliente, na ordem, a partir de qualquer quadro completo.
+ *
+ * Os quadros gravados são bytes que identificam o próprio quadro, já que o formato não
+ * depende do conteúdo. Os segmentos são pequenos, para que a gravação tenha vários.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public class ArchiveTest {
+	private static final int FRAMES = 60;
+	private static final int KEYFRAME_INTERVAL = 7;
+	private static final long START = 1700000000000000L;
+	private static final long STEP = 200000;
+
+	private static List<File> directories = new ArrayList<File>();
+
+	public static void main(String[] args) {
+		run();
+		Tests.finish();
+	}
+
+	public static void run() {
+		Tests.run("gravação: leitura sequencial atravessa os segmentos", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				File directory = record(createDirectory());
+				check(new File(directory, ArchiveFormat.getSegmentFile(2)).isFile(),
+						"a gravação deveria ter vários segmentos");
+
+				SessionArchive archive = new SessionArchive(directory);
+				checkEquals(START, archive.getStartTime(), "início");
+				checkEquals(timestamp(FRAMES - 1), archive.getEndTime(), "fim");
+				checkEquals((FRAMES + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL, archive.getKeyframeCount(),
+						"quadros completos");
+				checkEquals(FRAMES, readFrom(archive, START, 0), "quadros lidos");
+			}
+		});
+
+		Tests.run("gravação: leitura a partir de qualquer horário começa no quadro completo anterior",
+				new Tests.Case() {
+					@Override
+					public void run() throws Exception {
+						SessionArchive archive = new SessionArchive(record(createDirectory()));
+						checkEquals(FRAMES, readFrom(archive, START - STEP, 0), "antes do início");
+						for (int i = 0; i < FRAMES; i++) {
+							int keyframe = i / KEYFRAME_INTERVAL * KEYFRAME_INTERVAL;
+							checkEquals(FRAMES - keyframe, readFrom(archive, timestamp(i) + STEP / 2, keyframe),
+									"quadros lidos a partir do quadro " + i);
+						}
+					}
+				});
+
+		Tests.run("gravação: quadro gravado pela metade é ignorado", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				File directory = record(createDirectory());
+				File last = lastSegment(directory);
+				RandomAccessFile file = new RandomAccessFile(last, "rw");
+				try {
+					file.setLength(file.length() - 3);
+				} finally {
+					file.close();
+				}
+
+				SessionArchive archive = new SessionArchive(directory);
+				checkEquals(timestamp(FRAMES - 2), archive.getEndTime(), "fim");
+				checkEquals(FRAMES - 1, readFrom(archive, START, 0), "quadros lidos");
+			}
+		});
+
+		Tests.run("gravação: segmentos fora do índice não são lidos", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				File directory = record(createDirectory());
+				File last = lastSegment(directory);
+				int next = Integer.parseInt(last.getName().replaceAll("\\D", "")) + 1;
+				Files.copy(new File(directory, ArchiveFormat.getSegmentFile(0)).toPath(),
+						new File(directory, ArchiveFormat.getSegmentFile(next)).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+
+				SessionArchive archive = new SessionArchive(directory);
+				checkEquals(timestamp(FRAMES - 1), archive.getEndTime(), "fim");
+				checkEquals(FRAMES, readFrom(archive, START, 0), "quadros lidos");
+			}
+		});
+
+		Tests.run("gravação: pasta com arquivos não é usada", new Tests.Case() {
+			@Override
+			public void run() throws Exception {
+				File directory = record(createDirectory());
+				long length = new File(directory, ArchiveFormat.INDEX_FILE).length();
+				try {
+					new ArchiveWriter(directory, 512);
+					throw new AssertionError("a pasta deveria ter sido recusada");
+				} catch (IOException e) {
+				}
+				checkEquals(length, new File(directory, ArchiveFormat.INDEX_FILE).length(), "tamanho do índice");
+			}
+		});
+
+		for (File directory : directories) {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+		directories.clear();
+	}
+
+	/**
+	 * Grava os quadros na pasta. Cada quadro tem de 20 a 120 bytes, todos com o número
+	 * do quadro.
+	 */
+	private static File record(File directory) throws IOException {
+		ArchiveWriter writer = new ArchiveWriter(directory, 512);
+		try {
+			for (int i = 0; i < FRAMES; i++) {
+				byte[] data = new byte[20 + i * 37 % 101];
+				Arrays.fill(data, (byte) i);
+				writer.write(timestamp(i), data, data.length, i % KEYFRAME_INTERVAL == 0);
+			}
+		} finally {
+			writer.close();
+		}
+		return directory;
+	}
+
+	/**
+	 * Lê a gravação a partir do horário, conferindo cada quadro, e retorna quantos
+	 * quadros foram lidos
+	 */
+	private static int readFrom(SessionArchive archive, long timestamp, int first) throws IOException {
+		SessionArchive.Reader reader = archive.openReader(timestamp);
+		int i = first;
+		while (reader.next()) {
+			checkEquals(timestamp(i), reader.getTimestamp(), "horário do quadro " + i);
+			checkEquals(i % KEYFRAME_INTERVAL == 0 ? 1 : 0, reader.isKeyframe() ? 1 : 0, "tipo do quadro " + i);
+			checkEquals(20 + i * 37 % 101, reader.getLength(), "tamanho do quadro " + i);
+			for (int j = 0; j < reader.getLength(); j++) {
+				checkEquals(i, reader.getData()[j], "conteúdo do quadro " + i);
+			}
+			i++;
+		}
+		return i - first;
+	}
+
+	private static long timestamp(int frame) {
+		return START + frame * STEP;
+	}
+
+	private static File lastSegment(File directory) {
+		int segment = 0;
+		while (new File(directory, ArchiveFormat.getSegmentFile(segment + 1)).isFile()) {
+			segment++;
+		}
+		return new File(directory, ArchiveFormat.getSegmentFile(segment));
+	}
+
+	private static File createDirectory() throws IOException {
+		File directory = Files.createTempDirectory("remotedesktop-archive").toFile();
+		directories.add(directory);
+		return directory;
+	}
+}
@@ -0,0 +1,27 @@
+package remotedesktop.server.test;
+
+import remotedesktop.server.client.ClientTest;
+import remotedesktop.server.delta.DeltaCodecTest;
+import remotedesktop.server.delta.DeltaMergerTest;
+import remotedesktop.server.input.InputDispatcherTest;
+import remotedesktop.server.recording.ArchiveTest;
+
+/**
+ * Executa todos os testes. Os testes do formato dos quadros decodificam com as classes
+ * do cliente, então o projeto do cliente precisa estar no classpath.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class AllTests {
+	private AllTests() {
+	}
+
+	public static void main(String[] args) {
+		DeltaCodecTest.run();
+		DeltaMergerTest.run();
+		InputDispatcherTest.run();
+		ArchiveTest.run();
+		ClientTest.run();
+		Tests.finish();
+	}
+}
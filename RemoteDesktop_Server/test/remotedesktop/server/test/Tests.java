@@ -0,0 +1,93 @@
+package remotedesktop.server.test;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Mini harness dos testes.
+ *
+ * Cada classe de testes tem um main que executa os seus casos com run() e termina com
+ * finish(), que encerra a JVM com código de saída 1 caso algum caso tenha falhado.
+ * AllTests executa todas as classes de uma vez.
+ *
+ * @author Carlos Rodrigues (carlosrodriguesf96@gmail.com)
+ */
+public final class Tests {
+	public interface Case {
+		public void run() throws Exception;
+	}
+
+	private static int passed;
+	private static int failed;
+
+	private Tests() {
+	}
+
+	/**
+	 * Executa o caso e imprime uma linha com o resultado. Uma exceção qualquer conta
+	 * como falha, e o stack trace é impresso.
+	 *
+	 * @param name
+	 * @param test
+	 */
+	public static void run(String name, Case test) {
+		try {
+			test.run();
+			passed++;
+			System.out.println("ok    " + name);
+		} catch (Throwable e) {
+			failed++;
+			System.out.println("FALHA " + name);
+			e.printStackTrace(System.out);
+		}
+	}
+
+	/**
+	 * Imprime o total e encerra a JVM, com código 1 caso algum caso tenha falhado
+	 */
+	public static void finish() {
+		System.out.println(String.format("%d casos, %d falhas", passed + failed, failed));
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void checkEquals(long expected, long actual, String message) {
+		if (expected != actual) {
+			throw new AssertionError(message + ": esperado " + expected + ", obtido " + actual);
+		}
+	}
+
+	public static void checkEquals(Object expected, Object actual, String message) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(message + ": esperado " + expected + ", obtido " + actual);
+		}
+	}
+
+	/**
+	 * Confere se as duas imagens têm a mesma resolução e os mesmos pixels RGB,
+	 * informando o primeiro pixel diferente
+	 *
+	 * @param expected
+	 * @param actual
+	 * @param message
+	 */
+	public static void checkPixels(BufferedImage expected, BufferedImage actual, String message) {
+		check(actual != null, message + ": nenhuma imagem");
+		checkEquals(expected.getWidth(), actual.getWidth(), message + ": largura");
+		checkEquals(expected.getHeight(), actual.getHeight(), message + ": altura");
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int a = expected.getRGB(x, y) & 0xFFFFFF;
+				int b = actual.getRGB(x, y) & 0xFFFFFF;
+				if (a != b) {
+					throw new AssertionError(String.format("%s: pixel (%d, %d) esperado %06x, obtido %06x", message, x,
+							y, a, b));
+				}
+			}
+		}
+	}
+}